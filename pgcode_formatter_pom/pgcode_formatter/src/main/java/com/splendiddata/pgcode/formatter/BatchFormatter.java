@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Formats a batch of (plpg)sql files in a single JVM, using a pool of worker threads.
+ * <p>
+ * Sources can be specified as:
+ * </p>
+ * <ul>
+ * <li>a file name</li>
+ * <li>a directory, which will be searched recursively for files that end in ".sql"</li>
+ * <li>a glob pattern, like "migrations/**&#47;*.sql"</li>
+ * <li>"@file-list", where file-list is a text file that contains one of the above per line. Empty lines and lines
+ * starting with # are ignored</li>
+ * </ul>
+ * <p>
+ * Every file is formatted in place, or, if an output directory is specified, written to the same relative path under
+ * that output directory. The relative path of a file from a directory or glob pattern is relative to that directory or
+ * to the part of the pattern before the first wildcard. Other files are relative to the current directory, or just
+ * their file name if they are not located under the current directory. Two different files that would be written to
+ * the same path under the output directory make the batch fail before anything is formatted.
+ * </p>
+ * <p>
+ * All workers share the same {@link FormatConfiguration}, which is only read during formatting.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class BatchFormatter {
+    private static final Logger log = LogManager.getLogger(BatchFormatter.class);
+
+    /**
+     * Files in a directory source are only formatted if their name matches this pattern
+     */
+    private static final PathMatcher SQL_FILE_MATCHER = FileSystems.getDefault().getPathMatcher("glob:*.sql");
+
+    /**
+     * Characters that turn a source specification into a glob pattern
+     */
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final FormatConfiguration config;
+    private final Path outputDirectory;
+    private final int nrThreads;
+
+    /**
+     * The files to format, normalised absolute path - relative output path
+     */
+    private final Map<Path, Path> sources = new LinkedHashMap<>();
+
+    /**
+     * The normalised relative output paths - the file that is written there. Only used with an output directory.
+     */
+    private final Map<Path, Path> targets = new HashMap<>();
+
+    /**
+     * File lists that are already read, to prevent endless recursion
+     */
+    private final Set<Path> fileLists = new HashSet<>();
+
+    /**
+     * Constructor
+     *
+     * @param config
+     *            The configuration to format all files with. It will be shared by all worker threads
+     * @param outputDirectory
+     *            The directory under which the formatted files are to be written. If null, all files will be formatted
+     *            in place.
+     * @param nrThreads
+     *            The number of worker threads. If zero or less, the number of available processors will be used.
+     */
+    BatchFormatter(FormatConfiguration config, Path outputDirectory, int nrThreads) {
+        this.config = config;
+        this.outputDirectory = outputDirectory;
+        if (nrThreads <= 0) {
+            this.nrThreads = Runtime.getRuntime().availableProcessors();
+        } else {
+            this.nrThreads = nrThreads;
+        }
+    }
+
+    /**
+     * Adds the file(s) denoted by the sourceSpecification to the batch
+     *
+     * @param sourceSpecification
+     *            A file, a directory, a glob pattern or @file-list
+     * @return BatchFormatter this
+     * @throws IOException
+     *             If a file or directory cannot be read, if the sourceSpecification doesn't exist or if a file would be
+     *             written to the same path under the output directory as another file
+     */
+    BatchFormatter addSource(String sourceSpecification) throws IOException {
+        if (sourceSpecification.startsWith("@")) {
+            addFileList(Paths.get(sourceSpecification.substring(1)));
+        } else if (isGlobPattern(sourceSpecification)) {
+            addGlobPattern(sourceSpecification);
+        } else {
+            Path path = Paths.get(sourceSpecification);
+            if (Files.isDirectory(path)) {
+                addDirectory(path);
+            } else if (Files.isRegularFile(path)) {
+                Path absolutePath = path.toAbsolutePath().normalize();
+                Path currentDirectory = Paths.get("").toAbsolutePath();
+                if (absolutePath.startsWith(currentDirectory)) {
+                    addFile(absolutePath, currentDirectory.relativize(absolutePath));
+                } else {
+                    addFile(absolutePath, absolutePath.getFileName());
+                }
+            } else {
+                throw new NoSuchFileException(sourceSpecification);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the files that will be formatted
+     *
+     * @return Map&lt;Path, Path&gt; The files to format, normalised absolute path - relative output path
+     */
+    Map<Path, Path> getSources() {
+        return Collections.unmodifiableMap(sources);
+    }
+
+    /**
+     * Formats all added sources using the worker pool
+     *
+     * @return int The number of files that could not be formatted. The errors are logged.
+     */
+    int formatAll() {
+        log.info("Formatting " + sources.size() + " files using " + nrThreads + " threads");
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(nrThreads, runnable -> {
+            Thread thread = new Thread(runnable, "pgcode_formatter-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int nrFailures = 0;
+        try {
+            List<Future<?>> results = new ArrayList<>(sources.size());
+            for (Map.Entry<Path, Path> source : sources.entrySet()) {
+                results.add(workers.submit(() -> {
+                    formatFile(source.getKey(), source.getValue());
+                    return null;
+                }));
+            }
+            Iterator<Map.Entry<Path, Path>> sourceIterator = sources.entrySet().iterator();
+            for (Future<?> result : results) {
+                Path source = sourceIterator.next().getKey();
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    nrFailures++;
+                    log.error("Failed to format " + source, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("formatAll() interrupted", e);
+            Thread.currentThread().interrupt();
+            nrFailures = sources.size();
+        } finally {
+            workers.shutdownNow();
+        }
+        log.info("Formatted " + (sources.size() - nrFailures) + " of " + sources.size() + " files");
+        return nrFailures;
+    }
+
+    /**
+     * Formats a single file. The result is written to a temporary file first, which then replaces the target file. So
+     * an error will never leave a half formatted file behind. The temporary file gets the permissions, owner and ACL of
+     * the file that it replaces, or of the source if the target is new, see
+     * {@link #copyAttributes(Path, Path)}.
+     *
+     * @param source
+     *            The file to format
+     * @param relativePath
+     *            The path under the output directory to write to
+     * @throws IOException
+     *             from the file system
+     */
+    private void formatFile(Path source, Path relativePath) throws IOException {
+        Path target = source;
+        if (outputDirectory != null) {
+            target = outputDirectory.resolve(relativePath).toAbsolutePath();
+        }
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Files.newInputStream(source), StandardCharsets.UTF_8));
+                    BufferedWriter writer = new BufferedWriter(
+                            new OutputStreamWriter(Files.newOutputStream(tempFile), StandardCharsets.UTF_8))) {
+                CodeFormatter.format(reader, config, writer);
+            }
+            copyAttributes(Files.exists(target) ? target : source, tempFile);
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                log.debug("atomic move not supported for " + tempFile + ": " + e);
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        log.debug(() -> "formatted " + source + " into " + relativePath);
+    }
+
+    /**
+     * Copies the POSIX permissions, the owner, the group and the ACL of a file to another file, as far as the file
+     * system supports them. Files.createTempFile() creates a file that only the owner can read, which must not end up
+     * in place of a shared file. Changing the owner or the group is only permitted to privileged users, so failures to
+     * do so are just logged.
+     *
+     * @param from
+     *            The file of which the attributes are copied
+     * @param to
+     *            The file that receives the attributes
+     * @throws IOException
+     *             from the file system
+     */
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView posixView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (posixView != null) {
+            PosixFileAttributes attributes = Files.readAttributes(from, PosixFileAttributes.class);
+            posixView.setPermissions(attributes.permissions());
+            if (!attributes.owner().equals(Files.getOwner(to))) {
+                try {
+                    posixView.setOwner(attributes.owner());
+                } catch (IOException e) {
+                    log.debug(() -> "cannot set the owner of " + to + " to " + attributes.owner() + ": " + e);
+                }
+            }
+            try {
+                posixView.setGroup(attributes.group());
+            } catch (IOException e) {
+                log.debug(() -> "cannot set the group of " + to + " to " + attributes.group() + ": " + e);
+            }
+        }
+        AclFileAttributeView aclView = Files.getFileAttributeView(to, AclFileAttributeView.class);
+        AclFileAttributeView fromAclView = Files.getFileAttributeView(from, AclFileAttributeView.class);
+        if (aclView != null && fromAclView != null) {
+            aclView.setAcl(fromAclView.getAcl());
+        }
+    }
+
+    /**
+     * Adds every source that is mentioned in the file list
+     *
+     * @param fileList
+     *            A text file with a source specification per line
+     * @throws IOException
+     *             from the file system
+     */
+    private void addFileList(Path fileList) throws IOException {
+        if (!fileLists.add(fileList.toAbsolutePath().normalize())) {
+            log.warn("File list " + fileList + " is referenced more than once - ignored");
+            return;
+        }
+        List<String> lines = Files.readAllLines(fileList, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String sourceSpecification = line.trim();
+            if (!sourceSpecification.isEmpty() && !sourceSpecification.startsWith("#")) {
+                addSource(sourceSpecification);
+            }
+        }
+    }
+
+    /**
+     * Adds all files under the directory of which the name ends in ".sql"
+     *
+     * @param directory
+     *            The directory to search
+     * @throws IOException
+     *             from the file system
+     */
+    private void addDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(f -> Files.isRegularFile(f) && SQL_FILE_MATCHER.matches(f.getFileName()))
+                    .sorted().collect(Collectors.toList())) {
+                addFile(file.toAbsolutePath().normalize(), directory.relativize(file));
+            }
+        }
+    }
+
+    /**
+     * Adds all files that match the glob pattern. The directory part before the first wildcard is walked recursively.
+     *
+     * @param globPattern
+     *            The pattern, like "migrations/**&#47;*.sql"
+     * @throws IOException
+     *             from the file system
+     */
+    private void addGlobPattern(String globPattern) throws IOException {
+        int firstWildcard = 0;
+        while (GLOB_CHARACTERS.indexOf(globPattern.charAt(firstWildcard)) < 0) {
+            firstWildcard++;
+        }
+        int endOfBase = Math.max(globPattern.lastIndexOf('/', firstWildcard),
+                globPattern.lastIndexOf(java.io.File.separatorChar, firstWildcard));
+        Path baseDirectory;
+        if (endOfBase < 0) {
+            baseDirectory = Paths.get("");
+        } else if (endOfBase == 0) {
+            baseDirectory = Paths.get(globPattern.substring(0, 1));
+        } else {
+            baseDirectory = Paths.get(globPattern.substring(0, endOfBase));
+        }
+        if (!Files.isDirectory(baseDirectory)) {
+            throw new NoSuchFileException(baseDirectory.toString());
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + globPattern);
+        int nrFilesBefore = sources.size();
+        try (Stream<Path> files = Files.walk(baseDirectory)) {
+            for (Path file : files.filter(f -> Files.isRegularFile(f) && matcher.matches(f)).sorted()
+                    .collect(Collectors.toList())) {
+                addFile(file.toAbsolutePath().normalize(), baseDirectory.relativize(file));
+            }
+        }
+        if (sources.size() == nrFilesBefore) {
+            log.warn("No files found that match " + globPattern);
+        }
+    }
+
+    /**
+     * Adds a single file. If the file was already added, the first registration wins.
+     *
+     * @param file
+     *            The normalised absolute path of the file
+     * @param relativePath
+     *            The path under the output directory
+     * @throws FileSystemException
+     *             If another file is already to be written to the same relativePath under the output directory
+     */
+    private void addFile(Path file, Path relativePath) throws FileSystemException {
+        if (sources.containsKey(file)) {
+            return;
+        }
+        if (outputDirectory != null) {
+            Path otherFile = targets.putIfAbsent(relativePath.normalize(), file);
+            if (otherFile != null) {
+                throw new FileSystemException(file.toString(), otherFile.toString(),
+                        "both files would be written to " + outputDirectory.resolve(relativePath));
+            }
+        }
+        sources.put(file, relativePath);
+    }
+
+    /**
+     * Checks if the sourceSpecification contains wildcard characters
+     *
+     * @param sourceSpecification
+     *            The source specification to check
+     * @return boolean true if the sourceSpecification contains any of the glob wildcard characters
+     */
+    private static boolean isGlobPattern(String sourceSpecification) {
+        for (int i = 0; i < sourceSpecification.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(sourceSpecification.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
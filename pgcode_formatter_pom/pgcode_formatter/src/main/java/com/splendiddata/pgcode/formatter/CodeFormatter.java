@@ -16,11 +16,15 @@ package com.splendiddata.pgcode.formatter;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Iterator;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.splendiddata.pgcode.formatter.internal.MappedInput;
+import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.internal.StatementBoundaryScanner;
 import com.splendiddata.pgcode.formatter.internal.Util;
 
 /**
@@ -62,4 +66,80 @@ public class CodeFormatter {
         return Util.toRenderResults(inFile, config)
                 .map(renderResult -> Util.performTabReplacement(config, renderResult.beautify()));
     }
+
+    /**
+     * Formats the inFile into the target, statement by statement.
+     * <p>
+     * The output is the same as the concatenation of {@link #toStringResults(Reader, FormatConfiguration)}, but every
+     * statement is written to the target as soon as it is laid out, without copying it into a String first unless
+     * tabs are to replace spaces. So the memory that is used does not depend on the size of the input, but only on
+     * the size of the largest statement. A {@link java.io.Writer} or a {@link StringBuilder} is written to without any
+     * copying.
+     *
+     * @param inFile
+     *            The Reader that will provide the input
+     * @param config
+     *            The FormatConfiguration that tells how to format
+     * @param target
+     *            Receives the output
+     * @throws IOException
+     *             when the inFile Reader or the target feel a need to do so
+     * @since 0.3.2
+     */
+    public static void format(Reader inFile, FormatConfiguration config, Appendable target) throws IOException {
+        try (Stream<RenderResult> results = Util.toRenderResults(inFile, config)) {
+            for (Iterator<RenderResult> it = results.iterator(); it.hasNext();) {
+                Util.appendWithTabReplacement(config, it.next(), target);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #toStringResults(Reader, FormatConfiguration)}, but the statements are formatted in parallel by
+     * nrThreads worker threads, while the results are still delivered in source order.
+     * <p>
+     * The stream should be closed if it is not consumed completely, to stop the worker threads.
+     *
+     * @param inFile
+     *            The Reader that will provide the input
+     * @param config
+     *            The FormatConfiguration that tells how to format
+     * @param nrThreads
+     *            The number of worker threads. If 1 or less, all formatting is done in the consuming thread
+     * @return Stream&lt;String&gt; The output, statement by statement, and with newlines and comment between statements
+     *         as separate Strings
+     * @throws IOException
+     *             when the inFile Reader feels a need to do so
+     * @since 0.3.2
+     */
+    public static Stream<String> toStringResults(Reader inFile, FormatConfiguration config, int nrThreads)
+            throws IOException {
+        return Util.toRenderResults(inFile, config, nrThreads,
+                renderResult -> Util.performTabReplacement(config, renderResult.beautify()));
+    }
+
+    /**
+     * Like {@link #toStringResults(Reader, FormatConfiguration, int)}, but the input is cut into parts at statement
+     * boundaries first (see {@link StatementBoundaryScanner}), so that the worker threads scan the parts as well as
+     * render them.
+     * <p>
+     * The stream should be closed if it is not consumed completely, to stop the worker threads.
+     *
+     * @param input
+     *            The UTF-8 encoded input
+     * @param config
+     *            The FormatConfiguration that tells how to format
+     * @param nrThreads
+     *            The number of worker threads. If 1 or less, all formatting is done in the consuming thread
+     * @return Stream&lt;String&gt; The output, statement by statement, and with newlines and comment between statements
+     *         as separate Strings
+     * @throws IOException
+     *             Not expected from a MappedInput
+     * @since 0.3.2
+     */
+    public static Stream<String> toStringResults(MappedInput input, FormatConfiguration config, int nrThreads)
+            throws IOException {
+        return Util.toRenderResults(input, config, nrThreads,
+                renderResult -> Util.performTabReplacement(config, renderResult.beautify()));
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.EmptyLineOption;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.LetterCaseType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.TabsOrSpacesType;
+
+/**
+ * Immutable form of a completed {@link FormatConfiguration}, with the settings that are used while rendering resolved
+ * to primitives and enum constants.
+ * <p>
+ * A CompiledConfiguration is obtained via {@link FormatConfiguration#getCompiled()}. As it cannot be modified, it can
+ * be shared between threads without copying.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class CompiledConfiguration {
+    private final int lineWidth;
+    private final float lineWidthWeight;
+    private final int standardIndent;
+    private final int tabWidth;
+    private final TabsOrSpacesType tabsOrSpaces;
+    private final TabsOrSpacesType indentTabsOrSpaces;
+    private final boolean indentInnerFunction;
+    private final LetterCaseType letterCaseKeywords;
+    private final LetterCaseType letterCaseFunctions;
+    private final EmptyLineOption emptyLine;
+    private final int maxSingleLineQuery;
+    private final boolean majorKeywordsOnSeparateLine;
+    private final boolean queryIndent;
+    private final CompiledListGrouping commaSeparatedListGrouping;
+    private final CompiledListGrouping functionCallArgumentGrouping;
+    private final CompiledListGrouping targetListGrouping;
+    private final CompiledListGrouping functionDefinitionArgumentGrouping;
+    private final CompiledListGrouping tableDefinitionArgumentGrouping;
+    private final CompiledListGrouping fromItemGrouping;
+
+    /**
+     * Constructor
+     *
+     * @param config
+     *            The completed configuration
+     * @param standardIndent
+     *            The standard indent of the configuration
+     */
+    CompiledConfiguration(Configuration config, int standardIndent) {
+        lineWidth = config.getLineWidth().getValue();
+        lineWidthWeight = config.getLineWidth().getWeight().floatValue();
+        this.standardIndent = standardIndent;
+        tabWidth = config.getTabs().getTabWidth().intValue();
+        tabsOrSpaces = config.getTabs().getTabsOrSpaces();
+        indentTabsOrSpaces = config.getIndent().getTabsOrSpaces();
+        indentInnerFunction = config.getIndent().isIndentInnerFunction().booleanValue();
+        letterCaseKeywords = config.getLetterCaseKeywords();
+        letterCaseFunctions = config.getLetterCaseFunctions();
+        emptyLine = config.getEmptyLine();
+        maxSingleLineQuery = config.getQueryConfig().getMaxSingleLineQuery().getValue();
+        majorKeywordsOnSeparateLine = config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue();
+        queryIndent = config.getQueryConfig().isIndent().booleanValue();
+        commaSeparatedListGrouping = new CompiledListGrouping(config.getCommaSeparatedListGrouping());
+        functionCallArgumentGrouping = new CompiledListGrouping(config.getFunctionCallArgumentGrouping());
+        targetListGrouping = new CompiledListGrouping(config.getTargetListGrouping());
+        functionDefinitionArgumentGrouping = new CompiledListGrouping(
+                config.getFunctionDefinitionArgumentGrouping().getArgumentGrouping());
+        tableDefinitionArgumentGrouping = new CompiledListGrouping(
+                config.getTableDefinition().getArgumentGrouping());
+        fromItemGrouping = new CompiledListGrouping(commaSeparatedListGrouping, config.getFromItemGrouping());
+    }
+
+    /**
+     * Copy constructor with another commaSeparatedListGrouping
+     *
+     * @param original
+     *            The CompiledConfiguration to copy
+     * @param commaSeparatedListGrouping
+     *            Replaces the commaSeparatedListGrouping of the original
+     */
+    private CompiledConfiguration(CompiledConfiguration original, CompiledListGrouping commaSeparatedListGrouping) {
+        lineWidth = original.lineWidth;
+        lineWidthWeight = original.lineWidthWeight;
+        standardIndent = original.standardIndent;
+        tabWidth = original.tabWidth;
+        tabsOrSpaces = original.tabsOrSpaces;
+        indentTabsOrSpaces = original.indentTabsOrSpaces;
+        indentInnerFunction = original.indentInnerFunction;
+        letterCaseKeywords = original.letterCaseKeywords;
+        letterCaseFunctions = original.letterCaseFunctions;
+        emptyLine = original.emptyLine;
+        maxSingleLineQuery = original.maxSingleLineQuery;
+        majorKeywordsOnSeparateLine = original.majorKeywordsOnSeparateLine;
+        queryIndent = original.queryIndent;
+        this.commaSeparatedListGrouping = commaSeparatedListGrouping;
+        functionCallArgumentGrouping = original.functionCallArgumentGrouping;
+        targetListGrouping = original.targetListGrouping;
+        functionDefinitionArgumentGrouping = original.functionDefinitionArgumentGrouping;
+        tableDefinitionArgumentGrouping = original.tableDefinitionArgumentGrouping;
+        fromItemGrouping = original.fromItemGrouping;
+    }
+
+    /**
+     * Returns a CompiledConfiguration that equals this one, except for the commaSeparatedListGrouping
+     *
+     * @param grouping
+     *            The commaSeparatedListGrouping for the result
+     * @return CompiledConfiguration this if the grouping is already in use, otherwise a new CompiledConfiguration
+     */
+    CompiledConfiguration withCommaSeparatedListGrouping(CompiledListGrouping grouping) {
+        if (commaSeparatedListGrouping.equals(grouping)) {
+            return this;
+        }
+        return new CompiledConfiguration(this, grouping);
+    }
+
+    /**
+     * @return int the maximum line width
+     */
+    public int getLineWidth() {
+        return lineWidth;
+    }
+
+    /**
+     * @return float the weight of the lineWidth
+     */
+    public float getLineWidthWeight() {
+        return lineWidthWeight;
+    }
+
+    /**
+     * @return int The standard indent width in nr of spaces
+     */
+    public int getStandardIndent() {
+        return standardIndent;
+    }
+
+    /**
+     * @return int the tab width
+     */
+    public int getTabWidth() {
+        return tabWidth;
+    }
+
+    /**
+     * @return TabsOrSpacesType whether groups of spaces are to be replaced by tabs
+     */
+    public TabsOrSpacesType getTabsOrSpaces() {
+        return tabsOrSpaces;
+    }
+
+    /**
+     * @return TabsOrSpacesType whether the indent is to be done with tabs or spaces
+     */
+    public TabsOrSpacesType getIndentTabsOrSpaces() {
+        return indentTabsOrSpaces;
+    }
+
+    /**
+     * @return boolean the indentInnerFunction setting
+     */
+    public boolean isIndentInnerFunction() {
+        return indentInnerFunction;
+    }
+
+    /**
+     * @return LetterCaseType the letter case for keywords
+     */
+    public LetterCaseType getLetterCaseKeywords() {
+        return letterCaseKeywords;
+    }
+
+    /**
+     * @return LetterCaseType the letter case for built-in functions
+     */
+    public LetterCaseType getLetterCaseFunctions() {
+        return letterCaseFunctions;
+    }
+
+    /**
+     * @return EmptyLineOption What to do with empty lines
+     */
+    public EmptyLineOption getEmptyLine() {
+        return emptyLine;
+    }
+
+    /**
+     * @return int the maximum length of a query that is to be rendered on a single line
+     */
+    public int getMaxSingleLineQuery() {
+        return maxSingleLineQuery;
+    }
+
+    /**
+     * @return boolean true if major keywords in a query are to be placed on a line of their own
+     */
+    public boolean isMajorKeywordsOnSeparateLine() {
+        return majorKeywordsOnSeparateLine;
+    }
+
+    /**
+     * @return boolean true if the clauses of a query are to be indented
+     */
+    public boolean isQueryIndent() {
+        return queryIndent;
+    }
+
+    /**
+     * @return CompiledListGrouping the commaSeparatedListGrouping
+     */
+    public CompiledListGrouping getCommaSeparatedListGrouping() {
+        return commaSeparatedListGrouping;
+    }
+
+    /**
+     * @return CompiledListGrouping the functionCallArgumentGrouping
+     */
+    public CompiledListGrouping getFunctionCallArgumentGrouping() {
+        return functionCallArgumentGrouping;
+    }
+
+    /**
+     * @return CompiledListGrouping the targetListGrouping
+     */
+    public CompiledListGrouping getTargetListGrouping() {
+        return targetListGrouping;
+    }
+
+    /**
+     * @return CompiledListGrouping the argumentGrouping of the functionDefinitionArgumentGrouping
+     */
+    public CompiledListGrouping getFunctionDefinitionArgumentGrouping() {
+        return functionDefinitionArgumentGrouping;
+    }
+
+    /**
+     * @return CompiledListGrouping the argumentGrouping of the tableDefinition
+     */
+    public CompiledListGrouping getTableDefinitionArgumentGrouping() {
+        return tableDefinitionArgumentGrouping;
+    }
+
+    /**
+     * @return CompiledListGrouping the commaSeparatedListGrouping for the from clause, with the maxSingleLineLength and
+     *         the positions of the parentheses from the fromItemGrouping
+     */
+    public CompiledListGrouping getFromItemGrouping() {
+        return fromItemGrouping;
+    }
+}
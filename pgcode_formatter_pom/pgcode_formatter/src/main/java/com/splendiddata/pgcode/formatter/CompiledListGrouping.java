@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.BeforeOrAfterType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListGroupingType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListIndentOption;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.FromItemGroupingType;
+
+/**
+ * Immutable form of a completed {@link CommaSeparatedListGroupingType}, with all values resolved to primitives and enum
+ * constants.
+ * <p>
+ * Instances are part of a {@link CompiledConfiguration} and are shared between all FormatContexts and threads that use
+ * that configuration.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class CompiledListGrouping {
+    private final int maxSingleLineLength;
+    private final float maxSingleLineLengthWeight;
+    private final int maxArgumentsPerGroup;
+    private final float maxArgumentsPerGroupWeight;
+    private final int maxLengthOfGroup;
+    private final float maxLengthOfGroupWeight;
+    private final CommaSeparatedListIndentOption indent;
+    private final float indentWeight;
+    private final BeforeOrAfterType commaBeforeOrAfter;
+    private final boolean multilineOpeningParenBeforeArgument;
+    private final boolean multilineClosingParenOnNewLine;
+
+    /**
+     * Constructor
+     *
+     * @param grouping
+     *            A completed CommaSeparatedListGroupingType
+     */
+    public CompiledListGrouping(CommaSeparatedListGroupingType grouping) {
+        maxSingleLineLength = grouping.getMaxSingleLineLength().getValue();
+        maxSingleLineLengthWeight = grouping.getMaxSingleLineLength().getWeight().floatValue();
+        maxArgumentsPerGroup = grouping.getMaxArgumentsPerGroup().getValue();
+        maxArgumentsPerGroupWeight = grouping.getMaxArgumentsPerGroup().getWeight().floatValue();
+        maxLengthOfGroup = grouping.getMaxLengthOfGroup().getValue();
+        maxLengthOfGroupWeight = grouping.getMaxLengthOfGroup().getWeight().floatValue();
+        indent = grouping.getIndent().getValue();
+        indentWeight = grouping.getIndent().getWeight().floatValue();
+        commaBeforeOrAfter = grouping.getCommaBeforeOrAfter();
+        multilineOpeningParenBeforeArgument = grouping.isMultilineOpeningParenBeforeArgument().booleanValue();
+        multilineClosingParenOnNewLine = grouping.isMultilineClosingParenOnNewLine().booleanValue();
+    }
+
+    /**
+     * Constructor for the comma separated list in a from clause: the grouping with the maxSingleLineLength and the
+     * positions of the parentheses from the fromItemGrouping
+     *
+     * @param grouping
+     *            The CompiledListGrouping of the configuration
+     * @param fromItemGrouping
+     *            A completed FromItemGroupingType
+     */
+    CompiledListGrouping(CompiledListGrouping grouping, FromItemGroupingType fromItemGrouping) {
+        maxSingleLineLength = fromItemGrouping.getMaxSingleLineLength().getValue();
+        maxSingleLineLengthWeight = fromItemGrouping.getMaxSingleLineLength().getWeight().floatValue();
+        maxArgumentsPerGroup = grouping.maxArgumentsPerGroup;
+        maxArgumentsPerGroupWeight = grouping.maxArgumentsPerGroupWeight;
+        maxLengthOfGroup = grouping.maxLengthOfGroup;
+        maxLengthOfGroupWeight = grouping.maxLengthOfGroupWeight;
+        indent = grouping.indent;
+        indentWeight = grouping.indentWeight;
+        commaBeforeOrAfter = grouping.commaBeforeOrAfter;
+        multilineOpeningParenBeforeArgument = fromItemGrouping.isMultilineOpeningParenBeforeArgument().booleanValue();
+        multilineClosingParenOnNewLine = fromItemGrouping.isMultilineClosingParenOnNewLine().booleanValue();
+    }
+
+    /**
+     * @return int the maximum length of a list that is to be rendered on a single line
+     */
+    public int getMaxSingleLineLength() {
+        return maxSingleLineLength;
+    }
+
+    /**
+     * @return float the weight of the maxSingleLineLength
+     */
+    public float getMaxSingleLineLengthWeight() {
+        return maxSingleLineLengthWeight;
+    }
+
+    /**
+     * @return int the maximum number of arguments on one line
+     */
+    public int getMaxArgumentsPerGroup() {
+        return maxArgumentsPerGroup;
+    }
+
+    /**
+     * @return float the weight of the maxArgumentsPerGroup
+     */
+    public float getMaxArgumentsPerGroupWeight() {
+        return maxArgumentsPerGroupWeight;
+    }
+
+    /**
+     * @return int the maximum length of the arguments on one line
+     */
+    public int getMaxLengthOfGroup() {
+        return maxLengthOfGroup;
+    }
+
+    /**
+     * @return float the weight of the maxLengthOfGroup
+     */
+    public float getMaxLengthOfGroupWeight() {
+        return maxLengthOfGroupWeight;
+    }
+
+    /**
+     * @return CommaSeparatedListIndentOption where the second and following lines start
+     */
+    public CommaSeparatedListIndentOption getIndent() {
+        return indent;
+    }
+
+    /**
+     * @return float the weight of the indent
+     */
+    public float getIndentWeight() {
+        return indentWeight;
+    }
+
+    /**
+     * @return BeforeOrAfterType the position of the comma in a multi line list
+     */
+    public BeforeOrAfterType getCommaBeforeOrAfter() {
+        return commaBeforeOrAfter;
+    }
+
+    /**
+     * @return boolean true if the opening parenthesis of a multi line list is to be placed on a line of its own
+     */
+    public boolean isMultilineOpeningParenBeforeArgument() {
+        return multilineOpeningParenBeforeArgument;
+    }
+
+    /**
+     * @return boolean true if the closing parenthesis of a multi line list is to be placed on a new line
+     */
+    public boolean isMultilineClosingParenOnNewLine() {
+        return multilineClosingParenOnNewLine;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        int result = maxSingleLineLength;
+        result = 31 * result + maxArgumentsPerGroup;
+        result = 31 * result + maxLengthOfGroup;
+        result = 31 * result + indent.hashCode();
+        result = 31 * result + Float.floatToIntBits(indentWeight);
+        result = 31 * result + (multilineOpeningParenBeforeArgument ? 1 : 0);
+        return 31 * result + (multilineClosingParenOnNewLine ? 1 : 0);
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object otherObject) {
+        if (otherObject == this) {
+            return true;
+        }
+        if (!(otherObject instanceof CompiledListGrouping)) {
+            return false;
+        }
+        CompiledListGrouping other = (CompiledListGrouping) otherObject;
+        return maxSingleLineLength == other.maxSingleLineLength
+                && Float.compare(maxSingleLineLengthWeight, other.maxSingleLineLengthWeight) == 0
+                && maxArgumentsPerGroup == other.maxArgumentsPerGroup
+                && Float.compare(maxArgumentsPerGroupWeight, other.maxArgumentsPerGroupWeight) == 0
+                && maxLengthOfGroup == other.maxLengthOfGroup
+                && Float.compare(maxLengthOfGroupWeight, other.maxLengthOfGroupWeight) == 0
+                && indent == other.indent && Float.compare(indentWeight, other.indentWeight) == 0
+                && commaBeforeOrAfter == other.commaBeforeOrAfter
+                && multilineOpeningParenBeforeArgument == other.multilineOpeningParenBeforeArgument
+                && multilineClosingParenOnNewLine == other.multilineClosingParenOnNewLine;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new StringBuilder().append("CompiledListGrouping[maxSingleLineLength=").append(maxSingleLineLength)
+                .append('/').append(maxSingleLineLengthWeight).append(", maxArgumentsPerGroup=")
+                .append(maxArgumentsPerGroup).append('/').append(maxArgumentsPerGroupWeight)
+                .append(", maxLengthOfGroup=").append(maxLengthOfGroup).append('/').append(maxLengthOfGroupWeight)
+                .append(", indent=").append(indent).append('/').append(indentWeight).append(", commaBeforeOrAfter=")
+                .append(commaBeforeOrAfter).append(", multilineOpeningParenBeforeArgument=")
+                .append(multilineOpeningParenBeforeArgument).append(", multilineClosingParenOnNewLine=")
+                .append(multilineClosingParenOnNewLine).append(']').toString();
+    }
+}
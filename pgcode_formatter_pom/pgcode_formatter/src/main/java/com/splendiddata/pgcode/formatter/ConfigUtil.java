@@ -43,7 +43,7 @@ import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.QueryConfigType;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.RelativePositionType;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.TableDefinitionType;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.TabsType;
-import com.splendiddata.pgcode.formatter.internal.Dicts;
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
 
 /**
  * Utility class for the code formatter.
@@ -61,7 +61,7 @@ public class ConfigUtil {
      * @return true if the provided token is a postgres major keyword.
      */
     public static boolean isMajorKeywords(String token) {
-        return Dicts.pgMajorKeywords.contains(token.toUpperCase());
+        return KeywordTable.isMajorKeyword(KeywordTable.idOf(token));
     }
 
     /**
@@ -72,7 +72,7 @@ public class ConfigUtil {
      * @return true if the provided token is not a postgres function.
      */
     public static boolean isKeywordNotFunctionCall(String token) {
-        return Dicts.pgKeywordNotFunctionCall.contains(token.toUpperCase());
+        return KeywordTable.isKeywordNotFunctionCall(KeywordTable.idOf(token));
     }
 
     /**
@@ -108,6 +108,39 @@ public class ConfigUtil {
         return copy;
     }
 
+    /**
+     * shallow copy {@link Configuration }: the copy refers to the same settings objects as the original
+     * 
+     * @param original
+     *            the Configuration to copy. May be null.
+     * @return Configuration the shallow copied original or null if the original is null
+     * 
+     */
+    public static Configuration shallowCopy(Configuration original) {
+        if (original == null) {
+            return null;
+        }
+        Configuration copy = OBJECT_FACTORY.createConfiguration();
+        copy.setCaseOperand(original.getCaseOperand());
+        copy.setCaseWhen(original.getCaseWhen());
+        copy.setCommaSeparatedListGrouping(original.getCommaSeparatedListGrouping());
+        copy.setEmptyLine(original.getEmptyLine());
+        copy.setFromItemGrouping(original.getFromItemGrouping());
+        copy.setFunctionCallArgumentGrouping(original.getFunctionCallArgumentGrouping());
+        copy.setLogicalOperatorsIndent(original.getLogicalOperatorsIndent());
+        copy.setFunctionDefinitionArgumentGrouping(original.getFunctionDefinitionArgumentGrouping());
+        copy.setIndent(original.getIndent());
+        copy.setLanguagePlpgsql(original.getLanguagePlpgsql());
+        copy.setLetterCaseFunctions(original.getLetterCaseFunctions());
+        copy.setLetterCaseKeywords(original.getLetterCaseKeywords());
+        copy.setLineWidth(original.getLineWidth());
+        copy.setQueryConfig(original.getQueryConfig());
+        copy.setTableDefinition(original.getTableDefinition());
+        copy.setTabs(original.getTabs());
+        copy.setTargetListGrouping(original.getTargetListGrouping());
+        return copy;
+    }
+
     /**
      * deep copy {@link IntegerValueOption }
      * 
@@ -159,6 +192,7 @@ public class ConfigUtil {
         IndentType copy = OBJECT_FACTORY.createIndentType();
         copy.setIndentWidth(original.getIndentWidth());
         copy.setTabsOrSpaces(original.getTabsOrSpaces());
+        copy.setIndentInnerFunction(original.isIndentInnerFunction());
         return copy;
     }
 
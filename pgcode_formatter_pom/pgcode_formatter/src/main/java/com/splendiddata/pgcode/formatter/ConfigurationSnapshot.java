@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * A compact binary form of a completed {@link FormatConfiguration}, that can be read without JAXB and without
+ * validating against the xsd.
+ * <p>
+ * The snapshots of the default configuration and of the built-in profiles are created during the maven build by
+ * {@link com.splendiddata.pgcode.formatter.helper.ConfigSnapshotCreator}. A configuration that is stored in the user
+ * preferences is accompanied by a snapshot as well.
+ * </p>
+ * <p>
+ * A snapshot starts with a schema stamp: a checksum over the names and types of all fields of the configuration
+ * classes that are generated from the xsd, and over the names of the enum constants. A snapshot with another stamp is
+ * refused, so after a change in the schema the xml will be used again until a new snapshot is written.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class ConfigurationSnapshot {
+    private static final Logger log = LogManager.getLogger(ConfigurationSnapshot.class);
+
+    /**
+     * Path to the snapshot of the default config inside the jar
+     */
+    public static final String DEFAULT_SNAPSHOT_PATH = "/com/splendiddata/pgcode/formatter/DefaultConfig.snapshot";
+
+    /**
+     * The directory of the profiles inside the jar
+     */
+    public static final String PROFILES_DIRECTORY = "profiles";
+
+    /**
+     * The extension of a snapshot file
+     */
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    /**
+     * "PGCS"
+     */
+    private static final int MAGIC = 0x50474353;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The fields of the configuration classes in a fixed order
+     */
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            if (type.getSuperclass() != Object.class) {
+                fields.addAll(Arrays.asList(get(type.getSuperclass())));
+            }
+            Field[] declaredFields = type.getDeclaredFields();
+            Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+            for (Field field : declaredFields) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+
+    /**
+     * Holds the schema stamp, which is computed when it is needed for the first time
+     */
+    private static final class SchemaStamp {
+        static final int VALUE = computeSchemaStamp();
+    }
+
+    /**
+     * No instances
+     *
+     * @throws UnsupportedOperationException
+     *             in all cases
+     */
+    private ConfigurationSnapshot() {
+        throw new UnsupportedOperationException("No instances for " + ConfigurationSnapshot.class.getName());
+    }
+
+    /**
+     * Creates a snapshot of the configuration
+     *
+     * @param config
+     *            The completed configuration
+     * @return byte[] the snapshot
+     */
+    public static byte[] toBytes(FormatConfiguration config) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(SchemaStamp.VALUE);
+            out.writeInt(config.getStandardIndent());
+            writeObject(out, config.getEffectiveConfiguration());
+        } catch (IOException e) {
+            // Not expected on a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a configuration from a snapshot
+     *
+     * @param snapshot
+     *            A snapshot that is created by {@link #toBytes(FormatConfiguration)}
+     * @return FormatConfiguration the configuration
+     * @throws IOException
+     *             If the snapshot is damaged or has been created for another version of the schema
+     */
+    public static FormatConfiguration fromBytes(byte[] snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a configuration snapshot");
+            }
+            int formatVersion = in.readUnsignedByte();
+            int schemaStamp = in.readInt();
+            if (formatVersion != FORMAT_VERSION || schemaStamp != SchemaStamp.VALUE) {
+                throw new IOException("Configuration snapshot of version " + formatVersion + " with schema stamp "
+                        + Integer.toHexString(schemaStamp) + " does not match version " + FORMAT_VERSION
+                        + " with schema stamp " + Integer.toHexString(SchemaStamp.VALUE));
+            }
+            int standardIndent = in.readInt();
+            Configuration effectiveConfiguration = readObject(in, Configuration.class);
+            if (in.read() >= 0) {
+                throw new IOException("Configuration snapshot is too long");
+            }
+            return new FormatConfiguration(effectiveConfiguration, standardIndent);
+        }
+    }
+
+    /**
+     * Restores the configuration from a snapshot in the jar
+     *
+     * @param resourceName
+     *            The name of the resource, see {@link Class#getResourceAsStream(String)}
+     * @return FormatConfiguration the configuration or null if there is no (usable) snapshot
+     */
+    public static FormatConfiguration fromResource(String resourceName) {
+        try (InputStream in = ConfigurationSnapshot.class.getResourceAsStream(resourceName)) {
+            if (in == null) {
+                log.debug(() -> "fromResource(" + resourceName + "): not found");
+                return null;
+            }
+            return fromBytes(in.readAllBytes());
+        } catch (IOException e) {
+            log.warn("Cannot use configuration snapshot " + resourceName + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Restores the configuration of a built-in profile from its snapshot in the jar
+     *
+     * @param profileName
+     *            The name of the profile, for example "elegant"
+     * @return FormatConfiguration the configuration or null if there is no (usable) snapshot
+     */
+    public static FormatConfiguration fromProfile(String profileName) {
+        return fromResource("/" + PROFILES_DIRECTORY + "/" + profileName + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Writes the fields of obj
+     *
+     * @param out
+     *            Receives the fields
+     * @param obj
+     *            A configuration object
+     * @throws IOException
+     *             from out
+     */
+    private static void writeObject(DataOutputStream out, Object obj) throws IOException {
+        try {
+            for (Field field : FIELDS.get(obj.getClass())) {
+                Class<?> type = field.getType();
+                if (type == int.class) {
+                    out.writeInt(field.getInt(obj));
+                    continue;
+                }
+                if (type == boolean.class) {
+                    out.writeBoolean(field.getBoolean(obj));
+                    continue;
+                }
+                Object value = field.get(obj);
+                out.writeBoolean(value != null);
+                if (value == null) {
+                    continue;
+                }
+                if (type == Integer.class) {
+                    out.writeInt(((Integer) value).intValue());
+                } else if (type == Boolean.class) {
+                    out.writeBoolean(((Boolean) value).booleanValue());
+                } else if (type == Float.class) {
+                    out.writeFloat(((Float) value).floatValue());
+                } else if (type.isEnum()) {
+                    out.writeShort(((Enum<?>) value).ordinal());
+                } else if (value.getClass() == type) {
+                    writeObject(out, value);
+                } else {
+                    throw new IllegalArgumentException(
+                            "Unexpected " + value.getClass().getName() + " in " + field + " of " + obj);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads an object that is written by {@link #writeObject(DataOutputStream, Object)}
+     *
+     * @param <T>
+     *            The type to read
+     * @param in
+     *            Provides the fields
+     * @param type
+     *            The class of the object to read
+     * @return T the object
+     * @throws IOException
+     *             from in
+     */
+    private static <T> T readObject(DataInputStream in, Class<T> type) throws IOException {
+        try {
+            T obj = type.getDeclaredConstructor().newInstance();
+            for (Field field : FIELDS.get(type)) {
+                Class<?> fieldType = field.getType();
+                if (fieldType == int.class) {
+                    field.setInt(obj, in.readInt());
+                } else if (fieldType == boolean.class) {
+                    field.setBoolean(obj, in.readBoolean());
+                } else if (!in.readBoolean()) {
+                    field.set(obj, null);
+                } else if (fieldType == Integer.class) {
+                    field.set(obj, Integer.valueOf(in.readInt()));
+                } else if (fieldType == Boolean.class) {
+                    field.set(obj, Boolean.valueOf(in.readBoolean()));
+                } else if (fieldType == Float.class) {
+                    field.set(obj, Float.valueOf(in.readFloat()));
+                } else if (fieldType.isEnum()) {
+                    Object[] constants = fieldType.getEnumConstants();
+                    int ordinal = in.readUnsignedShort();
+                    if (ordinal >= constants.length) {
+                        throw new IOException("Invalid value " + ordinal + " for " + field);
+                    }
+                    field.set(obj, constants[ordinal]);
+                } else {
+                    field.set(obj, readObject(in, fieldType));
+                }
+            }
+            return obj;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes a checksum over the names and types of the fields of all configuration classes and the names of the
+     * enum constants
+     *
+     * @return int The schema stamp
+     */
+    private static int computeSchemaStamp() {
+        StringBuilder layout = new StringBuilder();
+        describe(Configuration.class, layout, new HashSet<>());
+        CRC32 crc = new CRC32();
+        crc.update(layout.toString().getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Describes the layout of the type and of the types it refers to
+     *
+     * @param type
+     *            The class to describe
+     * @param layout
+     *            Receives the description
+     * @param described
+     *            The classes that are already described
+     */
+    private static void describe(Class<?> type, StringBuilder layout, Set<Class<?>> described) {
+        if (!described.add(type)) {
+            return;
+        }
+        layout.append(type.getSimpleName()).append('{');
+        List<Class<?>> referredTypes = new ArrayList<>();
+        for (Field field : FIELDS.get(type)) {
+            Class<?> fieldType = field.getType();
+            layout.append(field.getName()).append(':').append(fieldType.getSimpleName()).append(';');
+            if (fieldType.isEnum()) {
+                for (Object constant : fieldType.getEnumConstants()) {
+                    layout.append(((Enum<?>) constant).name()).append(',');
+                }
+            } else if (fieldType.isPrimitive() || fieldType == Integer.class || fieldType == Boolean.class
+                    || fieldType == Float.class) {
+                continue;
+            } else if (fieldType.getPackage() == Configuration.class.getPackage()) {
+                referredTypes.add(fieldType);
+            } else {
+                throw new IllegalStateException("Unsupported type of field " + field);
+            }
+        }
+        layout.append('}');
+        for (Class<?> referredType : referredTypes) {
+            describe(referredType, layout, described);
+        }
+    }
+}
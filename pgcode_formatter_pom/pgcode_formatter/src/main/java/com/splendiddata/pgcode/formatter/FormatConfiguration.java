@@ -14,13 +14,18 @@
 
 package com.splendiddata.pgcode.formatter;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
 
 import javax.xml.XMLConstants;
 import jakarta.xml.bind.JAXBContext;
@@ -62,25 +67,58 @@ public class FormatConfiguration {
     private static final Logger log = LogManager.getLogger(FormatConfiguration.class);
     private static final ObjectFactory factory = new ObjectFactory();
 
+    /**
+     * The maximum number of configurations in the cache of {@link #getCached(Path)} and
+     * {@link #getCached(String, String)}. The cache is emptied when it gets bigger.
+     */
+    static final int MAX_CACHED_CONFIGURATIONS = 64;
+
+    /**
+     * The key of the default configuration in the cache. It cannot be mistaken for the hash of an xml content.
+     */
+    private static final String DEFAULT_CONFIGURATION_KEY = "default";
+
+    /*
+     * Process wide caches. The JAXBContext and the compiled Schema are thread safe and expensive to create, so they are
+     * created only once. Unmarshallers and Validators are not thread safe, they are created for every use. The default
+     * configuration is only read: completeConfig() copies the parts that it needs.
+     */
+    private static volatile JAXBContext jaxbContext;
+    private static volatile Schema schema;
+    private static volatile Configuration defaultConfiguration;
+
+    /**
+     * Completed configurations by the SHA-256 hash of their xml content
+     */
+    private static final Map<String, FormatConfiguration> configurationsByHash = new ConcurrentHashMap<>();
+
     /**
      * The configuration to be used, with all null-fields filled in with default values
      */
     private Configuration effectiveConfiguration;
     private int standardIndent;
 
-    /*
-     * If all groups of spaces are to be replaced with tabs then the tabSplitPattern will be created. It will split up
-     * every line in chunks of tab-width characters so that later trailing spaces in each chunk can be replaces with a
-     * single tab character
+    /**
+     * The compiled form of the effectiveConfiguration, created on first use
      */
-    private Pattern tabSplitPattern;
-    private Pattern tabReplacementPattern;;
+    private volatile CompiledConfiguration compiled;
 
-    /*
-     * If only the indent is to be replaced by tabs, then the leadingSpacesPattern will be filled to help replacing
-     * leading spaces by tabs
+    /**
+     * FormatConfigurations that only differ from this one in the commaSeparatedListGrouping, see
+     * {@link #withCommaSeparatedListGrouping(CommaSeparatedListGroupingType)}
+     */
+    private final Map<CommaSeparatedListGroupingType, FormatConfiguration> withGrouping = new ConcurrentHashMap<>(4);
+
+    /**
+     * The engine that decides on the layout, see {@link #setLayoutEngine(LayoutEngine)}
+     */
+    private volatile LayoutEngine layoutEngine = LayoutEngine.CLASSIC;
+
+    /**
+     * The time in milliseconds that the layout of a statement may be optimised, see
+     * {@link #setLayoutOptimizerBudget(long)}
      */
-    private Pattern leadingSpacesPattern = tabSplitPattern;
+    private volatile long layoutOptimizerBudget;
 
     /**
      * Constructor
@@ -96,9 +134,7 @@ public class FormatConfiguration {
         if (providedConfigPath != null) {
             if (validateProvidedConfig(providedConfigPath)) {
                 try (InputStream inputStream = Files.newInputStream(providedConfigPath)) {
-                    JAXBContext context = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName() + ":"
-                            + ObjectFactory.class.getPackage().getName(), ObjectFactory.class.getClassLoader());
-                    Unmarshaller unmarshaller = context.createUnmarshaller();
+                    Unmarshaller unmarshaller = sharedJaxbContext().createUnmarshaller();
                     providedConfig = (Configuration) unmarshaller.unmarshal(inputStream);
                     log.info("FormatConfiguration: config " + providedConfigPath + " is used.");
                 } catch (IOException | JAXBException e) {
@@ -124,9 +160,7 @@ public class FormatConfiguration {
         if (configFileContent != null) {
             if (validateProvidedConfig(configFileContent)) {
                 try {
-                    JAXBContext context = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName() + ":"
-                            + ObjectFactory.class.getPackage().getName(), ObjectFactory.class.getClassLoader());
-                    Unmarshaller unmarshaller = context.createUnmarshaller();
+                    Unmarshaller unmarshaller = sharedJaxbContext().createUnmarshaller();
                     StringReader xmlStringReader = new StringReader(configFileContent);
                     providedConfig = (Configuration) unmarshaller.unmarshal(xmlStringReader);
 
@@ -143,6 +177,29 @@ public class FormatConfiguration {
         effectiveConfiguration = completeConfig(providedConfig);
     }
 
+    /**
+     * Constructor for {@link #getCached(Path)}
+     *
+     * @param configFileContent
+     *            The content of the config xml file
+     * @param providedConfigPath
+     *            Path of the config xml file, for validation messages
+     */
+    private FormatConfiguration(byte[] configFileContent, Path providedConfigPath) {
+        Configuration providedConfig = null;
+        if (validateProvidedConfig(
+                new StreamSource(new ByteArrayInputStream(configFileContent), providedConfigPath.toUri().toString()))) {
+            try {
+                Unmarshaller unmarshaller = sharedJaxbContext().createUnmarshaller();
+                providedConfig = (Configuration) unmarshaller.unmarshal(new ByteArrayInputStream(configFileContent));
+                log.info("FormatConfiguration: config " + providedConfigPath + " is used.");
+            } catch (JAXBException e) {
+                log.error("Error loading configuration file " + providedConfigPath, e);
+            }
+        }
+        effectiveConfiguration = completeConfig(providedConfig);
+    }
+
     /**
      * Constructor
      *
@@ -153,6 +210,19 @@ public class FormatConfiguration {
         effectiveConfiguration = completeConfig(providedConfig);
     }
 
+    /**
+     * Constructor for a configuration that is already completed, see {@link ConfigurationSnapshot}
+     *
+     * @param effectiveConfiguration
+     *            The completed configuration
+     * @param standardIndent
+     *            The standard indent of the completed configuration
+     */
+    FormatConfiguration(Configuration effectiveConfiguration, int standardIndent) {
+        this.effectiveConfiguration = effectiveConfiguration;
+        this.standardIndent = standardIndent;
+    }
+
     /**
      * Copy constructor
      * <p>
@@ -164,6 +234,120 @@ public class FormatConfiguration {
     public FormatConfiguration(FormatConfiguration original) {
         effectiveConfiguration = ConfigUtil.copy(original.effectiveConfiguration);
         standardIndent = original.getStandardIndent();
+        layoutEngine = original.layoutEngine;
+        layoutOptimizerBudget = original.layoutOptimizerBudget;
+    }
+
+    /**
+     * Returns a FormatConfiguration for the content of the config xml file from a process wide cache, so that reading,
+     * validating and completing the configuration is done only once for every distinct content. The file itself is
+     * read on every invocation, so a modified file is noticed.
+     * <p>
+     * The returned FormatConfiguration is shared, so it must not be modified. A caller that needs to modify it can do so
+     * on a copy, see {@link #FormatConfiguration(FormatConfiguration)}.
+     * </p>
+     *
+     * @param providedConfigPath
+     *            Path to the config xml file
+     * @return FormatConfiguration The completed configuration
+     * @throws IOException
+     *             If the file cannot be read
+     */
+    public static FormatConfiguration getCached(Path providedConfigPath) throws IOException {
+        byte[] content = Files.readAllBytes(providedConfigPath);
+        String hash = hash(content);
+        FormatConfiguration cached = configurationsByHash.get(hash);
+        if (cached == null) {
+            cached = cache(hash, new FormatConfiguration(content, providedConfigPath));
+        }
+        return cached;
+    }
+
+    /**
+     * Returns a FormatConfiguration for the content of a config xml file from a process wide cache, so that
+     * validating and completing the configuration is done only once for every distinct content.
+     * <p>
+     * The returned FormatConfiguration is shared, so it must not be modified. A caller that needs to modify it can do so
+     * on a copy, see {@link #FormatConfiguration(FormatConfiguration)}.
+     * </p>
+     *
+     * @param configFileContent
+     *            The string containing the content of the config xml file. If null, the default config will be used.
+     * @param pathName
+     *            The name of the profile, used for logging
+     * @return FormatConfiguration The completed configuration
+     */
+    public static FormatConfiguration getCached(String configFileContent, String pathName) {
+        String hash = configFileContent == null ? DEFAULT_CONFIGURATION_KEY
+                : hash(configFileContent.getBytes(StandardCharsets.UTF_8));
+        FormatConfiguration cached = configurationsByHash.get(hash);
+        if (cached == null) {
+            cached = cache(hash, configFileContent == null ? new FormatConfiguration((Configuration) null)
+                    : new FormatConfiguration(configFileContent, pathName));
+        }
+        return cached;
+    }
+
+    /**
+     * Puts the configuration in the cache, unless another thread was first
+     *
+     * @param hash
+     *            The hash of the xml content
+     * @param config
+     *            The configuration that is created from the xml content
+     * @return FormatConfiguration The cached configuration
+     */
+    private static FormatConfiguration cache(String hash, FormatConfiguration config) {
+        if (configurationsByHash.size() >= MAX_CACHED_CONFIGURATIONS) {
+            log.debug(() -> "cache(): configuration cache is full, emptied");
+            configurationsByHash.clear();
+        }
+        FormatConfiguration cached = configurationsByHash.putIfAbsent(hash, config);
+        return cached == null ? config : cached;
+    }
+
+    /**
+     * Computes the SHA-256 hash of the content
+     *
+     * @param content
+     *            The content of a config xml file
+     * @return String The hash in hexadecimal notation
+     */
+    private static String hash(byte[] content) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the process wide JAXBContext for the configuration classes, creating it if necessary
+     *
+     * @return JAXBContext The context
+     * @throws JAXBException
+     *             If the context cannot be created
+     */
+    private static JAXBContext sharedJaxbContext() throws JAXBException {
+        JAXBContext context = jaxbContext;
+        if (context == null) {
+            synchronized (FormatConfiguration.class) {
+                context = jaxbContext;
+                if (context == null) {
+                    context = JAXBContext.newInstance(
+                            ObjectFactory.class.getPackage().getName() + ":"
+                                    + ObjectFactory.class.getPackage().getName(),
+                            ObjectFactory.class.getClassLoader());
+                    jaxbContext = context;
+                }
+            }
+        }
+        return context;
     }
 
     /**
@@ -174,10 +358,21 @@ public class FormatConfiguration {
      * @return boolean true if ok, false when an error has been reported
      */
     private static boolean validateProvidedConfig(Path providedConfigPath) {
+        return validateProvidedConfig(new StreamSource(providedConfigPath.toFile()));
+    }
+
+    /**
+     * Validates the provided config xml
+     *
+     * @param source
+     *            Provides the xml
+     * @return boolean true if ok, false when an error has been reported
+     */
+    private static boolean validateProvidedConfig(StreamSource source) {
         XmlValidationErrorHandler errorHandler = new XmlValidationErrorHandler();
         try {
             Validator validator = constructValidator();
-            validator.validate(new StreamSource(providedConfigPath.toFile()));
+            validator.validate(source);
         } catch (SAXException | IOException e) {
             log.error(e, e);
             errorHandler.setResult(false);
@@ -193,69 +388,100 @@ public class FormatConfiguration {
      * @return boolean true if ok, false when an error has been reported
      */
     private static boolean validateProvidedConfig(String configFileContent) {
-        XmlValidationErrorHandler errorHandler = new XmlValidationErrorHandler();
-        try {
-            Validator validator = constructValidator();
-            StringReader xmlStringReader = new StringReader(configFileContent);
-            validator.validate(new StreamSource(xmlStringReader));
-        } catch (SAXException | IOException e) {
-            log.error(e, e);
-            errorHandler.setResult(false);
-        }
-        return errorHandler.isResult();
+        return validateProvidedConfig(new StreamSource(new StringReader(configFileContent)));
     }
 
     /**
-     * Creates a new {@link Validator} for plpgsql_code_formatter-v1_0.xsd
+     * Creates a new {@link Validator} for plpgsql_code_formatter-v1_0.xsd. The Schema is compiled only once, a
+     * Validator is not thread safe so a new one is created for every validation.
      *
      * @return The created validator
      * @throws SAXException
      *             If a SAX error occurs when trying to create a schema
      */
     private static Validator constructValidator() throws SAXException {
+        Schema compiledSchema = schema;
+        if (compiledSchema == null) {
+            synchronized (FormatConfiguration.class) {
+                compiledSchema = schema;
+                if (compiledSchema == null) {
+                    SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                    compiledSchema = schemaFactory.newSchema(FormatConfiguration.class.getClassLoader()
+                            .getResource("META-INF/pgcode_formatter-v1_0.xsd"));
+                    schema = compiledSchema;
+                }
+            }
+        }
         XmlValidationErrorHandler errorHandler = new XmlValidationErrorHandler();
-        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = factory.newSchema(
-                FormatConfiguration.class.getClassLoader().getResource("META-INF/pgcode_formatter-v1_0.xsd"));
-        Validator validator = schema.newValidator();
+        Validator validator = compiledSchema.newValidator();
         validator.setErrorHandler(errorHandler);
         return validator;
     }
 
     /**
-     * Creates an effective configuration by adding missing fields from the default configuration to the provided
-     * config.
+     * Returns the process wide default configuration, loading it if necessary. The result is shared, so it must not
+     * be modified.
      *
-     * @param providedConfig
-     *            The configuration to work with. If null, the default configuration will be used
-     * @return Configuration The effective config, where all missing fields from the providedConfig are filled in with
-     *         defaults.
+     * @return Configuration The default configuration
      */
-    private Configuration completeConfig(Configuration providedConfig) {
-        Configuration defaultConfig = null;
+    static Configuration sharedDefaultConfiguration() {
+        Configuration defaultConfig = defaultConfiguration;
+        if (defaultConfig == null) {
+            synchronized (FormatConfiguration.class) {
+                defaultConfig = defaultConfiguration;
+                if (defaultConfig == null) {
+                    defaultConfig = loadDefaultConfiguration();
+                    defaultConfiguration = defaultConfig;
+                }
+            }
+        }
+        return defaultConfig;
+    }
 
-        /*
-         * Load default config
-         */
+    /**
+     * Loads the default configuration from {@link ConfigurationSnapshot#DEFAULT_SNAPSHOT_PATH} or, if that is not
+     * usable, from {@link #DEFAULT_CONFIG_PATH}
+     *
+     * @return Configuration The default configuration
+     */
+    private static Configuration loadDefaultConfiguration() {
+        FormatConfiguration snapshot = ConfigurationSnapshot.fromResource(ConfigurationSnapshot.DEFAULT_SNAPSHOT_PATH);
+        if (snapshot != null) {
+            return snapshot.getEffectiveConfiguration();
+        }
         try (InputStream inputStream = FormatConfiguration.class.getModule().getResourceAsStream(DEFAULT_CONFIG_PATH)) {
-            JAXBContext context = JAXBContext.newInstance(
-                    ObjectFactory.class.getPackage().getName() + ":" + ObjectFactory.class.getPackage().getName(),
-                    ObjectFactory.class.getClassLoader());
-            Unmarshaller unmarshaller = context.createUnmarshaller();
-            defaultConfig = (Configuration) unmarshaller.unmarshal(inputStream);
+            Unmarshaller unmarshaller = sharedJaxbContext().createUnmarshaller();
+            return (Configuration) unmarshaller.unmarshal(inputStream);
         } catch (IOException | JAXBException e) {
             log.error("Error loading default configuration file " + DEFAULT_CONFIG_PATH, e);
         } catch (IllegalArgumentException e) {
             // This sometimes happens in JUnit tests started in Eclipse because it cannot find the default config file
             // in its search path.
             log.error("Error loading default configuration file " + DEFAULT_CONFIG_PATH, e);
-            defaultConfig = DefaultConfigCreator.getConfiguration();
         }
+        return DefaultConfigCreator.getConfiguration();
+    }
+
+    /**
+     * Creates an effective configuration by adding missing fields from the default configuration to the provided
+     * config.
+     *
+     * @param providedConfig
+     *            The configuration to work with. If null, the default configuration will be used
+     * @return Configuration The effective config, where all missing fields from the providedConfig are filled in with
+     *         defaults.
+     */
+    private Configuration completeConfig(Configuration providedConfig) {
+        /*
+         * The shared default config is not copied as a whole: only the parts that fill in a missing field are copied
+         * into the effective config
+         */
+        Configuration defaultConfig = sharedDefaultConfiguration();
 
         if (providedConfig == null) {
             log.info("No config provided, default settings will be used");
             standardIndent = defaultConfig.getIndent().getIndentWidth().intValue();
-            return defaultConfig;
+            return ConfigUtil.copy(defaultConfig);
         }
 
         Configuration effectiveConfig = ConfigUtil.copy(providedConfig);
@@ -264,7 +490,7 @@ public class FormatConfiguration {
          * General part
          */
         if (effectiveConfig.getLineWidth() == null) {
-            effectiveConfig.setLineWidth(defaultConfig.getLineWidth());
+            effectiveConfig.setLineWidth(ConfigUtil.copy(defaultConfig.getLineWidth()));
         } else if (effectiveConfig.getLineWidth().getWeight() == null) {
             effectiveConfig.getLineWidth().setWeight(defaultConfig.getLineWidth().getWeight());
         }
@@ -273,7 +499,7 @@ public class FormatConfiguration {
          * tabs
          */
         if (effectiveConfig.getTabs() == null) {
-            effectiveConfig.setTabs(defaultConfig.getTabs());
+            effectiveConfig.setTabs(ConfigUtil.copy(defaultConfig.getTabs()));
         } else {
             if (effectiveConfig.getTabs().getTabsOrSpaces() == null) {
                 effectiveConfig.getTabs().setTabsOrSpaces(defaultConfig.getTabs().getTabsOrSpaces());
@@ -322,7 +548,7 @@ public class FormatConfiguration {
          * query config
          */
         if (effectiveConfig.getQueryConfig() == null) {
-            effectiveConfig.setQueryConfig(defaultConfig.getQueryConfig());
+            effectiveConfig.setQueryConfig(ConfigUtil.copy(defaultConfig.getQueryConfig()));
         } else {
             if (effectiveConfig.getQueryConfig().isMajorKeywordsOnSeparateLine() == null) {
                 effectiveConfig.getQueryConfig()
@@ -330,7 +556,7 @@ public class FormatConfiguration {
             }
             if (effectiveConfig.getQueryConfig().getMaxSingleLineQuery() == null) {
                 effectiveConfig.getQueryConfig()
-                        .setMaxSingleLineQuery(defaultConfig.getQueryConfig().getMaxSingleLineQuery());
+                        .setMaxSingleLineQuery(ConfigUtil.copy(defaultConfig.getQueryConfig().getMaxSingleLineQuery()));
             } else if (effectiveConfig.getQueryConfig().getMaxSingleLineQuery().getWeight() == null) {
                 effectiveConfig.getQueryConfig().getMaxSingleLineQuery()
                         .setWeight(defaultConfig.getQueryConfig().getMaxSingleLineQuery().getWeight());
@@ -401,7 +627,7 @@ public class FormatConfiguration {
                 () -> factory.createCommaSeparatedListGroupingType()));
 
         if (effectiveConfig.getLogicalOperatorsIndent() == null) {
-            effectiveConfig.setLogicalOperatorsIndent(defaultConfig.getLogicalOperatorsIndent());
+            effectiveConfig.setLogicalOperatorsIndent(ConfigUtil.copy(defaultConfig.getLogicalOperatorsIndent()));
         }
 
         if (effectiveConfig.getLetterCaseFunctions() == null) {
@@ -437,26 +663,20 @@ public class FormatConfiguration {
                     .setMaxPosition(Integer.valueOf(effectiveConfig.getLineWidth().getValue()));
             return effectiveCaseType;
         }
-        if (providedCaseType.getMaxSingleLineClause() == null) {
-            effectiveCaseType.setMaxSingleLineClause(defaultCaseType.getMaxSingleLineClause());
-        } else {
+        if (providedCaseType.getMaxSingleLineClause() != null) {
             effectiveCaseType.setMaxSingleLineClause(providedCaseType.getMaxSingleLineClause());
             if (providedCaseType.getMaxSingleLineClause().getWeight() == null) {
                 effectiveCaseType.getMaxSingleLineClause()
                         .setWeight(defaultCaseType.getMaxSingleLineClause().getWeight());
             }
         }
-        if (providedCaseType.getWhenPosition() == null) {
-            effectiveCaseType.setWhenPosition(defaultCaseType.getWhenPosition());
-        } else {
+        if (providedCaseType.getWhenPosition() != null) {
             effectiveCaseType.setWhenPosition(providedCaseType.getWhenPosition());
             if (providedCaseType.getWhenPosition().getWeight() == null) {
                 effectiveCaseType.getWhenPosition().setWeight(defaultCaseType.getWhenPosition().getWeight());
             }
         }
-        if (providedCaseType.getThenPosition() == null) {
-            effectiveCaseType.setThenPosition(defaultCaseType.getThenPosition());
-        } else {
+        if (providedCaseType.getThenPosition() != null) {
             effectiveCaseType.setThenPosition(providedCaseType.getThenPosition());
             if (effectiveCaseType.getThenPosition().getWeight() == null) {
                 effectiveCaseType.getThenPosition().setWeight(defaultCaseType.getThenPosition().getWeight());
@@ -473,14 +693,10 @@ public class FormatConfiguration {
                         .setFallbackPosition(defaultCaseType.getThenPosition().getFallbackPosition());
             }
         }
-        if (providedCaseType.getElsePosition() == null) {
-            effectiveCaseType.setElsePosition(defaultCaseType.getElsePosition());
-        } else {
+        if (providedCaseType.getElsePosition() != null) {
             effectiveCaseType.setElsePosition(providedCaseType.getElsePosition());
         }
-        if (providedCaseType.getEndPosition() == null) {
-            effectiveCaseType.setEndPosition(defaultCaseType.getEndPosition());
-        } else {
+        if (providedCaseType.getEndPosition() != null) {
             effectiveCaseType.setEndPosition(providedCaseType.getEndPosition());
         }
         return effectiveCaseType;
@@ -546,7 +762,7 @@ public class FormatConfiguration {
     private static final IntegerValueOption completeIntegerValueOption(IntegerValueOption configuredValue,
             IntegerValueOption defaultValue) {
         if (configuredValue == null) {
-            return defaultValue;
+            return ConfigUtil.copy(defaultValue);
         }
         if (configuredValue.getWeight() != null) {
             return configuredValue;
@@ -579,10 +795,10 @@ public class FormatConfiguration {
             result.setMultilineClosingParenOnNewLine(defaultConfig.isMultilineClosingParenOnNewLine());
             result.setMultilineOpeningParenBeforeArgument(defaultConfig.isMultilineOpeningParenBeforeArgument());
             result.setCommaBeforeOrAfter(defaultConfig.getCommaBeforeOrAfter());
-            result.setIndent(defaultConfig.getIndent());
-            result.setMaxArgumentsPerGroup(defaultConfig.getMaxArgumentsPerGroup());
-            result.setMaxLengthOfGroup(defaultConfig.getMaxLengthOfGroup());
-            result.setMaxSingleLineLength(defaultConfig.getMaxSingleLineLength());
+            result.setIndent(ConfigUtil.copy(defaultConfig.getIndent()));
+            result.setMaxArgumentsPerGroup(ConfigUtil.copy(defaultConfig.getMaxArgumentsPerGroup()));
+            result.setMaxLengthOfGroup(ConfigUtil.copy(defaultConfig.getMaxLengthOfGroup()));
+            result.setMaxSingleLineLength(ConfigUtil.copy(defaultConfig.getMaxSingleLineLength()));
         } else {
             if (providedConfig.isMultilineClosingParenOnNewLine() == null) {
                 result.setMultilineClosingParenOnNewLine(defaultConfig.isMultilineClosingParenOnNewLine());
@@ -665,7 +881,7 @@ public class FormatConfiguration {
     private static RelativePositionType completeRelativePositionType(RelativePositionType providedConfig,
             RelativePositionType defaultConfig) {
         if (providedConfig == null) {
-            return defaultConfig;
+            return ConfigUtil.copy(defaultConfig);
         }
         RelativePositionType result = ConfigUtil.copy(defaultConfig);
         if (providedConfig.getAlignment() != null) {
@@ -755,7 +971,7 @@ public class FormatConfiguration {
     private static ColumnConstraintRelativePositionType completeColumnConstraintRelativePositionType(
             ColumnConstraintRelativePositionType providedConfig, ColumnConstraintRelativePositionType defaultConfig) {
         if (providedConfig == null) {
-            return defaultConfig;
+            return ConfigUtil.copy(defaultConfig);
         }
         ColumnConstraintRelativePositionType result = ConfigUtil.copy(defaultConfig);
         if (providedConfig.getAlignment() != null) {
@@ -782,7 +998,7 @@ public class FormatConfiguration {
     private static final CommaSeparatedListIndentType completeCommaSeparatedListIndentType(
             CommaSeparatedListIndentType providedIndent, CommaSeparatedListIndentType defaultIndent) {
         if (providedIndent == null) {
-            return defaultIndent;
+            return ConfigUtil.copy(defaultIndent);
         }
         if (providedIndent.getValue() == null || providedIndent.getWeight() == null) {
             CommaSeparatedListIndentType result = factory.createCommaSeparatedListIndentType();
@@ -813,7 +1029,7 @@ public class FormatConfiguration {
     private static final PlpgsqlType completeLanguagePlpgsql(PlpgsqlType providedSettings,
             PlpgsqlType defaultSettings) {
         if (providedSettings == null) {
-            return defaultSettings;
+            return ConfigUtil.copy(defaultSettings);
         }
 
         PlpgsqlType result = factory.createPlpgsqlType();
@@ -837,12 +1053,12 @@ public class FormatConfiguration {
     private static PlpgsqlCodeSectionType completePlpgsqlCodeSectionType(PlpgsqlCodeSectionType providedSettings,
             PlpgsqlCodeSectionType defaultSettings) {
         if (providedSettings == null) {
-            return defaultSettings;
+            return ConfigUtil.copy(defaultSettings);
         }
 
         PlpgsqlCodeSectionType result = factory.createPlpgsqlCodeSectionType();
         if (providedSettings.getIfStatement() == null) {
-            result.setIfStatement(defaultSettings.getIfStatement());
+            result.setIfStatement(ConfigUtil.copy(defaultSettings.getIfStatement()));
         } else {
             PlpgsqlIfStatementType ifStatement = factory.createPlpgsqlIfStatementType();
             result.setIfStatement(ifStatement);
@@ -859,7 +1075,7 @@ public class FormatConfiguration {
         }
 
         if (providedSettings.getForStatement() == null) {
-            result.setForStatement(defaultSettings.getForStatement());
+            result.setForStatement(ConfigUtil.copy(defaultSettings.getForStatement()));
         } else {
             PlpgsqlForStatementType forStatement = factory.createPlpgsqlForStatementType();
             result.setForStatement(forStatement);
@@ -885,7 +1101,7 @@ public class FormatConfiguration {
     private static final PlpgsqlDeclareSectionType completePlpgsqlDeclareSectionType(
             PlpgsqlDeclareSectionType providedSettings, PlpgsqlDeclareSectionType defaultSettings) {
         if (providedSettings == null) {
-            return defaultSettings;
+            return ConfigUtil.copy(defaultSettings);
         }
 
         PlpgsqlDeclareSectionType resultDeclareSection = factory.createPlpgsqlDeclareSectionType();
@@ -895,7 +1111,7 @@ public class FormatConfiguration {
          * Data type position
          */
         if (declaredDataTypePosition == null) {
-            providedSettings.setDataTypePosition(defaultSettings.getDataTypePosition());
+            providedSettings.setDataTypePosition(ConfigUtil.copy(defaultSettings.getDataTypePosition()));
         } else {
             PlpgsqlDeclareDataTypePosition resultDataTypePosition = factory.createPlpgsqlDeclareDataTypePosition();
             resultDeclareSection.setDataTypePosition(resultDataTypePosition);
@@ -996,6 +1212,13 @@ public class FormatConfiguration {
         return resultDeclareSection;
     }
 
+    /**
+     * @return Configuration the completed configuration, for {@link ConfigurationSnapshot}
+     */
+    Configuration getEffectiveConfiguration() {
+        return effectiveConfiguration;
+    }
+
     /**
      * @return IntegerValueOption the line width setting
      * @see Configuration#getLineWidth()
@@ -1137,73 +1360,114 @@ public class FormatConfiguration {
     }
 
     /**
-     * Shortcut to get the standard indent setting
+     * @return LayoutEngine the engine that decides on the layout of the statements, {@link LayoutEngine#CLASSIC} by
+     *         default
+     */
+    public LayoutEngine getLayoutEngine() {
+        return layoutEngine;
+    }
+
+    /**
+     * Selects the engine that decides on the layout of the statements. The layout engine is not part of the xml
+     * configuration; it is a choice of the invoker, like the number of threads.
      *
-     * @return int The standard indent width in nr of spaces
+     * @param layoutEngine
+     *            The LayoutEngine to use. If null, {@link LayoutEngine#CLASSIC} is used
+     * @return FormatConfiguration this
      */
-    public int getStandardIndent() {
-        return standardIndent;
+    public FormatConfiguration setLayoutEngine(LayoutEngine layoutEngine) {
+        this.layoutEngine = layoutEngine == null ? LayoutEngine.CLASSIC : layoutEngine;
+        withGrouping.clear();
+        return this;
     }
 
     /**
-     * When the configuration-&gt;tabs-&gt;tabsOrSpaces setting equals TABS then groups of spaces before a tab position
-     * must be replaced by a tab character. The tabSplitPattern splits up a text line into chunks with the width of tab
-     * positions, of which trailing spaces can easily be replaced by tabs before reuniting the chunks again to lines
-     * (see {@link #getTabReplacementPattern()})
-     * <p>
-     * This method is intended to be used by
-     * {@link com.splendiddata.pgcode.formatter.internal.Util#performTabReplacement(FormatConfiguration, String)}
+     * @return long the time in milliseconds that the line breaks of the lists in a statement may be optimised, 0 if
+     *         they are not optimised
+     */
+    public long getLayoutOptimizerBudget() {
+        return layoutOptimizerBudget;
+    }
+
+    /**
+     * Has the {@link LayoutEngine#CLASSIC} layout engine decide on the line breaks of comma separated lists by
+     * minimising the cost of the violations of the configured limits, weighted by their weights (see
+     * {@link com.splendiddata.pgcode.formatter.internal.LayoutOptimizer}), instead of by applying the limits in order
+     * of their weights. When the time budget of a statement is used up, the rest of the statement is laid out as if
+     * there was no optimisation. Like the layout engine, this is a choice of the invoker, not part of the xml
+     * configuration.
      *
-     * @return Pattern
+     * @param millis
+     *            The time in milliseconds that may be spent on the optimisation of a single statement. 0 (the default)
+     *            switches optimisation off
+     * @return FormatConfiguration this
+     * @throws IllegalArgumentException
+     *             if millis is negative
      */
-    public Pattern getTabSplitPattern() {
-        if (tabSplitPattern == null) {
-            assert TabsOrSpacesType.TABS.equals(getTabs()
-                    .getTabsOrSpaces()) : "getTabSplitPattern() must only be invoked if configuration->tabs->tabsOrSpaces equals 'TABS'";
-            tabSplitPattern = Pattern.compile("(\n)|([^\n]{1," + getTabs().getTabWidth() + "})");
+    public FormatConfiguration setLayoutOptimizerBudget(long millis) {
+        if (millis < 0L) {
+            throw new IllegalArgumentException("The layout optimizer budget cannot be negative: " + millis);
         }
-        return tabSplitPattern;
+        this.layoutOptimizerBudget = millis;
+        withGrouping.clear();
+        return this;
+    }
+
+    /**
+     * Shortcut to get the standard indent setting
+     *
+     * @return int The standard indent width in nr of spaces
+     */
+    public int getStandardIndent() {
+        return standardIndent;
     }
 
     /**
-     * The tabReplacementPattern can be used to replace trailing spaces. This might be handy when the
-     * configuration-&gt;tabs-&gt;tabsOrSpaces setting equals TABS. The idea is to first split every line into chunks of
-     * tab-width characters using the pattern from {@link #getTabSplitPattern()} and then use the pattern provided here
-     * to replace trailing spaces by tab characters.
+     * Returns the immutable, compiled form of this configuration, in which the settings that are used while rendering
+     * are resolved to primitives and enum constants.
      * <p>
-     * This method is intended to be used by
-     * {@link com.splendiddata.pgcode.formatter.internal.Util#performTabReplacement(FormatConfiguration, String)}
-     * 
-     * @return Pattern
+     * The compiled form is created on the first invocation. It is not affected by modifications of the objects that
+     * are returned by the other getters after that, except for
+     * {@link #setCommaSeparatedListGrouping(CommaSeparatedListGroupingType)}.
+     * </p>
+     *
+     * @return CompiledConfiguration the compiled configuration
      */
-    public Pattern getTabReplacementPattern() {
-        if (tabReplacementPattern == null) {
-            assert TabsOrSpacesType.TABS.equals(getTabs()
-                    .getTabsOrSpaces()) : "getTabReplacementPattern() must only be invoked if configuration->tabs->tabsOrSpaces equals 'TABS'";
-            tabReplacementPattern = Pattern.compile("\\s{2,}$");
+    public CompiledConfiguration getCompiled() {
+        CompiledConfiguration result = compiled;
+        if (result == null) {
+            result = new CompiledConfiguration(effectiveConfiguration, standardIndent);
+            compiled = result;
         }
-        return tabReplacementPattern;
+        return result;
     }
 
     /**
-     * Returns a Pattern that can be used to replace leading spaces with tab characters
-     * <p>
-     * This method is intended to be used by
-     * {@link com.splendiddata.pgcode.formatter.internal.Util#performTabReplacement(FormatConfiguration, String)}
+     * Returns a FormatConfiguration that equals this one, except for the commaSeparatedListGrouping, which is
+     * replaced by the groupingConfig. Unlike
+     * {@code new FormatConfiguration(this).setCommaSeparatedListGrouping(groupingConfig)} this does not copy the whole
+     * configuration: the result shares all other settings with this one, so it must not be modified. The result is
+     * remembered for the next invocation with the same groupingConfig.
      *
-     * @return Pattern
+     * @param groupingConfig
+     *            The CommaSeparatedListGroupingType that is to be used
+     * @return FormatConfiguration the configuration with the groupingConfig as commaSeparatedListGrouping
      */
-    public Pattern getLeadingSpacesPattern() {
-        /*
-         * If only the indent is to be replaced by tabs, then the leadingSpacesPattern will be filled to help replacing
-         * leading spaces by tabs
-         */
-        if (leadingSpacesPattern == null) {
-            assert !TabsOrSpacesType.TABS.equals(getTabs().getTabsOrSpaces()) && TabsOrSpacesType.TABS.equals(getIndent()
-                    .getTabsOrSpaces()) : "getLeadingSpacesPattern() must only be invoked if configuration->tabs->tabsOrSpaces equals 'SPACES' and configuration->indent->tabsOrSpaces equals 'TABS'";
-            leadingSpacesPattern = Pattern.compile("\\n([^\\S\\n]+)");
+    public FormatConfiguration withCommaSeparatedListGrouping(CommaSeparatedListGroupingType groupingConfig) {
+        FormatConfiguration result = withGrouping.get(groupingConfig);
+        if (result == null) {
+            CommaSeparatedListGroupingType grouping = completeCommaSeparatedListGrouping(groupingConfig,
+                    effectiveConfiguration.getCommaSeparatedListGrouping(),
+                    () -> factory.createCommaSeparatedListGroupingType());
+            Configuration configuration = ConfigUtil.shallowCopy(effectiveConfiguration);
+            configuration.setCommaSeparatedListGrouping(grouping);
+            result = new FormatConfiguration(configuration, standardIndent);
+            result.compiled = getCompiled().withCommaSeparatedListGrouping(new CompiledListGrouping(grouping));
+            result.layoutEngine = layoutEngine;
+            result.layoutOptimizerBudget = layoutOptimizerBudget;
+            withGrouping.put(groupingConfig, result);
         }
-        return leadingSpacesPattern;
+        return result;
     }
 
     /**
@@ -1219,6 +1483,8 @@ public class FormatConfiguration {
         effectiveConfiguration.setCommaSeparatedListGrouping(completeCommaSeparatedListGrouping(groupingConfig,
                 effectiveConfiguration.getCommaSeparatedListGrouping(),
                 () -> factory.createCommaSeparatedListGroupingType()));
+        compiled = null;
+        withGrouping.clear();
         return this;
     }
 
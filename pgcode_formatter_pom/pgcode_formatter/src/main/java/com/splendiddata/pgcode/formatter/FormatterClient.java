@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sends requests to a {@link FormatterDaemon}. No configuration is loaded by the client itself.
+ * <p>
+ * FORMAT and STOP requests carry the secret that the daemon wrote to {@link FormatterDaemon#getSecretFile(int)}, so
+ * only the daemon of the current user can be used. Before the secret or the text is sent, the process on the port must
+ * prove that it knows the secret by answering a HELLO challenge. So a process of another user that listens on the port
+ * while the daemon is not running learns nothing.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class FormatterClient {
+    private static final Logger log = LogManager.getLogger(FormatterClient.class);
+
+    /**
+     * No instances
+     *
+     * @throws UnsupportedOperationException
+     *             in all cases
+     */
+    private FormatterClient() {
+        throw new UnsupportedOperationException("No instances for " + FormatterClient.class.getName());
+    }
+
+    /**
+     * Has the text formatted by the daemon
+     *
+     * @param port
+     *            The port on the loopback address where the daemon listens
+     * @param configSpecification
+     *            A profile name, the absolute path of a configuration file or an empty string or null to use the
+     *            configuration of the daemon
+     * @param text
+     *            The text to format
+     * @return String the formatted text
+     * @throws ConnectException
+     *             If no daemon of the current user is listening on the port
+     * @throws IOException
+     *             If the daemon reports an error, if the process on the port cannot prove that it is the daemon of the
+     *             current user or if the connection fails
+     */
+    static String format(int port, String configSpecification, String text) throws IOException {
+        return format(port, configSpecification, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Has the UTF-8 encoded text formatted by the daemon
+     *
+     * @param port
+     *            The port on the loopback address where the daemon listens
+     * @param configSpecification
+     *            A profile name, the absolute path of a configuration file or an empty string or null to use the
+     *            configuration of the daemon
+     * @param text
+     *            The UTF-8 encoded text to format, at most {@link FormatterDaemon#MAX_REQUEST_LENGTH} bytes
+     * @return String the formatted text
+     * @throws ConnectException
+     *             If no daemon of the current user is listening on the port
+     * @throws IOException
+     *             If the daemon reports an error, if the process on the port cannot prove that it is the daemon of the
+     *             current user or if the connection fails
+     */
+    static String format(int port, String configSpecification, byte[] text) throws IOException {
+        if (text.length > FormatterDaemon.MAX_REQUEST_LENGTH) {
+            throw new IllegalArgumentException("The text is too large for the formatter daemon: " + text.length
+                    + " bytes, the maximum is " + FormatterDaemon.MAX_REQUEST_LENGTH);
+        }
+        String secret = readSecret(port);
+        return request(port, secret, FormatterDaemon.COMMAND_FORMAT + " " + secret + " " + text.length + " "
+                + (configSpecification == null ? "" : configSpecification), text);
+    }
+
+    /**
+     * Checks if a daemon is listening on the port. Nothing secret is sent, so the daemon doesn't have to prove who it
+     * is.
+     *
+     * @param port
+     *            The port on the loopback address
+     * @return boolean true if the daemon answered
+     */
+    static boolean ping(int port) {
+        try {
+            request(port, null, FormatterDaemon.COMMAND_PING, new byte[0]);
+            return true;
+        } catch (IOException e) {
+            log.debug(() -> "ping(" + port + "): " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Asks the daemon to stop
+     *
+     * @param port
+     *            The port on the loopback address
+     * @throws IOException
+     *             If no daemon of the current user could be reached
+     */
+    static void stop(int port) throws IOException {
+        String secret = readSecret(port);
+        request(port, secret, FormatterDaemon.COMMAND_STOP + " " + secret, new byte[0]);
+    }
+
+    /**
+     * Reads the secret of the daemon of the current user on the port
+     *
+     * @param port
+     *            The port on the loopback address
+     * @return String the secret
+     * @throws ConnectException
+     *             If there is no secret file, so no daemon of the current user has been started on the port
+     * @throws IOException
+     *             If the secret file cannot be read
+     */
+    private static String readSecret(int port) throws IOException {
+        Path secretFile = FormatterDaemon.getSecretFile(port);
+        try {
+            return Files.readString(secretFile, StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException e) {
+            log.debug(() -> "readSecret(" + port + "): " + e);
+            throw new ConnectException("No formatter daemon of the current user on port " + port);
+        }
+    }
+
+    /**
+     * Sends a single request and reads the answer
+     *
+     * @param port
+     *            The port on the loopback address
+     * @param secret
+     *            The secret of the daemon if the header contains it. Then the daemon must first answer a HELLO
+     *            challenge with the right proof. Null if the request doesn't contain anything secret.
+     * @param header
+     *            The header line, without newline
+     * @param body
+     *            Bytes to send after the header
+     * @return String the text from the OK response
+     * @throws IOException
+     *             If the connection fails, if the process on the port cannot prove that it knows the secret, if an
+     *             ERROR response is received or if the response ends before all announced bytes are received
+     */
+    private static String request(int port, String secret, String header, byte[] body) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            if (secret != null) {
+                String challenge = FormatterDaemon.randomHex(FormatterDaemon.CHALLENGE_LENGTH);
+                out.write((FormatterDaemon.COMMAND_HELLO + " " + challenge + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String expected = FormatterDaemon.RESPONSE_PROOF + " "
+                        + FormatterDaemon.proof(secret.getBytes(StandardCharsets.US_ASCII), challenge);
+                if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                        FormatterDaemon.readHeaderLine(in).getBytes(StandardCharsets.UTF_8))) {
+                    throw new IOException("The process on port " + port
+                            + " cannot prove that it is the formatter daemon of the current user");
+                }
+            }
+            out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+            out.flush();
+            String response = FormatterDaemon.readHeaderLine(in);
+            if (!response.startsWith(FormatterDaemon.RESPONSE_OK + " ")) {
+                throw new IOException("Formatter daemon: " + response);
+            }
+            int length;
+            try {
+                length = Integer.parseInt(response.substring(FormatterDaemon.RESPONSE_OK.length() + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Formatter daemon: invalid response " + response);
+            }
+            byte[] text = in.readNBytes(length);
+            if (text.length < length) {
+                throw new EOFException(
+                        "Expected " + length + " bytes from the formatter daemon, received " + text.length);
+            }
+            return new String(text, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Long running formatter that answers format requests over a loopback socket, so the JVM startup and the loading of
+ * the configuration is only paid once.
+ * <p>
+ * The protocol is line based. A request starts with a header line, terminated by a newline:
+ * </p>
+ * <ul>
+ * <li><code>HELLO &lt;challenge&gt;</code> asks the daemon to prove that it knows the secret (see below) before the
+ * client sends anything that must not leak. &lt;challenge&gt; consists of 32 random lower case hexadecimal digits. The
+ * daemon answers <code>PROOF &lt;proof&gt;</code>, see {@link #proof(byte[], String)}, and then reads the actual
+ * request header from the same connection.</li>
+ * <li><code>FORMAT &lt;secret&gt; &lt;length&gt; &lt;config&gt;</code> followed by &lt;length&gt; bytes of UTF-8
+ * encoded (plpg)sql text. &lt;length&gt; may not exceed {@link #MAX_REQUEST_LENGTH}. &lt;config&gt; may be a profile
+ * name ("compact", "elegant"), the absolute path of a configuration file or empty, in which case the configuration
+ * that the daemon was started with is used.</li>
+ * <li><code>PING</code> to check if the daemon is alive</li>
+ * <li><code>STOP &lt;secret&gt;</code> to shut the daemon down</li>
+ * </ul>
+ * <p>
+ * The answer is either <code>OK &lt;length&gt;</code> followed by &lt;length&gt; bytes of UTF-8 encoded formatted
+ * text, or <code>ERROR &lt;message&gt;</code>. Every connection handles a single request.
+ * </p>
+ * <p>
+ * Configurations are loaded once and kept. A configuration file is parsed again only when its content changes.
+ * </p>
+ * <p>
+ * The daemon only binds to the loopback address. As any local user can connect to it, FORMAT and STOP requests must
+ * contain a secret. The secret is generated at startup and written to a file that only the user who started the
+ * daemon can read, see {@link #getSecretFile(int)}. So only that user can have the daemon read configuration files or
+ * stop it.
+ * </p>
+ * <p>
+ * The other way round, any local user can listen on the port while the daemon is not running. So a client first sends
+ * a HELLO request, and only sends the secret and the text to format if the answer proves that the process on the port
+ * knows the secret.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class FormatterDaemon {
+    private static final Logger log = LogManager.getLogger(FormatterDaemon.class);
+
+    /**
+     * The port that is used if none is specified
+     */
+    static final int DEFAULT_PORT = 54320;
+
+    static final String COMMAND_HELLO = "HELLO";
+    static final String COMMAND_FORMAT = "FORMAT";
+    static final String COMMAND_PING = "PING";
+    static final String COMMAND_STOP = "STOP";
+    static final String RESPONSE_PROOF = "PROOF";
+    static final String RESPONSE_OK = "OK";
+    static final String RESPONSE_ERROR = "ERROR";
+
+    /**
+     * Maximum length of a header line. Longer lines are considered to be garbage.
+     */
+    private static final int MAX_HEADER_LENGTH = 8192;
+
+    /**
+     * Maximum length in bytes of the text of a FORMAT request. Larger texts are formatted in process by the client.
+     */
+    static final int MAX_REQUEST_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Milliseconds to wait for a client to send its request
+     */
+    private static final int REQUEST_TIMEOUT = 60000;
+
+    /**
+     * Number of random bytes in the secret
+     */
+    private static final int SECRET_LENGTH = 32;
+
+    /**
+     * Number of random bytes in the challenge of a HELLO request
+     */
+    static final int CHALLENGE_LENGTH = 16;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Formatted once at startup to have the classes loaded before the first request comes in
+     */
+    private static final String WARM_UP_TEXT = "select a, b from c where d = 1;";
+
+    private final FormatConfiguration defaultConfig;
+    private final int requestedPort;
+    private final ExecutorService workers;
+
+    /**
+     * Loaded profiles, profile name - configuration
+     */
+    private final Map<String, FormatConfiguration> profiles = new ConcurrentHashMap<>();
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private byte[] secret;
+    private Path secretFile;
+
+    /**
+     * Constructor
+     *
+     * @param defaultConfig
+     *            The configuration to use for requests that do not specify one
+     * @param port
+     *            The port to listen on. Zero lets the system choose a free port, see {@link #getPort()}
+     * @param nrThreads
+     *            The number of worker threads. If zero or less, the number of available processors will be used.
+     */
+    FormatterDaemon(FormatConfiguration defaultConfig, int port, int nrThreads) {
+        this.defaultConfig = defaultConfig;
+        this.requestedPort = port;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(
+                nrThreads <= 0 ? Runtime.getRuntime().availableProcessors() : nrThreads, runnable -> {
+                    Thread thread = new Thread(runnable, "pgcode_formatter-daemon-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Binds the socket and starts accepting requests in a separate (non daemon) thread
+     *
+     * @return FormatterDaemon this
+     * @throws IOException
+     *             If the socket cannot be bound, for example because another daemon is already running on the port
+     */
+    synchronized FormatterDaemon start() throws IOException {
+        format(new StringReader(WARM_UP_TEXT), defaultConfig);
+        serverSocket = new ServerSocket(requestedPort, 50, InetAddress.getLoopbackAddress());
+        String hex = randomHex(SECRET_LENGTH);
+        secret = hex.getBytes(StandardCharsets.US_ASCII);
+        secretFile = getSecretFile(serverSocket.getLocalPort());
+        try {
+            writeSecretFile(secretFile, hex);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        acceptor = new Thread(this::acceptRequests, "pgcode_formatter-daemon");
+        acceptor.start();
+        log.info("Formatter daemon listening on " + serverSocket.getLocalSocketAddress());
+        return this;
+    }
+
+    /**
+     * Returns the port that the daemon listens on
+     *
+     * @return int the port number
+     */
+    synchronized int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting requests. Requests that are being processed will be aborted.
+     */
+    synchronized void stop() {
+        if (serverSocket != null && !serverSocket.isClosed()) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.warn("stop()", e);
+            }
+            workers.shutdownNow();
+            try {
+                Files.deleteIfExists(secretFile);
+            } catch (IOException e) {
+                log.warn("stop()", e);
+            }
+            log.info("Formatter daemon stopped");
+        }
+    }
+
+    /**
+     * Waits until the daemon is stopped
+     *
+     * @throws InterruptedException
+     *             If interrupted while waiting
+     */
+    void awaitTermination() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Returns the file that contains the secret of the daemon of the current user on the port
+     *
+     * @param port
+     *            The port of the daemon
+     * @return Path ~/.pgcode_formatter/daemon-&lt;port&gt;.secret
+     */
+    static Path getSecretFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".pgcode_formatter", "daemon-" + port + ".secret");
+    }
+
+    /**
+     * Returns random bytes as lower case hexadecimal digits
+     *
+     * @param nrBytes
+     *            The number of random bytes
+     * @return String 2 * nrBytes hexadecimal digits
+     */
+    static String randomHex(int nrBytes) {
+        byte[] randomBytes = new byte[nrBytes];
+        RANDOM.nextBytes(randomBytes);
+        return toHex(randomBytes);
+    }
+
+    /**
+     * Returns the proof that the daemon knows the secret, as answer to the challenge of a HELLO request: the SHA-256
+     * digest of the secret, a space and the challenge, in lower case hexadecimal digits. As the challenge always has
+     * the same length, the digest cannot be extended into the proof for a different challenge. This is the same as the
+     * output of: printf '%s %s' "$secret" "$challenge" | sha256sum
+     *
+     * @param secret
+     *            The secret as US-ASCII encoded hexadecimal digits
+     * @param challenge
+     *            The challenge from the HELLO request
+     * @return String the proof
+     */
+    static String proof(byte[] secret, String challenge) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(secret);
+            digest.update((" " + challenge).getBytes(StandardCharsets.US_ASCII));
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is supported by every Java platform", e);
+        }
+    }
+
+    /**
+     * Converts bytes into lower case hexadecimal digits
+     *
+     * @param bytes
+     *            The bytes to convert
+     * @return String two hexadecimal digits per byte
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Writes the secret to a file that only the current user can read. The file is written under a temporary name
+     * first, so a client never reads half a secret.
+     *
+     * @param file
+     *            The file to write
+     * @param text
+     *            The secret
+     * @throws IOException
+     *             from the file system
+     */
+    private static void writeSecretFile(Path file, String text) throws IOException {
+        Path directory = file.getParent();
+        Path tempFile;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            tempFile = Files.createTempFile(directory, "." + file.getFileName(), ".tmp",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(directory);
+            tempFile = Files.createTempFile(directory, "." + file.getFileName(), ".tmp");
+        }
+        try {
+            Files.writeString(tempFile, text + "\n", StandardCharsets.US_ASCII);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Accept loop, runs until the server socket is closed
+     */
+    private void acceptRequests() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                workers.execute(() -> handleRequest(socket));
+            } catch (SocketException e) {
+                log.debug(() -> "server socket closed: " + e);
+            } catch (IOException e) {
+                log.error("acceptRequests()", e);
+            }
+        }
+    }
+
+    /**
+     * Handles a single request
+     *
+     * @param socket
+     *            The connection to the client
+     */
+    private void handleRequest(Socket socket) {
+        try (Socket s = socket;
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            s.setSoTimeout(REQUEST_TIMEOUT);
+            String[] parts = readHeaderLine(in).split(" ", 4);
+            try {
+                if (COMMAND_HELLO.equals(parts[0])) {
+                    if (parts.length != 2 || !parts[1].matches("[0-9a-f]{" + (2 * CHALLENGE_LENGTH) + "}")) {
+                        throw new IllegalArgumentException("Invalid challenge in HELLO request");
+                    }
+                    out.write((RESPONSE_PROOF + " " + proof(secret, parts[1]) + "\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    parts = readHeaderLine(in).split(" ", 4);
+                }
+                switch (parts[0]) {
+                case COMMAND_PING:
+                    writeResponse(out, "");
+                    break;
+                case COMMAND_STOP:
+                    checkSecret(parts);
+                    writeResponse(out, "");
+                    out.flush();
+                    stop();
+                    break;
+                case COMMAND_FORMAT:
+                    checkSecret(parts);
+                    if (parts.length < 3) {
+                        throw new IllegalArgumentException("Length missing in FORMAT request");
+                    }
+                    int length = parseLength(parts[2]);
+                    byte[] text = in.readNBytes(length);
+                    if (text.length < length) {
+                        throw new EOFException("Expected " + length + " bytes, received " + text.length);
+                    }
+                    FormatConfiguration config = getConfiguration(parts.length > 3 ? parts[3].trim() : "");
+                    writeResponse(out,
+                            format(new StringReader(new String(text, StandardCharsets.UTF_8)), config));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request: " + parts[0]);
+                }
+            } catch (SecurityException e) {
+                log.warn("handleRequest(" + parts[0] + ") from " + s.getRemoteSocketAddress() + ": " + e.getMessage());
+                writeError(out, e);
+            } catch (RuntimeException | IOException e) {
+                log.error("handleRequest(" + parts[0] + ")", e);
+                writeError(out, e);
+            }
+        } catch (IOException e) {
+            log.error("handleRequest()", e);
+        }
+    }
+
+    /**
+     * Checks the secret in a request header
+     *
+     * @param parts
+     *            The header, split at spaces, of which the second part is the secret
+     * @throws SecurityException
+     *             If the secret is missing or wrong
+     */
+    private void checkSecret(String[] parts) {
+        if (parts.length < 2 || !MessageDigest.isEqual(secret, parts[1].getBytes(StandardCharsets.US_ASCII))) {
+            throw new SecurityException("Wrong secret in " + parts[0] + " request");
+        }
+    }
+
+    /**
+     * Parses the length of a FORMAT request
+     *
+     * @param length
+     *            The length as specified in the header
+     * @return int the length
+     * @throws IllegalArgumentException
+     *             If the length is not a number from 0 to {@link #MAX_REQUEST_LENGTH}
+     */
+    static int parseLength(String length) {
+        int result;
+        try {
+            result = Integer.parseInt(length);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        if (result < 0 || result > MAX_REQUEST_LENGTH) {
+            throw new IllegalArgumentException(
+                    "Length " + result + " out of range, the maximum is " + MAX_REQUEST_LENGTH + " bytes");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the configuration for the config specification, loading it if necessary
+     *
+     * @param configSpecification
+     *            Empty, a profile name or the absolute path of a configuration file
+     * @return FormatConfiguration the configuration to use
+     * @throws IOException
+     *             If the configuration cannot be found
+     */
+    private FormatConfiguration getConfiguration(String configSpecification) throws IOException {
+        if (configSpecification.isEmpty()) {
+            return defaultConfig;
+        }
+        if (configSpecification.matches("[a-z]+")) {
+            FormatConfiguration profile = profiles.get(configSpecification);
+            if (profile == null) {
+                profile = ConfigurationSnapshot.fromProfile(configSpecification);
+                if (profile == null) {
+                    String resourceName = "profiles/" + configSpecification + ".xml";
+                    try (InputStream in = FormatterDaemon.class.getClassLoader().getResourceAsStream(resourceName)) {
+                        if (in == null) {
+                            throw new NoSuchFileException(configSpecification, null, "Unknown profile");
+                        }
+                        profile = FormatConfiguration.getCached(new String(in.readAllBytes(), StandardCharsets.UTF_8),
+                                resourceName);
+                    }
+                }
+                profiles.put(configSpecification, profile);
+            }
+            return profile;
+        }
+        Path configPath = Paths.get(configSpecification);
+        if (!configPath.isAbsolute()) {
+            throw new IllegalArgumentException("The config path must be absolute: " + configSpecification);
+        }
+        /*
+         * The file is read on every request, but it is only parsed again when its content has changed
+         */
+        return FormatConfiguration.getCached(configPath);
+    }
+
+    /**
+     * Formats the text
+     *
+     * @param text
+     *            The text to format
+     * @param config
+     *            The configuration to use
+     * @return String the formatted text
+     * @throws IOException
+     *             Not really expected, the reader works on a string
+     */
+    private static String format(StringReader text, FormatConfiguration config) throws IOException {
+        StringBuilder result = new StringBuilder();
+        CodeFormatter.format(text, config, result);
+        return result.toString();
+    }
+
+    /**
+     * Writes an OK response with the UTF-8 encoded text
+     *
+     * @param out
+     *            The stream to write to
+     * @param text
+     *            The text to send
+     * @throws IOException
+     *             from the socket
+     */
+    static void writeResponse(OutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write((RESPONSE_OK + " " + bytes.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an ERROR response
+     *
+     * @param out
+     *            The stream to write to
+     * @param e
+     *            The error
+     * @throws IOException
+     *             from the socket
+     */
+    private static void writeError(OutputStream out, Exception e) throws IOException {
+        out.write((RESPONSE_ERROR + " " + String.valueOf(e).replace('\n', ' ') + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a header line from the stream
+     *
+     * @param in
+     *            The stream to read from
+     * @return String the header line without the terminating newline
+     * @throws IOException
+     *             If the stream ends before the newline or if the line is too long
+     */
+    static String readHeaderLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException("Incomplete header: " + line.toString(StandardCharsets.UTF_8));
+            }
+            if (line.size() >= MAX_HEADER_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
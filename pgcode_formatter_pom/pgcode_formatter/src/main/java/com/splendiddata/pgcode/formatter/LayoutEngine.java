@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+/**
+ * The ways in which the layout of a statement can be decided on, see
+ * {@link FormatConfiguration#setLayoutEngine(LayoutEngine)}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public enum LayoutEngine {
+    /**
+     * The nodes render themselves, trying alternative layouts where the configuration asks for it. This is the
+     * default.
+     */
+    CLASSIC,
+
+    /**
+     * The nodes describe their possible layouts in a single
+     * {@link com.splendiddata.pgcode.formatter.internal.Doc document} that is laid out in a single pass by the
+     * {@link com.splendiddata.pgcode.formatter.internal.DocPrinter}. It is faster and its output is predictable, but
+     * it only follows the main settings of the configuration.
+     */
+    DOCUMENT
+}
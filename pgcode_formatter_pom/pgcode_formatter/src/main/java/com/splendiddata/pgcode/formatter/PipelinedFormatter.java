@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.splendiddata.pgcode.formatter.internal.MappedInput;
+
+/**
+ * Formats a single input in three stages that run in their own thread: a reader thread that reads (and decompresses)
+ * the input, the formatting in the calling thread (which may render the statements in parallel, see
+ * {@link CodeFormatter#toStringResults(Reader, FormatConfiguration, int)}) and a writer thread that writes (and
+ * compresses) the output. The stages are connected by bounded queues, so reading and writing overlap with formatting
+ * while the memory that is used stays limited, no matter how big the input is.
+ * <p>
+ * Decompression and compression are done by the Reader and Writer that are passed to {@link #format(Reader, Writer)},
+ * for example an InputStreamReader on a GZIPInputStream. Because all reads and all writes are done in the reader and
+ * writer thread, the (de)compression is done there as well.
+ * </p>
+ * <p>
+ * A memory-mapped input file (see {@link #format(MappedInput, Writer)}) doesn't need the reader thread: the scanner
+ * decodes it straight into its own buffer, so copying it through the input queue would only add work.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class PipelinedFormatter {
+    private static final Logger log = LogManager.getLogger(PipelinedFormatter.class);
+
+    /**
+     * The number of chars in a block of input
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The number of blocks of input and the number of formatted statements that can be waiting in the queues
+     */
+    static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * The first bytes of a gzip stream
+     */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Marks the end of the input in the input queue
+     */
+    private static final CharBuffer END_OF_INPUT = CharBuffer.allocate(0);
+
+    /**
+     * Marks the end of the output in the output queue. Compared by identity.
+     */
+    private static final String END_OF_OUTPUT = new String();
+
+    private final FormatConfiguration config;
+    private final int nrThreads;
+
+    private final BlockingQueue<CharBuffer> inputQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<String> outputQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile IOException readFailure;
+    private volatile IOException writeFailure;
+
+    /**
+     * Constructor
+     *
+     * @param config
+     *            The configuration to format with
+     * @param nrThreads
+     *            The number of threads that render statements in parallel
+     */
+    PipelinedFormatter(FormatConfiguration config, int nrThreads) {
+        this.config = config;
+        this.nrThreads = nrThreads;
+    }
+
+    /**
+     * Checks if the stream starts with the gzip magic number. The stream is reset to its start.
+     *
+     * @param in
+     *            The stream to check
+     * @return boolean true if the stream is gzip compressed
+     * @throws IOException
+     *             from the stream
+     */
+    static boolean isGzip(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Checks if the file starts with the gzip magic number
+     *
+     * @param file
+     *            The file to check
+     * @return boolean true if the file is gzip compressed
+     * @throws IOException
+     *             from the file system
+     */
+    static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        }
+    }
+
+    /**
+     * Formats the source into the target. Both are closed when done.
+     *
+     * @param source
+     *            Provides the input
+     * @param target
+     *            Receives the formatted output
+     * @throws IOException
+     *             from the source or the target
+     */
+    void format(Reader source, Writer target) throws IOException {
+        Thread readerThread = new Thread(() -> read(source), "pgcode_formatter-read");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        Stream<String> results;
+        try {
+            results = CodeFormatter.toStringResults(new QueueReader(), config, nrThreads);
+        } catch (IOException | RuntimeException e) {
+            readerThread.interrupt();
+            throw e;
+        }
+        format(results, readerThread, target);
+    }
+
+    /**
+     * Formats the memory-mapped source into the target, which is closed when done. The source is read by the scanner
+     * itself, without a reader thread, and is cut into parts that are scanned and rendered in parallel, see
+     * {@link CodeFormatter#toStringResults(MappedInput, FormatConfiguration, int)}.
+     *
+     * @param source
+     *            The input, which must not be gzip compressed
+     * @param target
+     *            Receives the formatted output
+     * @throws IOException
+     *             from the target
+     */
+    void format(MappedInput source, Writer target) throws IOException {
+        format(CodeFormatter.toStringResults(source, config, nrThreads), null, target);
+    }
+
+    /**
+     * Writes the results into the target, which is closed when done
+     *
+     * @param results
+     *            The formatted input. The stream is closed when done.
+     * @param readerThread
+     *            The thread that feeds the input, or null if there is none
+     * @param target
+     *            Receives the formatted output
+     * @throws IOException
+     *             from the input or the target
+     */
+    private void format(Stream<String> results, Thread readerThread, Writer target) throws IOException {
+        Thread writerThread = new Thread(() -> write(target), "pgcode_formatter-write");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        boolean completed = false;
+        try {
+            try (Stream<String> stream = results) {
+                stream.forEach(this::putOutput);
+            }
+            if (readFailure != null) {
+                // The scanner only logs a failing read and handles it as the end of the input
+                throw readFailure;
+            }
+            putOutput(END_OF_OUTPUT);
+            writerThread.join();
+            completed = true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while formatting");
+        } finally {
+            if (!completed) {
+                if (readerThread != null) {
+                    readerThread.interrupt();
+                }
+                writerThread.interrupt();
+            }
+        }
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    /**
+     * Executed by the reader thread: reads the source in blocks into the input queue
+     *
+     * @param source
+     *            The source to read
+     */
+    private void read(Reader source) {
+        try (Reader in = source) {
+            for (;;) {
+                char[] block = new char[BLOCK_SIZE];
+                int length = in.read(block);
+                if (length < 0) {
+                    break;
+                }
+                inputQueue.put(CharBuffer.wrap(block, 0, length));
+            }
+        } catch (IOException e) {
+            log.error("read()", e);
+            readFailure = e;
+        } catch (InterruptedException e) {
+            log.debug(() -> "reader interrupted");
+            return;
+        }
+        try {
+            inputQueue.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            log.debug(() -> "reader interrupted");
+        }
+    }
+
+    /**
+     * Executed by the writer thread: writes the formatted statements from the output queue into the target. After a
+     * failure the queue is still emptied, so that the formatting stage does not block before it notices the failure.
+     *
+     * @param target
+     *            The target to write to
+     */
+    private void write(Writer target) {
+        try {
+            try (Writer out = target) {
+                for (String text = outputQueue.take(); text != END_OF_OUTPUT; text = outputQueue.take()) {
+                    out.write(text);
+                }
+            } catch (IOException e) {
+                log.error("write()", e);
+                writeFailure = e;
+                while (outputQueue.take() != END_OF_OUTPUT) {
+                    // discard
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug(() -> "writer interrupted");
+        }
+    }
+
+    /**
+     * Hands a formatted statement to the writer thread
+     *
+     * @param text
+     *            The formatted text
+     * @throws UncheckedIOException
+     *             if writing failed
+     */
+    private void putOutput(String text) {
+        if (writeFailure != null) {
+            throw new UncheckedIOException(writeFailure);
+        }
+        try {
+            outputQueue.put(text);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("interrupted while writing"));
+        }
+    }
+
+    /**
+     * The Reader that the formatting stage reads from: provides the blocks from the input queue
+     */
+    private final class QueueReader extends Reader {
+        private CharBuffer block = CharBuffer.allocate(0);
+        private boolean endReached;
+
+        /**
+         * @see java.io.Reader#read(char[], int, int)
+         *
+         * @param buffer
+         *            Receives the characters
+         * @param offset
+         *            The position in the buffer of the first character to read
+         * @param length
+         *            The maximum number of characters to read
+         * @return int The number of characters read or -1 at the end of the input
+         * @throws IOException
+         *             if reading the source failed
+         */
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!block.hasRemaining()) {
+                if (endReached) {
+                    return -1;
+                }
+                try {
+                    block = inputQueue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while reading");
+                }
+                if (block == END_OF_INPUT) {
+                    endReached = true;
+                    if (readFailure != null) {
+                        throw readFailure;
+                    }
+                }
+            }
+            int count = Math.min(length, block.remaining());
+            block.get(buffer, offset, count);
+            return count;
+        }
+
+        /**
+         * Nothing to close, the reader thread closes the source
+         */
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package com.splendiddata.pgcode.formatter;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -30,12 +31,16 @@ import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.StringFormatterMessageFactory;
 
+import com.splendiddata.pgcode.formatter.internal.MappedInput;
+
 /**
  * Main class for the code formatter. Formats a single (plpg)sql file according to provided (or default) settings.
  * <p>
@@ -49,8 +54,29 @@ import org.apache.logging.log4j.message.StringFormatterMessageFactory;
  * If an output file is specified, then the output will be written to that file. Otherwise stdout will be used
  * </p>
  * <p>
+ * A single input is read, formatted and written by three threads (see {@link PipelinedFormatter}). Gzip compressed
+ * input is decompressed and an output file with extension .gz is compressed in the reading and writing thread.
+ * </p>
+ * <p>
  * If the option "-S" is specified, then the provided configuration file will be stored in the user preferences. This
- * will be used in future calls when configuration file is not provided
+ * will be used in future calls when configuration file is not provided. Next to the xml, a snapshot of the completed
+ * configuration is stored (see {@link ConfigurationSnapshot}), so that future calls need not validate and complete the
+ * xml again. The built-in profiles are loaded from snapshots that are created during the build.
+ * </p>
+ * <p>
+ * If the option "-b" is specified, then all files, directories, glob patterns and @file-lists that follow it are
+ * formatted in this JVM by a pool of worker threads (see {@link BatchFormatter}), either in place or into the output
+ * directory specified by "-d".
+ * </p>
+ * <p>
+ * With "--daemon" the formatter keeps running and answers format requests on a loopback port (see
+ * {@link FormatterDaemon}). "--use-daemon" sends the input to such a daemon instead of loading the configuration
+ * itself, and falls back to formatting in process when no daemon is running.
+ * </p>
+ * <p>
+ * "--layout-engine document" lays out the statements with the {@link LayoutEngine#DOCUMENT} engine, which decides on
+ * the layout in a single pass instead of trying alternative layouts. "--optimize-layout millis" has the classic engine
+ * weigh the configured limits of lists against each other within a time budget per statement.
  * </p>
  *
  * @author Splendid Data Product Development B.V.
@@ -80,18 +106,80 @@ public final class PlPgSqlCodeFormatterMain {
      */
     public static final String OPTION_OUTPUT = "output";
     
+    /**
+     * Command line option --batch
+     */
+    public static final String OPTION_BATCH = "batch";
+
+    /**
+     * Command line option --output-directory
+     */
+    public static final String OPTION_OUTPUT_DIRECTORY = "output-directory";
+
+    /**
+     * Command line option --threads
+     */
+    public static final String OPTION_THREADS = "threads";
+
+    /**
+     * Command line option --layout-engine
+     */
+    public static final String OPTION_LAYOUT_ENGINE = "layout-engine";
+
+    /**
+     * Command line option --optimize-layout
+     */
+    public static final String OPTION_OPTIMIZE_LAYOUT = "optimize-layout";
+
+    /**
+     * Command line option --daemon
+     */
+    public static final String OPTION_DAEMON = "daemon";
+
+    /**
+     * Command line option --use-daemon
+     */
+    public static final String OPTION_USE_DAEMON = "use-daemon";
+
+    /**
+     * Command line option --stop-daemon
+     */
+    public static final String OPTION_STOP_DAEMON = "stop-daemon";
+
+    /**
+     * Command line option --port
+     */
+    public static final String OPTION_PORT = "port";
+
     private static final String OPTION_STORE_CONFIG = "store-config";
 
     private static final Preferences PREFS = Preferences.userNodeForPackage(PlPgSqlCodeFormatterMain.class);
     private static final String PREF_CONFIG_PROFILE_NAME = "config_profile_name";
     private static final String PREF_CONFIG_PATH = "config_path";
     private static final String PREF_CONFIG_XML_CONTENT = "config_xml_content";
+    private static final String PREF_CONFIG_SNAPSHOT = "config_snapshot";
+
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
 
     private static Path configPath;
     private static String configFileContent;
     private static String configXmlString;
+    private static boolean storeConfig;
     private static InputStream in = System.in;
+    private static Path inputFile;
+    private static Path outputFile;
     private static OutputStream out = System.out;
+    private static String[] batchSources;
+    private static Path batchOutputDirectory;
+    private static int nrThreads;
+    private static LayoutEngine layoutEngine = LayoutEngine.CLASSIC;
+    private static long layoutOptimizerBudget;
+    private static boolean runDaemon;
+    private static boolean useDaemon;
+    private static boolean stopDaemon;
+    private static int daemonPort = FormatterDaemon.DEFAULT_PORT;
+    private static String configSpecification;
 
     private static Map<String, String> configProfiles;
 
@@ -129,39 +217,206 @@ public final class PlPgSqlCodeFormatterMain {
         log.info("@>main(" + Arrays.asList(args).stream().collect(Collectors.joining(" ")) + ")");
 
         if (interpretCommandLine(args)) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
-                if (configPath != null) {
-                    if (configXmlString == null) {
-                        // Use provided config file
-                        config = new FormatConfiguration(configPath);
+            if (stopDaemon) {
+                try {
+                    FormatterClient.stop(daemonPort);
+                } catch (IOException e) {
+                    log.error(e, e);
+                    System.out.println(e);
+                }
+            } else if (runDaemon) {
+                runDaemon();
+            } else if (batchSources != null) {
+                formatBatch();
+            } else if (useDaemon) {
+                formatViaDaemon();
+            } else {
+                try {
+                    loadConfiguration();
+                    PipelinedFormatter formatter = new PipelinedFormatter(config,
+                            nrThreads > 0 ? nrThreads : Runtime.getRuntime().availableProcessors());
+                    if (inputFile != null && !PipelinedFormatter.isGzip(inputFile)) {
+                        formatter.format(MappedInput.map(inputFile), openOutput());
                     } else {
-                        // Use profile config file
-                        config = new FormatConfiguration(configXmlString, configPath.toString());
+                        formatter.format(openInput(), openOutput());
                     }
-                } else {
-                    // Use config file from user preferences
-                    config = new FormatConfiguration(configFileContent, null);
+                } catch (IOException e) {
+                    log.error(e, e);
+                    System.out.println(e);
                 }
-
-                // Clear reference to string
-                configXmlString = null;
-                CodeFormatter.toStringResults(reader, config).forEach(result -> {
-                    try {
-                        writer.append(result);
-                    } catch (IOException e) {
-                        log.error(e, e);
-                        throw new RuntimeException(e);
-                    }
-                });
-            } catch (IOException e) {
-                log.error(e, e);
-                System.out.println(e);
             }
         }
         log.info("@<main()");
     }
 
+    /**
+     * Opens the input. A file that is specified by the --input option is memory-mapped and decoded straight into the
+     * buffer of the scanner, see {@link MappedInput}. Otherwise stdin is read. Gzip compressed input, recognised by
+     * its magic number, is decompressed.
+     *
+     * @return Reader on the input
+     * @throws IOException
+     *             from the file system
+     */
+    private static Reader openInput() throws IOException {
+        if (inputFile != null) {
+            if (PipelinedFormatter.isGzip(inputFile)) {
+                return new InputStreamReader(new GZIPInputStream(Files.newInputStream(inputFile), GZIP_BUFFER_SIZE),
+                        StandardCharsets.UTF_8);
+            }
+            MappedInput input = MappedInput.map(inputFile);
+            return input.openReader(0, input.size());
+        }
+        BufferedInputStream stdin = new BufferedInputStream(in, GZIP_BUFFER_SIZE);
+        if (PipelinedFormatter.isGzip(stdin)) {
+            return new InputStreamReader(new GZIPInputStream(stdin, GZIP_BUFFER_SIZE), StandardCharsets.UTF_8);
+        }
+        return new InputStreamReader(stdin, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens the output. An --output file with the extension .gz is gzip compressed.
+     *
+     * @return Writer on the output
+     * @throws IOException
+     *             from the file system
+     */
+    private static Writer openOutput() throws IOException {
+        if (outputFile != null && outputFile.getFileName().toString().endsWith(GZIP_EXTENSION)) {
+            return new BufferedWriter(
+                    new OutputStreamWriter(new GZIPOutputStream(out, GZIP_BUFFER_SIZE), StandardCharsets.UTF_8));
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Loads the effective configuration into {@link #config}, from the provided config file, the provided profile or
+     * the user preferences
+     */
+    private static void loadConfiguration() {
+        if (configPath != null) {
+            if (configXmlString == null) {
+                // Use provided config file
+                config = new FormatConfiguration(configPath);
+            } else {
+                // Use profile snapshot or, if not usable, the profile config file
+                config = ConfigurationSnapshot.fromProfile(configSpecification);
+                if (config == null) {
+                    config = new FormatConfiguration(configXmlString, configPath.toString());
+                }
+            }
+            if (storeConfig) {
+                storeSnapshot();
+            }
+        } else if (configFileContent == null) {
+            config = new FormatConfiguration((String) null, null);
+        } else {
+            // Use config snapshot or, if not usable, the config file from user preferences
+            byte[] snapshot = PREFS.getByteArray(PREF_CONFIG_SNAPSHOT, null);
+            config = null;
+            if (snapshot != null) {
+                try {
+                    config = ConfigurationSnapshot.fromBytes(snapshot);
+                } catch (IOException e) {
+                    log.info("Configuration snapshot in user preferences not used: " + e);
+                }
+            }
+            if (config == null) {
+                config = new FormatConfiguration(configFileContent, null);
+                storeSnapshot();
+            }
+        }
+
+        config.setLayoutEngine(layoutEngine);
+        config.setLayoutOptimizerBudget(layoutOptimizerBudget);
+
+        // Clear reference to string
+        configXmlString = null;
+    }
+
+    /**
+     * Stores the snapshot of {@link #config} in the user preferences
+     */
+    private static void storeSnapshot() {
+        try {
+            PREFS.putByteArray(PREF_CONFIG_SNAPSHOT, ConfigurationSnapshot.toBytes(config));
+            PREFS.flush();
+        } catch (BackingStoreException e) {
+            log.warn("A problem occurred while trying to store the configuration snapshot in user preferences: " + e);
+        }
+    }
+
+    /**
+     * Formats all files specified by the --batch option. The configuration is loaded once and shared by all worker
+     * threads.
+     */
+    private static void formatBatch() {
+        try {
+            loadConfiguration();
+            BatchFormatter batchFormatter = new BatchFormatter(config, batchOutputDirectory, nrThreads);
+            for (String source : batchSources) {
+                batchFormatter.addSource(source);
+            }
+            int nrFailures = batchFormatter.formatAll();
+            if (nrFailures > 0) {
+                System.out.println(nrFailures + " of " + batchFormatter.getSources().size()
+                        + " files could not be formatted. Please check the log for details.");
+            }
+        } catch (IOException e) {
+            log.error(e, e);
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Runs the formatter daemon until it is stopped
+     */
+    private static void runDaemon() {
+        try {
+            loadConfiguration();
+            new FormatterDaemon(config, daemonPort, nrThreads).start().awaitTermination();
+        } catch (IOException e) {
+            log.error(e, e);
+            System.out.println(e);
+        } catch (InterruptedException e) {
+            log.error(e, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Has the input formatted by a running daemon. If no daemon of the current user is running, or if the input is
+     * too large for the daemon, the input is formatted in process.
+     */
+    private static void formatViaDaemon() {
+        try (Writer writer = openOutput()) {
+            StringWriter text = new StringWriter();
+            try (Reader input = openInput()) {
+                input.transferTo(text);
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            String formatted = null;
+            if (bytes.length > FormatterDaemon.MAX_REQUEST_LENGTH) {
+                log.info("The input is too large for the formatter daemon, formatting in process");
+            } else {
+                try {
+                    formatted = FormatterClient.format(daemonPort, configSpecification, bytes);
+                } catch (ConnectException e) {
+                    log.info("No formatter daemon on port " + daemonPort + ", formatting in process: " + e);
+                }
+            }
+            if (formatted == null) {
+                loadConfiguration();
+                CodeFormatter.format(new StringReader(text.toString()), config, writer);
+            } else {
+                writer.append(formatted);
+            }
+        } catch (IOException e) {
+            log.error(e, e);
+            System.out.println(e);
+        }
+    }
+
     /**
      * Interprets the command line options
      *
@@ -179,9 +434,42 @@ public final class PlPgSqlCodeFormatterMain {
                 "configuration.xml file that tells about how to format the sources. An example can be found in /com/splendiddata/plpgsql/code/formatter/DefaultConfig.xml in the jar")
                 .build());
         options.addOption(Option.builder("i").longOpt(OPTION_INPUT).hasArg()
-                .desc("The input (plpg)sql source file. If not provided, stdin will be used").build());
+                .desc("The input (plpg)sql source file, may be gzip compressed. If not provided, stdin will be used")
+                .build());
         options.addOption(Option.builder("o").longOpt(OPTION_OUTPUT).hasArg()
-                .desc("The formatted output (plpg)sql source file. If not provided, stdout will be used").build());
+                .desc("The formatted output (plpg)sql source file, gzip compressed if its name ends with .gz. If not provided, stdout will be used")
+                .build());
+        options.addOption(Option.builder("b").longOpt(OPTION_BATCH).hasArgs().desc(
+                "Formats all files, directories (*.sql files recursively), glob patterns and @file-lists that follow in a single run. "
+                        + "Files are formatted in place unless an output directory is specified")
+                .build());
+        options.addOption(Option.builder("d").longOpt(OPTION_OUTPUT_DIRECTORY).hasArg()
+                .desc("Batch mode only: the directory into which the formatted files are written, "
+                        + "mirroring their relative paths. If not provided, files are formatted in place")
+                .build());
+        options.addOption(Option.builder("t").longOpt(OPTION_THREADS).hasArg()
+                .desc("The number of worker threads. In batch and daemon mode the threads format different files, "
+                        + "otherwise the statements of the input file are formatted in parallel. "
+                        + "Defaults to the number of processors")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_LAYOUT_ENGINE).hasArg()
+                .desc("The engine that decides on the layout: \"classic\" (the default) or \"document\", "
+                        + "which lays out a document of all alternative layouts in a single pass")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_OPTIMIZE_LAYOUT).hasArg()
+                .desc("Classic layout engine only: the line breaks of lists are chosen by weighing all configured "
+                        + "limits at once, spending at most the specified number of milliseconds per statement")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_DAEMON)
+                .desc("Keeps running and formats requests from --use-daemon clients on a loopback port")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_USE_DAEMON)
+                .desc("Has the input formatted by a running daemon. "
+                        + "If no daemon is running, the input is formatted in process")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_STOP_DAEMON).desc("Stops a running daemon").build());
+        options.addOption(Option.builder().longOpt(OPTION_PORT).hasArg()
+                .desc("The loopback port of the daemon. Defaults to " + FormatterDaemon.DEFAULT_PORT).build());
         options.addOption(Option.builder("S").longOpt(OPTION_STORE_CONFIG)
                 .desc("The provided configuration file, if any, will be stored in user preferences. "
                         + "This will be used in future calls when configuration file is not provided")
@@ -196,8 +484,53 @@ public final class PlPgSqlCodeFormatterMain {
                 return false;
             }
 
-            if (commandLine.hasOption(OPTION_INPUT)) {
-                in = Files.newInputStream(Paths.get(commandLine.getOptionValue(OPTION_INPUT)));
+            if (commandLine.hasOption(OPTION_PORT)) {
+                Integer port = getNumericOption(commandLine, OPTION_PORT, 1, 65535, options);
+                if (port == null) {
+                    return false;
+                }
+                daemonPort = port.intValue();
+            }
+            if (commandLine.hasOption(OPTION_THREADS)) {
+                Integer threads = getNumericOption(commandLine, OPTION_THREADS, 0, Integer.MAX_VALUE, options);
+                if (threads == null) {
+                    return false;
+                }
+                nrThreads = threads.intValue();
+            }
+            if (commandLine.hasOption(OPTION_LAYOUT_ENGINE)) {
+                layoutEngine = LayoutEngine
+                        .valueOf(commandLine.getOptionValue(OPTION_LAYOUT_ENGINE).toUpperCase(Locale.ROOT));
+            }
+            if (commandLine.hasOption(OPTION_OPTIMIZE_LAYOUT)) {
+                Long millis = getNumericOption(commandLine, OPTION_OPTIMIZE_LAYOUT, 0L, Long.MAX_VALUE, options);
+                if (millis == null) {
+                    return false;
+                }
+                layoutOptimizerBudget = millis.longValue();
+            }
+            useDaemon = commandLine.hasOption(OPTION_USE_DAEMON);
+            if (commandLine.hasOption(OPTION_STOP_DAEMON)) {
+                stopDaemon = true;
+                return true;
+            } else if (commandLine.hasOption(OPTION_DAEMON)) {
+                runDaemon = true;
+            } else if (commandLine.hasOption(OPTION_BATCH)) {
+                if (commandLine.hasOption(OPTION_INPUT) || commandLine.hasOption(OPTION_OUTPUT)) {
+                    printCommandLineUsage(PlPgSqlCodeFormatterMain.class.getSimpleName(), options, true,
+                            "The --input and --output options cannot be combined with --batch");
+                    return false;
+                }
+                batchSources = commandLine.getOptionValues(OPTION_BATCH);
+                if (commandLine.hasOption(OPTION_OUTPUT_DIRECTORY)) {
+                    batchOutputDirectory = Paths.get(commandLine.getOptionValue(OPTION_OUTPUT_DIRECTORY))
+                            .toAbsolutePath();
+                }
+            } else if (commandLine.hasOption(OPTION_INPUT)) {
+                inputFile = Paths.get(commandLine.getOptionValue(OPTION_INPUT));
+                if (!Files.isRegularFile(inputFile)) {
+                    throw new NoSuchFileException(inputFile.toString());
+                }
             } else {
                 log.error("Input file is missing. Please provide an input file and try again");
                 printCommandLineUsage(PlPgSqlCodeFormatterMain.class.getSimpleName(), options, true,
@@ -208,6 +541,11 @@ public final class PlPgSqlCodeFormatterMain {
             if (commandLine.hasOption(OPTION_CONFIG)) {
                 String optionValue = commandLine.getOptionValue(OPTION_CONFIG);
                 configPath = getConfigPath(optionValue, commandLine);
+                if (configXmlString == null) {
+                    configSpecification = configPath.toAbsolutePath().toString();
+                } else {
+                    configSpecification = optionValue.toLowerCase();
+                }
                 if (log.isDebugEnabled()) {
                     log.debug(PlPgSqlCodeFormatterMain.class + ": trying to format "
                             + commandLine.getOptionValue(OPTION_INPUT) + " using config file " + configPath);
@@ -226,9 +564,9 @@ public final class PlPgSqlCodeFormatterMain {
             }
 
             if (commandLine.hasOption(OPTION_OUTPUT)) {
-                Path outputPath = Paths.get(commandLine.getOptionValue(OPTION_OUTPUT)).toAbsolutePath();
-                Files.createDirectories(outputPath.getParent());
-                out = Files.newOutputStream(outputPath);
+                outputFile = Paths.get(commandLine.getOptionValue(OPTION_OUTPUT)).toAbsolutePath();
+                Files.createDirectories(outputFile.getParent());
+                out = Files.newOutputStream(outputFile);
             }
         } catch (IOException e) {
             log.error("interpretCommandLine(" + Arrays.asList(args).stream().collect(Collectors.joining(" ")) + ")", e);
@@ -248,6 +586,64 @@ public final class PlPgSqlCodeFormatterMain {
         return true;
     }
 
+    /**
+     * Returns the numeric value of an option. If the value is not a number in the range, the usage is printed.
+     *
+     * @param commandLine
+     *            The parsed command line
+     * @param option
+     *            The long name of the option
+     * @param min
+     *            The minimum value
+     * @param max
+     *            The maximum value
+     * @param options
+     *            The options, for the usage
+     * @return Integer the value of the option, or null if it is not valid
+     */
+    private static Integer getNumericOption(CommandLine commandLine, String option, int min, int max,
+            Options options) {
+        Long result = getNumericOption(commandLine, option, (long) min, (long) max, options);
+        if (result == null) {
+            return null;
+        }
+        return Integer.valueOf(result.intValue());
+    }
+
+    /**
+     * Returns the numeric value of an option that may exceed the range of an int. If the value is not a number in the
+     * range, the usage is printed.
+     *
+     * @param commandLine
+     *            The parsed command line
+     * @param option
+     *            The long name of the option
+     * @param min
+     *            The minimum value
+     * @param max
+     *            The maximum value
+     * @param options
+     *            The options, for the usage
+     * @return Long the value of the option, or null if it is not valid
+     */
+    private static Long getNumericOption(CommandLine commandLine, String option, long min, long max,
+            Options options) {
+        String value = commandLine.getOptionValue(option);
+        try {
+            long result = Long.parseLong(value.trim());
+            if (result >= min && result <= max) {
+                return Long.valueOf(result);
+            }
+        } catch (NumberFormatException e) {
+            log.debug(() -> "getNumericOption(" + option + ") " + e);
+        }
+        String message = "The value of the --" + option + " option must be a number from " + min + " to " + max
+                + ", not \"" + value + "\"";
+        log.error(message);
+        printCommandLineUsage(PlPgSqlCodeFormatterMain.class.getSimpleName(), options, true, message);
+        return null;
+    }
+
     /**
      * Returns the Path to the provided config xml file or null when a profile name is provided instead. When a profile
      * name is provided, the config file content configFileContent will be set. In addition, the config info will be
@@ -298,6 +694,7 @@ public final class PlPgSqlCodeFormatterMain {
         }
 
         if (commandLine.hasOption(OPTION_STORE_CONFIG)) {
+            storeConfig = true;
             PREFS.put(PREF_CONFIG_PATH, result.toString());
             PREFS.put(PREF_CONFIG_XML_CONTENT, contentBuilder.toString());
             PREFS.flush();
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.helper;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.splendiddata.pgcode.formatter.ConfigurationSnapshot;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Creates the snapshots of the default configuration and of the built-in profiles, see {@link ConfigurationSnapshot}.
+ * <p>
+ * Runs in the process-classes phase of the maven build, after {@link DefaultConfigCreator}, so that the command line
+ * interface can start without JAXB and without validating the profiles against the xsd.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class ConfigSnapshotCreator {
+
+    /**
+     * This is where the snapshots will land
+     */
+    private static final String CLASSES_DIRECTORY = "target/classes";
+
+    /**
+     * Main entry point of the program
+     *
+     * @param args
+     *            not used
+     * @throws IOException
+     *             If a snapshot cannot be written. It fails the maven build.
+     */
+    public static void main(String[] args) throws IOException {
+        Path classesDirectory = Paths.get(getBaseDir().toString(), CLASSES_DIRECTORY);
+        Path path = Paths.get(classesDirectory.toString(), ConfigurationSnapshot.DEFAULT_SNAPSHOT_PATH);
+        try {
+            /*
+             * A snapshot from a previous build must not be used as the default configuration
+             */
+            Files.deleteIfExists(path);
+            writeSnapshot(path, new FormatConfiguration((Configuration) null));
+
+            Path profilesDirectory = Paths.get(classesDirectory.toString(), ConfigurationSnapshot.PROFILES_DIRECTORY);
+            try (DirectoryStream<Path> profiles = Files.newDirectoryStream(profilesDirectory, "*.xml")) {
+                for (Path profile : profiles) {
+                    String fileName = profile.getFileName().toString();
+                    path = profile.resolveSibling(fileName.substring(0, fileName.length() - ".xml".length())
+                            + ConfigurationSnapshot.SNAPSHOT_EXTENSION);
+                    writeSnapshot(path, new FormatConfiguration(profile));
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(ConfigSnapshotCreator.class.getName() + " failed to create " + path, e);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the configuration
+     *
+     * @param path
+     *            The file to write
+     * @param config
+     *            The configuration
+     * @throws IOException
+     *             from the file system
+     */
+    private static void writeSnapshot(Path path, FormatConfiguration config) throws IOException {
+        Files.createDirectories(path.getParent());
+        byte[] snapshot = ConfigurationSnapshot.toBytes(config);
+        Files.write(path, snapshot);
+        System.out.println(new StringBuilder().append(ConfigSnapshotCreator.class.getName()).append(" created: ")
+                .append(path).append(" (").append(snapshot.length).append(" bytes)").toString());
+    }
+
+    /**
+     * Figure out the base directory of this project. The target files will be relative to this directory
+     *
+     * @return Path The project directory
+     */
+    private static Path getBaseDir() {
+        Path projectDirectory;
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            projectDirectory = Paths.get(".").toAbsolutePath();
+            /*
+             * May be in the parent directory
+             */
+            if (Files.isDirectory(Paths.get(projectDirectory.toString(), "pgcode_formatter"))) {
+                projectDirectory = Paths.get(projectDirectory.toString(), "pgcode_formatter").toAbsolutePath();
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        return projectDirectory;
+    }
+}
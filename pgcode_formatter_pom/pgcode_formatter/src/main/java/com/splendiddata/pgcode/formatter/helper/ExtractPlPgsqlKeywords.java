@@ -77,23 +77,35 @@ public class ExtractPlPgsqlKeywords {
      */
     public static void main(String[] args) {
         Path baseDir = getBaseDir();
-        Set<String> keywords = new TreeSet<>();
-
-        Path path = Paths.get(baseDir.toString(), RESERVED_KW_LIST);
+        Path path = Paths.get(baseDir.toString(), OUTPUT_PATH);
         try {
-            readPostgresKeywords(path, keywords);
-            path = Paths.get(baseDir.toString(), UNRESERVED_KW_LIST);
-            readPostgresKeywords(path, keywords);
-            path = Paths.get(baseDir.toString(), OUTPUT_PATH);
+            Set<String> keywords = extractKeywords(baseDir);
             writeKeywords(path, keywords);
             System.out.println(new StringBuilder().append("Created ").append(path).append(" with ")
                     .append(keywords.size()).append(" keywords").toString());
         } catch (IOException e) {
-            System.err.println(ExtractPlPgsqlKeywords.class.getName() + " failed to process file " + path + ":\n" + e);
+            System.err.println(ExtractPlPgsqlKeywords.class.getName() + " failed to create " + path + ":\n" + e);
             e.printStackTrace(System.err);
         }
     }
 
+    /**
+     * Extracts the plpgsql keywords from the header files
+     *
+     * @param baseDir
+     *            The project directory
+     * @return Set&lt;String&gt; the keywords in lower case, sorted
+     * @throws IOException
+     *             when something is wrong with a header file
+     * @since 0.3.2
+     */
+    public static Set<String> extractKeywords(Path baseDir) throws IOException {
+        Set<String> keywords = new TreeSet<>();
+        readPostgresKeywords(Paths.get(baseDir.toString(), RESERVED_KW_LIST), keywords);
+        readPostgresKeywords(Paths.get(baseDir.toString(), UNRESERVED_KW_LIST), keywords);
+        return keywords;
+    }
+
     /**
      * Figure out the base directory of this project. Source and target files will be relative to this directory
      *
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.helper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
+
+/**
+ * Creates the displacements of the perfect hash of the {@link KeywordTable}, so that they don't have to be searched
+ * for every time the formatter starts.
+ * <p>
+ * Runs in the process-classes phase of the maven build, after {@link ExtractPlPgsqlKeywords}, because the plpgsql
+ * keywords are part of the table.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class KeywordTableCreator {
+
+    /**
+     * This is where the displacements will land
+     */
+    private static final String OUTPUT_PATH = "target/classes/" + KeywordTable.DISPLACEMENTS_PATH;
+
+    /**
+     * Main entry point of the program
+     *
+     * @param args
+     *            not used
+     * @throws IOException
+     *             If the displacements cannot be written. It fails the maven build.
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(getBaseDir().toString(), OUTPUT_PATH);
+        try {
+            int[] displacements = KeywordTable.createDisplacements();
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(displacements.length);
+                for (int displacement : displacements) {
+                    out.writeInt(displacement);
+                }
+            }
+            System.out.println(new StringBuilder().append(KeywordTableCreator.class.getName()).append(" created: ")
+                    .append(path).append(" (").append(displacements.length).append(" buckets)").toString());
+        } catch (IOException e) {
+            throw new IOException(KeywordTableCreator.class.getName() + " failed to create " + path, e);
+        }
+    }
+
+    /**
+     * Figure out the base directory of this project. The target files will be relative to this directory
+     *
+     * @return Path The project directory
+     */
+    private static Path getBaseDir() {
+        Path projectDirectory;
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            projectDirectory = Paths.get(".").toAbsolutePath();
+            /*
+             * May be in the parent directory
+             */
+            if (Files.isDirectory(Paths.get(projectDirectory.toString(), "pgcode_formatter"))) {
+                projectDirectory = Paths.get(projectDirectory.toString(), "pgcode_formatter").toAbsolutePath();
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        return projectDirectory;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A layout document as used by the {@link com.splendiddata.pgcode.formatter.LayoutEngine#DOCUMENT} layout engine.
+ * <p>
+ * A document describes all layouts of a statement at once: it consists of texts, line breaks that are either taken or
+ * replaced by their flat alternative, nesting and alignment of the lines that follow a line break, and groups. Each
+ * group is laid out flat (all of its line breaks replaced by their flat alternative) if that fits, and broken
+ * otherwise. A fill breaks only those of its separators that are needed to keep its items within the line width. The
+ * {@link DocPrinter} decides on all of that in a single pass.
+ * </p>
+ * <p>
+ * Documents are immutable, so the same document may be used more than once.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public abstract class Doc {
+    /**
+     * The empty document
+     */
+    public static final Doc EMPTY = new Text("");
+
+    private static final Doc LINE = new Line(" ", false);
+    private static final Doc SOFT_LINE = new Line("", false);
+    private static final Doc HARD_LINE = new Line("", true);
+
+    /**
+     * Only the nested classes extend Doc
+     */
+    private Doc() {
+    }
+
+    /**
+     * Returns a document of a single text. A text that contains line feeds will not be laid out flat.
+     *
+     * @param text
+     *            The text
+     * @return Doc the text document
+     */
+    public static Doc text(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        return new Text(text);
+    }
+
+    /**
+     * Returns a line break that is replaced by a single space when laid out flat
+     *
+     * @return Doc the line break
+     */
+    public static Doc line() {
+        return LINE;
+    }
+
+    /**
+     * Returns a line break that disappears when laid out flat
+     *
+     * @return Doc the line break
+     */
+    public static Doc softLine() {
+        return SOFT_LINE;
+    }
+
+    /**
+     * Returns a line break that is always taken. The groups that contain it will never be laid out flat.
+     *
+     * @return Doc the line break
+     */
+    public static Doc hardLine() {
+        return HARD_LINE;
+    }
+
+    /**
+     * Returns the concatenation of the parts
+     *
+     * @param parts
+     *            The documents to concatenate
+     * @return Doc the concatenation
+     */
+    public static Doc concat(Doc... parts) {
+        return concat(List.of(parts));
+    }
+
+    /**
+     * Returns the concatenation of the parts
+     *
+     * @param parts
+     *            The documents to concatenate
+     * @return Doc the concatenation
+     */
+    public static Doc concat(List<Doc> parts) {
+        List<Doc> nonEmpty = new ArrayList<>(parts.size());
+        for (Doc part : parts) {
+            if (part instanceof Concat) {
+                nonEmpty.addAll(((Concat) part).parts);
+            } else if (part != EMPTY) {
+                nonEmpty.add(part);
+            }
+        }
+        switch (nonEmpty.size()) {
+        case 0:
+            return EMPTY;
+        case 1:
+            return nonEmpty.get(0);
+        default:
+            return new Concat(nonEmpty);
+        }
+    }
+
+    /**
+     * Returns the items with the separator in between
+     *
+     * @param items
+     *            The documents to join
+     * @param separator
+     *            The document between every two items
+     * @return Doc the joined items
+     */
+    public static Doc join(List<Doc> items, Doc separator) {
+        List<Doc> parts = new ArrayList<>(2 * items.size());
+        for (Doc item : items) {
+            if (!parts.isEmpty()) {
+                parts.add(separator);
+            }
+            parts.add(item);
+        }
+        return concat(parts);
+    }
+
+    /**
+     * Returns a document in which the lines after line breaks in the content are indented by the indent relative to
+     * the enclosing document
+     *
+     * @param indent
+     *            The number of positions to indent
+     * @param content
+     *            The nested document
+     * @return Doc the nested document
+     */
+    public static Doc nest(int indent, Doc content) {
+        if (content == EMPTY || indent == 0) {
+            return content;
+        }
+        return new Nest(indent, false, content);
+    }
+
+    /**
+     * Returns a document in which the lines after line breaks in the content start at the column at which the content
+     * starts
+     *
+     * @param content
+     *            The aligned document
+     * @return Doc the aligned document
+     */
+    public static Doc align(Doc content) {
+        if (content == EMPTY) {
+            return content;
+        }
+        return new Nest(0, true, content);
+    }
+
+    /**
+     * Returns a group that is laid out flat if it fits in the remainder of the line
+     *
+     * @param content
+     *            The grouped document
+     * @return Doc the group
+     */
+    public static Doc group(Doc content) {
+        return group(content, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Returns a group that is laid out flat if it fits
+     *
+     * @param content
+     *            The grouped document
+     * @param maxFlatWidth
+     *            The maximum width of the group when laid out flat. A negative value means that the group is always
+     *            broken
+     * @param beyondLineWidth
+     *            If true, the group is laid out flat if its flat width does not exceed maxFlatWidth, even if that
+     *            exceeds the line width. If false, the group must fit in the remainder of the line as well
+     * @return Doc the group
+     */
+    public static Doc group(Doc content, int maxFlatWidth, boolean beyondLineWidth) {
+        if (content instanceof Text) {
+            return content;
+        }
+        return new Group(content, maxFlatWidth, beyondLineWidth);
+    }
+
+    /**
+     * Returns a fill of the items: the items are separated by {@link #line()}s, but each line is only broken if the
+     * next item does not fit on the current line anymore
+     *
+     * @param items
+     *            The documents to fill the lines with
+     * @param maxItemsPerLine
+     *            The maximum number of items on a line
+     * @return Doc the fill
+     */
+    public static Doc fill(List<Doc> items, int maxItemsPerLine) {
+        return fill(items, maxItemsPerLine, Integer.MAX_VALUE, LINE);
+    }
+
+    /**
+     * Returns a fill of the items, like {@link #fill(List, int)}, but with a maximum width per line and another
+     * separator
+     *
+     * @param items
+     *            The documents to fill the lines with
+     * @param maxItemsPerLine
+     *            The maximum number of items on a line
+     * @param maxLineWidth
+     *            The maximum width of the items on a line, unless a single item is wider
+     * @param separator
+     *            {@link #line()} or {@link #softLine()}
+     * @return Doc the fill
+     */
+    public static Doc fill(List<Doc> items, int maxItemsPerLine, int maxLineWidth, Doc separator) {
+        switch (items.size()) {
+        case 0:
+            return EMPTY;
+        case 1:
+            return items.get(0);
+        default:
+            return new Fill(items, Math.max(1, maxItemsPerLine), maxLineWidth, (Line) separator);
+        }
+    }
+
+    /**
+     * A piece of text
+     */
+    static final class Text extends Doc {
+        final String text;
+
+        /**
+         * Index of the first line feed in the text, or -1
+         */
+        final int firstLinefeed;
+
+        private Text(String text) {
+            this.text = text;
+            this.firstLinefeed = text.indexOf('\n');
+        }
+    }
+
+    /**
+     * A line break
+     */
+    static final class Line extends Doc {
+        /**
+         * The text that replaces the line break when laid out flat
+         */
+        final String flat;
+
+        /**
+         * The line break is always taken
+         */
+        final boolean hard;
+
+        private Line(String flat, boolean hard) {
+            this.flat = flat;
+            this.hard = hard;
+        }
+    }
+
+    /**
+     * Concatenated documents
+     */
+    static final class Concat extends Doc {
+        final List<Doc> parts;
+
+        private Concat(List<Doc> parts) {
+            this.parts = Collections.unmodifiableList(parts);
+        }
+    }
+
+    /**
+     * Nested or aligned document
+     */
+    static final class Nest extends Doc {
+        final int indent;
+        final boolean align;
+        final Doc content;
+
+        private Nest(int indent, boolean align, Doc content) {
+            this.indent = indent;
+            this.align = align;
+            this.content = content;
+        }
+    }
+
+    /**
+     * A group, laid out either flat or broken
+     */
+    static final class Group extends Doc {
+        final Doc content;
+        final int maxFlatWidth;
+        final boolean beyondLineWidth;
+
+        private Group(Doc content, int maxFlatWidth, boolean beyondLineWidth) {
+            this.content = content;
+            this.maxFlatWidth = maxFlatWidth;
+            this.beyondLineWidth = beyondLineWidth;
+        }
+    }
+
+    /**
+     * Items that are separated by line breaks that are only taken when needed
+     */
+    static final class Fill extends Doc {
+        final List<Doc> items;
+        final int maxItemsPerLine;
+        final int maxLineWidth;
+        final Line separator;
+
+        private Fill(List<Doc> items, int maxItemsPerLine, int maxLineWidth, Line separator) {
+            this.items = Collections.unmodifiableList(new ArrayList<>(items));
+            this.maxItemsPerLine = maxItemsPerLine;
+            this.maxLineWidth = maxLineWidth;
+            this.separator = separator;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lays out a {@link Doc} within a line width.
+ * <p>
+ * The printer works in the style of Wadler and Lindig: it walks the document once, keeping a stack of the documents
+ * that are still to be printed together with their indent and mode (flat or broken). When it meets a group in broken
+ * mode, it decides to lay the group out flat if the flat layout of the group, followed by whatever comes after it up to
+ * the next line break, fits in the remainder of the line. That look-ahead stops as soon as the remainder of the line is
+ * used up, so it is bounded by the line width and the total time is linear in the size of the document. Decisions are
+ * never revisited.
+ * </p>
+ * <p>
+ * A DocPrinter is not thread safe, but it may be reused for more than one document.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class DocPrinter {
+    private final int lineWidth;
+    private final ArrayDeque<Command> stack = new ArrayDeque<>();
+    private final ArrayDeque<Command> lookAhead = new ArrayDeque<>();
+    private StringBuilder out;
+    private int column;
+
+    /**
+     * A document that is still to be printed
+     */
+    private static final class Command {
+        final int indent;
+        final boolean flat;
+        final Doc doc;
+
+        /**
+         * For a {@link Doc.Fill}: the index of the next item that is to be printed, 0 if the fill is not started yet
+         */
+        final int fillIndex;
+
+        /**
+         * For a {@link Doc.Fill} that is started: the number of items on the current line
+         */
+        final int itemsOnLine;
+
+        /**
+         * For a {@link Doc.Fill} that is started: the column at which the current line of the fill started
+         */
+        final int fillLineStart;
+
+        Command(int indent, boolean flat, Doc doc) {
+            this(indent, flat, doc, 0, 0, 0);
+        }
+
+        Command(int indent, boolean flat, Doc doc, int fillIndex, int itemsOnLine, int fillLineStart) {
+            this.indent = indent;
+            this.flat = flat;
+            this.doc = doc;
+            this.fillIndex = fillIndex;
+            this.itemsOnLine = itemsOnLine;
+            this.fillLineStart = fillLineStart;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lineWidth
+     *            The maximum line width
+     */
+    public DocPrinter(int lineWidth) {
+        this.lineWidth = lineWidth;
+    }
+
+    /**
+     * Lays out the document
+     *
+     * @param doc
+     *            The document to lay out
+     * @return String the laid out document. The lines are separated by '\n', without trailing spaces. There is no line
+     *         feed after the last line
+     */
+    public String print(Doc doc) {
+        out = new StringBuilder();
+        column = 0;
+        stack.clear();
+        stack.push(new Command(0, false, doc));
+        for (Command command = stack.poll(); command != null; command = stack.poll()) {
+            print(command);
+        }
+        trimTrailingSpaces();
+        String result = out.toString();
+        out = null;
+        return result;
+    }
+
+    /**
+     * Prints a single command, pushing its content on the stack where applicable
+     *
+     * @param command
+     *            The command to print
+     */
+    private void print(Command command) {
+        Doc doc = command.doc;
+        if (doc instanceof Doc.Text) {
+            Doc.Text text = (Doc.Text) doc;
+            out.append(text.text);
+            if (text.firstLinefeed < 0) {
+                column += text.text.length();
+            } else {
+                column = text.text.length() - text.text.lastIndexOf('\n') - 1;
+            }
+        } else if (doc instanceof Doc.Line) {
+            Doc.Line line = (Doc.Line) doc;
+            if (command.flat && !line.hard) {
+                out.append(line.flat);
+                column += line.flat.length();
+            } else {
+                newLine(command.indent);
+            }
+        } else if (doc instanceof Doc.Concat) {
+            List<Doc> parts = ((Doc.Concat) doc).parts;
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                stack.push(new Command(command.indent, command.flat, parts.get(i)));
+            }
+        } else if (doc instanceof Doc.Nest) {
+            Doc.Nest nest = (Doc.Nest) doc;
+            stack.push(new Command(nest.align ? column : command.indent + nest.indent, command.flat, nest.content));
+        } else if (doc instanceof Doc.Group) {
+            Doc.Group group = (Doc.Group) doc;
+            stack.push(new Command(command.indent, command.flat || fitsFlat(command, group), group.content));
+        } else if (doc instanceof Doc.Fill) {
+            printFill(command, (Doc.Fill) doc);
+        }
+    }
+
+    /**
+     * Prints the next item of a fill, preceded by its separator if it is not the first item
+     *
+     * @param command
+     *            The command that holds the fill
+     * @param fill
+     *            The fill
+     */
+    private void printFill(Command command, Doc.Fill fill) {
+        int index = command.fillIndex;
+        Doc item = fill.items.get(index);
+        if (command.flat) {
+            if (index + 1 < fill.items.size()) {
+                stack.push(new Command(command.indent, true, fill, index + 1, 0, 0));
+            }
+            stack.push(new Command(command.indent, true, item));
+            if (index > 0) {
+                stack.push(new Command(command.indent, true, fill.separator));
+            }
+            return;
+        }
+
+        /*
+         * An item stays on the current line if it fits there flat. If it doesn't, it goes to the next line, where it
+         * may exceed the maximum width of the line of the fill on its own. Only if it wouldn't fit within the line width
+         * on the next line either, while the part of it up to its first line break does fit on the current line, it
+         * stays on the current line and decides on its own line breaks.
+         */
+        int lineStart = column;
+        int itemsOnLine = 1;
+        boolean sameLine = true;
+        boolean flat = false;
+        if (index > 0) {
+            sameLine = false;
+            if (command.itemsOnLine < fill.maxItemsPerLine) {
+                int available = Math.min(lineWidth - column,
+                        (int) Math.min(Integer.MAX_VALUE, (long) command.fillLineStart + fill.maxLineWidth - column))
+                        - fill.separator.flat.length();
+                flat = fits(new Command(command.indent, true, item), available, false);
+                sameLine = flat || (fits(new Command(command.indent, false, item), available, false)
+                        && !fits(new Command(command.indent, true, item),
+                                lineWidth - command.indent, false));
+            }
+            if (sameLine) {
+                lineStart = command.fillLineStart;
+                itemsOnLine = command.itemsOnLine + 1;
+            } else {
+                lineStart = command.indent;
+            }
+        }
+        if (index + 1 < fill.items.size()) {
+            stack.push(new Command(command.indent, false, fill, index + 1, itemsOnLine, lineStart));
+        }
+        stack.push(new Command(command.indent, flat, flat ? item : Doc.group(item)));
+        if (index > 0) {
+            stack.push(new Command(command.indent, sameLine, fill.separator));
+        }
+    }
+
+    /**
+     * Decides whether the group can be laid out flat
+     *
+     * @param command
+     *            The command that holds the group
+     * @param group
+     *            The group to decide on
+     * @return boolean true if the group is to be laid out flat
+     */
+    private boolean fitsFlat(Command command, Doc.Group group) {
+        if (group.maxFlatWidth < 0) {
+            return false;
+        }
+        Command flat = new Command(command.indent, true, group.content);
+        if (group.maxFlatWidth < Integer.MAX_VALUE && !fits(flat, group.maxFlatWidth, false)) {
+            return false;
+        }
+        return group.beyondLineWidth || fits(flat, lineWidth - column, true);
+    }
+
+    /**
+     * Checks if the command, and the commands on the stack up to the next line break if withRest is true, fit in the
+     * width
+     *
+     * @param first
+     *            The command to check
+     * @param width
+     *            The available width
+     * @param withRest
+     *            Also check the rest of the line after the first command
+     * @return boolean true if it fits
+     */
+    private boolean fits(Command first, int width, boolean withRest) {
+        lookAhead.clear();
+        return fits(first, width, withRest ? stack.iterator() : null, lookAhead);
+    }
+
+    /**
+     * Checks if the command, followed by the rest up to the next line break, fits in the width
+     *
+     * @param first
+     *            The command to check
+     * @param width
+     *            The available width
+     * @param rest
+     *            The commands after the first command, null if they are not to be checked
+     * @param lookAhead
+     *            An empty stack to work with
+     * @return boolean true if it fits
+     */
+    private static boolean fits(Command first, int width, Iterator<Command> rest, ArrayDeque<Command> lookAhead) {
+        int remaining = width;
+        lookAhead.push(first);
+        while (remaining >= 0) {
+            Command command = lookAhead.poll();
+            if (command == null) {
+                if (rest == null || !rest.hasNext()) {
+                    return true;
+                }
+                command = rest.next();
+            }
+            Doc doc = command.doc;
+            if (doc instanceof Doc.Text) {
+                Doc.Text text = (Doc.Text) doc;
+                if (text.firstLinefeed >= 0) {
+                    return !command.flat && text.firstLinefeed <= remaining;
+                }
+                remaining -= text.text.length();
+            } else if (doc instanceof Doc.Line) {
+                Doc.Line line = (Doc.Line) doc;
+                if (!command.flat) {
+                    return true;
+                }
+                if (line.hard) {
+                    return false;
+                }
+                remaining -= line.flat.length();
+            } else if (doc instanceof Doc.Concat) {
+                List<Doc> parts = ((Doc.Concat) doc).parts;
+                for (int i = parts.size() - 1; i >= 0; i--) {
+                    lookAhead.push(new Command(command.indent, command.flat, parts.get(i)));
+                }
+            } else if (doc instanceof Doc.Nest) {
+                lookAhead.push(new Command(command.indent, command.flat, ((Doc.Nest) doc).content));
+            } else if (doc instanceof Doc.Group) {
+                Doc.Group group = (Doc.Group) doc;
+                if (command.flat && group.maxFlatWidth < Integer.MAX_VALUE && (group.maxFlatWidth < 0
+                        || !fits(new Command(command.indent, true, group.content), group.maxFlatWidth, null,
+                                new ArrayDeque<>()))) {
+                    // The group would be broken
+                    return false;
+                }
+                lookAhead.push(new Command(command.indent, command.flat, group.content));
+            } else if (doc instanceof Doc.Fill) {
+                Doc.Fill fill = (Doc.Fill) doc;
+                if (!command.flat && command.fillIndex > 0) {
+                    // The separator before the next item may be broken
+                    return true;
+                }
+                if (command.fillIndex + 1 < fill.items.size()) {
+                    lookAhead.push(new Command(command.indent, command.flat, fill, command.fillIndex + 1, 0, 0));
+                }
+                lookAhead.push(new Command(command.indent, command.flat, fill.items.get(command.fillIndex)));
+                if (command.fillIndex > 0) {
+                    lookAhead.push(new Command(command.indent, true, fill.separator));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts a new line at the indent
+     *
+     * @param indent
+     *            The indent of the new line
+     */
+    private void newLine(int indent) {
+        trimTrailingSpaces();
+        out.append('\n');
+        for (int i = 0; i < indent; i++) {
+            out.append(' ');
+        }
+        column = indent;
+    }
+
+    /**
+     * Removes the spaces at the end of the output
+     */
+    private void trimTrailingSpaces() {
+        int length = out.length();
+        while (length > 0 && out.charAt(length - 1) == ' ') {
+            length--;
+        }
+        out.setLength(length);
+    }
+}
@@ -19,7 +19,8 @@ import java.util.Objects;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.splendiddata.pgcode.formatter.ConfigUtil;
+import com.splendiddata.pgcode.formatter.CompiledConfiguration;
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListGroupingType;
 import com.splendiddata.pgcode.formatter.scanner.structure.ArgumentDefinitionOffsets;
@@ -28,6 +29,13 @@ import com.splendiddata.pgcode.formatter.scanner.structure.ArgumentDefinitionOff
  * Formatting context.
  * <p>
  * Contains settings that may vary because of the context in which they are used.
+ * <p>
+ * The comma separated list grouping is an immutable {@link CompiledListGrouping}, so it is shared with the parent
+ * context and with clones instead of being copied.
+ * <p>
+ * Render results are cached by FormatContext. For that purpose a FormatContext can be {@link #intern(FormattingSession)
+ * interned}: an immutable snapshot is made of it, of which the parent context is interned as well. Equal snapshots in
+ * the same session are the same object, so they are compared by identity and their hashCode is computed only once.
  */
 public class FormatContext implements Cloneable {
     private static final Logger log = LogManager.getLogger(FormatContext.class);
@@ -36,36 +44,68 @@ public class FormatContext implements Cloneable {
 
     private int availableWidth = Integer.MAX_VALUE;
     private String language;
-    private CommaSeparatedListGroupingType commaSeparatedListGroupingType;
+    private CompiledListGrouping commaSeparatedListGrouping;
     private ArgumentDefinitionOffsets argumentDefinitionOffsets;
 
+    /**
+     * Limits the memory of the render caches. It is passed on to child contexts, but it is not part of the equality of
+     * FormatContexts.
+     */
+    private RenderCacheBudget renderCacheBudget;
+
+    /**
+     * Optimises the line breaks of lists if not null. It is passed on to child contexts, but it is not part of the
+     * equality of FormatContexts.
+     */
+    private LayoutOptimizer layoutOptimizer;
+
+    /**
+     * True for an interned snapshot, which cannot be modified
+     */
+    private final boolean frozen;
+
+    /**
+     * The hashCode of an interned snapshot
+     */
+    private final int hash;
+
+    /**
+     * The result of the latest {@link #intern(FormattingSession)} invocation, reset by modifications
+     */
+    private FormatContext interned;
+
     /**
      * Constructor
      *
      * @param config
-     *            The FormatConfiguration from which the commaSeparatedListGroupingType is taken if the context argument
+     *            The FormatConfiguration from which the commaSeparatedListGrouping is taken if the context argument
      *            is null
      * @param context
      *            The parent parent FormatContext
      */
     public FormatContext(FormatConfiguration config, FormatContext context) {
         parentContext = context;
+        frozen = false;
+        hash = 0;
 
         if (context != null) {
             language = context.getLanguage();
             if (context.getAvailableWidth() < availableWidth) {
                 availableWidth = context.getAvailableWidth();
             }
-            commaSeparatedListGroupingType = ConfigUtil.copy(context.commaSeparatedListGroupingType);
+            commaSeparatedListGrouping = context.commaSeparatedListGrouping;
+            renderCacheBudget = context.renderCacheBudget;
+            layoutOptimizer = context.layoutOptimizer;
             if (context.argumentDefinitionOffsets != null) {
                 argumentDefinitionOffsets = context.argumentDefinitionOffsets.clone();
             }
         }
         if (config != null) {
-            if (config.getLineWidth().getValue() < availableWidth) {
-                availableWidth = config.getLineWidth().getValue();
+            CompiledConfiguration compiled = config.getCompiled();
+            if (compiled.getLineWidth() < availableWidth) {
+                availableWidth = compiled.getLineWidth();
             }
-            commaSeparatedListGroupingType = config.getCommaSeparatedListGrouping();
+            commaSeparatedListGrouping = compiled.getCommaSeparatedListGrouping();
         }
     }
 
@@ -78,7 +118,11 @@ public class FormatContext implements Cloneable {
     public FormatContext(FormatContext original) {
         assert original != null : "new FormatContext(null) not allowed";
         parentContext = original.parentContext;
-        commaSeparatedListGroupingType = ConfigUtil.copy(original.getCommaSeparatedListGrouping());
+        frozen = false;
+        hash = 0;
+        commaSeparatedListGrouping = original.commaSeparatedListGrouping;
+        renderCacheBudget = original.renderCacheBudget;
+        layoutOptimizer = original.layoutOptimizer;
         language = original.getLanguage();
         availableWidth = original.getAvailableWidth();
         if (original.argumentDefinitionOffsets != null) {
@@ -86,6 +130,26 @@ public class FormatContext implements Cloneable {
         }
     }
 
+    /**
+     * Constructor for an interned snapshot
+     *
+     * @param original
+     *            The FormatContext of which a snapshot is to be made
+     * @param internedParent
+     *            The interned snapshot of the parent context of the original
+     */
+    private FormatContext(FormatContext original, FormatContext internedParent) {
+        parentContext = internedParent;
+        commaSeparatedListGrouping = original.commaSeparatedListGrouping;
+        language = original.language;
+        availableWidth = original.availableWidth;
+        if (original.argumentDefinitionOffsets != null) {
+            argumentDefinitionOffsets = original.argumentDefinitionOffsets.clone();
+        }
+        frozen = true;
+        hash = computeHashCode();
+    }
+
     /**
      * Returns the available width
      * 
@@ -103,6 +167,7 @@ public class FormatContext implements Cloneable {
      * @return this
      */
     public FormatContext setAvailableWidth(int width) {
+        checkNotFrozen();
         this.availableWidth = width;
         return this;
     }
@@ -124,6 +189,7 @@ public class FormatContext implements Cloneable {
      * @return this
      */
     public FormatContext setLanguage(String language) {
+        checkNotFrozen();
         this.language = language;
         return this;
     }
@@ -132,24 +198,37 @@ public class FormatContext implements Cloneable {
      * Sets the comma separate list grouping value to be used
      *
      * @param csArgumentGrouping
-     *            The CommaSeparatedListGroupingType
+     *            The CompiledListGrouping, see {@link CompiledConfiguration}
      * @return FormatContext this
      */
-    public FormatContext setCommaSeparatedListGrouping(CommaSeparatedListGroupingType csArgumentGrouping) {
+    public FormatContext setCommaSeparatedListGrouping(CompiledListGrouping csArgumentGrouping) {
         assert csArgumentGrouping != null : "setCommaSeparatedListGrouping(null) not allowed";
-        commaSeparatedListGroupingType = csArgumentGrouping;
+        checkNotFrozen();
+        commaSeparatedListGrouping = csArgumentGrouping;
         return this;
     }
 
+    /**
+     * Sets the comma separate list grouping value to be used
+     *
+     * @param csArgumentGrouping
+     *            A completed CommaSeparatedListGroupingType. It is compiled into a {@link CompiledListGrouping}, so
+     *            later modifications are not seen
+     * @return FormatContext this
+     */
+    public FormatContext setCommaSeparatedListGrouping(CommaSeparatedListGroupingType csArgumentGrouping) {
+        assert csArgumentGrouping != null : "setCommaSeparatedListGrouping(null) not allowed";
+        return setCommaSeparatedListGrouping(new CompiledListGrouping(csArgumentGrouping));
+    }
+
     /**
      * returns the comma separate list grouping value to be used
      *
-     * @return CommaSeparatedListGroupingType that was set using
-     *         {@link #setCommaSeparatedListGrouping(CommaSeparatedListGroupingType)} or the comma separated list
-     *         grouping from the provided config
+     * @return CompiledListGrouping that was set using {@link #setCommaSeparatedListGrouping(CompiledListGrouping)}
+     *         or the comma separated list grouping from the provided config
      */
-    public CommaSeparatedListGroupingType getCommaSeparatedListGrouping() {
-        return commaSeparatedListGroupingType;
+    public CompiledListGrouping getCommaSeparatedListGrouping() {
+        return commaSeparatedListGrouping;
     }
 
     /**
@@ -168,10 +247,51 @@ public class FormatContext implements Cloneable {
      * @return FormatContext this
      */
     public FormatContext setArgumentDefinitionOffsets(ArgumentDefinitionOffsets argumentDefinitionOffsets) {
+        checkNotFrozen();
         this.argumentDefinitionOffsets = argumentDefinitionOffsets;
         return this;
     }
 
+    /**
+     * @return RenderCacheBudget the budget for the render caches of the nodes that are rendered in this context, may
+     *         be null
+     */
+    public RenderCacheBudget getRenderCacheBudget() {
+        return renderCacheBudget;
+    }
+
+    /**
+     * Sets the budget for the render caches of the nodes that are rendered in this context and its child contexts
+     *
+     * @param renderCacheBudget
+     *            The budget, may be null
+     * @return FormatContext this
+     */
+    public FormatContext setRenderCacheBudget(RenderCacheBudget renderCacheBudget) {
+        this.renderCacheBudget = renderCacheBudget;
+        return this;
+    }
+
+    /**
+     * @return LayoutOptimizer the optimizer for the line breaks of the lists that are rendered in this context, null if
+     *         the greedy layout is to be used
+     */
+    public LayoutOptimizer getLayoutOptimizer() {
+        return layoutOptimizer;
+    }
+
+    /**
+     * Sets the optimizer for the line breaks of the lists that are rendered in this context and its child contexts
+     *
+     * @param layoutOptimizer
+     *            The optimizer, may be null
+     * @return FormatContext this
+     */
+    public FormatContext setLayoutOptimizer(LayoutOptimizer layoutOptimizer) {
+        this.layoutOptimizer = layoutOptimizer;
+        return this;
+    }
+
     /**
      * Does a deep equals
      * 
@@ -185,13 +305,16 @@ public class FormatContext implements Cloneable {
             return false;
         }
         FormatContext other = (FormatContext) otherObject;
+        if (this.frozen && other.frozen && this.hash != other.hash) {
+            return false;
+        }
         if (this.availableWidth != other.availableWidth) {
             return false;
         }
         if (!Objects.equals(this.language, other.language)) {
             return false;
         }
-        if (!ConfigUtil.equals(this.commaSeparatedListGroupingType, other.commaSeparatedListGroupingType)) {
+        if (!Objects.equals(this.commaSeparatedListGrouping, other.commaSeparatedListGrouping)) {
             return false;
         }
         if (!Objects.equals(this.argumentDefinitionOffsets, other.argumentDefinitionOffsets)) {
@@ -204,15 +327,78 @@ public class FormatContext implements Cloneable {
         return true;
     }
 
+    /**
+     * Consistent with {@link #equals(Object)}, so it includes the parent contexts
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        if (frozen) {
+            return hash;
+        }
+        return computeHashCode();
+    }
+
+    /**
+     * Returns the interned snapshot of this FormatContext. Equal FormatContexts in the same session yield the same
+     * snapshot, unless the session's table of interned contexts was cleared in between. The snapshot of a FormatContext
+     * is remembered until the FormatContext is modified, so repeated invocations only check that the parent contexts
+     * still yield the same snapshot.
+     *
+     * @param session
+     *            The session that holds the table of interned contexts. If null, a snapshot is returned that is not
+     *            registered anywhere
+     * @return FormatContext the immutable snapshot
+     */
+    public FormatContext intern(FormattingSession session) {
+        if (frozen) {
+            return this;
+        }
+        FormatContext internedParent = parentContext == null ? null : parentContext.intern(session);
+        FormatContext result = interned;
+        if (result != null && result.parentContext == internedParent
+                && Objects.equals(result.argumentDefinitionOffsets, argumentDefinitionOffsets)) {
+            return result;
+        }
+        result = new FormatContext(this, internedParent);
+        if (session != null) {
+            result = session.intern(result);
+        }
+        interned = result;
+        return result;
+    }
+
+    /**
+     * @return int the hashCode, computed from all fields that are compared in {@link #equals(Object)}
+     */
+    private int computeHashCode() {
+        int result = availableWidth;
+        result = 31 * result + Objects.hashCode(language);
+        result = 31 * result + Objects.hashCode(commaSeparatedListGrouping);
+        result = 31 * result + Objects.hashCode(argumentDefinitionOffsets);
+        return 31 * result + Objects.hashCode(parentContext);
+    }
+
+    /**
+     * Invalidates the interned snapshot before a modification
+     *
+     * @throws IllegalStateException
+     *             if this is an interned snapshot
+     */
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("An interned FormatContext cannot be modified");
+        }
+        interned = null;
+    }
+
     /**
      * @see java.lang.Object#clone()
      */
     public FormatContext clone() {
         try {
             FormatContext clone = (FormatContext) super.clone();
-            if (this.commaSeparatedListGroupingType != null) {
-                clone.commaSeparatedListGroupingType = ConfigUtil.copy(this.commaSeparatedListGroupingType);
-            }
             if (this.argumentDefinitionOffsets != null) {
                 clone.argumentDefinitionOffsets = this.argumentDefinitionOffsets.clone();
             }
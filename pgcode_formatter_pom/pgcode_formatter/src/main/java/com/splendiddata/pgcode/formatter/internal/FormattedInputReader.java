@@ -21,7 +21,6 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
 
-import com.splendiddata.pgcode.formatter.scanner.FormattedSourceScannerImpl;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
 
@@ -36,7 +35,7 @@ import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
  */
 public class FormattedInputReader implements Closeable {
 
-    private static SourceScanner scanner;
+    private final SourceScanner scanner;
     private ScanResult scanResult;
 
     /**
@@ -54,7 +53,25 @@ public class FormattedInputReader implements Closeable {
      *             from the reader
      */
     public FormattedInputReader(Reader reader) throws IOException {
-        scanner = new FormattedSourceScannerImpl(reader);
+        this(new FormattingSession(), reader);
+    }
+
+    /**
+     * Constructor
+     * <p>
+     * Like {@link #FormattedInputReader(Reader)}, but the scanner works for an existing formatting session, so that (nested) readers
+     * of the same source share the same state.
+     *
+     * @param session
+     *            The formatting session that the input belongs to
+     * @param reader
+     *            A Reader that will provide the input.
+     * @throws IOException
+     *             from the reader
+     * @since 0.3.2
+     */
+    public FormattedInputReader(FormattingSession session, Reader reader) throws IOException {
+        scanner = session.newFormattedSourceScanner(reader);
         scanResult = scanner.scan();
     }
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.splendiddata.pgcode.formatter.scanner.FormattedSourceScannerImpl;
+import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
+import com.splendiddata.pgcode.formatter.scanner.SourceScannerImpl;
+
+/**
+ * The state of a single formatting invocation.
+ * <p>
+ * A session is created for every source that is formatted. Every ScanResult knows the session of the scanner that
+ * produced it. Parts of the source that need to be scanned again, like function bodies, get a
+ * {@link #newNestedSession(String) nested session}. Nothing in here is static or thread local, so any number of
+ * sessions can be active in the same JVM at the same time, as long as a single session is only used by one thread at a
+ * time.
+ * </p>
+ * <p>
+ * The statements of a session may be rendered in parallel, so the table of {@link #intern(FormatContext) interned}
+ * FormatContexts is thread safe.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class FormattingSession {
+    /**
+     * The maximum number of interned FormatContexts. When exceeded, the table is cleared.
+     */
+    private static final int MAX_INTERNED_CONTEXTS = 4096;
+
+    /**
+     * Interned FormatContext snapshots, see {@link FormatContext#intern(FormattingSession)}
+     */
+    private final ConcurrentMap<FormatContext, FormatContext> internedContexts = new ConcurrentHashMap<>();
+
+    /**
+     * The identifiers of the source, shared with nested sessions
+     */
+    private final SymbolTable symbolTable;
+
+    /**
+     * To parse a sql statement, sometimes an additional end of statement string is needed to identify the end of a
+     * certain (sub)statement. For example the function code delimiter.
+     */
+    private String statementEnd;
+
+    /**
+     * Constructor
+     */
+    public FormattingSession() {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param symbolTable
+     *            The table to intern the identifiers in
+     */
+    private FormattingSession(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    /**
+     * Creates a scanner for (plpg)sql source code that works for this session
+     *
+     * @param reader
+     *            The reader that provides the source
+     * @return SourceScanner A new scanner
+     */
+    public SourceScanner newSourceScanner(Reader reader) {
+        SourceScanner scanner = new SourceScannerImpl(reader);
+        scanner.setSession(this);
+        return scanner;
+    }
+
+    /**
+     * Creates a scanner for already formatted code that works for this session
+     *
+     * @param reader
+     *            The reader that provides the formatted text
+     * @return SourceScanner A new scanner
+     */
+    public SourceScanner newFormattedSourceScanner(Reader reader) {
+        SourceScanner scanner = new FormattedSourceScannerImpl(reader);
+        scanner.setSession(this);
+        return scanner;
+    }
+
+    /**
+     * Creates a session for re-scanning a part of the source, like a function body. Such a part may be rendered in
+     * another thread than the one that scans the source, so it cannot share the state of this session, except for the
+     * thread safe {@link #getSymbolTable() symbol table}.
+     *
+     * @param statementEnd
+     *            The additional statement end for the nested scan, like the code delimiter of a function body
+     * @return FormattingSession a new session
+     */
+    public FormattingSession newNestedSession(String statementEnd) {
+        FormattingSession nestedSession = new FormattingSession(symbolTable);
+        nestedSession.statementEnd = statementEnd;
+        return nestedSession;
+    }
+
+    /**
+     * @return SymbolTable the table in which the scanners of this session intern identifiers
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * Returns the additional end of statement string
+     *
+     * @return String the statementEnd, may be null
+     */
+    public String getStatementEnd() {
+        return statementEnd;
+    }
+
+    /**
+     * Sets an additional end of statement string
+     *
+     * @param statementEnd
+     *            The statement end to set, like the code delimiter of a function body
+     */
+    public void setStatementEnd(String statementEnd) {
+        this.statementEnd = statementEnd;
+    }
+
+    /**
+     * Returns the registered FormatContext snapshot that equals the snapshot or registers the snapshot if there wasn't
+     * any.
+     * <p>
+     * The table is cleared when it grows too big. Snapshots that were interned before are still valid. They just are no
+     * longer identical to equal snapshots that are interned afterwards, so comparing them takes a little more time.
+     * </p>
+     *
+     * @param snapshot
+     *            An immutable FormatContext snapshot
+     * @return FormatContext the interned snapshot
+     */
+    FormatContext intern(FormatContext snapshot) {
+        if (internedContexts.size() >= MAX_INTERNED_CONTEXTS) {
+            internedContexts.clear();
+        }
+        FormatContext existing = internedContexts.putIfAbsent(snapshot, snapshot);
+        return existing == null ? snapshot : existing;
+    }
+
+    /**
+     * Checks if the text is the additional end of statement string
+     *
+     * @param text
+     *            The text to check
+     * @return boolean true if the provided string is an end of statement.
+     */
+    public boolean isAdditionalStatementEnd(String text) {
+        return statementEnd != null && statementEnd.equals(text);
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.splendiddata.pgcode.formatter.helper.KeywordTableCreator;
+
+/**
+ * Classifies words by keyword id.
+ * <p>
+ * All words in the {@link Dicts} sets get a keyword id. The id of a word is found case insensitively via a perfect
+ * hash, without converting the word to upper case first. The scanner classifies every identifier once, see
+ * {@link com.splendiddata.pgcode.formatter.scanner.ScanResult#getKeywordId()}, so that the checks whether an
+ * identifier is a keyword or a function name are just table lookups. The upper and lower case forms of the words are
+ * kept as well, so converting the letter case of a keyword or function name doesn't create a new String.
+ * </p>
+ * <p>
+ * The perfect hash is of the "hash and displace" kind: the words are distributed over buckets by a first hash. Then,
+ * biggest bucket first, a displacement is searched for every bucket that maps all words in the bucket to free slots
+ * of the table by a second hash. A lookup computes two hashes and compares the word with the one in the slot.
+ * </p>
+ * <p>
+ * The displacements are searched for at build time by {@link KeywordTableCreator}, which writes them into the file
+ * specified by DISPLACEMENTS_PATH. When the class is loaded, the words are placed with these displacements. If the
+ * file is missing or if its displacements do not fit the words, for example when the class is used from an IDE, the
+ * displacements are searched for once more, which takes a few milliseconds.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class KeywordTable {
+    private static final Logger log = LogManager.getLogger(KeywordTable.class);
+
+    /**
+     * The resource with the displacements that {@link KeywordTableCreator} creates at build time
+     */
+    public static final String DISPLACEMENTS_PATH = "com/splendiddata/pgcode/formatter/internal/keyword_displacements";
+
+    /**
+     * The keyword id of words that are not in the table
+     */
+    public static final int NONE = -1;
+
+    private static final int KEYWORD = 1;
+    private static final int FUNCTION = 2;
+    private static final int MAJOR_KEYWORD = 4;
+    private static final int KEYWORD_NOT_FUNCTION_CALL = 8;
+
+    /**
+     * The upper case words by keyword id, null for free slots
+     */
+    private static final String[] WORDS;
+
+    /**
+     * The lower case words by keyword id, null for free slots
+     */
+    private static final String[] LOWER_CASE_WORDS;
+
+    /**
+     * Bit flags by keyword id
+     */
+    private static final byte[] FLAGS;
+
+    /**
+     * The displacement by bucket
+     */
+    private static final int[] DISPLACEMENTS;
+
+    static {
+        String[] words = allWords();
+        int[] displacements = loadDisplacements();
+        String[] table = displacements == null ? null : place(words, displacements);
+        if (table == null) {
+            displacements = computeDisplacements(words);
+            table = place(words, displacements);
+        }
+
+        int size = table.length;
+        byte[] flags = new byte[size];
+        String[] lowerCaseWords = new String[size];
+        for (int id = 0; id < size; id++) {
+            String word = table[id];
+            if (word != null) {
+                lowerCaseWords[id] = word.toLowerCase(Locale.ROOT);
+                flags[id] = (byte) ((Dicts.pgPlPgsqlKeywords.contains(word) ? KEYWORD : 0)
+                        | (Dicts.pgFunctions.contains(word) ? FUNCTION : 0)
+                        | (Dicts.pgMajorKeywords.contains(word) ? MAJOR_KEYWORD : 0)
+                        | (Dicts.pgKeywordNotFunctionCall.contains(word) ? KEYWORD_NOT_FUNCTION_CALL : 0));
+            }
+        }
+        WORDS = table;
+        LOWER_CASE_WORDS = lowerCaseWords;
+        FLAGS = flags;
+        DISPLACEMENTS = displacements;
+    }
+
+    /**
+     * No instances
+     */
+    private KeywordTable() {
+        // no instances
+    }
+
+    /**
+     * Searches for the displacements of all words in the {@link Dicts} sets, for {@link KeywordTableCreator}
+     *
+     * @return int[] the displacement by bucket
+     */
+    public static int[] createDisplacements() {
+        return computeDisplacements(allWords());
+    }
+
+    /**
+     * @return String[] all words of the {@link Dicts} sets, sorted
+     */
+    private static String[] allWords() {
+        Set<String> wordSet = new HashSet<>();
+        wordSet.addAll(Dicts.pgPlPgsqlKeywords);
+        wordSet.addAll(Dicts.pgFunctions);
+        wordSet.addAll(Dicts.pgMajorKeywords);
+        wordSet.addAll(Dicts.pgKeywordNotFunctionCall);
+        String[] words = wordSet.toArray(new String[wordSet.size()]);
+        Arrays.sort(words);
+        return words;
+    }
+
+    /**
+     * Reads the displacements that were created at build time
+     *
+     * @return int[] the displacement by bucket, or null if there is no (readable) file
+     */
+    private static int[] loadDisplacements() {
+        try (InputStream in = KeywordTable.class.getResourceAsStream("keyword_displacements")) {
+            if (in == null) {
+                log.debug(() -> "loadDisplacements(): " + DISPLACEMENTS_PATH + " not found");
+                return null;
+            }
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            int[] displacements = new int[data.readInt()];
+            for (int i = 0; i < displacements.length; i++) {
+                displacements[i] = data.readInt();
+            }
+            return displacements;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot use " + DISPLACEMENTS_PATH + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Places the words in a table using the displacements
+     *
+     * @param words
+     *            All words
+     * @param displacements
+     *            The displacement by bucket
+     * @return String[] the words by slot, or null if the displacements do not place every word in a slot of its own
+     */
+    private static String[] place(String[] words, int[] displacements) {
+        if (Integer.bitCount(displacements.length) != 1) {
+            log.debug(() -> "place(): " + displacements.length + " buckets");
+            return null;
+        }
+        String[] table = new String[displacements.length * 4];
+        for (String word : words) {
+            int displacement = displacements[hash(word, 0) & (displacements.length - 1)];
+            int slot = hash(word, displacement) & (table.length - 1);
+            if (displacement == 0 || table[slot] != null) {
+                log.debug(() -> "place(): the displacements do not fit word " + word);
+                return null;
+            }
+            table[slot] = word;
+        }
+        return table;
+    }
+
+    /**
+     * Searches for the displacement of every bucket, biggest bucket first
+     *
+     * @param words
+     *            All words
+     * @return int[] the displacement by bucket
+     */
+    private static int[] computeDisplacements(String[] words) {
+        int size = Integer.highestOneBit(words.length + words.length / 4) * 2;
+        String[] table = new String[size];
+        int[] displacements = new int[size / 4];
+
+        /*
+         * Distribute the words over the buckets, as linked lists of word indexes
+         */
+        int[] firstWord = new int[displacements.length];
+        Arrays.fill(firstWord, -1);
+        int[] nextWord = new int[words.length];
+        int[] bucketSize = new int[displacements.length];
+        int maxBucketSize = 0;
+        for (int i = 0; i < words.length; i++) {
+            int bucket = hash(words[i], 0) & (displacements.length - 1);
+            nextWord[i] = firstWord[bucket];
+            firstWord[bucket] = i;
+            maxBucketSize = Math.max(maxBucketSize, ++bucketSize[bucket]);
+        }
+
+        /*
+         * Place the words, biggest bucket first
+         */
+        int[] slots = new int[maxBucketSize];
+        for (int placeSize = maxBucketSize; placeSize > 0; placeSize--) {
+            for (int bucket = 0; bucket < displacements.length; bucket++) {
+                if (bucketSize[bucket] == placeSize) {
+                    int displacement = 1;
+                    while (!fits(words, firstWord[bucket], nextWord, displacement, table, slots)) {
+                        displacement++;
+                    }
+                    int n = 0;
+                    for (int i = firstWord[bucket]; i >= 0; i = nextWord[i]) {
+                        table[slots[n++]] = words[i];
+                    }
+                    displacements[bucket] = displacement;
+                }
+            }
+        }
+        return displacements;
+    }
+
+    /**
+     * Checks if all words in the bucket can be placed in free slots of the table with the displacement
+     *
+     * @param words
+     *            All words
+     * @param first
+     *            The index of the first word of the bucket
+     * @param next
+     *            The index of the next word of the same bucket by word index, -1 at the end of the bucket
+     * @param displacement
+     *            The displacement to try
+     * @param table
+     *            The table
+     * @param slots
+     *            Receives the slots of the words
+     * @return boolean true if the words fit
+     */
+    private static boolean fits(String[] words, int first, int[] next, int displacement, String[] table,
+            int[] slots) {
+        int n = 0;
+        for (int i = first; i >= 0; i = next[i]) {
+            int slot = hash(words[i], displacement) & (table.length - 1);
+            if (table[slot] != null) {
+                return false;
+            }
+            for (int j = 0; j < n; j++) {
+                if (slots[j] == slot) {
+                    return false;
+                }
+            }
+            slots[n++] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a case insensitive hash of the ASCII characters of the word
+     *
+     * @param word
+     *            The word to hash
+     * @param seed
+     *            The seed of the hash function
+     * @return int the hash
+     */
+    private static int hash(CharSequence word, int seed) {
+        int hash = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = 0; i < word.length(); i++) {
+            hash = (hash ^ toUpperCase(word.charAt(i))) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * @param c
+     *            A character
+     * @return char the upper case of an ASCII letter, other characters unchanged
+     */
+    private static char toUpperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    /**
+     * Returns the keyword id of the word, case insensitively
+     *
+     * @param word
+     *            The word to look up
+     * @return int the keyword id, or {@link #NONE} if the word is not in any of the {@link Dicts} sets
+     */
+    public static int idOf(CharSequence word) {
+        int length = word.length();
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) > 0x7f) {
+                // The words in the table are ASCII, but String.toUpperCase() may turn other characters into ASCII
+                return idOfAscii(word.toString().toUpperCase());
+            }
+        }
+        return idOfAscii(word);
+    }
+
+    /**
+     * Returns the keyword id of the word that consists of ASCII characters
+     *
+     * @param word
+     *            The word to look up
+     * @return int the keyword id, or {@link #NONE}
+     */
+    private static int idOfAscii(CharSequence word) {
+        int displacement = DISPLACEMENTS[hash(word, 0) & (DISPLACEMENTS.length - 1)];
+        if (displacement == 0) {
+            return NONE;
+        }
+        int id = hash(word, displacement) & (WORDS.length - 1);
+        String candidate = WORDS[id];
+        if (candidate == null || candidate.length() != word.length()) {
+            return NONE;
+        }
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != toUpperCase(word.charAt(i))) {
+                return NONE;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the keyword ids of the words in a BitSet, to be checked with {@link #isIn(BitSet, int)}
+     *
+     * @param words
+     *            Words that are in one of the {@link Dicts} sets
+     * @return BitSet the keyword ids of the words
+     */
+    public static BitSet idsOf(String... words) {
+        BitSet result = new BitSet(WORDS.length);
+        for (String word : words) {
+            int id = idOf(word);
+            if (id == NONE) {
+                throw new IllegalArgumentException("Not in the keyword table: " + word);
+            }
+            result.set(id);
+        }
+        return result;
+    }
+
+    /**
+     * @param ids
+     *            Keyword ids as returned by {@link #idsOf(String...)}
+     * @param id
+     *            A keyword id
+     * @return boolean true if the id is in the ids
+     */
+    public static boolean isIn(BitSet ids, int id) {
+        return id != NONE && ids.get(id);
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return String the upper case word of the id, or null for {@link #NONE}
+     */
+    public static String wordOf(int id) {
+        return id == NONE ? null : WORDS[id];
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return String the lower case word of the id, or null for {@link #NONE}
+     */
+    public static String lowerCaseWordOf(int id) {
+        return id == NONE ? null : LOWER_CASE_WORDS[id];
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return boolean true if the word is in {@link Dicts#pgPlPgsqlKeywords}
+     */
+    public static boolean isKeyword(int id) {
+        return id != NONE && (FLAGS[id] & KEYWORD) != 0;
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return boolean true if the word is in {@link Dicts#pgFunctions}
+     */
+    public static boolean isFunction(int id) {
+        return id != NONE && (FLAGS[id] & FUNCTION) != 0;
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return boolean true if the word is in {@link Dicts#pgMajorKeywords}
+     */
+    public static boolean isMajorKeyword(int id) {
+        return id != NONE && (FLAGS[id] & MAJOR_KEYWORD) != 0;
+    }
+
+    /**
+     * @param id
+     *            A keyword id
+     * @return boolean true if the word is in {@link Dicts#pgKeywordNotFunctionCall}
+     */
+    public static boolean isKeywordNotFunctionCall(int id) {
+        return id != NONE && (FLAGS[id] & KEYWORD_NOT_FUNCTION_CALL) != 0;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.function.LongSupplier;
+
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
+
+/**
+ * Decides on the line breaks in a comma separated list by minimising a cost, instead of by the greedy rules of
+ * {@link com.splendiddata.pgcode.formatter.scanner.structure.CommaSeparatedList}.
+ * <p>
+ * Every line costs {@link #LINE_COST}. A line that exceeds maxLengthOfGroup or maxArgumentsPerGroup costs the weight of
+ * that limit times the fraction by which it exceeds the limit in addition. So with a weight of 10, exceeding such a
+ * limit by 10% costs as much as an extra line. The line width is harder: every position beyond it costs its weight. A
+ * line that consists of a single element costs nothing in this respect, as there is no alternative for it. Finally, to prefer evenly filled lines over a
+ * layout with the same cost, the space left on each line but the last costs {@link #RAGGEDNESS_COST} times the square
+ * of the fraction of the line that is left. The optimum is found by dynamic programming over the positions before each
+ * element.
+ * </p>
+ * <p>
+ * A LayoutOptimizer is created for every statement that is rendered and passed to the nodes via the
+ * {@link FormatContext}. It limits the time and the memory that are spent on the statement. When the time is up, or
+ * when a list needs more than the memory budget, {@link #breakList(int[], int, int, CompiledListGrouping, int, float)}
+ * returns null and the caller uses its greedy layout.
+ * </p>
+ * <p>
+ * A statement is rendered by one thread at a time, so a LayoutOptimizer is not thread safe.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class LayoutOptimizer {
+    /**
+     * The maximum number of line alternatives that are evaluated for a single list. As every element is at least one
+     * alternative, it also limits the memory that is used for a list to about 12 bytes per cell. Can be overruled using
+     * the system property pgcode_formatter.layout.optimizer.cells
+     */
+    public static final long DEFAULT_MAX_CELLS = Long.getLong("pgcode_formatter.layout.optimizer.cells", 1L << 20)
+            .longValue();
+
+    /**
+     * The cost of a line
+     */
+    static final double LINE_COST = 1D;
+
+    /**
+     * The cost of a line that is left empty
+     */
+    static final double RAGGEDNESS_COST = 0.01D;
+
+    /**
+     * The number of line alternatives between two checks of the clock
+     */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    private final LongSupplier clock;
+    private final long deadline;
+    private final long maxCells;
+    private boolean expired;
+    private int optimizedLists;
+    private int greedyLists;
+    private long evaluatedCells;
+
+    /**
+     * Constructor for a budget of {@link #DEFAULT_MAX_CELLS} cells
+     *
+     * @param timeBudgetMillis
+     *            The time in milliseconds that may be spent on the statement, counting from now
+     */
+    public LayoutOptimizer(long timeBudgetMillis) {
+        this(timeBudgetMillis, DEFAULT_MAX_CELLS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param timeBudgetMillis
+     *            The time in milliseconds that may be spent on the statement, counting from now
+     * @param maxCells
+     *            The maximum number of line alternatives that are evaluated for a single list
+     */
+    public LayoutOptimizer(long timeBudgetMillis, long maxCells) {
+        this(timeBudgetMillis, maxCells, System::nanoTime);
+    }
+
+    /**
+     * Constructor with a clock of its own
+     *
+     * @param timeBudgetMillis
+     *            The time in milliseconds that may be spent on the statement, counting from now
+     * @param maxCells
+     *            The maximum number of line alternatives that are evaluated for a single list
+     * @param clock
+     *            Returns the time in nanoseconds, like {@link System#nanoTime()}
+     */
+    LayoutOptimizer(long timeBudgetMillis, long maxCells, LongSupplier clock) {
+        this.clock = clock;
+        this.deadline = clock.getAsLong() + timeBudgetMillis * 1000000L;
+        this.maxCells = maxCells;
+        this.expired = timeBudgetMillis <= 0;
+    }
+
+    /**
+     * Decides on the line breaks in a list
+     *
+     * @param elementWidths
+     *            The single line widths of the elements, excluding the separating comma and space
+     * @param firstLineStart
+     *            The position at which the first element starts
+     * @param newLineStart
+     *            The position at which the elements on the next lines start
+     * @param grouping
+     *            The limits and weights for the lines of the list
+     * @param lineWidth
+     *            The maximum line width
+     * @param lineWidthWeight
+     *            The weight of the maximum line width
+     * @return boolean[] for every element, true if a line is to be broken before it, or null if the budget does not
+     *         allow for optimisation
+     */
+    public boolean[] breakList(int[] elementWidths, int firstLineStart, int newLineStart,
+            CompiledListGrouping grouping, int lineWidth, float lineWidthWeight) {
+        int n = elementWidths.length;
+        if (expired || clock.getAsLong() - deadline > 0) {
+            expired = true;
+            greedyLists++;
+            return null;
+        }
+        if (n >= maxCells) {
+            greedyLists++;
+            return null;
+        }
+
+        /*
+         * cost[i] is the minimal cost of the elements before element i, with a line break before element i. lineStart[i]
+         * is the first element on the last line of that layout.
+         */
+        double[] cost = new double[n + 1];
+        int[] lineStart = new int[n + 1];
+        long cells = 0;
+        for (int end = 1; end <= n; end++) {
+            cost[end] = Double.POSITIVE_INFINITY;
+            int width = -2;
+            for (int start = end - 1; start >= 0; start--) {
+                width += elementWidths[start] + 2;
+                int elements = end - start;
+                if (elements > 1 && width > 2 * lineWidth) {
+                    // Longer lines only get worse
+                    break;
+                }
+                evaluatedCells++;
+                if (++cells > maxCells) {
+                    greedyLists++;
+                    return null;
+                }
+                if (cells % CLOCK_INTERVAL == 0 && clock.getAsLong() - deadline > 0) {
+                    expired = true;
+                    greedyLists++;
+                    return null;
+                }
+                double lineCost = cost[start] + lineCost(width, elements, start == 0 ? firstLineStart : newLineStart,
+                        end == n, grouping, lineWidth, lineWidthWeight);
+                if (lineCost < cost[end]) {
+                    cost[end] = lineCost;
+                    lineStart[end] = start;
+                }
+            }
+        }
+
+        boolean[] breakBefore = new boolean[n];
+        for (int end = n; end > 0; end = lineStart[end]) {
+            if (lineStart[end] > 0) {
+                breakBefore[lineStart[end]] = true;
+            }
+        }
+        optimizedLists++;
+        return breakBefore;
+    }
+
+    /**
+     * Returns the cost of a single line of the list
+     *
+     * @param width
+     *            The width of the elements on the line, including the separators
+     * @param elements
+     *            The number of elements on the line
+     * @param position
+     *            The position at which the line starts
+     * @param last
+     *            True for the last line of the list
+     * @param grouping
+     *            The limits and weights for the lines of the list
+     * @param lineWidth
+     *            The maximum line width
+     * @param lineWidthWeight
+     *            The weight of the maximum line width
+     * @return double the cost of the line
+     */
+    private static double lineCost(int width, int elements, int position, boolean last, CompiledListGrouping grouping,
+            int lineWidth, float lineWidthWeight) {
+        double cost = LINE_COST;
+        if (elements > 1) {
+            cost += (double) lineWidthWeight * Math.max(0, position + width - lineWidth)
+                    + violation(width, grouping.getMaxLengthOfGroup(), grouping.getMaxLengthOfGroupWeight())
+                    + violation(elements, grouping.getMaxArgumentsPerGroup(), grouping.getMaxArgumentsPerGroupWeight());
+        }
+        if (!last) {
+            int available = Math.min(lineWidth - position, grouping.getMaxLengthOfGroup());
+            if (available > 0 && width < available) {
+                double space = (double) (available - width) / available;
+                cost += RAGGEDNESS_COST * space * space;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the weighted relative excess of a value over its limit
+     *
+     * @param value
+     *            The value
+     * @param limit
+     *            The limit that the value should not exceed
+     * @param weight
+     *            The weight of the limit
+     * @return double weight * excess / limit, 0 if the value is within the limit
+     */
+    private static double violation(int value, int limit, float weight) {
+        if (value <= limit) {
+            return 0D;
+        }
+        return (double) weight * (value - limit) / Math.max(1, limit);
+    }
+
+    /**
+     * @return boolean true if the time budget is used up
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @return int the number of lists that were laid out by this optimizer
+     */
+    public int getOptimizedLists() {
+        return optimizedLists;
+    }
+
+    /**
+     * @return int the number of lists that were left to the greedy layout because the budget did not suffice
+     */
+    public int getGreedyLists() {
+        return greedyLists;
+    }
+
+    /**
+     * @return long the number of line alternatives that were evaluated by this optimizer, over all lists
+     */
+    long getEvaluatedCells() {
+        return evaluatedCells;
+    }
+}
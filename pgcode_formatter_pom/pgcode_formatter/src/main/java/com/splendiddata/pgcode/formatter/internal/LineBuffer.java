@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Text buffer that keeps an index of the positions of its linefeed characters, so that the start and the width of
+ * every line are known without scanning the text.
+ * <p>
+ * Used by {@link RenderMultiLines} for the lines that are complete.
+ * </p>
+ * <p>
+ * A LineBuffer is a view on a prefix of a {@link Storage} that may be shared with other LineBuffers, see
+ * {@link #share()}. The characters in the storage are never modified once a storage is shared. A LineBuffer that
+ * covers all of a storage's characters appends in place, any other LineBuffer copies its own text to a new storage
+ * before it appends. So a shared LineBuffer is only copied by the first of the sharing buffers that appends after a
+ * truncation or after another one appended.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class LineBuffer implements CharSequence {
+    private Storage storage;
+
+    /**
+     * The length of the text in this LineBuffer, which may be less than the nr of characters in the storage
+     */
+    private int length;
+
+    /**
+     * The nr of linefeed characters in this LineBuffer
+     */
+    private int lineBreakCount;
+
+    /**
+     * The nr of characters that this LineBuffer copied to a new or a bigger storage
+     */
+    private long copiedChars;
+
+    /**
+     * Constructor
+     */
+    LineBuffer() {
+        storage = new Storage(256, 8);
+    }
+
+    /**
+     * Constructor for a LineBuffer that shares the storage of another one
+     *
+     * @param original
+     *            The LineBuffer of which the text and the storage will be shared
+     */
+    private LineBuffer(LineBuffer original) {
+        storage = original.storage;
+        length = original.length;
+        lineBreakCount = original.lineBreakCount;
+    }
+
+    /**
+     * Returns a LineBuffer with the same text that shares the storage with this one. Both LineBuffers can be modified
+     * without affecting the other one.
+     *
+     * @return LineBuffer a new LineBuffer with the same content
+     */
+    LineBuffer share() {
+        storage.shared = true;
+        return new LineBuffer(this);
+    }
+
+    /**
+     * Appends a character
+     *
+     * @param c
+     *            The character to append
+     * @return LineBuffer this
+     */
+    LineBuffer append(char c) {
+        prepareAppend(1);
+        if (c == '\n') {
+            storage.addLineBreak(length);
+        }
+        storage.chars[length++] = c;
+        commitAppend();
+        return this;
+    }
+
+    /**
+     * Appends a text
+     *
+     * @param s
+     *            The text to append
+     * @return LineBuffer this
+     */
+    LineBuffer append(CharSequence s) {
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Appends a part of a text
+     *
+     * @param s
+     *            The text of which a part is to be appended
+     * @param start
+     *            The start index of the part in s
+     * @param end
+     *            The end index (exclusive) of the part in s
+     * @return LineBuffer this
+     */
+    LineBuffer append(CharSequence s, int start, int end) {
+        prepareAppend(end - start);
+        char[] chars = storage.chars;
+        if (s instanceof LineBuffer || s instanceof String) {
+            /*
+             * Copy in bulk, then register the linefeeds
+             */
+            if (s instanceof LineBuffer) {
+                System.arraycopy(((LineBuffer) s).storage.chars, start, chars, length, end - start);
+            } else {
+                ((String) s).getChars(start, end, chars, length);
+            }
+            for (int i = length, copyEnd = length + end - start; i < copyEnd; i++) {
+                if (chars[i] == '\n') {
+                    storage.addLineBreak(i);
+                }
+            }
+            length += end - start;
+        } else {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == '\n') {
+                    storage.addLineBreak(length);
+                }
+                chars[length++] = c;
+            }
+        }
+        commitAppend();
+        return this;
+    }
+
+    /**
+     * Appends a part of this buffer to the target
+     *
+     * @param target
+     *            Receives the characters
+     * @param start
+     *            The start index in this buffer
+     * @param end
+     *            The end index (exclusive) in this buffer
+     */
+    void appendTo(StringBuilder target, int start, int end) {
+        target.append(storage.chars, start, end - start);
+    }
+
+    /**
+     * Appends a part of this buffer to the target without creating a String, unless the target is neither a
+     * {@link Writer} nor a {@link StringBuilder} and creates one itself
+     *
+     * @param target
+     *            Receives the characters
+     * @param start
+     *            The start index in this buffer
+     * @param end
+     *            The end index (exclusive) in this buffer
+     * @throws IOException
+     *             from the target
+     */
+    void appendTo(Appendable target, int start, int end) throws IOException {
+        if (target instanceof Writer) {
+            ((Writer) target).write(storage.chars, start, end - start);
+        } else if (target instanceof StringBuilder) {
+            ((StringBuilder) target).append(storage.chars, start, end - start);
+        } else {
+            target.append(CharBuffer.wrap(storage.chars, start, end - start));
+        }
+    }
+
+    /**
+     * Truncates the buffer
+     *
+     * @param length
+     *            The new length, which must not exceed the current length
+     */
+    void setLength(int length) {
+        assert length <= this.length : "setLength(" + length + ") on a LineBuffer of length " + this.length;
+        this.length = length;
+        while (lineBreakCount > 0 && storage.lineBreaks[lineBreakCount - 1] >= length) {
+            lineBreakCount--;
+        }
+        if (!storage.shared) {
+            storage.used = length;
+            storage.lineBreakCount = lineBreakCount;
+        }
+    }
+
+    /**
+     * @return int the number of lines in the buffer, being the number of linefeed characters plus one
+     */
+    int getLineCount() {
+        return lineBreakCount + 1;
+    }
+
+    /**
+     * Returns the width of a line, not counting its linefeed character
+     *
+     * @param line
+     *            The index of the line, 0 for the first line
+     * @return int the width of the line
+     */
+    int getLineWidth(int line) {
+        int lineEnd = line < lineBreakCount ? storage.lineBreaks[line] : length;
+        return line == 0 ? lineEnd : lineEnd - storage.lineBreaks[line - 1] - 1;
+    }
+
+    /**
+     * @return int the position of the first linefeed character in the buffer or -1 if there is none
+     */
+    int getFirstLineBreak() {
+        return lineBreakCount == 0 ? -1 : storage.lineBreaks[0];
+    }
+
+    /**
+     * @return int the position of the last linefeed character in the buffer or -1 if there is none
+     */
+    int getLastLineBreak() {
+        return lineBreakCount == 0 ? -1 : storage.lineBreaks[lineBreakCount - 1];
+    }
+
+    /**
+     * Checks if a part of the buffer only consists of whitespace, in the same way as {@link String#isBlank()}
+     *
+     * @param start
+     *            The start index of the part to check
+     * @param end
+     *            The end index (exclusive) of the part to check
+     * @return boolean true if the part is empty or only contains whitespace
+     */
+    boolean isBlank(int start, int end) {
+        char[] chars = storage.chars;
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return long the nr of characters that this LineBuffer copied to a new or a bigger storage, which must remain in
+     *         proportion to its length
+     */
+    long getCopiedChars() {
+        return copiedChars;
+    }
+
+    /**
+     * @see java.lang.CharSequence#length()
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @see java.lang.CharSequence#charAt(int)
+     */
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return storage.chars[index];
+    }
+
+    /**
+     * @see java.lang.CharSequence#subSequence(int, int)
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new String(storage.chars, start, end - start);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new String(storage.chars, 0, length);
+    }
+
+    /**
+     * Makes sure that nrOfChars can be appended in place. If this LineBuffer does not cover all characters in the
+     * storage, then its text is copied to a new storage.
+     *
+     * @param nrOfChars
+     *            The number of characters that are about to be appended
+     */
+    private void prepareAppend(int nrOfChars) {
+        if (length != storage.used || lineBreakCount != storage.lineBreakCount) {
+            Storage copy = new Storage(Math.max(256, 2 * (length + nrOfChars)), Math.max(8, 2 * lineBreakCount));
+            System.arraycopy(storage.chars, 0, copy.chars, 0, length);
+            System.arraycopy(storage.lineBreaks, 0, copy.lineBreaks, 0, lineBreakCount);
+            copy.used = length;
+            copy.lineBreakCount = lineBreakCount;
+            storage = copy;
+            copiedChars += length;
+        } else if (length + nrOfChars > storage.chars.length) {
+            copiedChars += length;
+            storage.chars = Arrays.copyOf(storage.chars, Math.max(2 * storage.chars.length, length + nrOfChars));
+        }
+    }
+
+    /**
+     * Registers the appended characters in the storage
+     */
+    private void commitAppend() {
+        storage.used = length;
+        lineBreakCount = storage.lineBreakCount;
+    }
+
+    /**
+     * The characters and linefeed positions that may be shared by multiple LineBuffers
+     */
+    private static final class Storage {
+        private char[] chars;
+        private int used;
+
+        /**
+         * The positions of the linefeed characters in chars, in ascending order
+         */
+        private int[] lineBreaks;
+        private int lineBreakCount;
+
+        /**
+         * Set as soon as more than one LineBuffer uses this storage. From then on, characters can only be added.
+         */
+        private boolean shared;
+
+        /**
+         * Constructor
+         *
+         * @param charCapacity
+         *            The initial capacity for characters
+         * @param lineBreakCapacity
+         *            The initial capacity for linefeed positions
+         */
+        private Storage(int charCapacity, int lineBreakCapacity) {
+            chars = new char[charCapacity];
+            lineBreaks = new int[lineBreakCapacity];
+        }
+
+        /**
+         * Registers a linefeed character
+         *
+         * @param position
+         *            The position of the linefeed character
+         */
+        private void addLineBreak(int position) {
+            if (lineBreakCount == lineBreaks.length) {
+                lineBreaks = Arrays.copyOf(lineBreaks, lineBreakCount * 2);
+            }
+            lineBreaks[lineBreakCount++] = position;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The bytes of a UTF-8 encoded source file, memory-mapped so that files of any size can be addressed by a long
+ * position without reading them onto the heap.
+ * <p>
+ * A single mapping cannot exceed 2GB, so the file is mapped in chunks of {@link #CHUNK_SIZE} bytes. The chunks are
+ * released by the garbage collector when the MappedInput is no longer referenced.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class MappedInput {
+    /**
+     * Every chunk but the last one contains 1 &lt;&lt; CHUNK_SHIFT bytes
+     */
+    static final int CHUNK_SHIFT = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+
+    /**
+     * Constructor
+     *
+     * @param chunks
+     *            The content, every chunk but the last one of exactly CHUNK_SIZE bytes
+     * @param size
+     *            The total number of bytes
+     */
+    private MappedInput(ByteBuffer[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Maps the file into memory
+     *
+     * @param file
+     *            The file to map
+     * @return MappedInput the content of the file
+     * @throws IOException
+     *             from the file system
+     */
+    public static MappedInput map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(CHUNK_SIZE, size - position));
+            }
+            return new MappedInput(chunks, size);
+        }
+    }
+
+    /**
+     * Wraps an array of UTF-8 encoded bytes
+     *
+     * @param bytes
+     *            The content
+     * @return MappedInput on the bytes
+     */
+    public static MappedInput wrap(byte[] bytes) {
+        return new MappedInput(new ByteBuffer[] { ByteBuffer.wrap(bytes) }, bytes.length);
+    }
+
+    /**
+     * Returns the size of the input
+     *
+     * @return long the number of bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the byte at the position
+     *
+     * @param position
+     *            The position, at least 0 and less than {@link #size()}
+     * @return byte the byte at the position
+     */
+    public byte get(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK));
+    }
+
+    /**
+     * Returns a Reader that decodes the bytes from start (inclusive) until end (exclusive) straight into the buffer of
+     * the caller, see {@link MappedInputReader}. The start and end must be on a character boundary, like the ranges
+     * from the {@link StatementBoundaryScanner}.
+     *
+     * @param start
+     *            The position of the first byte
+     * @param end
+     *            The position after the last byte
+     * @return Reader on the range
+     */
+    public Reader openReader(long start, long end) {
+        return new MappedInputReader(this, start, end);
+    }
+
+    /**
+     * Returns the chunk that contains the position
+     *
+     * @param position
+     *            The position, at least 0 and less than {@link #size()}
+     * @return ByteBuffer the chunk, to be addressed with {@link #indexInChunk(long)}
+     */
+    ByteBuffer chunkAt(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * Returns the index of the position in its chunk
+     *
+     * @param position
+     *            The position in the input
+     * @return int the index in the chunk that {@link #chunkAt(long)} returns
+     */
+    static int indexInChunk(long position) {
+        return (int) (position & CHUNK_MASK);
+    }
+}
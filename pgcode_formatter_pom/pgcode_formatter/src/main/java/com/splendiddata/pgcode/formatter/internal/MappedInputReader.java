@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a range of a {@link MappedInput} straight into the buffer of the caller, which is the buffer of the
+ * SourceScanner. Compared to a BufferedReader on an InputStreamReader on a file, there is no read system call that
+ * copies the file into a byte buffer and no char buffer in the BufferedReader that is copied into the buffer of the
+ * SourceScanner.
+ * <p>
+ * The bytes are copied from the mapped memory in bulk into a small staging buffer on the heap, because only on heap
+ * buffers the UTF-8 decoder of the JDK takes its ASCII fast path: runs of ASCII bytes are widened into chars by an
+ * intrinsic instead of being decoded one by one. On a direct buffer the decoder handles every byte separately, which
+ * takes about twice as long for ASCII text. Malformed input is replaced exactly as an InputStreamReader would do.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class MappedInputReader extends Reader {
+    static final int STAGING_SIZE = 8192;
+
+    /**
+     * The maximum length of a UTF-8 sequence
+     */
+    private static final int MAX_SEQUENCE_LENGTH = 4;
+
+    private final MappedInput input;
+    private final long end;
+    private long position;
+
+    /**
+     * Bytes that are copied from the input but not yet decoded, in read mode
+     */
+    private final ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE).flip();
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private boolean flushed;
+
+    /**
+     * Holds the second char of a surrogate pair that did not fit in the buffer of the previous read
+     */
+    private final CharBuffer pending = CharBuffer.allocate(2).flip();
+
+    /**
+     * Constructor
+     *
+     * @param input
+     *            The input to read
+     * @param start
+     *            The position of the first byte to read
+     * @param end
+     *            The position after the last byte to read
+     */
+    MappedInputReader(MappedInput input, long start, long end) {
+        this.input = input;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * @see java.io.Reader#read(char[], int, int)
+     *
+     * @param buffer
+     *            Receives the characters
+     * @param offset
+     *            The position in the buffer of the first character to read
+     * @param length
+     *            The maximum number of characters to read
+     * @return int The number of characters read or -1 at the end of the input
+     */
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (pending.hasRemaining()) {
+            buffer[offset] = pending.get();
+            return 1;
+        }
+        int count = decode(CharBuffer.wrap(buffer, offset, length));
+        if (count == 0 && !flushed) {
+            /*
+             * Only room for one char, while the next character is a surrogate pair
+             */
+            pending.clear();
+            decode(pending);
+            pending.flip();
+            buffer[offset] = pending.get();
+            count = 1;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Decodes as much of the input as fits in out
+     *
+     * @param out
+     *            Receives the characters
+     * @return int The number of characters that is decoded
+     */
+    private int decode(CharBuffer out) {
+        int start = out.position();
+        while (out.hasRemaining() && !flushed) {
+            if (staging.remaining() < MAX_SEQUENCE_LENGTH && position < end) {
+                refill();
+                continue;
+            }
+            boolean endOfInput = position >= end;
+            if (decoder.decode(staging, out, endOfInput).isOverflow()) {
+                break;
+            }
+            if (!endOfInput) {
+                refill();
+            } else if (decoder.flush(out).isUnderflow()) {
+                flushed = true;
+            }
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Moves the bytes that are not decoded yet to the start of the staging buffer and copies the next bytes from the
+     * input behind them
+     */
+    private void refill() {
+        staging.compact();
+        while (staging.hasRemaining() && position < end) {
+            ByteBuffer chunk = input.chunkAt(position).duplicate();
+            int index = MappedInput.indexInChunk(position);
+            int count = (int) Math.min(staging.remaining(), Math.min(chunk.limit() - index, end - position));
+            chunk.limit(index + count).position(index);
+            staging.put(chunk);
+            position += count;
+        }
+        staging.flip();
+    }
+
+    /**
+     * @see java.io.Reader#ready()
+     *
+     * @return boolean true unless the end of the input is reached
+     */
+    @Override
+    public boolean ready() {
+        return !flushed || pending.hasRemaining();
+    }
+
+    /**
+     * Nothing to close, the MappedInput is released by the garbage collector
+     */
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
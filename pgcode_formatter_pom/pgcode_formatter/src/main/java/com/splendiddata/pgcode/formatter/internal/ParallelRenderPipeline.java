@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+
+/**
+ * Renders the pieces of the input in parallel while delivering the results in source order.
+ * <p>
+ * A single cutter thread cuts the input into pieces (see {@link StatementCutter}) and hands every piece to a pool of
+ * worker threads. The futures of the pieces are kept in source order in a bounded window, which acts as reorder buffer:
+ * the consumer always waits for the oldest piece, and the cutter waits when the window is full. So the memory that is
+ * used stays proportional to the window size, no matter how big the input is.
+ * </p>
+ * <p>
+ * A memory-mapped input is not cut into pieces by the cutter thread, because that would leave all scanning to a single
+ * thread. Instead the cutter thread uses the {@link StatementBoundaryScanner} to cut it into parts of about
+ * {@link #PART_SIZE} bytes, and every worker scans, cuts and renders a whole part. Only a part that cannot be cut small
+ * enough, like a long code block, is cut into pieces by the cutter thread as usual.
+ * </p>
+ * <p>
+ * Threads are started on the first {@link #tryAdvance(Consumer)}. They stop at the end of the input or when
+ * {@link #close()} is invoked, which the stream that wraps this spliterator does on close.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ * @param <T>
+ *            The type of the results, see the finisher in the constructor
+ */
+final class ParallelRenderPipeline<T> implements Spliterator<T> {
+    private static final Logger log = LogManager.getLogger(ParallelRenderPipeline.class);
+
+    /**
+     * The number of pieces per worker thread that can be cut ahead of the consumer
+     */
+    static final int WINDOW_PER_THREAD = 4;
+
+    /**
+     * The number of bytes of a memory-mapped input that are scanned and rendered as a single part
+     */
+    static final long PART_SIZE = 1 << 16;
+
+    /**
+     * Parts larger than this number of bytes are cut into pieces by the cutter thread, to keep the results of a part
+     * small
+     */
+    static final long MAX_PART_SIZE = 1 << 20;
+
+    /**
+     * Marks the end of the input in the window
+     */
+    private final Future<List<T>> endOfInput = CompletableFuture.completedFuture(null);
+
+    private final StatementCutter cutter;
+    private final MappedInput input;
+    private final FormatConfiguration config;
+    private final Function<RenderResult, T> finisher;
+    private final int nrThreads;
+    private final BlockingQueue<Future<List<T>>> window;
+
+    private ExecutorService workers;
+    private Thread cutterThread;
+    private Iterator<T> pending = Collections.emptyIterator();
+    private boolean endReached;
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param cutter
+     *            Provides the pieces to render
+     * @param config
+     *            The configuration to render with
+     * @param nrThreads
+     *            The number of worker threads, at least 1
+     * @param finisher
+     *            Turns a RenderResult into the result that is delivered by this spliterator. It is executed in the
+     *            worker thread.
+     */
+    ParallelRenderPipeline(StatementCutter cutter, FormatConfiguration config, int nrThreads,
+            Function<RenderResult, T> finisher) {
+        this.cutter = cutter;
+        this.input = null;
+        this.config = config;
+        this.finisher = finisher;
+        this.nrThreads = nrThreads;
+        this.window = new ArrayBlockingQueue<>(nrThreads * WINDOW_PER_THREAD);
+    }
+
+    /**
+     * Constructor for a memory-mapped input, which is cut into parts that are scanned by the worker threads
+     *
+     * @param input
+     *            The UTF-8 encoded input
+     * @param config
+     *            The configuration to render with
+     * @param nrThreads
+     *            The number of worker threads, at least 1
+     * @param finisher
+     *            Turns a RenderResult into the result that is delivered by this spliterator. It is executed in the
+     *            worker thread.
+     */
+    ParallelRenderPipeline(MappedInput input, FormatConfiguration config, int nrThreads,
+            Function<RenderResult, T> finisher) {
+        this.cutter = null;
+        this.input = input;
+        this.config = config;
+        this.finisher = finisher;
+        this.nrThreads = nrThreads;
+        this.window = new ArrayBlockingQueue<>(nrThreads * WINDOW_PER_THREAD);
+    }
+
+    /**
+     * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+     *
+     * @param action
+     *            The Consumer&lt;? super T&gt; that does whatever is specified on the stream
+     * @return false at end of stream, otherwise true
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (endReached) {
+            return false;
+        }
+        if (cutterThread == null) {
+            start();
+        }
+        try {
+            while (!pending.hasNext()) {
+                Future<List<T>> next = window.take();
+                if (next == endOfInput) {
+                    endReached = true;
+                    close();
+                    return false;
+                }
+                pending = next.get().iterator();
+            }
+            action.accept(pending.next());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("interrupted while waiting for the next statement", e);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new IllegalStateException(cause);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the cutter and worker threads
+     */
+    void close() {
+        closed = true;
+        if (cutterThread != null) {
+            cutterThread.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts the worker pool and the cutter thread
+     */
+    private void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(nrThreads, runnable -> {
+            Thread thread = new Thread(runnable, "pgcode_formatter-render-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        cutterThread = new Thread(this::cutAll, "pgcode_formatter-cutter");
+        cutterThread.setDaemon(true);
+        cutterThread.start();
+    }
+
+    /**
+     * Executed by the cutter thread: cuts the input and submits the pieces for rendering
+     */
+    private void cutAll() {
+        try {
+            if (input == null) {
+                cutPieces(cutter);
+            } else {
+                cutParts();
+            }
+            window.put(endOfInput);
+        } catch (InterruptedException e) {
+            log.debug(() -> "cutter interrupted");
+        } catch (IOException | RuntimeException | Error e) {
+            if (closed) {
+                // The workers have been shut down while submitting
+                log.debug(() -> "cutter stopped: " + e);
+                return;
+            }
+            log.error("cutAll()", e);
+            CompletableFuture<List<T>> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            try {
+                window.put(failure);
+            } catch (InterruptedException e1) {
+                log.debug(() -> "cutter interrupted");
+            }
+        }
+    }
+
+    /**
+     * Cuts the input of the pieceCutter and submits the pieces for rendering
+     *
+     * @param pieceCutter
+     *            Provides the pieces
+     * @throws InterruptedException
+     *             if the cutter thread is interrupted while the window is full
+     */
+    private void cutPieces(StatementCutter pieceCutter) throws InterruptedException {
+        for (StatementCutter.Piece piece = pieceCutter.next(); piece != null && !closed; piece = pieceCutter.next()) {
+            StatementCutter.Piece toRender = piece;
+            window.put(workers.submit(() -> Collections.singletonList(finisher.apply(toRender.render(config)))));
+        }
+    }
+
+    /**
+     * Cuts the memory-mapped input into parts at statement boundaries and submits the parts for scanning and rendering
+     *
+     * @throws InterruptedException
+     *             if the cutter thread is interrupted while the window is full
+     * @throws IOException
+     *             Not expected from a MappedInput
+     */
+    private void cutParts() throws InterruptedException, IOException {
+        long size = input.size();
+        for (long start = 0; start < size && !closed;) {
+            long end = start;
+            do {
+                end = StatementBoundaryScanner.nextCut(input, end);
+            } while (end - start < PART_SIZE && end < size);
+            if (end - start > MAX_PART_SIZE) {
+                cutPieces(new StatementCutter(new FormattingSession(), input.openReader(start, end), config));
+            } else {
+                long partStart = start;
+                long partEnd = end;
+                window.put(workers.submit(() -> renderPart(partStart, partEnd)));
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Executed by a worker thread: scans, cuts and renders a part of the memory-mapped input
+     *
+     * @param start
+     *            The position of the first byte of the part
+     * @param end
+     *            The position after the last byte of the part
+     * @return List&lt;T&gt; the results of the part, in source order
+     * @throws IOException
+     *             Not expected from a MappedInput
+     */
+    private List<T> renderPart(long start, long end) throws IOException {
+        List<T> results = new ArrayList<>();
+        try (Reader reader = input.openReader(start, end)) {
+            StatementCutter partCutter = new StatementCutter(new FormattingSession(), reader, config);
+            for (StatementCutter.Piece piece = partCutter.next(); piece != null; piece = partCutter.next()) {
+                results.add(finisher.apply(piece.render(config)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The input must be cut sequentially, so this spliterator cannot be split.
+     *
+     * @see java.util.Spliterator#trySplit()
+     *
+     * @return null in all cases
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    /**
+     * @see java.util.Spliterator#estimateSize()
+     *
+     * @return Long.MAX_VALUE
+     */
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @see java.util.Spliterator#characteristics()
+     *
+     * @return IMMUTABLE | NONNULL | ORDERED
+     */
+    @Override
+    public int characteristics() {
+        return IMMUTABLE | NONNULL | ORDERED;
+    }
+
+    /**
+     * @see java.util.Spliterator#getComparator()
+     *
+     * @return null
+     */
+    @Override
+    public Comparator<? super T> getComparator() {
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.Arrays;
+
+/**
+ * Tells a {@link RenderMultiLines} whether the position of its parent may have changed since it was last asked for, so
+ * that {@link RenderMultiLines#getPosition()} does not have to walk up the chain of parent results every time.
+ * <p>
+ * All RenderMultiLines of a render tree share one PositionClock, and every RenderMultiLines knows its depth in the
+ * tree. A modification of a RenderMultiLines at depth d can only change the position of that RenderMultiLines and of
+ * its descendants, which are all deeper than d. So the clock keeps, per depth, the time of the latest modification at
+ * that depth or above. A cached parent position of a RenderMultiLines at depth d is valid as long as nothing at depth
+ * d - 1 or above was modified since it was cached.
+ * </p>
+ * <p>
+ * Rendering normally works depth first: a child result is completed before its parent is modified again. So a
+ * modification at depth d forgets the times of the deeper levels instead of updating them. A level that is needed
+ * again gets the current time, which only invalidates positions that were cached before. This keeps both a
+ * modification and the creation of a child result O(1) amortised, however deep the tree.
+ * </p>
+ * <p>
+ * A render tree is built by one thread at a time, so a PositionClock is not thread safe.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class PositionClock {
+    /**
+     * The time, which is increased by every modification
+     */
+    private long now;
+
+    /**
+     * changedAtOrAbove[d] is the time of the latest modification at depth d or less, for every depth up to maxDepth
+     */
+    private long[] changedAtOrAbove = new long[16];
+
+    /**
+     * The deepest level of which the time of the latest modification is known
+     */
+    private int maxDepth;
+
+    /**
+     * The nr of times that a RenderMultiLines had to ask its parent for its position
+     */
+    private long parentLookups;
+
+    /**
+     * Registers a RenderMultiLines at the depth
+     *
+     * @param depth
+     *            The depth of the new RenderMultiLines in the render tree
+     */
+    void enter(int depth) {
+        if (depth <= maxDepth) {
+            return;
+        }
+        if (depth >= changedAtOrAbove.length) {
+            changedAtOrAbove = Arrays.copyOf(changedAtOrAbove, Math.max(depth + 1, 2 * changedAtOrAbove.length));
+        }
+        Arrays.fill(changedAtOrAbove, maxDepth + 1, depth + 1, now);
+        maxDepth = depth;
+    }
+
+    /**
+     * Registers a modification of a RenderMultiLines at the depth
+     *
+     * @param depth
+     *            The depth of the modified RenderMultiLines in the render tree
+     */
+    void modified(int depth) {
+        now++;
+        if (depth > maxDepth) {
+            enter(depth);
+        }
+        changedAtOrAbove[depth] = now;
+        maxDepth = depth;
+    }
+
+    /**
+     * @return long the current time, to be passed to {@link #isUnchanged(int, long)} later on
+     */
+    long now() {
+        return now;
+    }
+
+    /**
+     * Checks if nothing at the depth or above was modified since the time
+     *
+     * @param depth
+     *            The deepest level of interest
+     * @param since
+     *            A time that was obtained from {@link #now()}
+     * @return boolean true if nothing at the depth or above was modified after since
+     */
+    boolean isUnchanged(int depth, long since) {
+        return depth <= maxDepth && changedAtOrAbove[depth] <= since;
+    }
+
+    /**
+     * Registers that a RenderMultiLines asked its parent for its position because its cached parent position was no
+     * longer valid
+     */
+    void parentLookedUp() {
+        parentLookups++;
+    }
+
+    /**
+     * @return long the nr of times that a RenderMultiLines of the render tree had to ask its parent for its position
+     */
+    long getParentLookups() {
+        return parentLookups;
+    }
+}
@@ -29,7 +29,6 @@ import com.splendiddata.pgcode.formatter.ConfigUtil;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
-import com.splendiddata.pgcode.formatter.scanner.SourceScannerImpl;
 import com.splendiddata.pgcode.formatter.scanner.structure.*;
 
 /**
@@ -44,7 +43,7 @@ import com.splendiddata.pgcode.formatter.scanner.structure.*;
 public class PostgresInputReader implements Closeable {
     private static final Logger log = LogManager.getLogger(PostgresInputReader.class);
 
-    private static SourceScanner scanner;
+    private final SourceScanner scanner;
     private ScanResult scanResult;
 
     /**
@@ -62,7 +61,25 @@ public class PostgresInputReader implements Closeable {
      *             from the reader
      */
     public PostgresInputReader(Reader reader) throws IOException {
-        scanner = new SourceScannerImpl(reader);
+        this(new FormattingSession(), reader);
+    }
+
+    /**
+     * Constructor
+     * <p>
+     * Like {@link #PostgresInputReader(Reader)}, but the scanner works for an existing formatting session, so that (nested) readers
+     * of the same source share the same state.
+     *
+     * @param session
+     *            The formatting session that the input belongs to
+     * @param reader
+     *            A Reader that will provide the input.
+     * @throws IOException
+     *             from the reader
+     * @since 0.3.2
+     */
+    public PostgresInputReader(FormattingSession session, Reader reader) throws IOException {
+        scanner = session.newSourceScanner(reader);
         scanResult = scanner.scan();
     }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+/**
+ * The RenderResult of a piece of input that is laid out by the {@link DocPrinter}. Its layout is final, so it is just
+ * a text.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class PrintedDoc implements RenderResult {
+    private final String text;
+
+    /**
+     * Constructor
+     *
+     * @param text
+     *            The laid out text, ending in a line feed
+     */
+    PrintedDoc(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @see RenderResult#getHeight()
+     */
+    @Override
+    public int getHeight() {
+        int height = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * @see RenderResult#getWidth()
+     */
+    @Override
+    public int getWidth() {
+        int width = 0;
+        int lineStart = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', lineStart)) {
+            width = Math.max(width, i - lineStart);
+            lineStart = i + 1;
+        }
+        return Math.max(width, text.length() - lineStart);
+    }
+
+    /**
+     * @see RenderResult#getWidthFirstLine()
+     */
+    @Override
+    public int getWidthFirstLine() {
+        int firstLinefeed = text.indexOf('\n');
+        return firstLinefeed < 0 ? text.length() : firstLinefeed;
+    }
+
+    /**
+     * @see RenderResult#getRenderItemType()
+     */
+    @Override
+    public RenderItemType getRenderItemType() {
+        return RenderItemType.LITERAL;
+    }
+
+    /**
+     * @see RenderResult#beautify()
+     */
+    @Override
+    public String beautify() {
+        return text;
+    }
+
+    /**
+     * @see RenderResult#isLastNonWhiteSpaceEqualToLinefeed()
+     */
+    @Override
+    public boolean isLastNonWhiteSpaceEqualToLinefeed() {
+        return text.endsWith("\n");
+    }
+
+    /**
+     * The text is immutable, so there is no need to copy
+     *
+     * @see RenderResult#clone()
+     */
+    @Override
+    public PrintedDoc clone() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.ArrayDeque;
+
+import com.splendiddata.pgcode.formatter.scanner.structure.SrcNode;
+
+/**
+ * Limits the memory that the render caches of the SrcNodes of a statement may occupy.
+ * <p>
+ * A budget is created for every statement that is rendered and it is passed to the nodes via the
+ * {@link FormatContext}. A node that caches a multi line render result registers the size of the cached text. When
+ * the total exceeds the budget, the multi line results of the nodes that registered first are evicted until the total
+ * fits again. When the layout of the statement is complete, {@link #releaseAll()} releases all caches at once.
+ * </p>
+ * <p>
+ * Eviction does not change the formatted output. An evicted result is rendered again for exactly the same context,
+ * parent position and indent. Single line results, that may also be used at another parent position, are never
+ * evicted and are not counted. They are small compared to the multi line results that contain them.
+ * </p>
+ * <p>
+ * The size of a cached result is counted in characters. As cached results may share their text, the total is an upper
+ * limit of the memory that is actually used.
+ * </p>
+ * <p>
+ * A statement is rendered by one thread at a time, so a RenderCacheBudget is not thread safe.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class RenderCacheBudget {
+    /**
+     * The default budget in characters. Can be overruled using the system property
+     * pgcode_formatter.render.cache.chars
+     */
+    public static final long DEFAULT_MAX_CHARS = Long.getLong("pgcode_formatter.render.cache.chars", 4L * 1024L * 1024L)
+            .longValue();
+
+    private final long maxChars;
+    private long usedChars;
+    private long evictions;
+
+    /**
+     * The nodes that registered cached results, to be released by {@link #releaseAll()}
+     */
+    private final ArrayDeque<SrcNode> nodes = new ArrayDeque<>();
+
+    /**
+     * The nodes that hold multi line results that may be evicted, oldest first. A node may be in here while its cache
+     * has already been cleared.
+     */
+    private final ArrayDeque<SrcNode> evictable = new ArrayDeque<>();
+
+    /**
+     * Constructor for a budget of {@link #DEFAULT_MAX_CHARS}
+     */
+    public RenderCacheBudget() {
+        this(DEFAULT_MAX_CHARS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxChars
+     *            The maximum number of characters in cached render results
+     */
+    public RenderCacheBudget(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Registers characters that a node added to its render cache and evicts the multi line results of the oldest other
+     * nodes if the budget is exceeded
+     *
+     * @param node
+     *            The node that cached a render result
+     * @param isNew
+     *            True if the node is not yet registered in this budget
+     * @param isEvictable
+     *            True if the node now holds multi line results and is not yet in the queue of evictable nodes
+     * @param chars
+     *            The number of characters that the node added to its multi line results
+     */
+    public void register(SrcNode node, boolean isNew, boolean isEvictable, int chars) {
+        if (isNew) {
+            nodes.add(node);
+        }
+        if (isEvictable) {
+            evictable.add(node);
+        }
+        usedChars += chars;
+        while (usedChars > maxChars && !evictable.isEmpty()) {
+            SrcNode oldest = evictable.poll();
+            if (oldest == node) {
+                evictable.add(node);
+                if (evictable.size() == 1) {
+                    break;
+                }
+                continue;
+            }
+            if (oldest.evictResultCache(this)) {
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Registers that a node released (a part of) its cache
+     *
+     * @param chars
+     *            The number of characters that are no longer cached
+     */
+    public void released(int chars) {
+        usedChars -= chars;
+    }
+
+    /**
+     * Releases the caches of all nodes that registered in this budget
+     */
+    public void releaseAll() {
+        for (SrcNode node = nodes.poll(); node != null; node = nodes.poll()) {
+            node.releaseResultCache(this);
+        }
+        evictable.clear();
+        usedChars = 0;
+    }
+
+    /**
+     * @return long the number of characters in the caches that are registered in this budget
+     */
+    public long getUsedChars() {
+        return usedChars;
+    }
+
+    /**
+     * @return long the maximum number of characters in cached results
+     */
+    public long getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * @return long the number of node caches of which the multi line results were evicted because the budget was
+     *         exceeded
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+}
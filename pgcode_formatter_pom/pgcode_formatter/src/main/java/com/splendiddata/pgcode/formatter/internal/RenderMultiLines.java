@@ -14,16 +14,29 @@
 
 package com.splendiddata.pgcode.formatter.internal;
 
+import java.io.IOException;
+
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Class for rendering result. It consists of one or more lines. A line is a string ended by a line separator string or
  * without a line separator string when it is the last one.
+ * <p>
+ * The complete lines are kept in a {@link LineBuffer}, which knows where every line starts. The last line, to which
+ * text is being added, is kept separately. Trailing whitespace is found by scanning backwards from the end of the last
+ * line, so none of the operations has to scan more than the lines it changes.
+ * </p>
+ * <p>
+ * A {@link #clone()} does not copy any text. The clone shares the LineBuffer and the lastLine with the original. The
+ * LineBuffer takes care of its own copy-on-write, the lastLine is copied by the first modification after the clone.
+ * </p>
+ * <p>
+ * The position of a RenderMultiLines that has no more than one line depends on the position of its parent. The parent
+ * position is cached, and a {@link PositionClock} that is shared by all RenderMultiLines of the render tree tells when
+ * it must be asked again. So {@link #getPosition()} does not walk up the parents every time it is invoked.
+ * </p>
  * 
  * @author Splendid Data Product Development B.V.
  * @since 0.1
@@ -31,33 +44,44 @@ import java.util.regex.Pattern;
 public class RenderMultiLines implements RenderResult {
     private static final Logger log = LogManager.getLogger(RenderMultiLines.class);
 
-    /**
-     * Pattern to get trailing spaces in a separate group. After:
-     * 
-     * <pre>
-     * Matcher m = TRAILING_SPACES_PATTERN.matcher(some_line);
-     * m.matches();
-     * </pre>
-     * <ul>
-     * <li>m.group(1) will contain the line without trailing spaces (which may be an empty string)</li>
-     * <li>m.group(2) will contain the trailing spaces (or an empty string if there were'nt any)</li>
-     * </ul>
-     */
-    //    private static final Pattern TRAILING_SPACES_PATTERN = Pattern.compile("^(.*?)(\\s+)$", Pattern.MULTILINE);
-
-    private static final Pattern TRAILING_SPACES_PATTERN = Pattern.compile("^(.*?)(\\s+)$");
-    private static final Pattern LEADING_SPACES_PATTERN = Pattern.compile("^(\\s*)(\\S.*)?$");
-    private static final Pattern FIRST_LAST_LINES_SEPARATE_PATTERN = Pattern.compile("^([^\\n]*)\\n(.*?)([^\\n]*)$",
-            Pattern.DOTALL);
-    private static final Pattern LAST_LINE_SEPARATE_PATTERN = Pattern.compile("^(.*?)\\n([^\\n]*)$", Pattern.DOTALL);
-
     private int indent;
     private int indentBase;
 
     private final RenderMultiLines parentResult;
 
-    private StringBuilder buffer;
+    /**
+     * Shared by all RenderMultiLines in the render tree, to know if the cachedParentPosition is still valid
+     */
+    private final PositionClock positionClock;
+
+    /**
+     * The nr of parents above this RenderMultiLines
+     */
+    private final int depth;
+
+    /**
+     * The position of the parentResult at parentPositionTime
+     */
+    private int cachedParentPosition;
+
+    /**
+     * The {@link PositionClock#now()} at which the cachedParentPosition was obtained, -1 if it wasn't
+     */
+    private long parentPositionTime = -1;
+
+    private LineBuffer buffer;
     private StringBuilder lastLine;
+
+    /**
+     * Set when a line break character may have been added to the lastLine, which happens only in the rare case that a
+     * single line RenderResult contains one
+     */
+    private boolean lastLineHasLineBreak;
+
+    /**
+     * Set when the lastLine may be in use by a clone, so it must be copied before it is modified
+     */
+    private boolean lastLineShared;
     private int height;
     private int width;
     private int preserveLineFeedPosition;
@@ -82,21 +106,29 @@ public class RenderMultiLines implements RenderResult {
         if (parentResult != null) {
             indentBase = parentResult.indentBase;
             indent = parentResult.indent;
+            positionClock = parentResult.positionClock;
+            depth = parentResult.depth + 1;
+        } else {
+            positionClock = new PositionClock();
+            depth = 0;
         }
+        positionClock.enter(depth);
     }
 
     /**
+     * Returns a clone that shares its text with this RenderMultiLines, see the class description.
+     *
      * @see java.lang.Object#clone()
      *
      * @return RenderMultiLines The cloned RenderMultiLines.
      */
     public RenderMultiLines clone() {
         try {
+            lastLineShared = true;
             RenderMultiLines clone = (RenderMultiLines) super.clone();
             if (this.buffer != null) {
-                clone.buffer = new StringBuilder(this.buffer);
+                clone.buffer = this.buffer.share();
             }
-            clone.lastLine = new StringBuilder(this.lastLine);
             return clone;
         } catch (CloneNotSupportedException e) {
             log.error("clone()", e);
@@ -104,6 +136,21 @@ public class RenderMultiLines implements RenderResult {
         }
     }
 
+    /**
+     * Returns a clone with a last line of its own that is no bigger than needed. Meant for single line results that are
+     * kept in a render cache until the statement is rendered completely.
+     *
+     * @return RenderMultiLines The cloned RenderMultiLines.
+     */
+    public RenderMultiLines compactClone() {
+        RenderMultiLines clone = clone();
+        if (clone.lastLine != null) {
+            clone.lastLine = new StringBuilder(lastLine.length()).append(lastLine);
+            clone.lastLineShared = false;
+        }
+        return clone;
+    }
+
     /**
      * Adds a child result to its parent render result. Every {@link RenderMultiLines} consists of one more
      * {@link RenderResult} which can be a RenderItem or a RenderMultiLines child. This way the render results of an sql
@@ -130,36 +177,56 @@ public class RenderMultiLines implements RenderResult {
         if (width < toAdd.getWidth()) {
             width = toAdd.getWidth();
         }
-        String resultToAdd = toAdd.beautify();
-        if (resultToAdd.isBlank()) {
+        CharSequence resultToAdd;
+        if (toAdd instanceof RenderMultiLines) {
+            // No need to copy the lines of the child into a String first
+            resultToAdd = ((RenderMultiLines) toAdd).beautifiedText();
+        } else {
+            resultToAdd = toAdd.beautify();
+        }
+        if (isBlank(resultToAdd)) {
             /*
              * When the RenderResult toAdd only consists of whitespace, then a single space character is added to the
              * current line if it didn't already end in a space character.
              */
             if (lastLine.length() > 0 && lastLine.charAt(lastLine.length() - 1) != ' ') {
-                lastLine.append(' ');
+                ownLastLine().append(' ');
             }
         } else {
             previousEolPosition = -1;
             if (toAdd.getHeight() <= 1) {
-                lastLine.append(resultToAdd);
+                appendToLastLine(resultToAdd, 0, resultToAdd.length());
             } else {
                 height += toAdd.getHeight() - 1;
-                Matcher m = FIRST_LAST_LINES_SEPARATE_PATTERN.matcher(resultToAdd);
-                if (m.matches()) {
-                    lastLine.append(m.group(1));
+                int firstLineBreak;
+                int lastLineBreak;
+                if (resultToAdd instanceof LineBuffer) {
+                    firstLineBreak = ((LineBuffer) resultToAdd).getFirstLineBreak();
+                    lastLineBreak = ((LineBuffer) resultToAdd).getLastLineBreak();
+                } else {
+                    firstLineBreak = resultToAdd.toString().indexOf('\n');
+                    lastLineBreak = resultToAdd.toString().lastIndexOf('\n');
+                }
+                if (firstLineBreak >= 0) {
+                    /*
+                     * The first line of toAdd completes the lastLine, the lines in between go to the buffer and the
+                     * last line of toAdd becomes the new lastLine
+                     */
+                    appendToLastLine(resultToAdd, 0, firstLineBreak);
                     if (lastLine.length() > width) {
                         width = lastLine.length();
                     }
                     if (buffer == null) {
-                        buffer = new StringBuilder();
+                        buffer = new LineBuffer();
                     } else {
                         buffer.append('\n');
                     }
-                    buffer.append(lastLine).append('\n').append(m.group(2));
-                    buffer.setLength(buffer.length() - 1); // Remove the last linefeed
-                    lastLine.setLength(0);
-                    lastLine.append(m.group(3));
+                    buffer.append(lastLine);
+                    if (lastLineBreak > firstLineBreak) {
+                        buffer.append('\n').append(resultToAdd, firstLineBreak + 1, lastLineBreak);
+                    }
+                    clearLastLine();
+                    appendToLastLine(resultToAdd, lastLineBreak + 1, resultToAdd.length());
                     if (lastLine.length() == 0) {
                         indentLastLine();
                     }
@@ -173,13 +240,13 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             throw new IllegalStateException("addRenderResult() invoked after beautify()");
         }
-        if (previousEolPosition >= 0 && lastLine.toString().isBlank()) {
-            lastLine.setLength(0);
+        if (previousEolPosition >= 0 && isBlank(lastLine)) {
+            clearLastLine();
             lastLine.append(Util.nSpaces(previousEolPosition));
             previousEolPosition = -1;
         }
         int eolPosition = getPosition();
-        lastLine.append(text);
+        appendToLastLine(text, 0, text.length());
         preserveLineFeedPosition = -1;
         addLine();
         previousEolPosition = eolPosition;
@@ -196,14 +263,10 @@ public class RenderMultiLines implements RenderResult {
     public int getPosition() {
         int parentPosition = 0;
         if (height <= 1 && parentResult != null) {
-            parentPosition = parentResult.getPosition();
+            parentPosition = getParentPosition();
         }
         if (lastLine == null) {
-            Matcher m = LAST_LINE_SEPARATE_PATTERN.matcher(buffer);
-            if (m.matches()) {
-                return parentPosition + m.group(2).length();
-            }
-            return parentPosition + buffer.length();
+            return parentPosition + buffer.getLineWidth(buffer.getLineCount() - 1);
         }
         return parentPosition + lastLine.length();
     }
@@ -220,7 +283,7 @@ public class RenderMultiLines implements RenderResult {
             throw new IllegalStateException("addLine(String) invoked after beautify()");
         }
         addLine();
-        lastLine.setLength(0);
+        clearLastLine();
         lastLine.append(indentation);
     }
 
@@ -234,7 +297,7 @@ public class RenderMultiLines implements RenderResult {
             throw new IllegalStateException("addLine() invoked after beautify()");
         }
         if (buffer == null) {
-            buffer = new StringBuilder();
+            buffer = new LineBuffer();
         } else if (previousEolPosition >= 0) {
             // A newline character was already added because of end-of-line comment
             previousEolPosition = -1;
@@ -244,24 +307,20 @@ public class RenderMultiLines implements RenderResult {
         /*
          * Remove trailing spaces
          */
-        Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-        String line = "";
-        if (m.matches()) {
-            line = m.group(1);
-            buffer.append(line);
-        } else {
-            line = lastLine.toString();
-            buffer.append(line);
+        int lineLength = getLastLineContentEnd();
+        if (lineLength < 0) {
+            lineLength = lastLine.length();
         }
+        buffer.append(lastLine, 0, lineLength);
 
         if (preserveLineFeedPosition < 0) {
             preserveLineFeedPosition = buffer.length();
         }
-        if (line.length() > width) {
-            width = line.length();
+        if (lineLength > width) {
+            width = lineLength;
         }
 
-        lastLine.setLength(0);
+        clearLastLine();
         indentLastLine();
         if (height == 0) {
             // Nothing has been added yet
@@ -278,7 +337,7 @@ public class RenderMultiLines implements RenderResult {
     private void indentLastLine() {
         assert lastLine.length() == 0 : "The lastLine is supposed to be empty at indentLastLine(), but is <" + lastLine
                 + ">";
-        lastLine.append(Util.nSpaces(getTotalIndent()));
+        ownLastLine().append(Util.nSpaces(getTotalIndent()));
     }
 
     /**
@@ -289,10 +348,10 @@ public class RenderMultiLines implements RenderResult {
             throw new IllegalStateException("addExtraLine() invoked after beautify()");
         }
         if (buffer == null) {
-            buffer = new StringBuilder();
+            buffer = new LineBuffer();
         }
         buffer.append(lastLine);
-        lastLine.setLength(0);
+        clearLastLine();
         height++;
     }
 
@@ -303,7 +362,7 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             throw new IllegalStateException("addWhiteSpace() invoked after beautify()");
         }
-        lastLine.append(' ');
+        ownLastLine().append(' ');
     }
 
     /**
@@ -314,8 +373,8 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             throw new IllegalStateException("addWhiteSpaceIfApplicable() invoked after beautify()");
         }
-        if (lastLine.length() == 0 || !lastLine.substring(lastLine.length() - 1).isBlank()) {
-            lastLine.append(' ');
+        if (lastLine.length() == 0 || !Character.isWhitespace(lastLine.charAt(lastLine.length() - 1))) {
+            ownLastLine().append(' ');
         }
     }
 
@@ -324,7 +383,7 @@ public class RenderMultiLines implements RenderResult {
      */
     @Override
     public boolean isLastNonWhiteSpaceEqualToLinefeed() {
-        if (lastLine.toString().isBlank()) {
+        if (isBlank(lastLine)) {
             if (buffer == null && parentResult != null) {
                 return parentResult.isLastNonWhiteSpaceEqualToLinefeed();
             }
@@ -340,9 +399,9 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             throw new IllegalStateException("removeTrailingSpaces() invoked after beautify()");
         }
-        Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-        if (m.matches()) {
-            lastLine.setLength(lastLine.length() - m.group(2).length());
+        int contentEnd = getLastLineContentEnd();
+        if (contentEnd >= 0) {
+            ownLastLine().setLength(contentEnd);
         }
     }
 
@@ -361,34 +420,35 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             throw new IllegalStateException("positionAfterLastNonWhitespace() invoked after beautify()");
         }
-        Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-        if (m.matches() && m.group(1).length() > 0) {
-            lastLine.setLength(m.group(1).length());
-        } else if (!m.matches() && lastLine.length() > 0) {
-            int a =1;
+        int contentEnd = getLastLineContentEnd();
+        if (contentEnd > 0) {
+            ownLastLine().setLength(contentEnd);
+        } else if (contentEnd < 0 && lastLine.length() > 0) {
+            // The last line does not end in whitespace
         } else if (buffer != null) {
             if (preserveLineFeedPosition < -1) {
                 preserveLineFeedPosition = buffer.length();
             }
             if (preserveLineFeedPosition < buffer.length()) {
                 height--;
-                m = LAST_LINE_SEPARATE_PATTERN.matcher(buffer);
-                while (m.matches() && m.group(1).length() > preserveLineFeedPosition && m.group(2).isBlank()) {
+                int lineBreak = buffer.getLastLineBreak();
+                while (lineBreak > preserveLineFeedPosition && buffer.isBlank(lineBreak + 1, buffer.length())) {
                     height--;
-                    buffer.setLength(m.group(1).length());
-                    m = LAST_LINE_SEPARATE_PATTERN.matcher(buffer);
+                    buffer.setLength(lineBreak);
+                    lineBreak = buffer.getLastLineBreak();
                 }
-                lastLine.setLength(0);
-                if (m.matches()) {
-                    lastLine.append(m.group(2));
-                    buffer.setLength(m.group(1).length());
+                clearLastLine();
+                if (lineBreak >= 0) {
+                    buffer.appendTo(lastLine, lineBreak + 1, buffer.length());
+                    buffer.setLength(lineBreak);
                 } else {
-                    lastLine = buffer;
+                    buffer.appendTo(lastLine, 0, buffer.length());
+                    lastLineHasLineBreak = true;
                     buffer = null;
                 }
             }
         } else {
-            lastLine.setLength(0);
+            clearLastLine();
         }
         return this;
     }
@@ -412,17 +472,12 @@ public class RenderMultiLines implements RenderResult {
     @Override
     public int getWidth() {
         if (lastLine != null) {
-            Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-            if (m.matches()) {
-                int actualWidth = m.group(1).length();
-                if (actualWidth > width) {
-                    return actualWidth;
-                }
-            } else {
-                int actualWidth = lastLine.length();
-                if (actualWidth > width) {
-                    return actualWidth;
-                }
+            int actualWidth = getLastLineContentEnd();
+            if (actualWidth < 0) {
+                actualWidth = lastLine.length();
+            }
+            if (actualWidth > width) {
+                return actualWidth;
             }
         }
         return width;
@@ -436,18 +491,30 @@ public class RenderMultiLines implements RenderResult {
     @Override
     public int getWidthFirstLine() {
         if (buffer == null) {
-            Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-            if (m.matches()) {
-                return m.group(1).length();
-            } else {
+            int widthFirstLine = getLastLineContentEnd();
+            if (widthFirstLine < 0) {
                 return lastLine.length();
             }
+            return widthFirstLine;
         }
-        int widthFirstLine = buffer.indexOf("\n");
-        if (widthFirstLine < 0) {
+        return buffer.getLineWidth(0);
+    }
+
+    /**
+     * Returns the number of characters in this RenderMultiLines, including linefeeds and trailing spaces. The text may
+     * be shared with clones.
+     *
+     * @return int the length of {@link #toString()}
+     * @since 0.3.2
+     */
+    public int getTextLength() {
+        if (buffer == null) {
+            return lastLine == null ? 0 : lastLine.length();
+        }
+        if (lastLine == null) {
             return buffer.length();
         }
-        return widthFirstLine;
+        return buffer.length() + 1 + lastLine.length();
     }
 
     /**
@@ -463,7 +530,9 @@ public class RenderMultiLines implements RenderResult {
         if (lastLine == null) {
             return buffer.toString();
         }
-        return new StringBuffer().append(buffer).append('\n').append(lastLine).toString();
+        StringBuilder result = new StringBuilder(buffer.length() + 1 + lastLine.length());
+        buffer.appendTo(result, 0, buffer.length());
+        return result.append('\n').append(lastLine).toString();
     }
 
     /**
@@ -473,25 +542,51 @@ public class RenderMultiLines implements RenderResult {
      */
     @Override
     public String beautify() {
+        return beautifiedText().toString();
+    }
+
+    /**
+     * Writes the beautified result to the target, without copying it into a String first
+     *
+     * @see RenderResult#appendTo(Appendable)
+     */
+    @Override
+    public void appendTo(Appendable target) throws IOException {
+        CharSequence text = beautifiedText();
+        if (text instanceof LineBuffer) {
+            ((LineBuffer) text).appendTo(target, 0, text.length());
+        } else {
+            target.append(text);
+        }
+    }
+
+    /**
+     * Does the work for {@link #beautify()}, but returns the text without copying it into a String if it consists of
+     * more than one line
+     *
+     * @return CharSequence the text, being either a String or the LineBuffer of this RenderMultiLines
+     */
+    CharSequence beautifiedText() {
         if (lastLine == null) {
             // Already beautified
             if (buffer == null) {
                 // That's weird. There is nothing in here.
                 return "";
             }
-            return buffer.toString();
+            return buffer;
         }
-        Matcher m = TRAILING_SPACES_PATTERN.matcher(lastLine);
-        String ret = lastLine.toString();
+        int contentEnd = getLastLineContentEnd();
+        StringBuilder ret = lastLine;
         lastLine = null;
+        positionClock.modified(depth);
         if (buffer == null) {
-            if (m.matches()) {
-                return m.group(1);
+            if (contentEnd >= 0) {
+                return ret.substring(0, contentEnd);
             } else {
-                return ret;
+                return ret.toString();
             }
         }
-        return buffer.append("\n").append(ret).toString();
+        return buffer.append('\n').append(ret);
     }
 
     /**
@@ -520,15 +615,15 @@ public class RenderMultiLines implements RenderResult {
         }
         int currentParentPosition = 0;
         if (height <= 1 && parentResult != null) {
-            currentParentPosition = parentResult.getPosition();
+            currentParentPosition = getParentPosition();
         }
         int currentPosition = currentParentPosition + lastLine.length();
         if (currentPosition > position) {
             RenderMultiLines res = this;
             while (res != null && currentPosition > position) {
-                Matcher m = TRAILING_SPACES_PATTERN.matcher(res.lastLine);
-                if (m.matches()) {
-                    res.lastLine.setLength(m.group(1).length());
+                int contentEnd = res.getLastLineContentEnd();
+                if (contentEnd >= 0) {
+                    res.ownLastLine().setLength(contentEnd);
                 }
                 currentPosition = currentParentPosition + res.lastLine.length();
                 if (buffer != null || res.lastLine.length() > 0) {
@@ -541,7 +636,7 @@ public class RenderMultiLines implements RenderResult {
             }
         }
         if (currentPosition < position) {
-            lastLine.append(Util.nSpaces(position - currentPosition));
+            ownLastLine().append(Util.nSpaces(position - currentPosition));
         } else if (currentPosition > position) {
             addLine(Util.nSpaces(position));
         } else if (lastLine.length() > 0 && lastLine.charAt(lastLine.length() - 1) != ' '){
@@ -638,4 +733,133 @@ public class RenderMultiLines implements RenderResult {
         this.indentBase = indentBase;
         return this;
     }
+
+    /**
+     * Appends a part of a text to the lastLine
+     *
+     * @param text
+     *            The text of which a part is to be appended
+     * @param start
+     *            The start index of the part in text
+     * @param end
+     *            The end index (exclusive) of the part in text
+     */
+    private void appendToLastLine(CharSequence text, int start, int end) {
+        for (int i = start; i < end && !lastLineHasLineBreak; i++) {
+            lastLineHasLineBreak = isLineTerminator(text.charAt(i));
+        }
+        ownLastLine().append(text, start, end);
+    }
+
+    /**
+     * Returns the position of the parentResult, which is only asked again if something at the depth of the parent or
+     * above was modified since it was asked last
+     *
+     * @return int the position of the parentResult
+     */
+    private int getParentPosition() {
+        if (!positionClock.isUnchanged(depth - 1, parentPositionTime)) {
+            positionClock.parentLookedUp();
+            cachedParentPosition = parentResult.getPosition();
+            parentPositionTime = positionClock.now();
+        }
+        return cachedParentPosition;
+    }
+
+    /**
+     * @return PositionClock the clock that is shared by all RenderMultiLines of the render tree
+     */
+    PositionClock getPositionClock() {
+        return positionClock;
+    }
+
+    /**
+     * Empties the lastLine
+     */
+    private void clearLastLine() {
+        positionClock.modified(depth);
+        if (lastLineShared) {
+            lastLine = new StringBuilder(200);
+            lastLineShared = false;
+        } else {
+            lastLine.setLength(0);
+        }
+        lastLineHasLineBreak = false;
+    }
+
+    /**
+     * Makes sure that the lastLine is not shared with a clone
+     *
+     * @return StringBuilder the lastLine, which may be modified
+     */
+    private StringBuilder ownLastLine() {
+        positionClock.modified(depth);
+        if (lastLineShared) {
+            lastLine = new StringBuilder(lastLine.length() + 80).append(lastLine);
+            lastLineShared = false;
+        }
+        return lastLine;
+    }
+
+    /**
+     * Returns the length of the lastLine without its trailing whitespace.
+     * <p>
+     * Trailing whitespace is only recognised if the text before it does not contain a line terminator, like the regular
+     * expression "^(.*?)(\s+)$" that was used before did.
+     * </p>
+     *
+     * @return int the length of the lastLine without trailing whitespace, or -1 if the lastLine does not end with
+     *         whitespace
+     */
+    private int getLastLineContentEnd() {
+        int contentEnd = lastLine.length();
+        while (contentEnd > 0 && isRegexWhitespace(lastLine.charAt(contentEnd - 1))) {
+            contentEnd--;
+        }
+        if (contentEnd == lastLine.length()) {
+            return -1;
+        }
+        if (lastLineHasLineBreak) {
+            for (int i = 0; i < contentEnd; i++) {
+                if (isLineTerminator(lastLine.charAt(i))) {
+                    return -1;
+                }
+            }
+        }
+        return contentEnd;
+    }
+
+    /**
+     * Checks if text only consists of whitespace, in the same way as {@link String#isBlank()}
+     *
+     * @param text
+     *            The text to check
+     * @return boolean true if text is empty or only contains whitespace
+     */
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param c
+     *            The character to check
+     * @return boolean true if c is whitespace as in the regular expression \s
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * @param c
+     *            The character to check
+     * @return boolean true if c terminates a line as in a regular expression without the DOTALL flag
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
 }
@@ -14,6 +14,8 @@
 
 package com.splendiddata.pgcode.formatter.internal;
 
+import java.io.IOException;
+
 /**
  * Interface for the formatted code that has to be rendered.
  */
@@ -56,6 +58,20 @@ public interface RenderResult extends Cloneable {
      */
     String beautify();
 
+    /**
+     * Writes the beautified {@link RenderResult} to the target. Like {@link #beautify()}, this completes the render
+     * result.
+     *
+     * @param target
+     *            Receives the beautified result
+     * @throws IOException
+     *             from the target
+     * @since 0.3.2
+     */
+    default void appendTo(Appendable target) throws IOException {
+        target.append(beautify());
+    }
+
     /**
      * Checks whether the last non white space item in a {@link RenderResult} is a RenderItem of type LINEFEED.
      * 
@@ -0,0 +1,586 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds the places where the input can be cut into parts that can be formatted independently, without decoding or
+ * tokenising the input.
+ * <p>
+ * The scanner walks over the UTF-8 encoded bytes and only keeps track of what the SourceScanner would do with quotes,
+ * comments and parentheses: single quoted strings (with '' doubling), E'' strings (with backslash escapes), double
+ * quoted identifiers, $tag$ dollar quoted strings, -- line comments and nested /* *&#47; comments. A cut is placed at
+ * every semi-colon outside all of these at parenthesis level 0, after the whitespace and comments that follow it on
+ * the same line, including the line feed, unless the next interpretable character is another semi-colon. That is
+ * exactly where the {@link StatementCutter} starts the next piece, so formatting the ranges one by one and
+ * concatenating the results gives the same output as formatting the whole input. The {@link ParallelRenderPipeline}
+ * uses this to have a memory-mapped input scanned by several threads.
+ * </p>
+ * <p>
+ * Constructs where the SourceScanner or the statement interpretation carries state over a semi-colon stop the cutting:
+ * the rest of the input becomes the last range. These are:
+ * </p>
+ * <ul>
+ * <li>a semi-colon within parentheses, which makes the SourceScanner ignore the rest of the input</li>
+ * <li>an unterminated quote or comment and a line feed in a double quoted identifier, which leave the SourceScanner in
+ * its quoted state</li>
+ * <li>the word "begin" that is not directly followed by a semi-colon, which may start a code block that contains
+ * semi-colons</li>
+ * </ul>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class StatementBoundaryScanner {
+    private static final Logger log = LogManager.getLogger(StatementBoundaryScanner.class);
+
+    /**
+     * Returned by the skip methods when the input ends inside the construct that is skipped
+     */
+    private static final long UNTERMINATED = -1;
+
+    private static final byte[] BEGIN = { 'b', 'e', 'g', 'i', 'n' };
+
+    private final MappedInput input;
+    private final long size;
+
+    /**
+     * A part of the input that can be formatted on its own
+     */
+    public static final class Range {
+        private final long start;
+        private final long end;
+
+        /**
+         * Constructor
+         *
+         * @param start
+         *            The position of the first byte
+         * @param end
+         *            The position after the last byte
+         */
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return long The position of the first byte
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return long The position after the last byte
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         *
+         * @return String for debugging purposes
+         */
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param input
+     *            The UTF-8 encoded input
+     */
+    private StatementBoundaryScanner(MappedInput input) {
+        this.input = input;
+        this.size = input.size();
+    }
+
+    /**
+     * Cuts the input into ranges that can be formatted independently
+     *
+     * @param input
+     *            The UTF-8 encoded input
+     * @return List&lt;Range&gt; The ranges in source order. Together they cover the whole input. Empty if the input is
+     *         empty.
+     */
+    public static List<Range> scan(MappedInput input) {
+        StatementBoundaryScanner scanner = new StatementBoundaryScanner(input);
+        List<Range> ranges = new ArrayList<>();
+        for (long start = 0; start < scanner.size;) {
+            long end = scanner.nextCut(start);
+            ranges.add(new Range(start, end));
+            start = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Finds the first cut after from. No state is carried over a cut, so the input can be cut step by step without
+     * keeping all ranges.
+     *
+     * @param input
+     *            The UTF-8 encoded input
+     * @param from
+     *            0 or a position that was returned by a previous invocation
+     * @return long The position of the next cut, or the size of the input if the rest of the input cannot be cut
+     */
+    static long nextCut(MappedInput input, long from) {
+        return new StatementBoundaryScanner(input).nextCut(from);
+    }
+
+    /**
+     * Walks over the input until the next cut
+     *
+     * @param from
+     *            The position to start at, at parenthesis level 0
+     * @return long The position of the next cut or the size of the input
+     */
+    private long nextCut(long from) {
+        int parenthesisLevel = 0;
+        long position = from;
+        while (position < size) {
+            byte b = input.get(position);
+            switch (b) {
+            case '-':
+                position = isAt(position + 1, '-') ? skipCommentLine(position) : position + 1;
+                break;
+            case '/':
+                position = isAt(position + 1, '*') ? skipComment(position) : position + 1;
+                break;
+            case '\'':
+                position = skipQuoted(position + 1, false);
+                break;
+            case '"':
+                position = skipDoubleQuoted(position + 1);
+                break;
+            case '$':
+                position = skipDollar(position);
+                break;
+            case '(':
+                parenthesisLevel++;
+                position++;
+                break;
+            case ')':
+                if (parenthesisLevel > 0) {
+                    parenthesisLevel--;
+                }
+                position++;
+                break;
+            case ';':
+                if (parenthesisLevel > 0) {
+                    log.debug(() -> "semi-colon within parentheses, no more cuts");
+                    position = UNTERMINATED;
+                    break;
+                }
+                position = skipTrailer(position + 1);
+                if (position != UNTERMINATED && !isAt(skipNonInterpretable(position), ';')) {
+                    return position;
+                }
+                // A semi-colon that only follows after empty lines is added to the statement by the StatementCutter
+                break;
+            default:
+                if ((b == 'e' || b == 'E') && isAt(position + 1, '\'')) {
+                    position = skipQuoted(position + 2, true);
+                } else if (isWordStart(b)) {
+                    long wordEnd = skipWord(position);
+                    if (parenthesisLevel == 0 && isBegin(position, wordEnd)
+                            && !isAt(skipNonInterpretable(wordEnd), ';')) {
+                        log.debug(() -> "code block, no more cuts");
+                        position = UNTERMINATED;
+                    } else {
+                        position = wordEnd;
+                    }
+                } else {
+                    position++;
+                }
+                break;
+            }
+            if (position == UNTERMINATED) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Skips the whitespace and comments after a semi-colon up to and including the line feed, like the
+     * {@link StatementCutter} does for a trailing comment
+     *
+     * @param position
+     *            The position after the semi-colon
+     * @return long The position where the next piece starts or UNTERMINATED
+     */
+    private long skipTrailer(long position) {
+        long current = position;
+        while (current < size) {
+            byte b = input.get(current);
+            if (isSpace(b)) {
+                for (current++; current < size && isSpace(input.get(current)); current++) {
+                    // just skipping
+                }
+                if (isAt(current, '\n')) {
+                    return skipLinefeed(current);
+                }
+            } else if (b == '\n') {
+                return skipLinefeed(current);
+            } else if (b == '-' && isAt(current + 1, '-')) {
+                current = skipCommentLine(current);
+            } else if (b == '/' && isAt(current + 1, '*')) {
+                current = skipComment(current);
+                if (current == UNTERMINATED) {
+                    return UNTERMINATED;
+                }
+            } else {
+                return current;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Skips whitespace, line feeds and comments
+     *
+     * @param position
+     *            The position to start at
+     * @return long The position of the next interpretable byte, size at the end of the input or UNTERMINATED
+     */
+    private long skipNonInterpretable(long position) {
+        long current = position;
+        while (current < size) {
+            byte b = input.get(current);
+            if (isSpace(b) || b == '\n') {
+                current++;
+            } else if (b == '-' && isAt(current + 1, '-')) {
+                current = skipCommentLine(current);
+            } else if (b == '/' && isAt(current + 1, '*')) {
+                current = skipComment(current);
+                if (current == UNTERMINATED) {
+                    return UNTERMINATED;
+                }
+            } else {
+                return current;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Skips a line feed and the carriage returns that follow it
+     *
+     * @param position
+     *            The position of the line feed
+     * @return long The position after the line feed
+     */
+    private long skipLinefeed(long position) {
+        long current = position + 1;
+        while (isAt(current, '\r')) {
+            current++;
+        }
+        return current;
+    }
+
+    /**
+     * Skips a -- comment, including the carriage return or line feed that ends it
+     *
+     * @param position
+     *            The position of the first dash
+     * @return long The position after the comment
+     */
+    private long skipCommentLine(long position) {
+        for (long current = position + 2; current < size; current++) {
+            byte b = input.get(current);
+            if (b == '\n' || b == '\r') {
+                return current + 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Skips a (nested) /* *&#47; comment
+     *
+     * @param position
+     *            The position of the slash
+     * @return long The position after the comment or UNTERMINATED
+     */
+    private long skipComment(long position) {
+        int level = 1;
+        long current = position + 2;
+        while (current < size) {
+            byte b = input.get(current);
+            if (b == '/' && isAt(current + 1, '*')) {
+                level++;
+                current += 2;
+            } else if (b == '*' && isAt(current + 1, '/')) {
+                current += 2;
+                if (--level == 0) {
+                    return current;
+                }
+            } else {
+                current++;
+            }
+        }
+        return UNTERMINATED;
+    }
+
+    /**
+     * Skips a single quoted string
+     *
+     * @param position
+     *            The position after the opening quote
+     * @param escapes
+     *            true for an E'' string, in which a backslash escapes the next character
+     * @return long The position after the closing quote or UNTERMINATED
+     */
+    private long skipQuoted(long position, boolean escapes) {
+        long current = position;
+        while (current < size) {
+            byte b = input.get(current);
+            if (b == '\'') {
+                if (!isAt(current + 1, '\'')) {
+                    return current + 1;
+                }
+                current += 2;
+            } else if (escapes && b == '\\') {
+                current += 2;
+            } else {
+                current++;
+            }
+        }
+        return UNTERMINATED;
+    }
+
+    /**
+     * Skips a double quoted identifier. It is terminated by a double quote. A line feed in it leaves the SourceScanner
+     * in an error state, so that is treated as unterminated as well.
+     *
+     * @param position
+     *            The position after the opening double quote
+     * @return long The position after the closing double quote or UNTERMINATED
+     */
+    private long skipDoubleQuoted(long position) {
+        for (long current = position; current < size; current++) {
+            byte b = input.get(current);
+            if (b == '"') {
+                return current + 1;
+            }
+            if (b == '\n') {
+                return UNTERMINATED;
+            }
+        }
+        return UNTERMINATED;
+    }
+
+    /**
+     * Skips a dollar quoted string if there is one at the position, or else the word that starts with the dollar
+     *
+     * @param position
+     *            The position of the dollar
+     * @return long The position after the dollar quoted string or the word, or UNTERMINATED
+     */
+    private long skipDollar(long position) {
+        long delimiterEnd = delimiterEnd(position);
+        if (delimiterEnd == UNTERMINATED) {
+            return skipTagCharacters(position + 1);
+        }
+        long current = delimiterEnd;
+        while (current < size) {
+            if (input.get(current) != '$') {
+                current++;
+                continue;
+            }
+            long candidateEnd = delimiterEnd(current);
+            if (candidateEnd == UNTERMINATED) {
+                current++;
+            } else if (isSameBytes(position, delimiterEnd, current, candidateEnd)) {
+                return candidateEnd;
+            } else {
+                // The closing dollar of the candidate may open the real delimiter
+                current = candidateEnd - 1;
+            }
+        }
+        return UNTERMINATED;
+    }
+
+    /**
+     * Checks if there is a $tag$ dollar quote delimiter at the position
+     *
+     * @param position
+     *            The position of a dollar
+     * @return long The position after the delimiter or UNTERMINATED if there is none
+     */
+    private long delimiterEnd(long position) {
+        if (isAt(position + 1, '$')) {
+            return position + 2;
+        }
+        if (position + 1 >= size) {
+            return UNTERMINATED;
+        }
+        byte first = input.get(position + 1);
+        if (first >= '0' && first <= '9') {
+            return UNTERMINATED;
+        }
+        long tagEnd = skipTagCharacters(position + 1);
+        if (tagEnd > position + 1 && isAt(tagEnd, '$')) {
+            return tagEnd + 1;
+        }
+        return UNTERMINATED;
+    }
+
+    /**
+     * Skips the characters that may be part of an identifier or word, except for the dollar
+     *
+     * @param position
+     *            The position to start at
+     * @return long The position of the first byte that is not part of the identifier
+     */
+    private long skipTagCharacters(long position) {
+        long current = position;
+        while (current < size) {
+            int length = identifierCharLength(current);
+            if (length == 0) {
+                break;
+            }
+            current += length;
+        }
+        return current;
+    }
+
+    /**
+     * Skips an identifier or word, which may contain dollars
+     *
+     * @param position
+     *            The position of the first byte of the word
+     * @return long The position after the word
+     */
+    private long skipWord(long position) {
+        long current = position;
+        while (current < size) {
+            if (input.get(current) == '$') {
+                current++;
+                continue;
+            }
+            int length = identifierCharLength(current);
+            if (length == 0) {
+                break;
+            }
+            current += length;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the length of the character at the position if it can be part of an identifier: [A-Za-z0-9_] or a
+     * character in the range U+0080 - U+00FF, which is encoded in two bytes in UTF-8
+     *
+     * @param position
+     *            The position to look at
+     * @return int the number of bytes of the character or 0 if it is not an identifier character
+     */
+    private int identifierCharLength(long position) {
+        byte b = input.get(position);
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_') {
+            return 1;
+        }
+        if ((b == (byte) 0xc2 || b == (byte) 0xc3) && position + 1 < size) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * @param b
+     *            The byte to check
+     * @return boolean true if the byte can start a word
+     */
+    private static boolean isWordStart(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_'
+                || b == (byte) 0xc2 || b == (byte) 0xc3;
+    }
+
+    /**
+     * @param b
+     *            The byte to check
+     * @return boolean true for the whitespace bytes of the SourceScanner
+     */
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == '\r';
+    }
+
+    /**
+     * @param position
+     *            The position to check, may be beyond the input
+     * @param expected
+     *            The expected byte
+     * @return boolean true if the byte at the position is the expected one
+     */
+    private boolean isAt(long position, char expected) {
+        return position >= 0 && position < size && input.get(position) == expected;
+    }
+
+    /**
+     * @param start
+     *            The position of the word
+     * @param end
+     *            The position after the word
+     * @return boolean true if the word is "begin", case insensitive
+     */
+    private boolean isBegin(long start, long end) {
+        if (end - start != BEGIN.length) {
+            return false;
+        }
+        for (int i = 0; i < BEGIN.length; i++) {
+            if ((input.get(start + i) | 0x20) != BEGIN[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two byte sequences of the input
+     *
+     * @param start1
+     *            The start of the first sequence
+     * @param end1
+     *            The end of the first sequence
+     * @param start2
+     *            The start of the second sequence
+     * @param end2
+     *            The end of the second sequence
+     * @return boolean true if both contain the same bytes
+     */
+    private boolean isSameBytes(long start1, long end1, long start2, long end2) {
+        if (end1 - start1 != end2 - start2) {
+            return false;
+        }
+        for (long i = 0; i < end1 - start1; i++) {
+            if (input.get(start1 + i) != input.get(start2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
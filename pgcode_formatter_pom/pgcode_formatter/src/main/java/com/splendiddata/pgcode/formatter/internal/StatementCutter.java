@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.LayoutEngine;
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
+import com.splendiddata.pgcode.formatter.scanner.structure.DeeplyNestedStatementNode;
+import com.splendiddata.pgcode.formatter.scanner.structure.SrcNode;
+
+/**
+ * Cuts the input into independent pieces that can be rendered one by one.
+ * <p>
+ * Cutting consumes the token stream, so it must be done by a single thread in source order. The pieces it delivers are
+ * no longer connected to the token stream, so they can be rendered in any thread and in any order.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class StatementCutter {
+    private final FormatConfiguration config;
+
+    /**
+     * Provides the start of the next piece
+     * <p>
+     * The {@link PostgresInputReader} only provides the first result. Subsequent results can be obtained using the
+     * {@link ScanResult#getNext()} method. Thus the input file is consumed in a streaming way.
+     */
+    private ScanResult nextNode;
+
+    /**
+     * A part of the input that renders into one RenderResult: either a number of empty lines or a statement with its
+     * terminating semi-colon and trailing comment.
+     */
+    static final class Piece {
+        private final int emptyLineCount;
+        private final SrcNode statement;
+        private final ScanResult semiColon;
+        private final ScanResult trailingComment;
+
+        /**
+         * Constructor for empty lines
+         *
+         * @param emptyLineCount
+         *            The number of empty lines to render
+         */
+        private Piece(int emptyLineCount) {
+            this.emptyLineCount = emptyLineCount;
+            this.statement = null;
+            this.semiColon = null;
+            this.trailingComment = null;
+        }
+
+        /**
+         * Constructor for a statement
+         *
+         * @param statement
+         *            The interpreted statement
+         * @param semiColon
+         *            The semi-colon that ends the statement if it is not included in the statement itself, or null
+         * @param trailingComment
+         *            The start of the (whitespace and) comment nodes on the rest of the line, or null
+         */
+        private Piece(SrcNode statement, ScanResult semiColon, ScanResult trailingComment) {
+            this.emptyLineCount = 0;
+            this.statement = statement;
+            this.semiColon = semiColon;
+            this.trailingComment = trailingComment;
+        }
+
+        /**
+         * Renders the piece
+         *
+         * @param config
+         *            The configuration to render with
+         * @return RenderResult the rendered piece, ending in a line feed
+         */
+        RenderResult render(FormatConfiguration config) {
+            return render(config, new RenderCacheBudget());
+        }
+
+        /**
+         * Renders the piece
+         *
+         * @param config
+         *            The configuration to render with
+         * @param renderCacheBudget
+         *            Limits the memory that the render caches of the statement may use. All caches are released when
+         *            the piece is rendered.
+         * @return RenderResult the rendered piece, ending in a line feed
+         */
+        RenderResult render(FormatConfiguration config, RenderCacheBudget renderCacheBudget) {
+            if (LayoutEngine.DOCUMENT.equals(config.getLayoutEngine())) {
+                return layOut(config);
+            }
+            FormatContext formatContext = new FormatContext(config, null);
+            RenderMultiLines result = new RenderMultiLines(null, formatContext, null);
+            if (statement == null) {
+                for (int i = 0; i < emptyLineCount; i++) {
+                    result.addExtraLine();
+                }
+                return result;
+            }
+
+            /*
+             * The render caches are only useful while the layout of the statement is being decided on. They are
+             * released as soon as it is done.
+             */
+            formatContext.setRenderCacheBudget(renderCacheBudget);
+            if (config.getLayoutOptimizerBudget() > 0) {
+                formatContext.setLayoutOptimizer(new LayoutOptimizer(config.getLayoutOptimizerBudget()));
+            }
+            try {
+                result.addRenderResult(statement.beautify(formatContext, result, config), formatContext);
+                if (semiColon != null) {
+                    result.addRenderResult(semiColon.beautify(formatContext, result, config), formatContext);
+                }
+                for (ScanResult node = trailingComment; node != null; node = node.getNext()) {
+                    result.addRenderResult(node.beautify(formatContext, result, config), formatContext);
+                }
+            } finally {
+                renderCacheBudget.releaseAll();
+            }
+
+            /*
+             * Now finish the line
+             */
+            result.addLine();
+            return result;
+        }
+
+        /**
+         * Lays the piece out using the {@link LayoutEngine#DOCUMENT} layout engine
+         *
+         * @param config
+         *            The configuration to lay out with
+         * @return RenderResult the laid out piece, ending in a line feed
+         */
+        private RenderResult layOut(FormatConfiguration config) {
+            StringBuilder text = new StringBuilder();
+            if (statement == null) {
+                for (int i = 0; i < emptyLineCount; i++) {
+                    text.append('\n');
+                }
+                return new PrintedDoc(text.toString());
+            }
+
+            List<Doc> parts = new ArrayList<>();
+            parts.add(statement.toDoc(config));
+            if (semiColon != null) {
+                parts.add(semiColon.toDoc(config));
+            }
+            for (ScanResult node = trailingComment; node != null; node = node.getNext()) {
+                parts.add(node.is(ScanResultType.WHITESPACE) ? Doc.text(" ") : node.toDoc(config));
+            }
+            text.append(new DocPrinter(config.getCompiled().getLineWidth()).print(Doc.concat(parts)));
+            int length = text.length();
+            while (length > 0 && text.charAt(length - 1) == '\n') {
+                length--;
+            }
+            text.setLength(length);
+            return new PrintedDoc(text.append('\n').toString());
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session
+     *            The formatting session for the input
+     * @param inFile
+     *            The Reader that will provide the input
+     * @param config
+     *            The configuration, used to decide what to do with empty lines
+     * @throws IOException
+     *             from the inFile
+     */
+    StatementCutter(FormattingSession session, Reader inFile, FormatConfiguration config) throws IOException {
+        this.config = config;
+        this.nextNode = new PostgresInputReader(session, inFile).getFirstResult();
+    }
+
+    /**
+     * Cuts the next piece off the input
+     *
+     * @return Piece the next piece or null at the end of the input
+     */
+    Piece next() {
+        if (nextNode == null || nextNode.isEof()) {
+            return null;
+        }
+
+        /*
+         * First deal with empty lines
+         */
+        int emptyLineCount = 0;
+        for (; nextNode != null
+                && (nextNode.is(ScanResultType.WHITESPACE) || nextNode.is(ScanResultType.LINEFEED)); nextNode = nextNode
+                        .getNext()) {
+            if (nextNode.is(ScanResultType.LINEFEED)) {
+                emptyLineCount++;
+            }
+        }
+        if (nextNode == null || nextNode.isEof()) {
+            return null;
+        }
+        if (emptyLineCount > 0) {
+            switch (config.getEmptyLine()) {
+            case PRESERVE_ALL:
+                return new Piece(emptyLineCount);
+            case PRESERVE_ONE:
+                return new Piece(1);
+            case REMOVE:
+            default:
+                break;
+            }
+        }
+
+        /*
+         * Interpret a statement, unless it is nested so deeply that interpreting and rendering it might exhaust the
+         * stack
+         */
+        SrcNode statementNode;
+        if (DeeplyNestedStatementNode.isTooDeeplyNested(nextNode)) {
+            statementNode = new DeeplyNestedStatementNode(nextNode);
+        } else {
+            statementNode = PostgresInputReader.interpretStatementStart(nextNode);
+        }
+        nextNode = statementNode.getNext();
+        statementNode.setNext(null); // break the list to avoid any memory problems
+        CodeFormatter.log.debug("Statement=<<<%s>>>\n", statementNode);
+
+        /*
+         * Not all statements include their ending semi-colon. Make sure they do now.
+         */
+        ScanResult semiColon = null;
+        ScanResult trailingNode = nextNode;
+        if (trailingNode != null
+                && (trailingNode.is(ScanResultType.WHITESPACE) || trailingNode.is(ScanResultType.LINEFEED))) {
+            trailingNode = trailingNode.getNextNonWhitespace();
+        }
+        if (trailingNode != null && trailingNode.is(ScanResultType.SEMI_COLON)) {
+            semiColon = trailingNode;
+            nextNode = trailingNode.getNext();
+            trailingNode.setNext(null);
+        }
+
+        /*
+         * Add trailing comment if any. The comment is cut off from the rest of the input.
+         */
+        boolean foundTrailingComment = false;
+        ScanResult lastTrailingNode = null;
+        for (trailingNode = nextNode; trailingNode != null && !trailingNode.getType().isInterpretable()
+                && !trailingNode.is(ScanResultType.LINEFEED); trailingNode = trailingNode.getNext()) {
+            foundTrailingComment |= trailingNode.is(ScanResultType.COMMENT)
+                    || trailingNode.is(ScanResultType.COMMENT_LINE);
+            lastTrailingNode = trailingNode;
+        }
+        ScanResult trailingComment = null;
+        if (foundTrailingComment) {
+            trailingComment = nextNode;
+            lastTrailingNode.setNext(null);
+        }
+        if (trailingNode != null && trailingNode.is(ScanResultType.LINEFEED)) {
+            nextNode = trailingNode.getNext();
+        } else {
+            nextNode = trailingNode;
+        }
+
+        return new Piece(statementNode, semiColon, trailingComment);
+    }
+}
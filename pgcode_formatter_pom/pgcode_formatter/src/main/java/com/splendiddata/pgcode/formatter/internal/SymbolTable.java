@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+/**
+ * Interns the identifiers of a {@link FormattingSession}.
+ * <p>
+ * A schema dump mentions the same identifiers, like schema, table, column and type names, over and over again. The
+ * scanner interns them, so every occurrence of an identifier shares the same String. The table is an open addressing
+ * hash table on the {@link String#hashCode()} of the identifiers, which String caches, so interning an identifier that
+ * is already known costs a table lookup and a compare. The scanner interns straight from its buffer, so no String is
+ * created for an identifier that is known already.
+ * </p>
+ * <p>
+ * A nested session shares the table of its parent, and nested sessions may scan in other threads than the one that
+ * scans the source, so the methods are synchronized.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class SymbolTable {
+    /**
+     * The maximum number of interned identifiers. When exceeded, the table is cleared so that an input with an
+     * unlimited number of distinct identifiers doesn't exhaust the heap.
+     */
+    private static final int MAX_SYMBOLS = 1 << 18;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the interned String that equals the text, interning the text if there wasn't any
+     *
+     * @param text
+     *            The text of an identifier
+     * @return String the interned text
+     */
+    public synchronized String intern(String text) {
+        int mask = symbols.length - 1;
+        int hash = text.hashCode();
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String symbol = symbols[i];
+            if (symbol == null) {
+                return add(i, text);
+            }
+            if (symbol.hashCode() == hash && symbol.equals(text)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * Returns the interned String with the characters, interning them if they weren't interned yet. No String is
+     * created for an identifier that is interned already.
+     *
+     * @param chars
+     *            Buffer that contains the text of an identifier
+     * @param start
+     *            The index of the first character of the text
+     * @param length
+     *            The length of the text
+     * @return String the interned text
+     */
+    public synchronized String intern(char[] chars, int start, int length) {
+        int mask = symbols.length - 1;
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String symbol = symbols[i];
+            if (symbol == null) {
+                return add(i, new String(chars, start, length));
+            }
+            if (symbol.hashCode() == hash && equals(symbol, chars, start, length)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * @return int the number of interned identifiers
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Compares a String with characters in a buffer
+     *
+     * @param symbol
+     *            The String to compare
+     * @param chars
+     *            The buffer
+     * @param start
+     *            The index of the first character in the buffer
+     * @param length
+     *            The number of characters
+     * @return boolean true if the symbol consists of the characters
+     */
+    private static boolean equals(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a new symbol in a free slot, clears or grows the table when needed
+     *
+     * @param slot
+     *            The free slot for the symbol
+     * @param symbol
+     *            The text to intern
+     * @return String the symbol
+     */
+    private String add(int slot, String symbol) {
+        if (size >= MAX_SYMBOLS) {
+            symbols = new String[INITIAL_CAPACITY];
+            size = 0;
+            return intern(symbol);
+        }
+        symbols[slot] = symbol;
+        size++;
+        if (size * 2 > symbols.length) {
+            String[] old = symbols;
+            symbols = new String[old.length * 2];
+            int mask = symbols.length - 1;
+            for (String s : old) {
+                if (s != null) {
+                    int i = s.hashCode() & mask;
+                    while (symbols[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    symbols[i] = s;
+                }
+            }
+        }
+        return symbol;
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.TabsOrSpacesType;
+
+/**
+ * Replaces spaces by tabs in formatted text, see {@link Util#performTabReplacement(FormatConfiguration, String)}.
+ * <p>
+ * The text is processed in one pass, without scanning it into tokens first. Literals, escape strings, dollar quoted
+ * strings and double quoted identifiers are copied unchanged, except that an escape string always starts with a
+ * capital E, like {@link com.splendiddata.pgcode.formatter.scanner.structure.EscapeStringNode} renders it. They are
+ * recognised by the same rules as the {@link com.splendiddata.pgcode.formatter.scanner.FormattedSourceScanner} uses,
+ * including its identifier characters, of which the non-ASCII ones are U+0080 to U+00FF only. The text in between,
+ * and the comments, are divided in parts at these strings and comments. The tab positions are counted from the start
+ * of every part, just like they were when the text was split by a FormattedSourceScanner.
+ * </p>
+ * <p>
+ * A string or identifier that is not closed runs to the end of the text, as it does in the scanner. It is copied as
+ * is, without adding the closing delimiter.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+final class TabReplacer {
+    /**
+     * The previous character is not part of a word
+     */
+    private static final int NO_WORD = 0;
+
+    /**
+     * The previous character is part of an identifier or word, which may contain $ characters
+     */
+    private static final int WORD = 1;
+
+    /**
+     * The previous character is part of a word that starts with a $, like a parameter ($1), which doesn't contain
+     * other $ characters
+     */
+    private static final int DOLLAR_WORD = 2;
+
+    private final Appendable target;
+    private final int tabWidth;
+
+    /**
+     * true: replace all groups of spaces that end at a tab position, false: replace leading spaces only
+     */
+    private final boolean allSpaces;
+
+    /**
+     * Constructor
+     *
+     * @param config
+     *            The configuration that provides the tabs and indent settings
+     * @param target
+     *            Receives the text with tabs
+     */
+    TabReplacer(FormatConfiguration config, Appendable target) {
+        this.target = target;
+        this.tabWidth = config.getTabs().getTabWidth().intValue();
+        this.allSpaces = TabsOrSpacesType.TABS.equals(config.getTabs().getTabsOrSpaces());
+    }
+
+    /**
+     * @param config
+     *            The configuration that provides the tabs and indent settings
+     * @return boolean true if the config desires tabs, either everywhere or in the indentation only
+     */
+    static boolean isTabReplacement(FormatConfiguration config) {
+        return TabsOrSpacesType.TABS.equals(config.getTabs().getTabsOrSpaces())
+                || TabsOrSpacesType.TABS.equals(config.getIndent().getTabsOrSpaces());
+    }
+
+    /**
+     * Appends the text to the target, with spaces replaced by tabs
+     *
+     * @param text
+     *            The formatted text
+     * @throws IOException
+     *             from the target
+     */
+    void append(CharSequence text) throws IOException {
+        int length = text.length();
+        int partStart = 0;
+        int word = NO_WORD;
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            int end = -1;
+            boolean copy = true;
+            boolean escapeString = false;
+            switch (c) {
+            case '\'':
+                end = endOfLiteral(text, i + 1, false);
+                break;
+            case 'e':
+            case 'E':
+                if (word == NO_WORD && i + 1 < length && text.charAt(i + 1) == '\'') {
+                    end = endOfLiteral(text, i + 2, true);
+                    escapeString = true;
+                }
+                break;
+            case '"':
+                end = endOfQuotedIdentifier(text, i + 1);
+                break;
+            case '$':
+                if (word != WORD) {
+                    end = endOfDollarQuotedString(text, i);
+                }
+                break;
+            case '-':
+                if (i + 1 < length && text.charAt(i + 1) == '-') {
+                    end = endOfCommentLine(text, i + 2);
+                    copy = false;
+                }
+                break;
+            case '/':
+                if (i + 1 < length && text.charAt(i + 1) == '*') {
+                    end = endOfComment(text, i + 2);
+                    copy = false;
+                }
+                break;
+            default:
+                break;
+            }
+            if (end < 0) {
+                word = nextWord(word, c);
+                i++;
+            } else {
+                replace(text, partStart, i);
+                if (escapeString) {
+                    target.append('E').append(text, i + 1, end);
+                } else if (copy) {
+                    target.append(text, i, end);
+                } else {
+                    replace(text, i, end);
+                }
+                partStart = end;
+                i = end;
+                word = NO_WORD;
+            }
+        }
+        replace(text, partStart, length);
+    }
+
+    /**
+     * Determines whether the character continues a word. The characters of a word are those of ident_cont and word in
+     * FormattedSourceScanner.lex, so a character beyond U+00FF ends a word there as well.
+     *
+     * @param word
+     *            The kind of word that the previous character belongs to
+     * @param c
+     *            The character
+     * @return int the kind of word that the character belongs to
+     */
+    private static int nextWord(int word, char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+                || (c >= '\u0080' && c <= '\u00ff')) {
+            return word == NO_WORD ? WORD : word;
+        }
+        if (c == '$') {
+            return word == WORD ? WORD : DOLLAR_WORD;
+        }
+        return NO_WORD;
+    }
+
+    /**
+     * Finds the end of a literal or escape string
+     *
+     * @param text
+     *            The text
+     * @param from
+     *            The index just after the opening quote
+     * @param escapes
+     *            true for an escape string, in which a backslash escapes the next character
+     * @return int the index after the closing quote, or the length of the text if the literal isn't closed
+     */
+    private static int endOfLiteral(CharSequence text, int from, boolean escapes) {
+        int length = text.length();
+        int i = from;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '\\' && escapes) {
+                i += 2;
+            } else if (c == '\'') {
+                if (i + 1 < length && text.charAt(i + 1) == '\'') {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Finds the end of a double quoted identifier. Like in the scanner, a line feed does not end the identifier.
+     *
+     * @param text
+     *            The text
+     * @param from
+     *            The index just after the opening double quote
+     * @return int the index after the closing double quote, or the length of the text if the identifier isn't closed
+     */
+    private static int endOfQuotedIdentifier(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                return i + 1;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * Finds the end of a dollar quoted string
+     *
+     * @param text
+     *            The text
+     * @param from
+     *            The index of the $ that may start the opening delimiter, like $$ or $body$
+     * @return int the index after the closing delimiter, the length of the text if the string isn't closed, or -1 if
+     *         there is no opening delimiter at from
+     */
+    private static int endOfDollarQuotedString(CharSequence text, int from) {
+        int length = text.length();
+        int i = from + 1;
+        if (i < length && isDelimiterStart(text.charAt(i))) {
+            for (i++; i < length && (isDelimiterStart(text.charAt(i)) || isDigit(text.charAt(i))); i++) {
+                // skip the tag
+            }
+        }
+        if (i >= length || text.charAt(i) != '$') {
+            return -1;
+        }
+        int delimiterLength = i + 1 - from;
+        for (int end = i + 1; end + delimiterLength <= length; end++) {
+            if (regionMatches(text, end, from, delimiterLength)) {
+                return end + delimiterLength;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @param c
+     *            A character
+     * @return boolean true if the character may start the tag of a dollar quote delimiter
+     */
+    private static boolean isDelimiterStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (c >= '\u0080' && c <= '\u00ff');
+    }
+
+    /**
+     * @param c
+     *            A character
+     * @return boolean true for 0 to 9
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @param text
+     *            The text
+     * @param start
+     *            The start of the region to compare
+     * @param other
+     *            The start of the other region
+     * @param length
+     *            The length of the regions
+     * @return boolean true if both regions contain the same characters
+     */
+    private static boolean regionMatches(CharSequence text, int start, int other, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(start + i) != text.charAt(other + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param text
+     *            The text
+     * @param from
+     *            The index just after the --
+     * @return int the index of the end of the line, or the length of the text
+     */
+    private static int endOfCommentLine(CharSequence text, int from) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param text
+     *            The text
+     * @param from
+     *            The index just after the opening /*
+     * @return int the index after the closing star slash, taking nested comments into account, or the length of the
+     *         text if the comment isn't closed
+     */
+    private static int endOfComment(CharSequence text, int from) {
+        int length = text.length();
+        int depth = 1;
+        int i = from;
+        while (i + 1 < length) {
+            char c = text.charAt(i);
+            if (c == '/' && text.charAt(i + 1) == '*') {
+                depth++;
+                i += 2;
+            } else if (c == '*' && text.charAt(i + 1) == '/') {
+                i += 2;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Appends a part of the text to the target, with spaces replaced by tabs
+     *
+     * @param text
+     *            The text
+     * @param start
+     *            The start of the part
+     * @param end
+     *            The end of the part
+     * @throws IOException
+     *             from the target
+     */
+    private void replace(CharSequence text, int start, int end) throws IOException {
+        if (allSpaces) {
+            replaceSpaces(text, start, end);
+        } else {
+            replaceLeadingSpaces(text, start, end);
+        }
+    }
+
+    /**
+     * Divides the part in chunks of tabWidth characters, counting from the start of the part and from every new line.
+     * Two or more white space characters at the end of a chunk are replaced by a tab.
+     *
+     * @param text
+     *            The text
+     * @param start
+     *            The start of the part
+     * @param end
+     *            The end of the part
+     * @throws IOException
+     *             from the target
+     */
+    private void replaceSpaces(CharSequence text, int start, int end) throws IOException {
+        int chunkStart = start;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                target.append(text, chunkStart, i + 1);
+                chunkStart = i + 1;
+            } else if (i + 1 - chunkStart == tabWidth) {
+                int lineEnd = i + 1;
+                char last = text.charAt(i);
+                if (last == '\u0085' || last == '\u2028' || last == '\u2029') {
+                    // The old regular expression \s{2,}$ matched before a final line terminator as well
+                    lineEnd = i;
+                }
+                int spacesStart = lineEnd;
+                while (spacesStart > chunkStart && isWhitespace(text.charAt(spacesStart - 1))) {
+                    spacesStart--;
+                }
+                if (lineEnd - spacesStart >= 2) {
+                    target.append(text, chunkStart, spacesStart).append('\t').append(text, lineEnd, i + 1);
+                } else {
+                    target.append(text, chunkStart, i + 1);
+                }
+                chunkStart = i + 1;
+            }
+        }
+        target.append(text, chunkStart, end);
+    }
+
+    /**
+     * @param c
+     *            A character
+     * @return boolean true for the white space characters of a regular expression \s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Replaces the white space after every new line in the part by as many tabs as possible, followed by the remaining
+     * spaces
+     *
+     * @param text
+     *            The text
+     * @param start
+     *            The start of the part
+     * @param end
+     *            The end of the part
+     * @throws IOException
+     *             from the target
+     */
+    private void replaceLeadingSpaces(CharSequence text, int start, int end) throws IOException {
+        int copied = start;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                int spacesEnd = i + 1;
+                while (spacesEnd < end && text.charAt(spacesEnd) != '\n' && isWhitespace(text.charAt(spacesEnd))) {
+                    spacesEnd++;
+                }
+                int nrSpaces = spacesEnd - i - 1;
+                if (nrSpaces > 0) {
+                    target.append(text, copied, i + 1).append(Util.nTabs(nrSpaces / tabWidth))
+                            .append(Util.nSpaces(nrSpaces % tabWidth));
+                    copied = spacesEnd;
+                    i = spacesEnd - 1;
+                }
+            }
+        }
+        target.append(text, copied, end);
+    }
+}
@@ -16,13 +16,13 @@ package com.splendiddata.pgcode.formatter.internal;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
+import java.util.function.Function;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -32,9 +32,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.splendiddata.pgcode.formatter.*;
-import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.TabsOrSpacesType;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
-import com.splendiddata.pgcode.formatter.scanner.ScanResultStringLiteral;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 import com.splendiddata.pgcode.formatter.scanner.structure.*;
 
@@ -59,11 +57,11 @@ public final class Util {
     /**
      * Cache of strings with a specified number of spaces
      */
-    private static final Map<Integer, String> spacesCache = new HashMap<>();
+    private static final Map<Integer, String> spacesCache = new ConcurrentHashMap<>();
     /**
      * Cache of strings with a specified number of tabs
      */
-    private static final Map<Integer, String> tabsCache = new HashMap<>();
+    private static final Map<Integer, String> tabsCache = new ConcurrentHashMap<>();
     public static String space = " ";
 
     /**
@@ -87,14 +85,11 @@ public final class Util {
         if (n <= 0) {
             return "";
         }
-        String result = spacesCache.get(Integer.valueOf(n));
-        if (result == null) {
-            byte[] bytes = new byte[n];
+        return spacesCache.computeIfAbsent(Integer.valueOf(n), key -> {
+            byte[] bytes = new byte[key.intValue()];
             Arrays.fill(bytes, (byte) ' ');
-            result = new String(bytes);
-            spacesCache.put(Integer.valueOf(n), result);
-        }
-        return result;
+            return new String(bytes);
+        });
     }
 
     /**
@@ -105,14 +100,11 @@ public final class Util {
      * @return String with n tab charactes
      */
     public static String nTabs(int n) {
-        String result = tabsCache.get(Integer.valueOf(n));
-        if (result == null) {
-            byte[] bytes = new byte[n];
+        return tabsCache.computeIfAbsent(Integer.valueOf(n), key -> {
+            byte[] bytes = new byte[key.intValue()];
             Arrays.fill(bytes, (byte) '\t');
-            result = new String(bytes);
-            tabsCache.put(Integer.valueOf(n), result);
-        }
-        return result;
+            return new String(bytes);
+        });
     }
 
     /**
@@ -200,7 +192,7 @@ public final class Util {
         for (ScanResult srcNode = fromScanResult; srcNode != null; srcNode = srcNode.getNext()) {
             int itemWidth = srcNode.getSingleLineWidth(config);
             int pos = renderResult.getPosition();
-            if (pos > standardIndent && itemWidth >= 0 && pos + itemWidth > config.getLineWidth().getValue()
+            if (pos > standardIndent && itemWidth >= 0 && pos + itemWidth > config.getCompiled().getLineWidth()
                     && !(srcNode instanceof InParentheses || srcNode instanceof CommaSeparatedList)) {
                 renderResult.addLine();
             }
@@ -221,22 +213,58 @@ public final class Util {
      * @return The total expected linelength or a negative number if rendering will need more than one line.
      */
     public static int getSingleLineWidth(ScanResult fromScanResult, FormatConfiguration config) {
+        return getSingleLineWidth(fromScanResult, config, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getSingleLineWidth(ScanResult, FormatConfiguration)}, but gives up as soon as the total exceeds
+     * maxWidth. Every ScanResult is asked only for the width that is still left.
+     *
+     * @param fromScanResult
+     *            The ScanResult to start with in determining the total expected line length
+     * @param config
+     *            The configuration to measure for
+     * @param maxWidth
+     *            The maximum total width that is of interest
+     * @return The total expected linelength or a negative number if rendering will need more than one line or if the
+     *         total would exceed maxWidth
+     * @since 0.3.2
+     */
+    public static int getSingleLineWidth(ScanResult fromScanResult, FormatConfiguration config, int maxWidth) {
         if (log.isTraceEnabled()) {
             log.trace("getSingleLineWidth invoked from " + Thread.currentThread().getStackTrace()[2]);
         }
         int expectedWidth = 0;
         int additionalWidth;
         for (ScanResult srcNode = fromScanResult; srcNode != null; srcNode = srcNode.getNext()) {
-            additionalWidth = srcNode.getSingleLineWidth(config);
+            additionalWidth = srcNode.getSingleLineWidth(config, remainingWidth(maxWidth, expectedWidth));
             if (additionalWidth < 0) {
-                expectedWidth = -1;
-                break;
+                return -1;
             }
             expectedWidth += additionalWidth;
         }
         return expectedWidth;
     }
 
+    /**
+     * Returns the width that is left of maxWidth when usedWidth is taken, for passing on to
+     * {@link ScanResult#getSingleLineWidth(FormatConfiguration, int)}. Integer.MAX_VALUE, meaning that the exact width
+     * is needed, remains Integer.MAX_VALUE.
+     *
+     * @param maxWidth
+     *            The maximum width
+     * @param usedWidth
+     *            The part of maxWidth that is already taken
+     * @return int the remaining width
+     * @since 0.3.2
+     */
+    public static int remainingWidth(int maxWidth, int usedWidth) {
+        if (maxWidth == Integer.MAX_VALUE) {
+            return maxWidth;
+        }
+        return maxWidth - usedWidth;
+    }
+
     /**
      * Marshals an xmlBean to Sting for debugging purposes
      *
@@ -290,6 +318,73 @@ public final class Util {
         }
     }
 
+    /**
+     * Turns the inFile into a stream of results, rendering the statements in parallel.
+     * <p>
+     * One thread cuts the input into statements while nrThreads worker threads render them and apply the finisher to
+     * the RenderResults. The results are delivered in source order. Only a limited number of statements is cut ahead
+     * of the consumer of the stream, so memory usage does not depend on the size of the input. The stream should be
+     * closed if it is not consumed completely, to stop the threads.
+     * </p>
+     *
+     * @param <T>
+     *            The type of the results
+     * @param inFile
+     *            The Reader of that will provide the input
+     * @param config
+     *            The FormatConfiguration that will be used to render the results
+     * @param nrThreads
+     *            The number of worker threads. If 1 or less, everything is done in the consuming thread
+     * @param finisher
+     *            Turns a RenderResult into a result of the stream. It is executed in the worker thread
+     * @return Stream&lt;T&gt; the results, in source order
+     * @throws IOException
+     *             from the inputFile
+     * @since 0.3.2
+     */
+    public static <T> Stream<T> toRenderResults(Reader inFile, FormatConfiguration config, int nrThreads,
+            Function<RenderResult, T> finisher) throws IOException {
+        if (nrThreads <= 1) {
+            return toRenderResults(inFile, config).map(finisher);
+        }
+        ParallelRenderPipeline<T> pipeline = new ParallelRenderPipeline<>(
+                new StatementCutter(new FormattingSession(), inFile, config), config, nrThreads, finisher);
+        return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+    }
+
+    /**
+     * Turns the memory-mapped input into a stream of results, scanning and rendering the statements in parallel.
+     * <p>
+     * One thread cuts the input at statement boundaries (see {@link StatementBoundaryScanner}) without scanning it,
+     * while nrThreads worker threads scan, render and finish the parts. The results are delivered in source order and
+     * are the same as the results of {@link #toRenderResults(Reader, FormatConfiguration, int, Function)} on the whole
+     * input. The stream should be closed if it is not consumed completely, to stop the threads.
+     * </p>
+     *
+     * @param <T>
+     *            The type of the results
+     * @param input
+     *            The UTF-8 encoded input
+     * @param config
+     *            The FormatConfiguration that will be used to render the results
+     * @param nrThreads
+     *            The number of worker threads. If 1 or less, everything is done in the consuming thread
+     * @param finisher
+     *            Turns a RenderResult into a result of the stream. It is executed in the worker thread
+     * @return Stream&lt;T&gt; the results, in source order
+     * @throws IOException
+     *             Not expected from a MappedInput
+     * @since 0.3.2
+     */
+    public static <T> Stream<T> toRenderResults(MappedInput input, FormatConfiguration config, int nrThreads,
+            Function<RenderResult, T> finisher) throws IOException {
+        if (nrThreads <= 1) {
+            return toRenderResults(input.openReader(0, input.size()), config).map(finisher);
+        }
+        ParallelRenderPipeline<T> pipeline = new ParallelRenderPipeline<>(input, config, nrThreads, finisher);
+        return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+    }
+
     /**
      * Turns the inFile into a stream of RenderResults. Each RenderResult typically contains one statement and ends in a
      * line feed. Thus the sql file can be beautified in a streaming way.
@@ -305,12 +400,10 @@ public final class Util {
     public static Stream<RenderResult> toRenderResults(Reader inFile, FormatConfiguration config) throws IOException {
         return StreamSupport.stream(new Spliterator<RenderResult>() {
             /**
-             * Provides the start of the next result
-             * <p>
-             * The {@link PostgresInputReader} only provides the first result. Subsequent results can be obtained using
-             * the {@link ScanResult#getNext()} method. Thus the input file is consumed in a streaming way as well.
+             * Cuts the input into pieces that are rendered one at a time. Thus the input file is consumed in a
+             * streaming way as well.
              */
-            private ScanResult nextNode = new PostgresInputReader(inFile).getFirstResult();
+            private final StatementCutter cutter = new StatementCutter(new FormattingSession(), inFile, config);
 
             /**
              * The tryAdvance effectively provides the input for the stream, one entry at a time.
@@ -323,96 +416,11 @@ public final class Util {
              */
             @Override
             public boolean tryAdvance(Consumer<? super RenderResult> action) {
-                if (nextNode == null || nextNode.isEof()) {
-                    return false;
-                }
-
-                FormatContext formatContext = new FormatContext(config, null);
-                RenderMultiLines result = new RenderMultiLines(null, formatContext, null);
-
-                /*
-                 * First deal with empty lines
-                 */
-                int emptyLineCount = 0;
-                for (; nextNode != null && (nextNode.is(ScanResultType.WHITESPACE)
-                        || nextNode.is(ScanResultType.LINEFEED)); nextNode = nextNode.getNext()) {
-                    if (nextNode.is(ScanResultType.LINEFEED)) {
-                        emptyLineCount++;
-                    }
-                }
-                if (nextNode == null || nextNode.isEof()) {
+                StatementCutter.Piece piece = cutter.next();
+                if (piece == null) {
                     return false;
                 }
-                if (emptyLineCount > 0) {
-                    switch (config.getEmptyLine()) {
-                    case PRESERVE_ALL:
-                        for (int i = 0; i < emptyLineCount; i++) {
-                            result.addExtraLine();
-                        }
-                        action.accept(result);
-                        return true;
-                    case PRESERVE_ONE:
-                        result.addExtraLine();
-                        action.accept(result);
-                        return true;
-                    case REMOVE:
-                    default:
-                        break;
-
-                    }
-                }
-
-                /*
-                 * Interpret a statement
-                 */
-                SrcNode statementNode = PostgresInputReader.interpretStatementStart(nextNode);
-                nextNode = statementNode.getNext();
-                statementNode.setNext(null); // break the list to avoid any memory problems
-                CodeFormatter.log.debug("Statement=<<<%s>>>\n", statementNode);
-                /*
-                 * Render the statement
-                 */
-                result.addRenderResult(statementNode.beautify(formatContext, result, config), formatContext);
-                /*
-                 * Not all statements include their ending semi-colon. Make sure they do now.
-                 */
-                ScanResult trailingNode = nextNode;
-                if (trailingNode != null
-                        && (trailingNode.is(ScanResultType.WHITESPACE) || trailingNode.is(ScanResultType.LINEFEED))) {
-                    trailingNode = trailingNode.getNextNonWhitespace();
-                }
-                if (trailingNode != null && trailingNode.is(ScanResultType.SEMI_COLON)) {
-                    nextNode = trailingNode.getNext();
-                    trailingNode.setNext(null);
-                    result.addRenderResult(trailingNode.beautify(formatContext, result, config), formatContext);
-                }
-
-                /*
-                 * Add trailing comment if any. Anyway, make sure the result will end in a line feed.
-                 */
-                boolean foundTrailingComment = false;
-                for (trailingNode = nextNode; trailingNode != null && !trailingNode.getType().isInterpretable()
-                        && !trailingNode.is(ScanResultType.LINEFEED); trailingNode = trailingNode.getNext()) {
-                    foundTrailingComment |= trailingNode.is(ScanResultType.COMMENT)
-                            || trailingNode.is(ScanResultType.COMMENT_LINE);
-                }
-                if (foundTrailingComment) {
-                    for (ScanResult node = nextNode; node != trailingNode; node = node.getNext()) {
-                        result.addRenderResult(node.beautify(formatContext, result, config), formatContext);
-                    }
-                }
-                if (trailingNode != null && trailingNode.is(ScanResultType.LINEFEED)) {
-                    nextNode = trailingNode.getNext();
-                } else {
-                    nextNode = trailingNode;
-                }
-
-                /*
-                 * Now finish the line and "publish"
-                 */
-                result.addLine();
-                action.accept(result);
-
+                action.accept(piece.render(config));
                 return true;
             }
 
@@ -465,77 +473,6 @@ public final class Util {
         }, false);
     }
 
-    /**
-     * Parses the provided String and creates a list of elements of different types (like literal, comment, ...etc)
-     * 
-     * @param result
-     *            The String that has to be parsed
-     * @return A list of SplitData elements.
-     */
-    public static LinkedList<SplitData> parseInput(String result) {
-        Reader stringReader = new StringReader(result);
-
-        String partString = "";
-        LinkedList<SplitData> split = new LinkedList<>();
-        try (FormattedInputReader postgresInputReader = new FormattedInputReader(stringReader)) {
-            ScanResult nextNode = postgresInputReader.getFirstResult();
-            SplitData splitDataPart = new SplitData();
-
-            while (nextNode != null && !nextNode.isEof()) {
-                partString = nextNode.toString();
-                if (ScanResultType.LITERAL.equals(nextNode.getType())
-                        || ScanResultType.DOUBLE_QUOTED_IDENTIFIER.equals(nextNode.getType())
-                        || ScanResultType.ESCAPE_STRING.equals(nextNode.getType())
-                        || ScanResultType.COMMENT_LINE.equals(nextNode.getType())
-                        || ScanResultType.COMMENT.equals(nextNode.getType())) {
-                    SplitData splitData;
-                    if (nextNode instanceof ScanResultStringLiteral) {
-                        splitData = new SplitData(convertScanResultTypeToSplitDataType(nextNode.getType()),
-                                nextNode.getText(), ((ScanResultStringLiteral) nextNode).getQuoteString());
-                    } else {
-                        splitData = new SplitData();
-                        splitData.setType(convertScanResultTypeToSplitDataType(nextNode.getType()));
-                        splitData.setText(partString);
-                    }
-                    split.add(splitDataPart);
-                    split.add(splitData);
-                    splitDataPart = new SplitData();
-                } else {
-                    splitDataPart.appendText(partString);
-                }
-                nextNode = nextNode.getNext();
-            }
-            split.add(splitDataPart);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return split;
-    }
-
-    /**
-     * Converts a {@link ScanResultType} to a {@link SplitDataType}
-     * 
-     * @param scanResultType
-     *            A {@link ScanResultType} to convert
-     * @return A {@link SplitDataType}
-     */
-    public static SplitDataType convertScanResultTypeToSplitDataType(ScanResultType scanResultType) {
-        switch (scanResultType) {
-        case DOUBLE_QUOTED_IDENTIFIER:
-            return SplitDataType.DOUBLE_QUOTED_IDENTIFIER;
-        case LITERAL:
-            return SplitDataType.LITERAL;
-        case ESCAPE_STRING:
-            return SplitDataType.ESCAPE_STRING;
-        case COMMENT:
-            return SplitDataType.COMMENT;
-        case COMMENT_LINE:
-            return SplitDataType.COMMENT_LINE;
-        default:
-            return SplitDataType.TEXT;
-        }
-    }
-
     /**
      * Replaces groups of tab characters by spaces if the config desires so.
      * <ul>
@@ -553,83 +490,39 @@ public final class Util {
      * @return The resulting string
      */
     public static String performTabReplacement(FormatConfiguration config, String textWithSpaces) {
-        String result = textWithSpaces;
-        if (TabsOrSpacesType.TABS.equals(config.getTabs().getTabsOrSpaces())) {
-            result = replaceSpacesByTabs(config, result);
-        } else if (TabsOrSpacesType.TABS.equals(config.getIndent().getTabsOrSpaces())) {
-            result = replaceLeadingSpaces(config, result);
+        if (!TabReplacer.isTabReplacement(config)) {
+            return textWithSpaces;
         }
-        return result;
-    }
-
-    /**
-     * Replaces spaces by tabs, based on the provided regular expression patterns, in the provided string.
-     * 
-     * @param config
-     *            A FormatConfiguration where the tabWidth is defined.
-     * @param textWithSpaces
-     *            The String that has to be adapted
-     * @return The adapted String
-     */
-    private static String replaceSpacesByTabs(FormatConfiguration config, String textWithSpaces) {
-        LinkedList<SplitData> split = parseInput(textWithSpaces);
-        String partString;
-        Pattern tabSplitPattern = config.getTabSplitPattern();
-        Pattern tabReplacementPattern = config.getTabReplacementPattern();
-
-        StringBuilder buildResult = new StringBuilder();
-        int tabWidth = config.getTabs().getTabWidth().intValue();
-
-        for (int i = 0; i < split.size(); i++) {
-            SplitData partData = split.get(i);
-            partString = partData.toString();
-            if (!SplitDataType.LITERAL.equals(partData.getType())
-                    && !SplitDataType.DOUBLE_QUOTED_IDENTIFIER.equals(partData.getType())
-                    && !SplitDataType.ESCAPE_STRING.equals(partData.getType())) {
-                partString = tabSplitPattern.matcher(partString).results()
-                        .map(part -> part.group().length() == tabWidth
-                                ? tabReplacementPattern.matcher(part.group()).replaceAll("\t")
-                                : part.group())
-                        .collect(Collectors.joining());
-            }
-
-            buildResult.append(partString);
+        StringBuilder result = new StringBuilder(textWithSpaces.length());
+        try {
+            new TabReplacer(config, result).append(textWithSpaces);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return buildResult.toString();
+        return result.toString();
     }
 
     /**
-     * Replaces the leading spaces by tabs, based on the provided regular expression pattern, in the provided string.
-     * 
+     * Writes the beautified render result to the target, replacing groups of spaces by tabs if the config desires so,
+     * see {@link #performTabReplacement(FormatConfiguration, String)}. Without tab replacement, the result is written
+     * without copying it into a String first.
+     *
      * @param config
-     *            A FormatConfiguration where the tabWidth is defined.
-     * @param textWithLeadingSpaces
-     *            The String that has to be adapted
-     * @return The adapted String
+     *            The configuration that will provide the tabs and indent setting
+     * @param renderResult
+     *            The render result to write
+     * @param target
+     *            Receives the beautified result
+     * @throws IOException
+     *             from the target
+     * @since 0.3.2
      */
-    private static String replaceLeadingSpaces(FormatConfiguration config, String textWithLeadingSpaces) {
-        Pattern leadingSpacesPattern = config.getLeadingSpacesPattern();
-        LinkedList<SplitData> split = parseInput(textWithLeadingSpaces);
-        String partString;
-        StringBuilder buildResult = new StringBuilder();
-
-        for (int i = 0; i < split.size(); i++) {
-            SplitData partData = split.get(i);
-            partString = partData.toString();
-            if (!SplitDataType.LITERAL.equals(partData.getType())
-                    && !SplitDataType.DOUBLE_QUOTED_IDENTIFIER.equals(partData.getType())
-                    && !SplitDataType.ESCAPE_STRING.equals(partData.getType())) {
-                Matcher matcher = leadingSpacesPattern.matcher(partString);
-                partString = matcher.replaceAll(matchResult -> {
-                    int nrSpaces = matchResult.group().length() - 1;
-                    int tabWidth = config.getTabs().getTabWidth().intValue();
-                    return new StringBuilder().append("\n").append(nTabs(nrSpaces / tabWidth))
-                            .append(nSpaces(nrSpaces % tabWidth)).toString();
-                });
-            }
-
-            buildResult.append(partString);
+    public static void appendWithTabReplacement(FormatConfiguration config, RenderResult renderResult,
+            Appendable target) throws IOException {
+        if (TabReplacer.isTabReplacement(config)) {
+            new TabReplacer(config, target).append(renderResult.beautify());
+        } else {
+            renderResult.appendTo(target);
         }
-        return buildResult.toString();
     }
 }
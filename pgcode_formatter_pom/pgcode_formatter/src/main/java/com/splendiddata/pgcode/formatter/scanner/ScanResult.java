@@ -16,15 +16,18 @@ package com.splendiddata.pgcode.formatter.scanner;
 
 import org.apache.logging.log4j.LogManager;
 
-import com.splendiddata.pgcode.formatter.CodeFormatterThreadLocal;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
 import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.structure.CommentLineNode;
 import com.splendiddata.pgcode.formatter.scanner.structure.CommentNode;
+import com.splendiddata.pgcode.formatter.scanner.structure.IdentifierNode;
 import com.splendiddata.pgcode.formatter.util.Msg;
 
 /**
@@ -86,6 +89,25 @@ public interface ScanResult {
         // empty
     };
 
+    /**
+     * Returns the keyword id of an identifier, to be used with the {@link KeywordTable} checks
+     *
+     * @return int the keyword id, {@link KeywordTable#NONE} if this is not an identifier or an identifier that is not
+     *         in the keyword table
+     * @since 0.3.2
+     */
+    default int getKeywordId() {
+        return is(ScanResultType.IDENTIFIER) ? KeywordTable.idOf(getText()) : KeywordTable.NONE;
+    }
+
+    /**
+     * Returns the formatting session in which this ScanResult was scanned
+     *
+     * @return FormattingSession the session, may be null for nodes that are not the result of scanning
+     * @since 0.3.2
+     */
+    FormattingSession getSession();
+
     /**
      * Identifies this ScanResult as the end of the statement. It may be one of ScanResultType SEMI_COLON or EOF.
      *
@@ -148,6 +170,35 @@ public interface ScanResult {
         return renderResult;
     }
 
+    /**
+     * Returns the layout document of this ScanResult, that is used instead of
+     * {@link #beautify(FormatContext, RenderMultiLines, FormatConfiguration)} when the configuration selects the
+     * {@link com.splendiddata.pgcode.formatter.LayoutEngine#DOCUMENT} layout engine.
+     * <p>
+     * This default implementation returns the text as it is, except that whitespace becomes a line break, end of line
+     * comment is followed by a line break that is always taken and the letter case of keywords and functions is
+     * converted as the configuration tells.
+     * </p>
+     *
+     * @param config
+     *            The configuration that tells how to format
+     * @return Doc the layout document
+     * @since 0.3.2
+     */
+    default Doc toDoc(FormatConfiguration config) {
+        switch (getType()) {
+        case WHITESPACE:
+        case LINEFEED:
+            return Doc.line();
+        case COMMENT_LINE:
+            return Doc.concat(Doc.text(getText().trim()), Doc.hardLine());
+        case IDENTIFIER:
+            return new IdentifierNode(this).toDoc(config);
+        default:
+            return Doc.text(toString());
+        }
+    }
+
     /**
      * Checks whether a scanResult is a defined additional statement end.
      * 
@@ -156,11 +207,8 @@ public interface ScanResult {
      * @return true when scanResult is a statement end.
      */
     default boolean isAdditionalStatementEnd(ScanResult scanResult) {
-        if (CodeFormatterThreadLocal.isAdditionalStatementEnd(scanResult.getText())) {
-            return true;
-        }
-
-        return false;
+        FormattingSession session = scanResult.getSession();
+        return session != null && session.isAdditionalStatementEnd(scanResult.getText());
     }
 
     /**
@@ -266,7 +314,10 @@ public interface ScanResult {
      * <p>
      * It is advisable for implementing objects to at least remember the integer result of the first invocation. If that
      * result is positive, the RenderResult may be cached as well so it can be returned immediately by the
-     * {@link #beautify(FormatContext, RenderMultiLines, FormatConfiguration)} method when applicable.
+     * {@link #beautify(FormatContext, RenderMultiLines, FormatConfiguration)} method when applicable. SrcNodes remember
+     * the result per configuration; they implement
+     * {@link com.splendiddata.pgcode.formatter.scanner.structure.SrcNode#measureSingleLineWidth(FormatConfiguration, int)}
+     * instead of this method.
      *
      * @param config
      *            The initial configuration
@@ -282,4 +333,29 @@ public interface ScanResult {
         }
         return testResult.getWidth();
     }
+
+    /**
+     * Returns the length of the render result if it fits on a single line within maxWidth, or returns a negative value
+     * if it does not.
+     * <p>
+     * Unlike {@link #getSingleLineWidth(FormatConfiguration)}, this method does not tell the difference between a
+     * ScanResult that does not fit on a single line at all and a ScanResult that is just too wide. That allows an
+     * implementation to stop measuring as soon as maxWidth is exceeded. So it is meant for invokers that will not
+     * render on a single line in either case.
+     *
+     * @param config
+     *            The initial configuration
+     * @param maxWidth
+     *            The maximum width that is of interest to the invoker
+     * @return int a positive number indicating the length of a single-line render result that does not exceed maxWidth
+     *         or a negative value
+     * @since 0.3.2
+     */
+    default int getSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int width = getSingleLineWidth(config);
+        if (width > maxWidth) {
+            return -1;
+        }
+        return width;
+    }
 }
@@ -22,10 +22,11 @@ import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
 import com.splendiddata.pgcode.formatter.util.Msg;
 
 /**
- * Result from the scanner
+ * Result from the scanner. It is a view on a token in the {@link TokenStore} of the scanner.
  *
  * @author Splendid Data Product Development B.V.
  * @since 0.0.1
@@ -33,14 +34,20 @@ import com.splendiddata.pgcode.formatter.util.Msg;
 public class ScanResultImpl implements ScanResult {
     private static final Logger log = LogManager.getLogger(ScanResult.class);
 
-    private final ScanResultType type;
-    private final String text;
-    private final Msg errorMessage;
-    private final int parenthesisLevel;
-    private int beginEndLevel;
-    private SourceScanner scanner;
+    /**
+     * The block of the {@link TokenStore} that holds the type, text and levels of this token
+     */
+    private final TokenStore.Block block;
+    private final short index;
     private ScanResult next;
 
+    /**
+     * Set until this token had the scanner scan the token after it. So the scanner is asked only once per token, by the
+     * thread that walks the token list, and tokens that were handed over to another thread never consult the state of
+     * the scanner.
+     */
+    private boolean nextToBeScanned = true;
+
     /**
      * Constructor
      *
@@ -53,12 +60,27 @@ public class ScanResultImpl implements ScanResult {
      */
     public ScanResultImpl(ScanResultType type, String text, SourceScanner scanner) {
         super();
-        this.type = type;
-        this.text = text;
-        this.errorMessage = null;
-        this.scanner = scanner;
-        this.parenthesisLevel = scanner.getParenthesisNestingLevel();
-        this.beginEndLevel = scanner.getBeginEndNestingLevel();
+        this.block = scanner.getTokenStore().add(type, text, null);
+        this.index = (short) (block.size() - 1);
+    }
+
+    /**
+     * Constructor that copies the text from a buffer, so that no String needs to be created for it
+     *
+     * @param type
+     *            Type of the scan result
+     * @param buffer
+     *            The buffer that contains the content of the scan result, typically the buffer of the scanner
+     * @param start
+     *            The index of the first character of the content in the buffer
+     * @param length
+     *            The length of the content
+     * @param scanner
+     *            The scanner that delivered this scan result
+     */
+    public ScanResultImpl(ScanResultType type, char[] buffer, int start, int length, SourceScanner scanner) {
+        this.block = scanner.getTokenStore().add(type, buffer, start, length);
+        this.index = (short) (block.size() - 1);
     }
 
     /**
@@ -70,43 +92,49 @@ public class ScanResultImpl implements ScanResult {
      *            The scanner that delivered this scan result
      */
     public ScanResultImpl(Msg errorMessage, SourceScanner scanner) {
-        this.type = ScanResultType.ERROR;
-        this.text = "";
-        this.errorMessage = errorMessage;
-        this.scanner = scanner;
-        this.parenthesisLevel = scanner.getParenthesisNestingLevel();
-        this.beginEndLevel = scanner.getBeginEndNestingLevel();
+        this.block = scanner.getTokenStore().add(ScanResultType.ERROR, "", errorMessage);
+        this.index = (short) (block.size() - 1);
     }
 
     /**
      * @return ScanResultType the type
      */
     public final ScanResultType getType() {
-        return type;
+        return block.getType(index);
     }
 
     /**
      * @return String the text
      */
     public final String getText() {
-        return text;
+        return block.getText(index);
     }
 
     /**
      * @return Msg the errorMessage
      */
     public final Msg getErrorMessage() {
-        return errorMessage;
+        return block.getErrorMessage(index);
     }
 
     /**
+     * Scans the next token if it has not been scanned yet
+     *
      * @return ScanResult the next
      */
     public final ScanResult getNext() {
-        if (next == null && scanner != null && !ScanResultType.EOF.equals(type)) {
+        if (next == null && nextToBeScanned && !isEof()) {
+            SourceScanner scanner = block.store.getScanner();
+            if (scanner == null) {
+                /*
+                 * The input has been scanned completely
+                 */
+                nextToBeScanned = false;
+                return null;
+            }
             try {
                 next = scanner.scan();
-                scanner = null;
+                nextToBeScanned = false;
             } catch (IOException e) {
                 log.error("getNext()->failed", e);
             }
@@ -128,7 +156,7 @@ public class ScanResultImpl implements ScanResult {
      * @return int the parenthesisLevel
      */
     public final int getParenthesisLevel() {
-        return parenthesisLevel;
+        return block.getParenthesisLevel(index);
     }
 
     /**
@@ -137,7 +165,25 @@ public class ScanResultImpl implements ScanResult {
      * @return int the beginEndLevel
      */
     public final int getBeginEndLevel() {
-        return beginEndLevel;
+        return block.getBeginEndLevel(index);
+    }
+
+    /**
+     * The keyword id is determined once, when the token is scanned
+     *
+     * @see ScanResult#getKeywordId()
+     */
+    @Override
+    public final int getKeywordId() {
+        return block.getKeywordId(index);
+    }
+
+    /**
+     * @see ScanResult#getSession()
+     */
+    @Override
+    public final FormattingSession getSession() {
+        return block.store.getSession();
     }
 
     /**
@@ -145,7 +191,7 @@ public class ScanResultImpl implements ScanResult {
      * @param level The begin end nesting level to set
      */
     public final void setBeginEndLevel(int level) {
-        beginEndLevel = level;
+        block.setBeginEndLevel(index, level);
     }
 
     /**
@@ -164,7 +210,7 @@ public class ScanResultImpl implements ScanResult {
      * @return boolean true it this ScanResult represents the end of the statement
      */
     public boolean isStandardStatementEnd() {
-        switch (type) {
+        switch (getType()) {
         case SEMI_COLON:
         case EOF:
             return true;
@@ -180,11 +226,12 @@ public class ScanResultImpl implements ScanResult {
      */
     @Override
     public String toString() {
-        String result = text;
+        ScanResultType type = getType();
+        String result = getText();
         if (ScanResultType.LITERAL.equals(type)) {
-            result = '\'' + text + '\'';
+            result = '\'' + result + '\'';
         } else if (ScanResultType.DOUBLE_QUOTED_IDENTIFIER.equals(type)) {
-            result = '"' + text + '"';
+            result = '"' + result + '"';
         }
 
         return result;
@@ -196,7 +243,7 @@ public class ScanResultImpl implements ScanResult {
      * @return boolean true if this is the EOF mark
      */
     public boolean isEof() {
-        return ScanResultType.EOF.equals(type);
+        return ScanResultType.EOF.equals(getType());
     }
 
 }
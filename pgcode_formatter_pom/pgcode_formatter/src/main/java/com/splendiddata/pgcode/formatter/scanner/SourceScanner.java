@@ -19,6 +19,8 @@ package com.splendiddata.pgcode.formatter.scanner;
 
 import java.io.IOException;
 
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+
 /**
  * Interface for the generated {@link com.splendiddata.pgcode.formatter.scanner.SourceScannerImpl} to avoid circular dependencies
  *
@@ -58,4 +60,29 @@ public interface SourceScanner {
      * @return int the parenthesis level after the last scanned ScanResult
      */
     int getBeginEndNestingLevel();
+
+    /**
+     * Returns the formatting session that the scanner works for
+     *
+     * @return FormattingSession the session that is handed to every ScanResult that this scanner produces
+     * @since 0.3.2
+     */
+    FormattingSession getSession();
+
+    /**
+     * Returns the store in which the {@link ScanResultImpl}s that this scanner produces keep their data
+     *
+     * @return TokenStore the token store of this scanner
+     * @since 0.3.2
+     */
+    TokenStore getTokenStore();
+
+    /**
+     * Attaches the scanner to a formatting session. This must be done before the first invocation of {@link #scan()}.
+     *
+     * @param session
+     *            The session that is handed to every ScanResult that this scanner produces
+     * @since 0.3.2
+     */
+    void setSession(FormattingSession session);
 }
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.scanner;
+
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
+import com.splendiddata.pgcode.formatter.util.Msg;
+
+/**
+ * Compact storage of the tokens that a {@link SourceScanner} produces.
+ * <p>
+ * The type, text, parenthesis level, begin/end level and keyword id of the tokens are kept in parallel primitive arrays
+ * over a shared char buffer instead of in one object plus one String per token. A {@link ScanResultImpl} is only a view on a
+ * token: a reference to the {@link Block} that holds it, its index in that block and its next pointer.
+ * </p>
+ * <p>
+ * The tokens are stored in blocks of limited size. A block is garbage collected as soon as no ScanResultImpl refers
+ * to it anymore, so formatting a large input statement by statement does not keep the tokens of the statements that
+ * are done.
+ * </p>
+ * <p>
+ * The store refers to the scanner only until the EOF token is stored. So the tokens, which refer to the store via
+ * their blocks, do not keep the scanner and its buffers alive after the input is scanned completely.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public final class TokenStore {
+    /**
+     * The number of tokens in the first block. Blocks double in size up to MAX_BLOCK_SIZE, so formatting a small piece
+     * of code does not allocate much.
+     */
+    private static final int MIN_BLOCK_SIZE = 64;
+
+    /**
+     * The maximum number of tokens in a block, which must fit in the short index of a {@link ScanResultImpl}
+     */
+    private static final int MAX_BLOCK_SIZE = 1024;
+
+    /**
+     * The number of chars per token in the char buffer of a block. A new block is started when the buffer is full.
+     */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /**
+     * Texts that are longer than this, typically function bodies and other literals, are stored as String so that
+     * getText() doesn't have to copy them. Identifiers are always stored as String, interned in the
+     * {@link com.splendiddata.pgcode.formatter.internal.SymbolTable} of the session.
+     */
+    private static final int MAX_BUFFERED_TEXT_LENGTH = 64;
+
+    private static final ScanResultType[] TYPES = ScanResultType.values();
+
+    /**
+     * The scanner that produces the tokens, null as soon as the EOF token is stored
+     */
+    private volatile SourceScanner scanner;
+
+    /**
+     * The session of the scanner, kept when the scanner is released
+     */
+    private volatile FormattingSession session;
+
+    private Block block;
+
+    /**
+     * Constructor
+     *
+     * @param scanner
+     *            The scanner that produces the tokens
+     */
+    TokenStore(SourceScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Stores a token
+     *
+     * @param type
+     *            The type of the token
+     * @param text
+     *            The text of the token
+     * @param errorMessage
+     *            The error message of an ERROR token, or null
+     * @return Block the block that holds the token, of which {@link Block#size()} - 1 is the index of the token
+     */
+    Block add(ScanResultType type, String text, Msg errorMessage) {
+        Block target = store(type, text, errorMessage);
+        if (ScanResultType.EOF.equals(type)) {
+            releaseScanner();
+        }
+        return target;
+    }
+
+    /**
+     * Stores a token
+     *
+     * @param type
+     *            The type of the token
+     * @param text
+     *            The text of the token
+     * @param errorMessage
+     *            The error message of an ERROR token, or null
+     * @return Block the block that holds the token
+     */
+    private Block store(ScanResultType type, String text, Msg errorMessage) {
+        if (isIdentifier(type)) {
+            return addString(type, scanner.getSession().getSymbolTable().intern(text), null);
+        }
+        if (text.length() > MAX_BUFFERED_TEXT_LENGTH) {
+            return addString(type, text, errorMessage);
+        }
+        Block target = blockFor(text.length());
+        int index = target.addToken(type, errorMessage, scanner.getParenthesisNestingLevel(),
+                scanner.getBeginEndNestingLevel());
+        target.setChars(index, text);
+        return target;
+    }
+
+    /**
+     * Stores a token of which the text is copied from a buffer, typically the buffer of the scanner. No String is
+     * created for short texts and for identifiers that are interned already.
+     *
+     * @param type
+     *            The type of the token
+     * @param buffer
+     *            The buffer that contains the text of the token
+     * @param start
+     *            The index of the first character of the text in the buffer
+     * @param length
+     *            The length of the text
+     * @return Block the block that holds the token, of which {@link Block#size()} - 1 is the index of the token
+     */
+    Block add(ScanResultType type, char[] buffer, int start, int length) {
+        if (isIdentifier(type)) {
+            return addString(type, scanner.getSession().getSymbolTable().intern(buffer, start, length), null);
+        }
+        if (length > MAX_BUFFERED_TEXT_LENGTH) {
+            return addString(type, new String(buffer, start, length), null);
+        }
+        Block target = blockFor(length);
+        int index = target.addToken(type, null, scanner.getParenthesisNestingLevel(),
+                scanner.getBeginEndNestingLevel());
+        target.setChars(index, buffer, start, length);
+        return target;
+    }
+
+    /**
+     * @param type
+     *            The type of a token
+     * @return boolean true if the text of the token is interned
+     */
+    private static boolean isIdentifier(ScanResultType type) {
+        return ScanResultType.IDENTIFIER.equals(type) || ScanResultType.DOUBLE_QUOTED_IDENTIFIER.equals(type);
+    }
+
+    /**
+     * Stores a token of which the text is kept as String instead of copied into the char buffer
+     *
+     * @param type
+     *            The type of the token
+     * @param text
+     *            The text of the token
+     * @param errorMessage
+     *            The error message of an ERROR token, or null
+     * @return Block the block that holds the token
+     */
+    private Block addString(ScanResultType type, String text, Msg errorMessage) {
+        Block target = blockFor(0);
+        int index = target.addToken(type, errorMessage, scanner.getParenthesisNestingLevel(),
+                scanner.getBeginEndNestingLevel());
+        target.setString(index, text);
+        return target;
+    }
+
+    /**
+     * Returns the block to add a token to, which is a new one if the current block is full
+     *
+     * @param bufferedLength
+     *            The number of characters that the token needs in the char buffer
+     * @return Block the block for the token
+     */
+    private Block blockFor(int bufferedLength) {
+        if (block == null) {
+            block = new Block(this, MIN_BLOCK_SIZE);
+        } else if (block.isFull(bufferedLength)) {
+            block = new Block(this, Math.min(2 * block.types.length, MAX_BLOCK_SIZE));
+        }
+        return block;
+    }
+
+    /**
+     * Lets go of the scanner after the EOF token, keeping its session
+     */
+    private void releaseScanner() {
+        session = scanner.getSession();
+        scanner = null;
+    }
+
+    /**
+     * @return SourceScanner the scanner that produces the tokens, or null if the EOF token has been stored already
+     */
+    SourceScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * @return FormattingSession the session of the scanner
+     */
+    FormattingSession getSession() {
+        SourceScanner current = scanner;
+        if (current != null) {
+            return current.getSession();
+        }
+        return session;
+    }
+
+    /**
+     * A number of tokens in parallel arrays
+     */
+    static final class Block {
+        final TokenStore store;
+        private final byte[] types;
+        private final int[] starts;
+        private final int[] lengths;
+        private final int[] parenthesisLevels;
+        private final int[] beginEndLevels;
+        private final short[] keywordIds;
+        private final char[] chars;
+        private int charCount;
+        private int size;
+
+        /**
+         * The texts as String by token index: the texts that are not in chars, and the texts in chars that getText()
+         * created a String for already.
+         * <p>
+         * A String that is created by getText() may be stored by any thread that reads the token. As a String is
+         * immutable, another thread either sees it completely or sees null and creates an equal String itself, like
+         * {@link String#hashCode()} caches its hash.
+         * </p>
+         */
+        private final String[] strings;
+
+        /**
+         * Error messages by token index. Only allocated when needed.
+         */
+        private Msg[] errorMessages;
+
+        /**
+         * Constructor
+         *
+         * @param store
+         *            The store that the block is part of
+         * @param capacity
+         *            The maximum number of tokens in the block
+         */
+        private Block(TokenStore store, int capacity) {
+            this.store = store;
+            types = new byte[capacity];
+            starts = new int[capacity];
+            lengths = new int[capacity];
+            parenthesisLevels = new int[capacity];
+            beginEndLevels = new int[capacity];
+            keywordIds = new short[capacity];
+            strings = new String[capacity];
+            chars = new char[capacity * CHARS_PER_TOKEN];
+        }
+
+        /**
+         * Checks if a token does not fit in this block anymore
+         *
+         * @param bufferedLength
+         *            The number of characters that the token needs in the char buffer
+         * @return boolean true if a new block is needed for the token
+         */
+        private boolean isFull(int bufferedLength) {
+            return size == types.length || charCount + bufferedLength > chars.length;
+        }
+
+        /**
+         * Adds a token without its text, which is to be set by {@link #setChars(int, String)},
+         * {@link #setChars(int, char[], int, int)} or {@link #setString(int, String)}
+         *
+         * @param type
+         *            The type of the token
+         * @param errorMessage
+         *            The error message of an ERROR token, or null
+         * @param parenthesisLevel
+         *            The parenthesis level after the token
+         * @param beginEndLevel
+         *            The begin/end level after the token
+         * @return int the index of the token
+         */
+        private int addToken(ScanResultType type, Msg errorMessage, int parenthesisLevel, int beginEndLevel) {
+            types[size] = (byte) type.ordinal();
+            parenthesisLevels[size] = parenthesisLevel;
+            beginEndLevels[size] = beginEndLevel;
+            keywordIds[size] = (short) KeywordTable.NONE;
+            if (errorMessage != null) {
+                if (errorMessages == null) {
+                    errorMessages = new Msg[types.length];
+                }
+                errorMessages[size] = errorMessage;
+            }
+            return size++;
+        }
+
+        /**
+         * Copies the text of a token into the char buffer
+         *
+         * @param index
+         *            The index of the token
+         * @param text
+         *            The text of the token
+         */
+        private void setChars(int index, String text) {
+            text.getChars(0, text.length(), chars, charCount);
+            starts[index] = charCount;
+            lengths[index] = text.length();
+            charCount += text.length();
+        }
+
+        /**
+         * Copies the text of a token into the char buffer
+         *
+         * @param index
+         *            The index of the token
+         * @param buffer
+         *            The buffer that contains the text
+         * @param start
+         *            The index of the first character of the text in the buffer
+         * @param length
+         *            The length of the text
+         */
+        private void setChars(int index, char[] buffer, int start, int length) {
+            System.arraycopy(buffer, start, chars, charCount, length);
+            starts[index] = charCount;
+            lengths[index] = length;
+            charCount += length;
+        }
+
+        /**
+         * Keeps the text of a token as String. The keyword id of an identifier is determined here.
+         *
+         * @param index
+         *            The index of the token
+         * @param text
+         *            The text of the token
+         */
+        private void setString(int index, String text) {
+            strings[index] = text;
+            lengths[index] = text.length();
+            if (ScanResultType.IDENTIFIER.ordinal() == types[index]) {
+                keywordIds[index] = (short) KeywordTable.idOf(text);
+            }
+        }
+
+        /**
+         * @return int the number of tokens in this block, the last one of which is the last one that was added
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @return ScanResultType the type of the token
+         */
+        ScanResultType getType(int index) {
+            return TYPES[types[index]];
+        }
+
+        /**
+         * Returns the text of a token. A text in chars is turned into a String the first time it is asked for only.
+         *
+         * @param index
+         *            The index of the token in this block
+         * @return String the text of the token
+         */
+        String getText(int index) {
+            String text = strings[index];
+            if (text == null) {
+                int length = lengths[index];
+                text = length == 0 ? "" : new String(chars, starts[index], length);
+                strings[index] = text;
+            }
+            return text;
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @return Msg the error message of the token, or null
+         */
+        Msg getErrorMessage(int index) {
+            return errorMessages == null ? null : errorMessages[index];
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @return int the parenthesis level after the token
+         */
+        int getParenthesisLevel(int index) {
+            return parenthesisLevels[index];
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @return int the begin/end level after the token
+         */
+        int getBeginEndLevel(int index) {
+            return beginEndLevels[index];
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @return int the keyword id of an identifier, {@link KeywordTable#NONE} for other tokens
+         */
+        int getKeywordId(int index) {
+            return keywordIds[index];
+        }
+
+        /**
+         * @param index
+         *            The index of the token in this block
+         * @param level
+         *            The begin/end level after the token
+         */
+        void setBeginEndLevel(int index, int level) {
+            beginEndLevels[index] = level;
+        }
+    }
+}
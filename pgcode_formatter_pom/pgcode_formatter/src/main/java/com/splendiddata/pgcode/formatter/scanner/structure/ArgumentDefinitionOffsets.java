@@ -130,6 +130,14 @@ public final class ArgumentDefinitionOffsets implements Cloneable {
         this.defaultExpressionOffset = defaultExpressionOffset;
     }
 
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(nameOffset, dataTypeOffset, defaultIndicatorOffset, defaultExpressionOffset);
+    }
+
     /**
      * @see java.lang.Object#equals(java.lang.Object)
      */
@@ -24,6 +24,7 @@ import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CaseType;
 import com.splendiddata.pgcode.formatter.internal.CaseFormatContext;
 import com.splendiddata.pgcode.formatter.internal.CaseFormatContext.RenderPhase;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
@@ -48,8 +49,6 @@ public class CaseClauseNode extends SrcNode {
     private SrcNode elseExpression;
     private ScanResult endNode;
 
-    private int singleLineLength;
-
     /**
      * Constructor
      *
@@ -158,8 +157,7 @@ public class CaseClauseNode extends SrcNode {
         /*
          * First see if a single line rendering will fit
          */
-        int singleLineWidth = getSingleLineWidth(config);
-        if (singleLineWidth > 0 && singleLineWidth + parentPosition <= config.getLineWidth().getValue()) {
+        if (getSingleLineWidth(config, config.getCompiled().getLineWidth() - parentPosition) > 0) {
             result = new RenderMultiLines(this, context, parentResult);
             for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
                 result.addRenderResult(node.beautify(context, result, config), context);
@@ -306,23 +304,16 @@ public class CaseClauseNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            /*
-             * Been here before, so the answer can be given rapidly
-             */
-            return singleLineLength;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         CaseType caseConfig = caseExpression == null ? config.getCaseWhen() : config.getCaseOperand();
         if (caseConfig.getMaxSingleLineClause().getWeight() < caseConfig.getWhenPosition().getWeight()) {
             switch (caseConfig.getWhenPosition().getValue()) {
             case WHEN_INDENTED:
             case WHEN_UNDER_CASE:
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             case WHEN_AFTER_CASE:
             default:
                 break;
@@ -332,8 +323,7 @@ public class CaseClauseNode extends SrcNode {
             switch (caseConfig.getThenPosition().getValue()) {
             case THEN_INDENTED:
             case THEN_UNDER_WHEN:
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             case THEN_AFTER_WHEN_ALIGNED:
             case THEN_AFTER_WHEN_DIRECTLY:
             default:
@@ -341,12 +331,12 @@ public class CaseClauseNode extends SrcNode {
             }
         }
 
+        int singleLineLength = 0;
         int elementSize;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
             elementSize = node.getSingleLineWidth(config);
             if (elementSize < 0) {
-                singleLineLength = 0;
-                return singleLineLength;
+                return 0;
             }
             singleLineLength += elementSize;
         }
@@ -354,8 +344,7 @@ public class CaseClauseNode extends SrcNode {
             for (ScanResult node = caseExpression; node != null; node = node.getNext()) {
                 elementSize = node.getSingleLineWidth(config);
                 if (elementSize < 0) {
-                    singleLineLength = 0;
-                    return singleLineLength;
+                    return 0;
                 }
                 singleLineLength += elementSize;
             }
@@ -364,8 +353,7 @@ public class CaseClauseNode extends SrcNode {
             for (ScanResult node = whenClause; node != null; node = node.getNext()) {
                 elementSize = node.getSingleLineWidth(config);
                 if (elementSize < 0) {
-                    singleLineLength = 0;
-                    return singleLineLength;
+                    return 0;
                 }
                 singleLineLength += elementSize;
             }
@@ -373,20 +361,48 @@ public class CaseClauseNode extends SrcNode {
         for (ScanResult node = elseExpression; node != null; node = node.getNext()) {
             elementSize = node.getSingleLineWidth(config);
             if (elementSize < 0) {
-                singleLineLength = 0;
-                return singleLineLength;
+                return 0;
             }
             singleLineLength += elementSize;
         }
         for (ScanResult node = endNode; node != null; node = node.getNext()) {
             elementSize = node.getSingleLineWidth(config);
             if (elementSize < 0) {
-                singleLineLength = 0;
-                return singleLineLength;
+                return 0;
             }
             singleLineLength += elementSize;
         }
         return singleLineLength;
     }
 
+    /**
+     * If the case clause does not fit on a single line, every when clause, the else clause and the end are placed on a
+     * line of their own.
+     *
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        List<Doc> parts = new ArrayList<>();
+        parts.add(childrenToDoc(getStartScanResult(), null, config));
+        if (caseExpression != null) {
+            parts.add(Doc.line());
+            parts.add(childrenToDoc(caseExpression, null, config));
+        }
+        List<Doc> clauses = new ArrayList<>();
+        for (WhenClauseNode whenClause : whenClauses) {
+            clauses.add(Doc.line());
+            clauses.add(whenClause.toDoc(config));
+        }
+        if (elseExpression != null) {
+            clauses.add(Doc.line());
+            clauses.add(childrenToDoc(elseExpression, null, config));
+        }
+        parts.add(Doc.nest(config.getStandardIndent(), Doc.concat(clauses)));
+        if (endNode != null) {
+            parts.add(Doc.line());
+            parts.add(endNode.toDoc(config));
+        }
+        return Doc.group(Doc.concat(parts));
+    }
 }
@@ -280,12 +280,12 @@ public class CaseStatementNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @return -1 as a case statement will never fit on a single line
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         return -1;
     }
 
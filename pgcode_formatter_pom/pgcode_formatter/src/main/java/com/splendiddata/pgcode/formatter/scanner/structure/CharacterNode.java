@@ -18,6 +18,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -61,4 +62,19 @@ public class CharacterNode extends SrcNode {
         return new RenderItem(toString(), this, RenderItemType.CHARACTER);
     }
 
+    /**
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        return toString().length();
+    }
+
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.text(toString());
+    }
 }
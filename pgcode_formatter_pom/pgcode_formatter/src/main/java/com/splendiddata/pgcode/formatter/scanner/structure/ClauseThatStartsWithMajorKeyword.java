@@ -14,17 +14,15 @@
 
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
 
-import com.splendiddata.pgcode.formatter.ConfigUtil;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.QueryConfigType;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
@@ -37,9 +35,7 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  */
 public abstract class ClauseThatStartsWithMajorKeyword extends SrcNode implements WantsNewlineBefore {
 
-    private static final Set<String> LOGICAL_OPERATORS = Collections
-            .unmodifiableSet(new HashSet<>(Arrays.asList("AND", "OR")));
-    private int singleLineWidth;
+    private static final BitSet LOGICAL_OPERATORS = KeywordTable.idsOf("AND", "OR");
 
     /**
      * Constructor
@@ -85,9 +81,8 @@ public abstract class ClauseThatStartsWithMajorKeyword extends SrcNode implement
          * Try to render on a single line
          */
 
-        if (!config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
-            int singleLineLength = getSingleLineWidth(config);
-            if (singleLineLength > 0 && singleLineLength + startPosition < config.getLineWidth().getValue()) {
+        if (!config.getCompiled().isMajorKeywordsOnSeparateLine()) {
+            if (getSingleLineWidth(config, config.getCompiled().getLineWidth() - startPosition - 1) > 0) {
                 renderResult = new RenderMultiLines(this, formatContext, parentResult);
                 for (ScanResult node = getStartScanResult(); node != null
                         && renderResult.getHeight() <= 1; node = node.getNext()) {
@@ -108,7 +103,7 @@ public abstract class ClauseThatStartsWithMajorKeyword extends SrcNode implement
                 .setAvailableWidth(availableWidth - config.getStandardIndent());
         ScanResult node = getStartScanResult();
         renderResult.addRenderResult(node.beautify(formatContext, renderResult, config), formatContext);
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             /*
              * Sometimes a "major keyword" consists of more that one word. Think of SELECT DISTINCT or INTO STRICT. If
              * that is the case, then keep these words together
@@ -158,9 +153,9 @@ public abstract class ClauseThatStartsWithMajorKeyword extends SrcNode implement
                     passedBetweenKeyword = true;
                 }
                 if (node instanceof IdentifierNode && !passedBetweenKeyword
-                        && LOGICAL_OPERATORS.contains(node.toString().toUpperCase())) {
-                    boolean onSeparateLine = config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()
-                            && ConfigUtil.isMajorKeywords(node.getText());
+                        && KeywordTable.isIn(LOGICAL_OPERATORS, node.getKeywordId())) {
+                    boolean onSeparateLine = config.getCompiled().isMajorKeywordsOnSeparateLine()
+                            && KeywordTable.isMajorKeyword(node.getKeywordId());
                     switch (config.getLogicalOperatorsIndent().getIndent()) {
                     case UNDER_FIRST_ARGUMENT:
                     case INDENTED:
@@ -192,20 +187,18 @@ public abstract class ClauseThatStartsWithMajorKeyword extends SrcNode implement
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth == 0) {
-            int elementWidth;
-            for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
-                elementWidth = node.getSingleLineWidth(config);
-                if (elementWidth < 0) {
-                    singleLineWidth = -1;
-                    break;
-                }
-                singleLineWidth += elementWidth;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineWidth = 0;
+        int elementWidth;
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            elementWidth = node.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineWidth));
+            if (elementWidth < 0) {
+                return -1;
             }
+            singleLineWidth += elementWidth;
         }
         return singleLineWidth;
     }
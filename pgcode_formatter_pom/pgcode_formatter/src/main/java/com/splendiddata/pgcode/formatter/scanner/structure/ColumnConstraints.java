@@ -33,7 +33,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  */
 public class ColumnConstraints extends SrcNode {
     private RenderMultiLines singleLineResult = null;
-    private int singleLineLength = 0;
 
     /**
      * Constructor
@@ -81,22 +80,19 @@ public class ColumnConstraints extends SrcNode {
     }
 
     /**
-     * @see com.splendiddata.pgcode.formatter.scanner.ScanResult#getSingleLineWidth(com.splendiddata.pgcode.formatter.FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @param config
      * @return
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            return singleLineLength;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         FormatContext context = new FormatContext(config, null);
         singleLineResult = Util.renderStraightForward(getStartScanResult(),
                 new RenderMultiLines(this, context, null), context, config);
         if (singleLineResult.getHeight() <= 1) {
-            singleLineLength = singleLineResult.getWidth();
+            return singleLineResult.getWidth();
         }
-        return singleLineLength;
+        return 0;
     }
 }
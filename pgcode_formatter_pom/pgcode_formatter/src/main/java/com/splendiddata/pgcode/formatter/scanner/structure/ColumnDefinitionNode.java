@@ -21,6 +21,7 @@ import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
+import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
@@ -37,8 +38,6 @@ public class ColumnDefinitionNode extends SrcNode {
     private ScanResult dataType;
     private ScanResult columnConstraints;
 
-    private int singleLineLength = 0;
-
     /**
      * Constructor
      *
@@ -178,19 +177,16 @@ public class ColumnDefinitionNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            return singleLineLength;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineLength = 0;
         int elementWidth;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
-            elementWidth = node.getSingleLineWidth(config);
+            elementWidth = node.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineLength));
             if (elementWidth < 0) {
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             }
             singleLineLength += elementWidth;
         }
@@ -17,10 +17,12 @@
 
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -112,4 +114,15 @@ public class CombinedIdentifierNode extends SrcNode {
 
     }
 
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        List<Doc> parts = new ArrayList<>(constituentParts.size());
+        for (SrcNode node : constituentParts) {
+            parts.add(node.is(ScanResultType.WHITESPACE) ? Doc.text(" ") : node.toDoc(config));
+        }
+        return Doc.concat(parts);
+    }
 }
@@ -24,12 +24,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.StringFormatterMessageFactory;
 
-import com.splendiddata.pgcode.formatter.ConfigUtil;
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.BeforeOrAfterType;
-import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListIndentType;
-import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.IntegerValueOption;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.LayoutOptimizer;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
@@ -49,8 +49,6 @@ public class CommaSeparatedList extends SrcNode {
 
     private List<ListElement> elements;
 
-    private int singleLineLength = 0;
-
     private boolean parentIsParentheses;
 
     /**
@@ -211,42 +209,45 @@ public class CommaSeparatedList extends SrcNode {
         if (parentResult != null) {
             parentPosition = parentResult.getPosition();
         }
-        IntegerValueOption maxLineLength = config.getLineWidth();
-        IntegerValueOption maxSingleLineLength = formatContext.getCommaSeparatedListGrouping().getMaxSingleLineLength();
-        IntegerValueOption maxGroupLength = formatContext.getCommaSeparatedListGrouping().getMaxLengthOfGroup();
-        IntegerValueOption maxElementsPerGroup = formatContext.getCommaSeparatedListGrouping()
-                .getMaxArgumentsPerGroup();
-        if (getElements().size() <= 1 || formatContext.getCommaSeparatedListGrouping().getIndent().getWeight()
-                .floatValue() < maxSingleLineLength.getWeight().floatValue()) {
+        CompiledListGrouping grouping = formatContext.getCommaSeparatedListGrouping();
+        int maxLineLength = config.getCompiled().getLineWidth();
+        float maxLineLengthWeight = config.getCompiled().getLineWidthWeight();
+        int maxSingleLineLength = grouping.getMaxSingleLineLength();
+        float maxSingleLineLengthWeight = grouping.getMaxSingleLineLengthWeight();
+        int maxGroupLength = grouping.getMaxLengthOfGroup();
+        float maxGroupLengthWeight = grouping.getMaxLengthOfGroupWeight();
+        int maxElementsPerGroup = grouping.getMaxArgumentsPerGroup();
+        float maxElementsPerGroupWeight = grouping.getMaxArgumentsPerGroupWeight();
+        if (getElements().size() <= 1 || grouping.getIndentWeight() < maxSingleLineLengthWeight) {
             int singleLineWidth = getSingleLineWidth(config);
             if (singleLineWidth >= 0) {
-                boolean singleLineDecision = singleLineWidth + parentPosition <= maxLineLength.getValue();
-                float decisionWeight = singleLineDecision ? 0F : maxLineLength.getWeight().floatValue();
-                if (maxSingleLineLength.getWeight().floatValue() >= decisionWeight) {
-                    if (singleLineWidth > maxSingleLineLength.getValue()) {
+                boolean singleLineDecision = singleLineWidth + parentPosition <= maxLineLength;
+                float decisionWeight = singleLineDecision ? 0F : maxLineLengthWeight;
+                if (maxSingleLineLengthWeight >= decisionWeight) {
+                    if (singleLineWidth > maxSingleLineLength) {
                         singleLineDecision = false;
-                        decisionWeight = maxSingleLineLength.getWeight().floatValue();
-                    } else if (decisionWeight < maxSingleLineLength.getWeight().floatValue()) {
+                        decisionWeight = maxSingleLineLengthWeight;
+                    } else if (decisionWeight < maxSingleLineLengthWeight) {
                         singleLineDecision = true;
-                        decisionWeight = maxSingleLineLength.getWeight().floatValue();
+                        decisionWeight = maxSingleLineLengthWeight;
                     }
                 }
-                if (maxGroupLength.getWeight().floatValue() >= decisionWeight) {
-                    if (singleLineWidth > maxGroupLength.getValue()) {
+                if (maxGroupLengthWeight >= decisionWeight) {
+                    if (singleLineWidth > maxGroupLength) {
                         singleLineDecision = false;
-                        decisionWeight = maxGroupLength.getWeight().floatValue();
-                    } else if (decisionWeight < maxGroupLength.getWeight().floatValue()) {
+                        decisionWeight = maxGroupLengthWeight;
+                    } else if (decisionWeight < maxGroupLengthWeight) {
                         singleLineDecision = true;
-                        decisionWeight = maxGroupLength.getWeight().floatValue();
+                        decisionWeight = maxGroupLengthWeight;
                     }
                 }
-                if (maxElementsPerGroup.getWeight().floatValue() >= decisionWeight) {
-                    if (getElements().size() > maxElementsPerGroup.getValue()) {
+                if (maxElementsPerGroupWeight >= decisionWeight) {
+                    if (getElements().size() > maxElementsPerGroup) {
                         singleLineDecision = false;
-                        decisionWeight = maxElementsPerGroup.getWeight().floatValue();
-                    } else if (decisionWeight < maxElementsPerGroup.getWeight().floatValue()) {
+                        decisionWeight = maxElementsPerGroupWeight;
+                    } else if (decisionWeight < maxElementsPerGroupWeight) {
                         singleLineDecision = true;
-                        decisionWeight = maxElementsPerGroup.getWeight().floatValue();
+                        decisionWeight = maxElementsPerGroupWeight;
                     }
                 }
                 if (singleLineDecision) {
@@ -270,18 +271,14 @@ public class CommaSeparatedList extends SrcNode {
             }
         }
 
-        if (formatContext.getCommaSeparatedListGrouping().getIndent().getWeight().floatValue() > maxElementsPerGroup
-                .getWeight().floatValue()
-                && formatContext.getCommaSeparatedListGrouping().getIndent().getWeight().floatValue() > maxGroupLength
-                        .getWeight().floatValue()) {
+        if (grouping.getIndentWeight() > maxElementsPerGroupWeight
+                && grouping.getIndentWeight() > maxGroupLengthWeight) {
             /*
              * The indent value is more important then the maxElementsPerGroup value and the maxGroupLength value. So
              * every element should start on a line of its own.
              */
-            maxElementsPerGroup = ConfigUtil
-                    .copy(formatContext.getCommaSeparatedListGrouping().getMaxArgumentsPerGroup());
-            maxElementsPerGroup.setValue(1);
-            maxElementsPerGroup.setWeight(Float.MAX_VALUE);
+            maxElementsPerGroup = 1;
+            maxElementsPerGroupWeight = Float.MAX_VALUE;
         } else {
             int elementWidth;
             for (ListElement element : getElements()) {
@@ -291,10 +288,8 @@ public class CommaSeparatedList extends SrcNode {
                      * At least one element cannot be rendered on a single line, so every element should start on a line
                      * of its own
                      */
-                    maxElementsPerGroup = ConfigUtil
-                            .copy(formatContext.getCommaSeparatedListGrouping().getMaxArgumentsPerGroup());
-                    maxElementsPerGroup.setValue(1);
-                    maxElementsPerGroup.setWeight(Float.MAX_VALUE);
+                    maxElementsPerGroup = 1;
+                    maxElementsPerGroupWeight = Float.MAX_VALUE;
                     break;
                 }
             }
@@ -306,14 +301,13 @@ public class CommaSeparatedList extends SrcNode {
         }
         int newLinePosition = 0;
         int elementsOnLine = 0;
-        CommaSeparatedListIndentType indentValue = formatContext.getCommaSeparatedListGrouping().getIndent();
         if (parentIsParentheses) {
             /*
              * The surrounding InParentheses will decide where the elements will be placed.
              */
             newLinePosition = parentPosition;
         } else {
-            switch (indentValue.getValue()) {
+            switch (grouping.getIndent()) {
             case DOUBLE_INDENTED:
                 newLinePosition = indentBase + 2 * config.getStandardIndent();
                 break;
@@ -326,6 +320,16 @@ public class CommaSeparatedList extends SrcNode {
                 break;
             }
         }
+        boolean[] breakBefore = null;
+        LayoutOptimizer optimizer = formatContext.getLayoutOptimizer();
+        if (optimizer != null && maxElementsPerGroup > 1) {
+            int[] elementWidths = new int[getElements().size()];
+            for (int i = 0; i < elementWidths.length; i++) {
+                elementWidths[i] = getElements().get(i).getSingleLineWidth(config);
+            }
+            breakBefore = optimizer.breakList(elementWidths, parentPosition, newLinePosition, grouping, maxLineLength,
+                    maxLineLengthWeight);
+        }
         renderResult = new RenderMultiLines(this, formatContext, parentResult).setIndentBase(newLinePosition);
 //        if (renderResult.getPosition() > newLinePosition) {
 //            renderResult.addLine(Util.nSpaces(newLinePosition));
@@ -343,26 +347,29 @@ public class CommaSeparatedList extends SrcNode {
             while (it.hasNext()) {
                 element = it.next();
                 elementsOnLine++;
-                if (elementsOnLine > maxElementsPerGroup.getValue()
-                        && maxElementsPerGroup.getWeight().floatValue() >= maxGroupLength.getWeight().floatValue()) {
-                    break;
-                }
-                decisionWeight = maxElementsPerGroup.getWeight().floatValue();
-                elementLength = element.getSingleLineWidth(config);
-                if (elementLength < 0) {
-                    break;
-                }
-                groupLength += elementLength + 2;
-                if (groupLength > maxGroupLength.getValue()
-                        && maxGroupLength.getWeight().floatValue() >= maxElementsPerGroup.getWeight().floatValue()) {
-                    break;
-                }
-                if (decisionWeight < maxGroupLength.getWeight()) {
-                    decisionWeight = maxGroupLength.getWeight().floatValue();
-                }
-                if (groupLength + newLinePosition > maxLineLength.getValue()
-                        && maxLineLength.getWeight().floatValue() >= decisionWeight) {
-                    break;
+                if (breakBefore != null) {
+                    if (breakBefore[it.previousIndex()]) {
+                        break;
+                    }
+                } else {
+                    if (elementsOnLine > maxElementsPerGroup && maxElementsPerGroupWeight >= maxGroupLengthWeight) {
+                        break;
+                    }
+                    decisionWeight = maxElementsPerGroupWeight;
+                    elementLength = element.getSingleLineWidth(config);
+                    if (elementLength < 0) {
+                        break;
+                    }
+                    groupLength += elementLength + 2;
+                    if (groupLength > maxGroupLength && maxGroupLengthWeight >= maxElementsPerGroupWeight) {
+                        break;
+                    }
+                    if (decisionWeight < maxGroupLengthWeight) {
+                        decisionWeight = maxGroupLengthWeight;
+                    }
+                    if (groupLength + newLinePosition > maxLineLength && maxLineLengthWeight >= decisionWeight) {
+                        break;
+                    }
                 }
                 renderResult.addRenderResult(new RenderItem(",", RenderItemType.CHARACTER), formatContext);
                 renderResult.addRenderResult(new RenderItem(" ", RenderItemType.WHITESPACE), formatContext);
@@ -370,8 +377,7 @@ public class CommaSeparatedList extends SrcNode {
                 element = null;
             }
             if (element != null) {
-                if (BeforeOrAfterType.BEFORE
-                        .equals(formatContext.getCommaSeparatedListGrouping().getCommaBeforeOrAfter())) {
+                if (BeforeOrAfterType.BEFORE.equals(grouping.getCommaBeforeOrAfter())) {
                     renderResult.positionAt(newLinePosition - 2);
                     renderResult.addRenderResult(new RenderItem(",", RenderItemType.CHARACTER), formatContext);
                     renderResult.addRenderResult(new RenderItem(" ", RenderItemType.WHITESPACE), formatContext);
@@ -430,30 +436,24 @@ public class CommaSeparatedList extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            // calculated before
-            return singleLineLength;
-        }
-        int elementWidth;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         if (getElements().size() == 1) {
-            singleLineLength = getElements().get(0).getSingleLineWidth(config);
-            return singleLineLength;
+            return getElements().get(0).getSingleLineWidth(config, maxWidth);
         }
-        if (config.getCommaSeparatedListGrouping().getMaxArgumentsPerGroup().getWeight().floatValue() >= config
-                .getCommaSeparatedListGrouping().getMaxSingleLineLength().getWeight().floatValue()
-                && getElements().size() > config.getCommaSeparatedListGrouping().getMaxArgumentsPerGroup().getValue()) {
-            singleLineLength = -1;
-            return singleLineLength;
+        CompiledListGrouping grouping = config.getCompiled().getCommaSeparatedListGrouping();
+        if (grouping.getMaxArgumentsPerGroupWeight() >= grouping.getMaxSingleLineLengthWeight()
+                && getElements().size() > grouping.getMaxArgumentsPerGroup()) {
+            return -1;
         }
+        int singleLineLength = 0;
+        int elementWidth;
         for (ListElement element : getElements()) {
-            elementWidth = element.getSingleLineWidth(config);
+            elementWidth = element.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineLength));
             if (elementWidth < 0) {
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             }
             singleLineLength += elementWidth;
         }
@@ -463,6 +463,62 @@ public class CommaSeparatedList extends SrcNode {
         return singleLineLength;
     }
 
+    /**
+     * The elements are separated by line breaks in a group, that is laid out flat unless the commaSeparatedListGrouping
+     * of the configuration tells otherwise. Its limits are applied in order of their weights, like in
+     * {@link #beautify(FormatContext, RenderMultiLines, FormatConfiguration)}: a maxSingleLineLength that weighs more
+     * than the line width may exceed the line width and a maxArgumentsPerGroup that weighs at least as much as the
+     * maxSingleLineLength breaks a list with more elements. A broken list is filled with up to maxArgumentsPerGroup
+     * elements and maxLengthOfGroup positions per line.
+     *
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        List<ListElement> listElements = getElements();
+        if (listElements.size() == 1) {
+            return listElements.get(0).toDoc(config);
+        }
+        CompiledListGrouping grouping = config.getCompiled().getCommaSeparatedListGrouping();
+        boolean commaBefore = BeforeOrAfterType.BEFORE.equals(grouping.getCommaBeforeOrAfter());
+        List<Doc> items = new ArrayList<>(listElements.size());
+        for (int i = 0; i < listElements.size(); i++) {
+            Doc element = listElements.get(i).toDoc(config);
+            if (commaBefore && i > 0) {
+                element = Doc.concat(Doc.text(", "), element);
+                // The comma takes the place of the space
+            } else if (!commaBefore && i < listElements.size() - 1) {
+                element = Doc.concat(element, Doc.text(","));
+            }
+            items.add(element);
+        }
+
+        int maxFlatWidth = grouping.getMaxSingleLineLength();
+        if (grouping.getMaxLengthOfGroupWeight() >= grouping.getMaxSingleLineLengthWeight()) {
+            maxFlatWidth = Math.min(maxFlatWidth, grouping.getMaxLengthOfGroup());
+        }
+        if (grouping.getMaxArgumentsPerGroupWeight() >= grouping.getMaxSingleLineLengthWeight()
+                && listElements.size() > grouping.getMaxArgumentsPerGroup()) {
+            maxFlatWidth = -1;
+        }
+        boolean beyondLineWidth = grouping.getMaxSingleLineLengthWeight() > config.getCompiled().getLineWidthWeight();
+
+        Doc list = Doc.fill(items, grouping.getMaxArgumentsPerGroup(), grouping.getMaxLengthOfGroup(),
+                commaBefore ? Doc.softLine() : Doc.line());
+        switch (grouping.getIndent()) {
+        case UNDER_FIRST_ARGUMENT:
+            list = Doc.align(list);
+            break;
+        case DOUBLE_INDENTED:
+            list = Doc.nest(2 * config.getStandardIndent(), list);
+            break;
+        default:
+            list = Doc.nest(config.getStandardIndent(), list);
+            break;
+        }
+        return Doc.group(list, maxFlatWidth, beyondLineWidth);
+    }
+
     /**
      * Indicates that the parent result is a {@link com.splendiddata.pgcode.formatter.scanner.structure.InParentheses}
      *
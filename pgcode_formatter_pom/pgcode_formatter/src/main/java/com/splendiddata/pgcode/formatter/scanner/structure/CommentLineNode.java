@@ -15,6 +15,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -89,4 +90,14 @@ public class CommentLineNode extends SrcNode {
     public CommentLineNode setOnSeparateLine(boolean onSeparateLine) {
         return this;
     }
-}
\ No newline at end of file
+
+    /**
+     * The comment ends the line
+     *
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.concat(Doc.text(comment), Doc.hardLine());
+    }
+}
@@ -15,6 +15,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -33,7 +34,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 public class CommentNode extends SrcNode {    
     private final String comment;
 
-    private int singleLineLength = 0;
     private RenderItem singleLineRenderResult;
 
     /**
@@ -66,6 +66,9 @@ public class CommentNode extends SrcNode {
     public RenderResult beautify(FormatContext formatContext, RenderMultiLines parentResult,
             FormatConfiguration config) {
         if (getSingleLineWidth(config) > 0) {
+            if (singleLineRenderResult == null) {
+                singleLineRenderResult = new RenderItem(comment, this, RenderItemType.COMMENT);
+            }
             return singleLineRenderResult;
         }
 
@@ -92,19 +95,21 @@ public class CommentNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength == 0) {
-            if (comment.contains("\n")) {
-                singleLineLength = -1;
-            } else {
-                singleLineLength = comment.length();
-                singleLineRenderResult = new RenderItem(comment, this, RenderItemType.COMMENT);
-            }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (comment.contains("\n")) {
+            return -1;
         }
-        return singleLineLength;
+        return comment.length();
     }
 
-}
\ No newline at end of file
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.text(toString());
+    }
+}
@@ -302,12 +302,11 @@ public class CreateFunctionNode extends SrcNode {
                  * This can only be the argument list
                  */
                 // Make sure the single line length is based on the right comma separated list config
-                FormatConfiguration argumentsConfig = new FormatConfiguration(config);
-                argumentsConfig.setCommaSeparatedListGrouping(argumentListConfig.getArgumentGrouping());
-                current.getSingleLineWidth(argumentsConfig);
+                current.getSingleLineWidth(
+                        config.withCommaSeparatedListGrouping(argumentListConfig.getArgumentGrouping()));
 
                 FormatContext argumentsContext = new FormatContext(config, formatContext)
-                        .setCommaSeparatedListGrouping(argumentListConfig.getArgumentGrouping())
+                        .setCommaSeparatedListGrouping(config.getCompiled().getFunctionDefinitionArgumentGrouping())
                         .setArgumentDefinitionOffsets(argumentDefinitionOffsets);
                 result.addRenderResult(current.beautify(argumentsContext, result, config), formatContext);
                 break;
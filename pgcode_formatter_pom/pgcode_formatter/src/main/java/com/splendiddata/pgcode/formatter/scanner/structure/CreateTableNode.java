@@ -45,8 +45,6 @@ public class CreateTableNode extends SrcNode {
 
     private InParentheses columnsAndConstraints;
 
-    private int singleLineWidth;
-
     /**
      * Constructor.
      * 
@@ -187,7 +185,7 @@ public class CreateTableNode extends SrcNode {
         ArgumentDefinitionOffsets argumentDefinitionOffsets = getArgumentDefinitionOffsets(argumentListConfig);
         FormatContext context = new FormatContext(config, formatContext)
                 .setArgumentDefinitionOffsets(argumentDefinitionOffsets)
-                .setCommaSeparatedListGrouping(config.getTableDefinition().getArgumentGrouping());
+                .setCommaSeparatedListGrouping(config.getCompiled().getTableDefinitionArgumentGrouping());
         renderResult = new RenderMultiLines(this, context, parentResult).setIndentBase(parentPosition)
                 .setIndent(config.getStandardIndent());
 
@@ -322,36 +320,29 @@ public class CreateTableNode extends SrcNode {
     }
 
     /**
-     * @see com.splendiddata.pgcode.formatter.scanner.ScanResult#getSingleLineWidth(com.splendiddata.pgcode.formatter.FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @param config
      * @return
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth == 0) {
-            for (ScanResult node = columnsAndConstraints.getStartScanResult(); node != null; node = node
-                    .getNextInterpretable()) {
-                if (node instanceof CommaSeparatedList) {
-                    if (((CommaSeparatedList) node).getElements().size() > 1) {
-                        singleLineWidth = -1;
-                        return singleLineWidth;
-                    }
-                    break;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        for (ScanResult node = columnsAndConstraints.getStartScanResult(); node != null; node = node
+                .getNextInterpretable()) {
+            if (node instanceof CommaSeparatedList) {
+                if (((CommaSeparatedList) node).getElements().size() > 1) {
+                    return -1;
                 }
+                break;
             }
         }
-        int elementWidth;
         for (ScanResult node = columnsAndConstraints.getStartScanResult(); node != null; node = node
                 .getNextInterpretable()) {
-            elementWidth = node.getSingleLineWidth(config);
-            if (elementWidth < 0) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+            if (node.getSingleLineWidth(config) < 0) {
+                return -1;
             }
-            singleLineWidth += elementWidth;
         }
-        return super.getSingleLineWidth(config);
+        return measureByRendering(config);
     }
 
 }
@@ -120,7 +120,7 @@ public class CreateTypeNode extends SrcNode {
 
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
             result.addRenderResult(node.beautify(formatContext, result, config), formatContext);
-            if (node == specifiedTypeName && config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+            if (node == specifiedTypeName && config.getCompiled().isMajorKeywordsOnSeparateLine()) {
                 parentResult.addLine();
             }
         }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.scanner.structure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
+import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
+import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
+
+/**
+ * A statement that is nested too deeply in parentheses to be interpreted.
+ * <p>
+ * Interpretation and rendering descend recursively into every pair of parentheses, so the depth of the Java stack that
+ * they need grows with the nesting depth. Machine generated sql may contain hundreds of nested parentheses. A
+ * statement that is nested deeper than {@link #MAX_NESTING_DEPTH} is therefore not interpreted. Its words are laid out
+ * one after the other in a loop, with a line break where the line width would be exceeded and after an end of
+ * line comment. Continuation lines are indented by the standard indent. The words keep their letter case conversion and
+ * are only separated by a space where the input separates them.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class DeeplyNestedStatementNode extends SrcNode {
+    /**
+     * The maximum depth of nested parentheses in a statement that is interpreted. Can be overruled using the system
+     * property pgcode_formatter.max.nesting.depth
+     */
+    public static final int MAX_NESTING_DEPTH = Integer.getInteger("pgcode_formatter.max.nesting.depth", 64)
+            .intValue();
+
+    /**
+     * Constructor
+     *
+     * @param scanResult
+     *            The first word of the statement. The statement ends with the semicolon that ends it, if any
+     */
+    public DeeplyNestedStatementNode(ScanResult scanResult) {
+        super(ScanResultType.JUST_A_STATEMENT, scanResult);
+        ScanResult lastNode = scanResult;
+        for (ScanResult node = scanResult.getNext(); node != null && !isEnd(node, scanResult); node = node.getNext()) {
+            lastNode = node;
+        }
+        if (lastNode.getNext() != null && lastNode.getNext().is(ScanResultType.SEMI_COLON)) {
+            // Like a JustAStatementNode, include the semicolon so that it is kept within the line width
+            lastNode = lastNode.getNext();
+        }
+        setNext(lastNode.getNext());
+        lastNode.setNext(null);
+    }
+
+    /**
+     * Checks if the statement that starts at the scanResult is nested deeper than {@link #MAX_NESTING_DEPTH}. The
+     * statement is supposed to end at the first semicolon that is not in parentheses, or at the end of the input.
+     *
+     * @param scanResult
+     *            The first word of the statement
+     * @return boolean true if the statement is to be represented by a DeeplyNestedStatementNode
+     */
+    public static boolean isTooDeeplyNested(ScanResult scanResult) {
+        int maxLevel = scanResult.getParenthesisLevel() + MAX_NESTING_DEPTH;
+        for (ScanResult node = scanResult; node != null && !isEnd(node, scanResult); node = node.getNext()) {
+            if (node.getParenthesisLevel() > maxLevel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the node is beyond the end of the statement
+     *
+     * @param node
+     *            The node to check
+     * @param start
+     *            The first word of the statement
+     * @return boolean true if the node is the end of the input or a statement end outside the parentheses
+     */
+    private static boolean isEnd(ScanResult node, ScanResult start) {
+        return node.isEof() || (node.isStatementEnd() && node.getParenthesisLevel() <= start.getParenthesisLevel());
+    }
+
+    /**
+     * Lays the words out in a loop, see the class description
+     *
+     * @see ScanResult#beautify(FormatContext, RenderMultiLines, FormatConfiguration)
+     */
+    @Override
+    public RenderResult beautify(FormatContext formatContext, RenderMultiLines parentResult,
+            FormatConfiguration config) {
+        int lineWidth = config.getCompiled().getLineWidth();
+        RenderMultiLines renderResult = new RenderMultiLines(this, formatContext, parentResult)
+                .setIndentBase(parentResult == null ? 0 : parentResult.getPosition())
+                .setIndent(config.getStandardIndent());
+        boolean separated = false;
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            if (node.is(ScanResultType.WHITESPACE) || node.is(ScanResultType.LINEFEED)) {
+                separated = true;
+                continue;
+            }
+            int position = renderResult.getPosition();
+            boolean lineStart = position <= renderResult.getTotalIndent();
+            if (node.is(ScanResultType.COMMENT_LINE)) {
+                // An end of line comment is not moved to the next line, and it ends the line itself
+                if (separated && !lineStart) {
+                    renderResult.addWhiteSpace();
+                }
+                renderResult.addEolComment(node.getText().trim());
+                separated = false;
+                continue;
+            }
+            RenderResult word;
+            if (node.is(ScanResultType.IDENTIFIER)) {
+                word = new IdentifierNode(node).beautify(formatContext, renderResult, config);
+            } else {
+                word = node.beautify(formatContext, renderResult, config);
+            }
+            if (!lineStart && position + (separated ? 1 : 0) + word.getWidthFirstLine() > lineWidth) {
+                renderResult.addLine();
+            } else if (separated && !lineStart) {
+                renderResult.addWhiteSpace();
+            }
+            renderResult.addRenderResult(word, formatContext);
+            separated = false;
+        }
+        return renderResult;
+    }
+
+    /**
+     * Fills the lines with the words, continuation lines are indented by the standard indent. Words that are not
+     * separated by whitespace in the input, like a long run of parentheses, form a fill of their own that can be broken
+     * between any two of its tokens.
+     *
+     * @see ScanResult#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        List<Doc> parts = new ArrayList<>();
+        List<Doc> words = new ArrayList<>();
+        List<Doc> word = new ArrayList<>();
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            if (node.is(ScanResultType.WHITESPACE) || node.is(ScanResultType.LINEFEED)) {
+                addWord(words, word);
+                continue;
+            }
+            word.add(node.toDoc(config));
+            if (node.is(ScanResultType.COMMENT_LINE)) {
+                // The comment ends with a hard line break, so no separator is to follow it
+                addWord(words, word);
+                parts.add(Doc.fill(words, Integer.MAX_VALUE));
+                words.clear();
+            }
+        }
+        addWord(words, word);
+        parts.add(Doc.fill(words, Integer.MAX_VALUE));
+        return Doc.nest(config.getStandardIndent(), Doc.concat(parts));
+    }
+
+    /**
+     * Adds the tokens of a word as a fill that can be broken between any two tokens to the words, and clears the word
+     *
+     * @param words
+     *            The list of words to add to
+     * @param word
+     *            The tokens of the word, may be empty
+     */
+    private static void addWord(List<Doc> words, List<Doc> word) {
+        if (!word.isEmpty()) {
+            words.add(Doc.fill(word, Integer.MAX_VALUE, Integer.MAX_VALUE, Doc.softLine()));
+            word.clear();
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     *
+     * @return String the text of the statement
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            result.append(node);
+        }
+        return result.toString();
+    }
+}
@@ -15,6 +15,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -24,13 +25,13 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.splendiddata.pgcode.formatter.ConfigUtil;
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.BeforeOrAfterType;
-import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListGroupingType;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.FromItemGroupingType;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.RelativePositionTypeEnum;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.KeywordTable;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -48,14 +49,12 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 public class FromClause extends SrcNode implements WantsNewlineBefore {
     private static final Logger log = LogManager.getLogger(FromClause.class);
 
-    private static final Set<String> JOIN_WORDS = Collections.unmodifiableSet(
-            new HashSet<>(Arrays.asList("NATURAL", "CROSS", "LEFT", "RIGHT", "FULL", "INNER", "OUTER", "JOIN")));
+    private static final BitSet JOIN_WORDS = KeywordTable.idsOf("NATURAL", "CROSS", "LEFT", "RIGHT", "FULL", "INNER",
+            "OUTER", "JOIN");
     private static final Set<String> KEY_WORDS = Collections
             .unmodifiableSet(new HashSet<>(Arrays.asList("NATURAL", "CROSS", "LEFT", "RIGHT", "FULL", "INNER", "OUTER",
                     "JOIN", "LATERAL", "WITH", "ORDINARY", "TABLESAMPLE", "ROWS", "AS", "ON")));
 
-    private int singleLineWidth;
-
     /**
      * Constructor
      *
@@ -130,7 +129,7 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
         renderResult = new RenderMultiLines(this, formatContext, parentResult).setIndentBase(parentPosition);
         ScanResult node = getStartScanResult();
         renderResult.addRenderResult(node.beautify(formatContext, renderResult, config), formatContext); // from
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             renderResult.setIndent(config.getStandardIndent()).addLine();
         } else {
             renderResult.setIndent("from ".length()).addRenderResult(new RenderItem(" ", RenderItemType.WHITESPACE), formatContext);
@@ -164,15 +163,12 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
         }
         
         FromItemGroupingType fromConfig = config.getFromItemGrouping();
-        CommaSeparatedListGroupingType csListConfig = ConfigUtil.copy(config.getCommaSeparatedListGrouping());
-        csListConfig.setMultilineOpeningParenBeforeArgument(fromConfig.isMultilineOpeningParenBeforeArgument());
-        csListConfig.setMultilineClosingParenOnNewLine(fromConfig.isMultilineClosingParenOnNewLine());
-        csListConfig.setMaxSingleLineLength(fromConfig.getMaxSingleLineLength());
+        CompiledListGrouping csListConfig = config.getCompiled().getFromItemGrouping();
         FormatContext myContext = new FormatContext(config, formatContext).setCommaSeparatedListGrouping(csListConfig)
                 .setAvailableWidth(formatContext.getAvailableWidth() - 5);
-        int maxLength = fromConfig.getMaxSingleLineLength().getValue();
-        if (maxLength > formatContext.getAvailableWidth() && config.getLineWidth().getWeight()
-                .floatValue() >= fromConfig.getMaxSingleLineLength().getWeight().floatValue()) {
+        int maxLength = csListConfig.getMaxSingleLineLength();
+        if (maxLength > formatContext.getAvailableWidth()
+                && config.getCompiled().getLineWidthWeight() >= csListConfig.getMaxSingleLineLengthWeight()) {
             maxLength = formatContext.getAvailableWidth();
         }
         boolean containsComma = false;
@@ -182,8 +178,9 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
          * First try to render everything on a single line (while gathering render results that will be used if
          * rendering on a single line didn't work out)
          */
-        int singleLineLength = getSingleLineWidth(config);
-        if (singleLineLength > 0 && parentResult.getPosition() + singleLineLength <= config.getLineWidth().getValue()) {
+        int singleLineLength = getSingleLineWidth(config,
+                config.getCompiled().getLineWidth() - parentResult.getPosition());
+        if (singleLineLength > 0) {
             for (ScanResult node = firstNonWhitespace; node != null; node = node.getNext()) {
                 if (node.is(ScanResultType.CHARACTER) && ",".equals(node.toString())) {
                     containsComma = true;
@@ -219,11 +216,11 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
                     renderResult.addRenderResult(tableEntryResult, formatContext);
                     nextElementOnNextLine(renderResult, fromConfig.getComma(), formatContext);
                     tableEntryResult = new RenderMultiLines(null, formatContext, renderResult);
-                } else if (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase())) {
+                } else if (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId())) {
                     renderResult.addRenderResult(tableEntryResult, formatContext);
                     renderResult.addLine();
                     tableEntryResult = new RenderMultiLines(null, formatContext, renderResult);
-                    for (; (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase()))
+                    for (; (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId()))
                             || !node.getType().isInterpretable(); node = node.getNext()) {
                         tableEntryResult.addRenderResult(node.beautify(myContext, tableEntryResult, config),
                                 formatContext);
@@ -258,12 +255,12 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
                 tableEntryResult = new RenderMultiLines(null, formatContext, renderResult);
                 passedANonKeyword = false;
                 aliasFound = false;
-            } else if (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase())) {
+            } else if (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId())) {
                 tableEntryResult.removeTrailingSpaces();
                 renderResult.addRenderResult(tableEntryResult, formatContext);
                 renderResult.addLine();
                 tableEntryResult = new RenderMultiLines(null, formatContext, renderResult);
-                for (; (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase()))
+                for (; (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId()))
                         || !node.getType().isInterpretable(); node = node.getNext()) {
                     tableEntryResult.addRenderResult(node.beautify(myContext, tableEntryResult, config), formatContext);
                 }
@@ -316,12 +313,12 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
                 renderResult.addRenderResult(tableEntryResult, formatContext);
                 nextElementOnNextLine(renderResult, fromConfig.getComma(), formatContext);
                 tableEntryResult = new RenderMultiLines(null, formatContext, parentResult);
-            } else if (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase())) {
+            } else if (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId())) {
                 tableEntryResult.removeTrailingSpaces();
                 renderResult.addRenderResult(tableEntryResult, formatContext);
                 renderResult.addLine();
                 tableEntryResult = new RenderMultiLines(null, formatContext, parentResult);
-                for (; (node.is(ScanResultType.IDENTIFIER) && JOIN_WORDS.contains(node.toString().toUpperCase()))
+                for (; (KeywordTable.isIn(JOIN_WORDS, node.getKeywordId()))
                         || !node.getType().isInterpretable(); node = node.getNext()) {
                     tableEntryResult.addRenderResult(node.beautify(myContext, tableEntryResult, config), formatContext);
                 }
@@ -354,7 +351,7 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
      * @return int The indent size
      */
     private static int decideOnIndent(FormatConfiguration config, boolean containsComma) {
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             if (containsComma && BeforeOrAfterType.BEFORE.equals(config.getFromItemGrouping().getComma())) {
                 return config.getStandardIndent() - 2;
             }
@@ -394,19 +391,16 @@ public class FromClause extends SrcNode implements WantsNewlineBefore {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth != 0) {
-            return singleLineWidth;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineWidth = 0;
         int elementWidth;
         for (ScanResult element = this.getStartScanResult(); element != null; element = element.getNext()) {
-            elementWidth = element.getSingleLineWidth(config);
+            elementWidth = element.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineWidth));
             if (elementWidth < 0) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+                return -1;
             }
             singleLineWidth += elementWidth;
         }
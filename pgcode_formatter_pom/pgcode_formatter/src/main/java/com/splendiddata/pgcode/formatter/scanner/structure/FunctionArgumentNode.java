@@ -17,7 +17,11 @@
 
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
@@ -328,4 +332,27 @@ public class FunctionArgumentNode extends SrcNode {
         }
         return result;
     }
+
+    /**
+     * The argument is described in the order mode, name, data type and default, like
+     * {@link #beautify(FormatContext, RenderMultiLines, FormatConfiguration)} does
+     *
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        List<Doc> parts = new ArrayList<>();
+        if (!"".equals(mode)) {
+            parts.add(new IdentifierNode(mode).toDoc(config));
+        }
+        if (!"".equals(name)) {
+            parts.add(Doc.text(name));
+        }
+        parts.add(Doc.text(dataType));
+        if (!"".equals(defaultIndicator)) {
+            parts.add(new IdentifierNode(defaultIndicator).toDoc(config));
+            parts.add(childrenToDoc(defaultExpr, null, config));
+        }
+        return Doc.fill(parts, Integer.MAX_VALUE);
+    }
 }
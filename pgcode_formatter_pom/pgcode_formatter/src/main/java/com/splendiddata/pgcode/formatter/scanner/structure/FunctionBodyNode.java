@@ -14,7 +14,6 @@
 
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
-import com.splendiddata.pgcode.formatter.CodeFormatterThreadLocal;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
@@ -46,7 +45,7 @@ public class FunctionBodyNode extends SrcNode {
         SrcNode srcNode;
         boolean statementStart = true;
         while (nextNode.getBeginEndLevel() >= beginEndLevel && !nextNode.isEof()) {
-            if (nextNode.getText().equals(CodeFormatterThreadLocal.getStatementEnd())) {
+            if (nextNode.isAdditionalStatementEnd(nextNode)) {
                 setNext(nextNode);
                 prior.setNext(null);
                 return;
@@ -38,7 +38,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
 public class FunctionCallNode extends SrcNode {
     private static final Logger log = LogManager.getLogger(FunctionCallNode.class);
-    private int singleLineWidth;
     private RenderMultiLines singleLineResult;
 
     /**
@@ -71,8 +70,7 @@ public class FunctionCallNode extends SrcNode {
             FormatConfiguration config) {
 
         int availableWidth = formatContext.getAvailableWidth();
-        getSingleLineWidth(config);
-        if (singleLineWidth > 0 && singleLineWidth <= availableWidth && singleLineResult != null) {
+        if (getSingleLineWidth(config, availableWidth) > 0 && singleLineResult != null) {
             return singleLineResult.clone();
         }
         FormatContext itemContext = new FormatContext(config, formatContext)
@@ -94,9 +92,10 @@ public class FunctionCallNode extends SrcNode {
                     break;
                 case COMMENT:
                     result.addWhiteSpace();
-                    result.addRenderResult(node.beautify(new FormatContext(config, formatContext)
-                            .setCommaSeparatedListGrouping(config.getFunctionCallArgumentGrouping()), result, config),
-                            formatContext);
+                    result.addRenderResult(node.beautify(
+                            new FormatContext(config, formatContext).setCommaSeparatedListGrouping(
+                                    config.getCompiled().getFunctionCallArgumentGrouping()),
+                            result, config), formatContext);
                     result.addWhiteSpace();
                     break;
                 case IDENTIFIER:
@@ -107,9 +106,10 @@ public class FunctionCallNode extends SrcNode {
                     result.addWhiteSpace();
                     //$FALL-THROUGH$
                 default:
-                    result.addRenderResult(node.beautify(new FormatContext(config, formatContext)
-                            .setCommaSeparatedListGrouping(config.getFunctionCallArgumentGrouping()), result, config),
-                            formatContext);
+                    result.addRenderResult(node.beautify(
+                            new FormatContext(config, formatContext).setCommaSeparatedListGrouping(
+                                    config.getCompiled().getFunctionCallArgumentGrouping()),
+                            result, config), formatContext);
                 }
             }
             itemResult = result;
@@ -126,33 +126,27 @@ public class FunctionCallNode extends SrcNode {
         }
         if (renderResult.getHeight() <= 1) {
             singleLineResult = renderResult.clone();
-            singleLineWidth = renderResult.getWidth();
+            rememberSingleLineWidth(config, renderResult.getWidth());
         }
         return renderResult;
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth != 0) {
-            return singleLineWidth;
-        }
-        FormatConfiguration callConfig = new FormatConfiguration(config)
-                .setCommaSeparatedListGrouping(config.getFunctionCallArgumentGrouping());
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        FormatConfiguration callConfig = config
+                .withCommaSeparatedListGrouping(config.getFunctionCallArgumentGrouping());
+        int limit = Math.min(maxWidth, callConfig.getCompiled().getLineWidth());
+        int singleLineWidth = 0;
         int elementWidth;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
-            elementWidth = node.getSingleLineWidth(callConfig);
+            elementWidth = node.getSingleLineWidth(callConfig, limit - singleLineWidth);
             if (elementWidth < 0) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+                return -1;
             }
             singleLineWidth += elementWidth;
-            if (singleLineWidth > callConfig.getLineWidth().getValue()) {
-                singleLineWidth = -1;
-                return singleLineWidth;
-            }
         }
         return singleLineWidth;
     }
@@ -165,8 +159,8 @@ public class FunctionCallNode extends SrcNode {
      * @return The converted token (or the token if unchanged).
      */
     private String pgBuiltInFunctionsToLetterCase(FormatConfiguration config, String token) {
-        if (Dicts.pgFunctions.contains(token.toUpperCase()) || "pg_catalog".equals(token.toLowerCase())
-                || "information_schema".equals(token.toLowerCase())) {
+        if (KeywordTable.isFunction(KeywordTable.idOf(token)) || "pg_catalog".equalsIgnoreCase(token)
+                || "information_schema".equalsIgnoreCase(token)) {
             switch (config.getLetterCaseFunctions()) {
             case LOWERCASE:
                 return token.toLowerCase();
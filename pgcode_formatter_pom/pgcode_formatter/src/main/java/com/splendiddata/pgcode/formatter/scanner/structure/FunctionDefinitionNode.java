@@ -21,9 +21,9 @@ import java.io.StringReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.splendiddata.pgcode.formatter.CodeFormatterThreadLocal;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
 import com.splendiddata.pgcode.formatter.internal.FunctionDefinitionRenderItem;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
@@ -59,7 +59,9 @@ public class FunctionDefinitionNode extends SrcNode {
         if (node instanceof ScanResultStringLiteral) {
             functionDefinition = node.getText();
             codeDelimiter = ((ScanResultStringLiteral) node).getQuoteString();
-            CodeFormatterThreadLocal.setStatementEnd(codeDelimiter);
+            if (node.getSession() != null) {
+                node.getSession().setStatementEnd(codeDelimiter);
+            }
         } else if (ScanResultType.DOUBLE_QUOTED_IDENTIFIER.equals(node.getType())) {
             functionDefinition = new DoubleQuotedIdentifierNode(node).toString();
             codeDelimiter = "\"";
@@ -110,8 +112,10 @@ public class FunctionDefinitionNode extends SrcNode {
                     || "sql".equals(formatContext.getLanguage())) {
 
                 Reader stringReader = new StringReader(functionDefinition);
+                FormattingSession session = getSession() == null ? new FormattingSession() : getSession();
 
-                try (PostgresInputReader postgresInputReader = new PostgresInputReader(stringReader)) {
+                try (PostgresInputReader postgresInputReader = new PostgresInputReader(
+                        session.newNestedSession(codeDelimiter), stringReader)) {
                     RenderResult renderResult;
                     RenderMultiLines intermediateResult = new RenderMultiLines(this, formatContext, null);
                     ScanResult startNode = postgresInputReader.getFirstResult();
@@ -134,10 +138,11 @@ public class FunctionDefinitionNode extends SrcNode {
                         width = codeDelimiter.length();
                     }
                     /*
-                     * remove trailing spaces, tabs and linefeeds
+                     * The tab replacement of the whole statement copies dollar quoted strings unchanged, so the body is
+                     * given its tabs here. Then trailing spaces, tabs and linefeeds are removed.
                      */
-                    StringBuilder resultText = new StringBuilder().append(codeDelimiter).append("\n")
-                            .append(Util.performTabReplacement(config, intermediateResult.beautify()));
+                    StringBuilder resultText = new StringBuilder().append(codeDelimiter).append("\n");
+                    Util.appendWithTabReplacement(config, intermediateResult, resultText);
                     for (int i = resultText.length(); i > 0;) {
                         switch (resultText.charAt(--i)) {
                         case '\n':
@@ -178,12 +183,12 @@ public class FunctionDefinitionNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @return -1 in all cases
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         return -1;
     }
 
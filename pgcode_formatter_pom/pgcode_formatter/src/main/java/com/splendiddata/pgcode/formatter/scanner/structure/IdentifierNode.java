@@ -33,6 +33,12 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
 
     private final String identifier;
 
+    /**
+     * The {@link KeywordTable} id of the identifier, {@link KeywordTable#NONE} if not in the table or if there is no
+     * identifier
+     */
+    private final int keywordId;
+
     private boolean notKeyword;
 
     /**
@@ -42,6 +48,7 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
     protected IdentifierNode() {
         super(ScanResultType.IDENTIFIER, null);
         identifier = null;
+        keywordId = KeywordTable.NONE;
     }
 
     /**
@@ -54,6 +61,7 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
         super(ScanResultType.IDENTIFIER, scanResult);
         if (scanResult == null) {
             identifier = "";
+            keywordId = KeywordTable.NONE;
         } else {
             switch (scanResult.getType()) {
             case IDENTIFIER:
@@ -66,6 +74,12 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
 
             }
             this.identifier = scanResult.getText();
+            if (scanResult.is(ScanResultType.IDENTIFIER)) {
+                // Determined by the scanner
+                this.keywordId = scanResult.getKeywordId();
+            } else {
+                this.keywordId = KeywordTable.idOf(identifier);
+            }
         }
         setNext(scanResult.getNext());
     }
@@ -79,6 +93,18 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
     public IdentifierNode(String identifier) {
         super(ScanResultType.IDENTIFIER, null);
         this.identifier = identifier;
+        this.keywordId = KeywordTable.idOf(identifier);
+    }
+
+    /**
+     * @see ScanResult#getKeywordId()
+     */
+    @Override
+    public int getKeywordId() {
+        if (identifier == null) {
+            return super.getKeywordId();
+        }
+        return keywordId;
     }
 
     /**
@@ -167,6 +193,26 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
         return new RenderItem(pgBuiltInsToLetterCase(config), this, RenderItemType.IDENTIFIER);
     }
 
+    /**
+     * Letter case conversion does not change the length of an identifier that consists of ASCII characters only, so
+     * there is no need to convert it to measure. Subclasses that do not have an identifier of their own are rendered
+     * to measure them.
+     *
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (identifier == null) {
+            return measureByRendering(config);
+        }
+        for (int i = 0; i < identifier.length(); i++) {
+            if (identifier.charAt(i) > 0x7f) {
+                return pgBuiltInsToLetterCase(config).length();
+            }
+        }
+        return identifier.length();
+    }
+
     /**
      * Converts the identifier/token to upper/lower case or keeps it unchanged based on the provided configuration.
      *
@@ -180,26 +226,42 @@ public class IdentifierNode extends SrcNode implements Serializable, Comparable<
             return toString();
         }
 
-        if (Dicts.pgPlPgsqlKeywords.contains(identifier.toUpperCase())) {
-            switch (config.getLetterCaseKeywords()) {
-            case LOWERCASE:
-                return identifier.toLowerCase();
-            case UPPERCASE:
-                return identifier.toUpperCase();
-            default:
-                return identifier;
-            }
-        } else if (Dicts.pgFunctions.contains(identifier.toUpperCase())) {
-            switch (config.getLetterCaseFunctions()) {
-            case LOWERCASE:
-                return identifier.toLowerCase();
-            case UPPERCASE:
-                return identifier.toUpperCase();
-            default:
-                return identifier;
-            }
+        if (KeywordTable.isKeyword(keywordId)) {
+            return toLetterCase(config.getLetterCaseKeywords());
+        } else if (KeywordTable.isFunction(keywordId)) {
+            return toLetterCase(config.getLetterCaseFunctions());
         } else {
             return identifier;
         }
     }
+
+    /**
+     * Returns the identifier, which is a word of the {@link KeywordTable}, in the letter case. The table keeps the
+     * converted forms, so no new String is created.
+     *
+     * @param letterCase
+     *            The letter case to convert to
+     * @return String the converted identifier
+     */
+    private String toLetterCase(LetterCaseType letterCase) {
+        switch (letterCase) {
+        case LOWERCASE:
+            return KeywordTable.lowerCaseWordOf(keywordId);
+        case UPPERCASE:
+            return KeywordTable.wordOf(keywordId);
+        default:
+            return identifier;
+        }
+    }
+
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        if (identifier == null) {
+            return super.toDoc(config);
+        }
+        return Doc.text(pgBuiltInsToLetterCase(config));
+    }
 }
@@ -19,7 +19,9 @@ import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
@@ -38,8 +40,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 public class InParentheses extends SrcNode {
     private static final Logger log = LogManager.getLogger(InParentheses.class);
 
-    private int singleLineWidth;
-
     /**
      * Constructor that assumes that the content is a comma separated list of which the content is to be interpreted by
      * {@link PostgresInputReader#interpretPlpgsqlStatementStart(ScanResult)}.
@@ -122,17 +122,17 @@ public class InParentheses extends SrcNode {
         /*
          * See if we can place a single line result directly after the parentResult
          */
-        int singleLineLength = getSingleLineWidth(config);
         FormatContext context = formatContext.clone();
         int parentPosition = 0;
         if (parentResult != null) {
             parentPosition = parentResult.getPosition();
         }
-        if (singleLineLength > 0 && parentPosition + singleLineLength <= config.getLineWidth().getValue()) {
+        int singleLineLength = getSingleLineWidth(config, config.getCompiled().getLineWidth() - parentPosition);
+        if (singleLineLength > 0 && parentPosition + singleLineLength <= config.getCompiled().getLineWidth()) {
             /*
              * The result should fit on a single line
              */
-            context.setAvailableWidth(config.getLineWidth().getValue() - parentPosition - 2);
+            context.setAvailableWidth(config.getCompiled().getLineWidth() - parentPosition - 2);
             renderResult = new RenderMultiLines(this, context, parentResult);
             renderResult.addRenderResult(new RenderItem("(", RenderItemType.CHARACTER), formatContext);
             beautifyContent(renderResult, context, config);
@@ -150,9 +150,9 @@ public class InParentheses extends SrcNode {
          * Keep the opening parenthesis before the content
          */
         RenderMultiLines afterParentAttempt = null;
-        if (formatContext.getCommaSeparatedListGrouping().isMultilineOpeningParenBeforeArgument().booleanValue()) {
+        if (formatContext.getCommaSeparatedListGrouping().isMultilineOpeningParenBeforeArgument()) {
             int indent = 0;
-            switch (formatContext.getCommaSeparatedListGrouping().getIndent().getValue()) {
+            switch (formatContext.getCommaSeparatedListGrouping().getIndent()) {
             case UNDER_FIRST_ARGUMENT:
                 /*
                  * With the UNDER_FIRST_ARGUMENT setting active, first an attempt is made to put the result after the
@@ -164,7 +164,7 @@ public class InParentheses extends SrcNode {
                         .setIndent(2); // paren plus whitespace
                 afterParentAttempt.addRenderResult(new RenderItem("(", RenderItemType.CHARACTER), formatContext);
                 afterParentAttempt.addRenderResult(new RenderItem(" ", RenderItemType.WHITESPACE), formatContext);
-                context.setAvailableWidth(config.getLineWidth().getValue() - afterParentAttempt.getPosition());
+                context.setAvailableWidth(config.getCompiled().getLineWidth() - afterParentAttempt.getPosition());
                 beautifyContent(afterParentAttempt, context, config);
                 if (afterParentAttempt.getHeight() > 1) {
                     if (formatContext.getCommaSeparatedListGrouping().isMultilineClosingParenOnNewLine()) {
@@ -186,7 +186,7 @@ public class InParentheses extends SrcNode {
                     renderResult.addLine();
                     renderResult.addRenderResult(new RenderItem("(", RenderItemType.CHARACTER), formatContext);
                     renderResult.addRenderResult(new RenderItem(" ", RenderItemType.WHITESPACE), formatContext);
-                    context.setAvailableWidth(config.getLineWidth().getValue() - renderResult.getPosition());
+                    context.setAvailableWidth(config.getCompiled().getLineWidth() - renderResult.getPosition());
                     beautifyContent(renderResult, context, config);
                     if (renderResult.getHeight() > 1) {
                         if (formatContext.getCommaSeparatedListGrouping().isMultilineClosingParenOnNewLine()) {
@@ -196,7 +196,8 @@ public class InParentheses extends SrcNode {
                         }
                     }
                     renderResult.addRenderResult(new RenderItem(")", RenderItemType.CHARACTER), formatContext);
-                    if (afterParentAttempt != null && afterParentAttempt.getWidth() <= config.getLineWidth().getValue()
+                    if (afterParentAttempt != null
+                            && afterParentAttempt.getWidth() <= config.getCompiled().getLineWidth()
                             && (afterParentAttempt.getHeight() < renderResult.getHeight()
                                     || (afterParentAttempt.getHeight() == renderResult.getHeight()
                                             && afterParentAttempt.getWidth() > renderResult.getWidth()))) {
@@ -213,7 +214,7 @@ public class InParentheses extends SrcNode {
         renderResult = new RenderMultiLines(this, context, parentResult);
         renderResult.addRenderResult(new RenderItem("(", RenderItemType.CHARACTER), formatContext);
         int indent = 0;
-        switch (formatContext.getCommaSeparatedListGrouping().getIndent().getValue()) {
+        switch (formatContext.getCommaSeparatedListGrouping().getIndent()) {
         case DOUBLE_INDENTED:
             indent += config.getStandardIndent();
             // fall through
@@ -267,21 +268,43 @@ public class InParentheses extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * The content is nested in a group. If it does not fit on a single line, the content starts on a new line unless
+     * multilineOpeningParenBeforeArgument is configured, and the closing parenthesis is placed on a new line if
+     * multilineClosingParenOnNewLine is configured.
+     *
+     * @see SrcNode#toDoc(FormatConfiguration)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth != 0) {
-            return singleLineWidth;
+    public Doc toDoc(FormatConfiguration config) {
+        ScanResult openingParenthesis = getStartScanResult();
+        ScanResult closingParenthesis = null;
+        for (ScanResult node = openingParenthesis.getNext(); node != null; node = node.getNext()) {
+            if (node.getNext() == null && node.is(ScanResultType.CLOSING_PARENTHESIS)) {
+                closingParenthesis = node;
+            }
         }
+        CompiledListGrouping grouping = config.getCompiled().getCommaSeparatedListGrouping();
+        Doc content = childrenToDoc(openingParenthesis.getNext(), closingParenthesis, config);
+        return Doc.group(Doc.concat(Doc.text(openingParenthesis.toString()),
+                Doc.nest(config.getStandardIndent(),
+                        Doc.concat(grouping.isMultilineOpeningParenBeforeArgument() ? Doc.EMPTY : Doc.softLine(),
+                                content)),
+                grouping.isMultilineClosingParenOnNewLine() ? Doc.softLine() : Doc.EMPTY,
+                closingParenthesis == null ? Doc.EMPTY : Doc.text(closingParenthesis.toString())));
+    }
+
+    /**
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineWidth = 2; // open and close paren
         int elementWidth;
-        singleLineWidth = 2; // open and close paren
         for (ScanResult element = this.getStartScanResult(); element != null; element = element
                 .getNextNonWhitespace()) {
-            elementWidth = element.getSingleLineWidth(config);
+            elementWidth = element.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineWidth));
             if (elementWidth < 0) {
-                singleLineWidth = -1;
-                break;
+                return -1;
             }
             singleLineWidth += elementWidth;
         }
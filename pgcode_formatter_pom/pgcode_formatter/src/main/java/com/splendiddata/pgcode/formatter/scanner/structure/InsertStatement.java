@@ -32,7 +32,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  */
 public class InsertStatement extends SrcNode implements WantsNewlineBefore {
     private static final Logger log = LogManager.getLogger(InsertStatement.class);
-    private int singleLineLength;
 
     /**
      * Constructor
@@ -143,7 +142,7 @@ public class InsertStatement extends SrcNode implements WantsNewlineBefore {
         if (parentResult != null) {
             result.setIndentBase(parentResult.getPosition());
         }
-        if (config.getQueryConfig().isIndent().booleanValue()) {
+        if (config.getCompiled().isQueryIndent()) {
             result.setIndent(config.getStandardIndent());
         }
         FormatContext contentContext = new FormatContext(config, formatContext)
@@ -161,30 +160,23 @@ public class InsertStatement extends SrcNode implements WantsNewlineBefore {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            return singleLineLength;
-        }
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine()) {
-            singleLineLength = -1;
-            return singleLineLength;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
+            return -1;
         }
+        int limit = Math.min(maxWidth,
+                Math.min(config.getCompiled().getMaxSingleLineQuery(), config.getCompiled().getLineWidth()));
+        int singleLineLength = 0;
         int elementWidth;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
-            elementWidth = node.getSingleLineWidth(config);
+            elementWidth = node.getSingleLineWidth(config, limit - singleLineLength);
             if (elementWidth < 0) {
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             }
             singleLineLength += elementWidth;
-            if (singleLineLength > config.getQueryConfig().getMaxSingleLineQuery().getValue()
-                    || singleLineLength > config.getLineWidth().getValue()) {
-                singleLineLength = -1;
-                return singleLineLength;
-            }
         }
         return singleLineLength;
     }
@@ -89,11 +89,11 @@ public class JustAStatementNode extends SrcNode {
             RenderResult intermediate = node.beautify(formatContext, renderResult, config);
             if (renderResult.getPosition() > config.getStandardIndent()
                     && (intermediate.getHeight() > 1 || renderResult.getPosition()
-                            + intermediate.getWidthFirstLine() > config.getLineWidth().getValue())) {
+                            + intermediate.getWidthFirstLine() > config.getCompiled().getLineWidth())) {
                 RenderMultiLines renderResultClone = renderResult.clone().addLine();
                 RenderResult attempt2 = node.beautify(formatContext, renderResultClone, config);
                 if (attempt2.getHeight() < intermediate.getHeight() || intermediate.getWidthFirstLine()
-                        + renderResult.getPosition() > config.getLineWidth().getValue()) {
+                        + renderResult.getPosition() > config.getCompiled().getLineWidth()) {
                     renderResult = renderResultClone;
                     renderResult.addRenderResult(attempt2, formatContext);
                 } else {
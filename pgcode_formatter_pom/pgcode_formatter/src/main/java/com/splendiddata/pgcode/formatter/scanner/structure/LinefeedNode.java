@@ -18,6 +18,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -56,4 +57,20 @@ public class LinefeedNode extends SrcNode {
 
         return result;
     }
+
+    /**
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        return 0; // A RenderItem of type LINEFEED has no width
+    }
+
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.line();
+    }
 }
@@ -28,7 +28,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  * @since 0.0.1
  */
 public class ListElement extends SrcNode {
-    private int singleLineLenght;
 
     /**
      * Constructor
@@ -87,16 +86,11 @@ public class ListElement extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLenght != 0) {
-            // Been here before
-            return singleLineLenght;
-        }
-        singleLineLenght =  Util.getSingleLineWidth(getStartScanResult(), config);
-        return singleLineLenght;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        return Util.getSingleLineWidth(getStartScanResult(), config, maxWidth);
     }
 
 }
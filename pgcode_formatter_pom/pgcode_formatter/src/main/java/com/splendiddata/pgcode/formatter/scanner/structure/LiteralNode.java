@@ -15,6 +15,7 @@
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.RenderItem;
 import com.splendiddata.pgcode.formatter.internal.RenderItemType;
@@ -32,7 +33,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  */
 public class LiteralNode extends SrcNode {
     private final String literal;
-    private int singleLineLenght = 0;
     private RenderResult renderResult;
 
     /**
@@ -87,18 +87,21 @@ public class LiteralNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLenght == 0) {
-            if (literal.contains("\n")) {
-                singleLineLenght = -1;
-            } else {
-                singleLineLenght = toString().length();
-            }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (literal.contains("\n")) {
+            return -1;
         }
-        return singleLineLenght;
+        return toString().length();
     }
 
-}
\ No newline at end of file
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.text(toString());
+    }
+}
@@ -129,12 +129,12 @@ public class LoopNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @return -1 as a loop is a compound statement
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         return -1;
     }
 
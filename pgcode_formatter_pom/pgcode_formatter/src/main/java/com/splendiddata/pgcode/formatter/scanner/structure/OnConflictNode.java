@@ -19,6 +19,7 @@ import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
@@ -29,7 +30,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  * @since 0.0.1
  */
 public class OnConflictNode extends SrcNode implements WantsNewlineBefore {
-    private int singleLineLength;
 
     /**
      * Constructor
@@ -133,7 +133,7 @@ public class OnConflictNode extends SrcNode implements WantsNewlineBefore {
          * Try to render on a single line
          */
 
-        if (!config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue() && getSingleLineWidth(config) <= availableWidth) {
+        if (!config.getCompiled().isMajorKeywordsOnSeparateLine() && getSingleLineWidth(config) <= availableWidth) {
             result = new RenderMultiLines(this, formatContext, parentResult).addIndent(config.getStandardIndent());
             for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
                 result.addRenderResult(node.beautify(formatContext, result, config), formatContext);
@@ -151,7 +151,7 @@ public class OnConflictNode extends SrcNode implements WantsNewlineBefore {
                 .setAvailableWidth(availableWidth - config.getStandardIndent());
         ScanResult node = getStartScanResult();
         result.addRenderResult(node.beautify(formatContext, result, config), formatContext);
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             while (node != null
                     && !(node.is(ScanResultType.IDENTIFIER) && "conflict".equalsIgnoreCase(node.toString()))) {
                 node = node.getNext();
@@ -182,26 +182,19 @@ public class OnConflictNode extends SrcNode implements WantsNewlineBefore {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            /*
-             * Been here before, so the answer can be given rapidly
-             */
-            return singleLineLength;
-        }
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
-            singleLineLength = -1;
-            return singleLineLength;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
+            return -1;
         }
+        int singleLineLength = 0;
         int additionalLength;
         for (ScanResult node = this.getStartScanResult(); node != null; node = node.getNext()) {
-            additionalLength = node.getSingleLineWidth(config);
+            additionalLength = node.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineLength));
             if (additionalLength < 0) {
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             }
             singleLineLength += additionalLength;
         }
@@ -107,8 +107,8 @@ public class OpenCursorNode extends SrcNode {
 
         for (SrcNode srcNode : constituentParts) {
             RenderResult beautified = srcNode.beautify(formatContext, result, config);
-            boolean commaSeparatedListMultiLine = beautified.getWidth() > config
-                    .getCommaSeparatedListGrouping().getMaxSingleLineLength().getValue();
+            boolean commaSeparatedListMultiLine = beautified.getWidth() > config.getCompiled()
+                    .getCommaSeparatedListGrouping().getMaxSingleLineLength();
             if (commaSeparatedListMultiLine) {
                 result.addLine();
             }
@@ -199,12 +199,12 @@ public class PlpgsqlBeginEndBlock extends SrcNode implements WantsNewlineBefore
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @return -1 as a begin ... end block never renders to a single line
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         return -1;
     }
 
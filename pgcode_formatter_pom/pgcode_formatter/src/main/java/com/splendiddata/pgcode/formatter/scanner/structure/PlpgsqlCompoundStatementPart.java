@@ -106,12 +106,12 @@ public class PlpgsqlCompoundStatementPart extends SrcNode implements WantsNewlin
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      *
      * @return -1 as a compound statement is never rendered on a single line
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
         return -1;
     }
     
@@ -156,4 +156,32 @@ public class QualifiedIdentifierNode extends IdentifierNode {
 
         return result;
     }
+
+    /**
+     * Sums the widths of the parts, unless there is a comment in between
+     *
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int width = 0;
+        int nodeWidth;
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            switch (node.getType()) {
+            case WHITESPACE:
+            case LINEFEED:
+                break;
+            case COMMENT:
+            case COMMENT_LINE:
+                return measureByRendering(config);
+            default:
+                nodeWidth = node.getSingleLineWidth(config);
+                if (nodeWidth < 0) {
+                    return -1;
+                }
+                width += nodeWidth;
+            }
+        }
+        return width;
+    }
 }
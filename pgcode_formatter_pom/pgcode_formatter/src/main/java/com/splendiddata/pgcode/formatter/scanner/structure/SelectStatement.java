@@ -41,8 +41,6 @@ public class SelectStatement extends SrcNode implements WantsNewlineBefore {
     private CommaSeparatedList targetList;
     private IntoClauseNode intoClause;
 
-    private int singleLineLength;
-
     /**
      * Constructor
      *
@@ -307,28 +305,25 @@ public class SelectStatement extends SrcNode implements WantsNewlineBefore {
         }
         int parentPosition = 0;
         if (parentResult != null) {
-            if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()
+            if (config.getCompiled().isMajorKeywordsOnSeparateLine()
                     && !parentResult.isLastNonWhiteSpaceEqualToLinefeed()) {
                 parentResult.addLine();
             }
             parentPosition = parentResult.getPosition();
         }
         int availableWidth = formatContext.getAvailableWidth();
-        boolean doIndent = config.getQueryConfig().isIndent().booleanValue();
+        boolean doIndent = config.getCompiled().isQueryIndent();
         FormatContext targetListContext = new FormatContext(config, formatContext)
-                .setCommaSeparatedListGrouping(config.getTargetListGrouping());
+                .setCommaSeparatedListGrouping(config.getCompiled().getTargetListGrouping());
         /*
          * First try to render it on the current line.
          */
-        if (singleLineLength == 0) {
-            singleLineLength = getSingleLineWidth(config);
-        }
-        if (singleLineLength > 0 && singleLineLength <= formatContext.getAvailableWidth()
-                && singleLineLength <= config.getQueryConfig().getMaxSingleLineQuery().getValue()) {
+        if (getSingleLineWidth(config,
+                Math.min(availableWidth, config.getCompiled().getMaxSingleLineQuery())) > 0) {
             renderResult = new RenderMultiLines(this, formatContext, parentResult);
             int maxWidth = availableWidth;
-            if (maxWidth > config.getQueryConfig().getMaxSingleLineQuery().getValue()) {
-                maxWidth = config.getQueryConfig().getMaxSingleLineQuery().getValue();
+            if (maxWidth > config.getCompiled().getMaxSingleLineQuery()) {
+                maxWidth = config.getCompiled().getMaxSingleLineQuery();
             }
             formatContext.setAvailableWidth(maxWidth);
             for (ScanResult current = getStartScanResult(); current != null
@@ -362,7 +357,7 @@ public class SelectStatement extends SrcNode implements WantsNewlineBefore {
         }
 
         ScanResult current = getStartScanResult();
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             if ("select".equalsIgnoreCase(current.toString())) {
                 ScanResult renderUntil = current;
                 ScanResult peekNext = current.getNextInterpretable();
@@ -419,49 +414,43 @@ public class SelectStatement extends SrcNode implements WantsNewlineBefore {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            return singleLineLength;
-        }
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
-            singleLineLength = -1;
-            return singleLineLength;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
+            return -1;
         }
         /*
          * First check if this statement contains any keyword that would force it to be rendered multi-line anyway.
          */
         ScanResult node = getStartScanResult();
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
             node = getStartScanResult();
             for (node = node.getNext(); node != null; node = node.getNext()) {
                 if (node instanceof IdentifierNode && !((IdentifierNode) node).isNotKeyword()
                         && ConfigUtil.isMajorKeywords(((IdentifierNode) node).getIdentifier())) {
-                    singleLineLength = -1;
-                    return singleLineLength;
+                    return -1;
                 }
             }
         }
+        int limit = Math.min(maxWidth,
+                Math.min(config.getCompiled().getMaxSingleLineQuery(), config.getCompiled().getLineWidth()));
+        int singleLineLength = 0;
         int nodeLength;
         for (node = getStartScanResult(); node != null; node = node.getNext()) {
             if (node == targetList) {
                 nodeLength = node.getSingleLineWidth(
-                        new FormatConfiguration(config).setCommaSeparatedListGrouping(config.getTargetListGrouping()));
+                        config.withCommaSeparatedListGrouping(config.getTargetListGrouping()),
+                        limit - singleLineLength);
             } else {
-                nodeLength = node.getSingleLineWidth(config);
+                nodeLength = node.getSingleLineWidth(config, limit - singleLineLength);
             }
             if (nodeLength < 0) {
-                singleLineLength = -1;
-                return singleLineLength;
+                return -1;
             }
             singleLineLength += nodeLength;
         }
-        if (singleLineLength > config.getQueryConfig().getMaxSingleLineQuery().getValue()
-                || singleLineLength > config.getLineWidth().getValue()) {
-            singleLineLength = -1;
-        }
         return singleLineLength;
     }
 
@@ -14,11 +14,18 @@
 
 package com.splendiddata.pgcode.formatter.scanner.structure;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+import com.splendiddata.pgcode.formatter.internal.RenderCacheBudget;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
 import com.splendiddata.pgcode.formatter.internal.Util;
@@ -38,9 +45,64 @@ public abstract class SrcNode implements ScanResult {
 
     private ScanResult next;
 
-    private RenderMultiLines cachedRenderResult;
-    private FormatContext cachedContext;
-    private int cachedParentPosition;
+    /**
+     * The number of render results that are cached per node
+     */
+    private static final int RENDER_CACHE_SLOTS = 4;
+
+    /**
+     * The estimated size of a cache entry apart from its text, in characters
+     */
+    private static final int RENDER_CACHE_ENTRY_OVERHEAD = 64;
+
+    private static final LongAdder renderCacheHits = new LongAdder();
+    private static final LongAdder renderCacheMisses = new LongAdder();
+
+    /**
+     * Cached render results, created when the first result is cached
+     */
+    private RenderCacheEntry[] renderCache;
+
+    /**
+     * The slot in renderCache that will be overwritten by the next result that is cached
+     */
+    private int nextRenderCacheSlot;
+
+    /**
+     * The RenderCacheBudget in which this node is registered, or null
+     */
+    private RenderCacheBudget renderCacheBudget;
+
+    /**
+     * The size of the cached multi line results as registered in the renderCacheBudget
+     */
+    private int renderCacheChars;
+
+    /**
+     * True while this node is in the queue of nodes of which the renderCacheBudget may evict the multi line results
+     */
+    private boolean renderCacheEvictable;
+
+    /**
+     * The configuration for which the single-line width was measured, or null if not measured yet
+     */
+    private FormatConfiguration measuredConfig;
+
+    /**
+     * The single-line width for the measuredConfig, valid if widthMeasured is true
+     */
+    private int measuredWidth;
+
+    /**
+     * Indicates that measuredWidth holds the exact result for the measuredConfig
+     */
+    private boolean widthMeasured;
+
+    /**
+     * The largest maximum width for which a measurement for the measuredConfig was given up because this node did not
+     * fit in it
+     */
+    private int unfitWidth;
 
     /**
      * Constructor
@@ -125,6 +187,14 @@ public abstract class SrcNode implements ScanResult {
         return startScanResult.isStatementEnd();
     }
 
+    @Override
+    public FormattingSession getSession() {
+        if (startScanResult == null) {
+            return null;
+        }
+        return startScanResult.getSession();
+    }
+
     @Override
     public boolean isEof() {
         return startScanResult.isEof();
@@ -174,6 +244,185 @@ public abstract class SrcNode implements ScanResult {
                 formatContext, parentResult);
     }
 
+    /**
+     * This implementation describes the children of this node, see
+     * {@link #childrenToDoc(ScanResult, ScanResult, FormatConfiguration)}. A node without children is rendered and
+     * its text is used.
+     *
+     * @see ScanResult#toDoc(FormatConfiguration)
+     * @since 0.3.2
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        if (getStartScanResult() == null) {
+            return Doc.text(beautify(new FormatContext(config, null), null, config).beautify());
+        }
+        return childrenToDoc(getStartScanResult(), getNext(), config);
+    }
+
+    /**
+     * Describes the nodes from fromNode up to untilNode as a layout document.
+     * <p>
+     * Whitespace and line feeds between the nodes become line breaks, of which only those are taken that are needed to
+     * stay within the line width. Nodes that are not separated by whitespace stay together, and so does a comma with
+     * what precedes it. A node that
+     * {@link WantsNewlineBefore wants a new line before} starts a new section. If the sections do not fit on a single
+     * line together, each of them starts on a line of its own. A section after a semicolon and a node after an end of
+     * line comment always start on a new line.
+     * </p>
+     *
+     * @param fromNode
+     *            The first node to describe
+     * @param untilNode
+     *            The node after the last node to describe, may be null
+     * @param config
+     *            The configuration to describe the nodes for
+     * @return Doc the layout document
+     * @since 0.3.2
+     */
+    protected static Doc childrenToDoc(ScanResult fromNode, ScanResult untilNode, FormatConfiguration config) {
+        List<Doc> parts = new ArrayList<>();
+        List<Doc> items = new ArrayList<>();
+        List<Doc> item = new ArrayList<>();
+        Doc sectionBreak = null;
+        boolean separated = false;
+        boolean lineEnded = false;
+        for (ScanResult node = fromNode; node != null && node != untilNode; node = node.getNext()) {
+            if (node.is(ScanResultType.WHITESPACE) || node.is(ScanResultType.LINEFEED)) {
+                separated = !lineEnded;
+                continue;
+            }
+            if (sectionBreak == null && node instanceof WantsNewlineBefore && !item.isEmpty()) {
+                sectionBreak = Doc.line();
+            }
+            if (node.is(ScanResultType.CHARACTER) && ",".equals(node.toString()) && sectionBreak == null) {
+                // A comma sticks to what precedes it
+                separated = false;
+            }
+            if ((sectionBreak != null || separated) && !item.isEmpty()) {
+                items.add(Doc.concat(item));
+                item.clear();
+            }
+            if (sectionBreak != null) {
+                parts.add(Doc.fill(items, Integer.MAX_VALUE));
+                parts.add(sectionBreak);
+                items.clear();
+            }
+            item.add(node.toDoc(config));
+            separated = false;
+            lineEnded = node.is(ScanResultType.COMMENT_LINE);
+            sectionBreak = node.is(ScanResultType.SEMI_COLON) ? Doc.hardLine() : null;
+        }
+        if (!item.isEmpty()) {
+            items.add(Doc.concat(item));
+        }
+        parts.add(Doc.fill(items, Integer.MAX_VALUE));
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        return Doc.group(Doc.concat(parts));
+    }
+
+    /**
+     * Returns the single-line width as measured by {@link #measureSingleLineWidth(FormatConfiguration, int)}.
+     *
+     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     */
+    @Override
+    public final int getSingleLineWidth(FormatConfiguration config) {
+        return getSingleLineWidth(config, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the single-line width as measured by {@link #measureSingleLineWidth(FormatConfiguration, int)}.
+     * <p>
+     * The outcome is remembered for the configuration instance. Once the exact width is known, it is not measured
+     * again for the same configuration. If a measurement was given up because maxWidth was exceeded, that is
+     * remembered as well so that a question with the same or a smaller maxWidth is answered immediately.
+     * </p>
+     *
+     * @see ScanResult#getSingleLineWidth(FormatConfiguration, int)
+     * @since 0.3.2
+     */
+    @Override
+    public final int getSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (config != measuredConfig) {
+            measuredConfig = config;
+            widthMeasured = false;
+            unfitWidth = Integer.MIN_VALUE;
+        } else if (widthMeasured) {
+            return measuredWidth > maxWidth ? -1 : measuredWidth;
+        } else if (maxWidth <= unfitWidth) {
+            return -1;
+        }
+        int width = measureSingleLineWidth(config, maxWidth);
+        if (width >= 0 || maxWidth == Integer.MAX_VALUE) {
+            rememberSingleLineWidth(config, width);
+            return width > maxWidth ? -1 : width;
+        }
+        unfitWidth = maxWidth;
+        return -1;
+    }
+
+    /**
+     * Registers the single-line width of this node for the configuration, for example when it is known from an actual
+     * render result
+     *
+     * @param config
+     *            The configuration that the width applies to
+     * @param width
+     *            The single-line width, or a negative value if this node does not fit on a single line
+     * @since 0.3.2
+     */
+    protected final void rememberSingleLineWidth(FormatConfiguration config, int width) {
+        measuredConfig = config;
+        measuredWidth = width;
+        widthMeasured = true;
+    }
+
+    /**
+     * Measures the width of this node when rendered on a single line. This method is invoked by
+     * {@link #getSingleLineWidth(FormatConfiguration, int)} at most once per configuration, unless a measurement is
+     * given up because of maxWidth.
+     * <p>
+     * A non-negative result must be the exact width. A negative result means that this node does not fit on a single
+     * line, or that it does not fit in maxWidth. So an implementation that sums the widths of its children may stop
+     * as soon as the sum exceeds maxWidth, passing the remaining width on to the next child.
+     * </p>
+     * <p>
+     * This implementation renders the node to find out. Nodes that know their width without rendering, like tokens
+     * that are rendered as they are, override this method to measure without creating any objects.
+     * </p>
+     *
+     * @param config
+     *            The configuration to measure for
+     * @param maxWidth
+     *            The width above which the exact result is of no interest, Integer.MAX_VALUE if the exact width is
+     *            needed
+     * @return int the width of a single-line render result or a negative value if this node does not fit on a single
+     *         line
+     * @since 0.3.2
+     */
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        return measureByRendering(config);
+    }
+
+    /**
+     * Measures the width of this node by rendering it without any context
+     *
+     * @param config
+     *            The configuration to measure for
+     * @return int the width of the render result or a negative value if it takes more than one line
+     * @since 0.3.2
+     */
+    protected final int measureByRendering(FormatConfiguration config) {
+        RenderResult testResult = beautify(new FormatContext(config, null), null, config);
+        if (testResult.getHeight() > 1) {
+            return -1;
+        }
+        return testResult.getWidth();
+    }
+
     /**
      * Replaces the pointer to the startScanResult with the replacement
      *
@@ -185,18 +434,30 @@ public abstract class SrcNode implements ScanResult {
     }
 
     /**
-     * Caches a clone of the resultToCache together with a clone of the formatContext and the current position in the
-     * parentResult.
+     * Caches a clone of the resultToCache together with the interned formatContext, the current position in the
+     * parentResult and the indent that the parentResult passes on.
      * <p>
      * (Parts of) statements may be rendered multiple times in order to get a "best fit" in the end result. But when the
      * formatContext and the parent position do not change from one render attempt to another, then the render result
      * will not change either. So, in that case, a cached result could be returned.
+     * <p>
+     * A node caches up to RENDER_CACHE_SLOTS results, so alternating render attempts, like a single line attempt
+     * followed by a multi line one, do not evict each other. A result for the same context and parent position replaces
+     * the one that was cached before, otherwise the oldest entry is replaced.
+     * <p>
+     * If the formatContext provides a {@link RenderCacheBudget}, the size of a cached multi line result is registered
+     * in it. The budget may evict the multi line results of other nodes of the statement. An evicted result is
+     * rendered again when it is needed, which gives the same result because all that influenced it is part of the
+     * cache key. Single line results are not evicted, because they may also be used at another parent position, see
+     * {@link #getCachedRenderResult(FormatContext, RenderMultiLines, FormatConfiguration)}, where rendering again
+     * could give a different result. As a single line result is no longer than about a line, they take memory in
+     * proportion to the statement, like the nodes themselves.
      *
      * @param resultToCache
      *            The RenderResult of which a clone will be cached
      * @param formatContext
-     *            The formatContext that probably influenced the rendering process. A clone if this will be cached as
-     *            well.
+     *            The formatContext that probably influenced the rendering process. Its interned snapshot will be
+     *            cached as well.
      * @param parentResult
      *            The result to which the just rendered result would be added. The current position in that result may
      *            have influenced the rendering process. If the parentResult is null, then position zero will be
@@ -206,26 +467,72 @@ public abstract class SrcNode implements ScanResult {
      */
     protected RenderMultiLines cacheRenderResult(RenderMultiLines resultToCache, FormatContext formatContext,
             RenderMultiLines parentResult) {
-        cachedRenderResult = resultToCache.clone();
-        cachedContext = formatContext.clone();
-        cachedParentPosition = 0;
-        if (parentResult != null) {
-            cachedParentPosition = parentResult.getPosition();
+        FormatContext context = formatContext.intern(getSession());
+        RenderCacheEntry entry = new RenderCacheEntry(context, parentResult,
+                resultToCache.getHeight() <= 1 ? resultToCache.compactClone() : resultToCache.clone());
+        if (renderCache == null) {
+            renderCache = new RenderCacheEntry[RENDER_CACHE_SLOTS];
+        }
+        /*
+         * An evicted result keeps its slot, so it is replaced here just like it would have been if it had not been
+         * evicted
+         */
+        int slot = -1;
+        for (int i = 0; i < RENDER_CACHE_SLOTS && slot < 0; i++) {
+            RenderCacheEntry cached = renderCache[i];
+            if (cached != null && cached.hasKey(context, entry.parentPosition, entry.indentBase, entry.indent)) {
+                slot = i;
+            }
+        }
+        if (slot < 0) {
+            slot = nextRenderCacheSlot;
+            nextRenderCacheSlot = (nextRenderCacheSlot + 1) % RENDER_CACHE_SLOTS;
+        }
+        RenderCacheEntry replaced = renderCache[slot];
+        renderCache[slot] = entry;
+
+        RenderCacheBudget budget = formatContext.getRenderCacheBudget();
+        if (budget != null) {
+            int chars = entry.getEvictableChars();
+            boolean isNew = renderCacheBudget != budget;
+            if (isNew) {
+                if (renderCacheBudget != null) {
+                    renderCacheBudget.released(renderCacheChars);
+                }
+                chars = 0;
+                for (RenderCacheEntry cached : renderCache) {
+                    if (cached != null) {
+                        chars += cached.getEvictableChars();
+                    }
+                }
+                renderCacheChars = 0;
+                renderCacheEvictable = false;
+                renderCacheBudget = budget;
+            } else if (replaced != null) {
+                chars -= replaced.getEvictableChars();
+            }
+            renderCacheChars += chars;
+            boolean becomesEvictable = !renderCacheEvictable && renderCacheChars > 0;
+            renderCacheEvictable |= becomesEvictable;
+            budget.register(this, isNew, becomesEvictable, chars);
         }
         return resultToCache;
     }
 
     /**
-     * Returns a clone of the cached result if
+     * Returns a clone of a cached result if
      * <ul>
      * <li>a render result has been cached using the
      * {@link #cacheRenderResult(RenderMultiLines, FormatContext, RenderMultiLines)} method</li>
-     * <li>the formatContext equals the cached clone of the format context that was stored using the
+     * <li>the formatContext equals the format context that was stored using the
      * cacheRenderResult(RenderMultiLines, FormatContext, RenderMultiLines) method.</li>
-     * <li>the current position in the parentResult is the same as it was when the cacheRenderResult(RenderMultiLines,
-     * FormatContext, RenderMultiLines) method was invoked or if the cachedRenderResult contains only one line and the
-     * result would still fit on the line after the parent position</li>
+     * <li>the current position and the indent of the parentResult are the same as they were when the
+     * cacheRenderResult(RenderMultiLines, FormatContext, RenderMultiLines) method was invoked or if the
+     * cachedRenderResult contains only one line and the result would still fit on the line after the parent
+     * position</li>
      * </ul>
+     * A result that was cached at the same parent position and indent is preferred. If that result was evicted by the
+     * {@link RenderCacheBudget}, null is returned, so the result is rendered again.
      *
      * @param formatContext
      *            The formatContext from the containing
@@ -241,20 +548,39 @@ public abstract class SrcNode implements ScanResult {
      */
     protected RenderMultiLines getCachedRenderResult(FormatContext formatContext, RenderMultiLines parentResult,
             FormatConfiguration config) {
-        if (cachedRenderResult == null) {
+        if (renderCache == null) {
+            renderCacheMisses.increment();
             return null;
         }
+        FormatContext context = formatContext.intern(getSession());
         int parentPosition = 0;
+        int indentBase = 0;
+        int indent = 0;
         if (parentResult != null) {
             parentPosition = parentResult.getPosition();
+            indentBase = parentResult.getIndentBase();
+            indent = parentResult.getLocalIndent();
+        }
+        RenderCacheEntry found = null;
+        for (RenderCacheEntry cached : renderCache) {
+            if (cached == null || !cached.context.equals(context)) {
+                continue;
+            }
+            if (cached.hasKey(context, parentPosition, indentBase, indent)) {
+                found = cached;
+                break;
+            }
+            if (found == null && cached.isSingleLine() && (parentPosition <= cached.parentPosition
+                    || cached.result.getWidth() <= config.getCompiled().getLineWidth())) {
+                found = cached;
+            }
         }
-        if (cachedContext.equals(formatContext)
-                && (cachedParentPosition == parentPosition || cachedRenderResult.getHeight() <= 1
-                        && (parentPosition < cachedParentPosition || (parentPosition > cachedParentPosition
-                                && cachedRenderResult.getWidth() <= config.getLineWidth().getValue())))) {
-            return cachedRenderResult.clone();
+        if (found == null || found.result == null) {
+            renderCacheMisses.increment();
+            return null;
         }
-        return null;
+        renderCacheHits.increment();
+        return found.result.clone();
     }
 
     /**
@@ -267,8 +593,178 @@ public abstract class SrcNode implements ScanResult {
      */
     @SuppressWarnings("unchecked")
     public <T extends SrcNode> T clearResultCache() {
-        cachedRenderResult = null;
-        cachedContext = null;
+        renderCache = null;
+        nextRenderCacheSlot = 0;
+        if (renderCacheBudget != null) {
+            renderCacheBudget.released(renderCacheChars);
+            renderCacheChars = 0;
+        }
         return (T) this;
     }
+
+    /**
+     * Evicts the cached multi line results on behalf of a {@link RenderCacheBudget} that exceeds its limit. The keys
+     * of the evicted results are kept, so a result that is rendered again for the same key takes the same slot.
+     * Single line results are kept, see {@link #cacheRenderResult(RenderMultiLines, FormatContext, RenderMultiLines)}.
+     *
+     * @param budget
+     *            The RenderCacheBudget that evicts the results of this node
+     * @return boolean true if cached results were evicted, false if there were none or if this node is registered in
+     *         another budget by now
+     * @since 0.3.2
+     */
+    public boolean evictResultCache(RenderCacheBudget budget) {
+        if (renderCacheBudget != budget) {
+            return false;
+        }
+        renderCacheEvictable = false;
+        boolean evicted = false;
+        if (renderCache != null) {
+            for (RenderCacheEntry cached : renderCache) {
+                if (cached != null && cached.getEvictableChars() > 0) {
+                    cached.result = null;
+                    evicted = true;
+                }
+            }
+        }
+        budget.released(renderCacheChars);
+        renderCacheChars = 0;
+        return evicted;
+    }
+
+    /**
+     * Clears the cached results on behalf of a {@link RenderCacheBudget} that no longer keeps track of this node
+     *
+     * @param budget
+     *            The RenderCacheBudget that releases this node
+     * @return boolean true if cached results were released, false if there were none or if this node is registered in
+     *         another budget by now
+     * @since 0.3.2
+     */
+    public boolean releaseResultCache(RenderCacheBudget budget) {
+        if (renderCacheBudget != budget) {
+            return false;
+        }
+        boolean released = renderCache != null;
+        clearResultCache();
+        renderCacheBudget = null;
+        renderCacheEvictable = false;
+        return released;
+    }
+
+    /**
+     * Returns the number of times that
+     * {@link #getCachedRenderResult(FormatContext, RenderMultiLines, FormatConfiguration)} returned a cached result,
+     * for all nodes in this JVM since the start or since the latest {@link #resetRenderCacheStatistics()}
+     *
+     * @return long the number of cache hits
+     * @since 0.3.2
+     */
+    public static long getRenderCacheHits() {
+        return renderCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of times that
+     * {@link #getCachedRenderResult(FormatContext, RenderMultiLines, FormatConfiguration)} found no usable result, for
+     * all nodes in this JVM since the start or since the latest {@link #resetRenderCacheStatistics()}
+     *
+     * @return long the number of cache misses
+     * @since 0.3.2
+     */
+    public static long getRenderCacheMisses() {
+        return renderCacheMisses.sum();
+    }
+
+    /**
+     * Resets the render cache hit and miss counters
+     *
+     * @since 0.3.2
+     */
+    public static void resetRenderCacheStatistics() {
+        renderCacheHits.reset();
+        renderCacheMisses.reset();
+    }
+
+    /**
+     * A cached render result with the interned FormatContext and the parent position for which it was rendered
+     */
+    private static final class RenderCacheEntry {
+        private final FormatContext context;
+        private final int parentPosition;
+        private final int indentBase;
+        private final int indent;
+
+        /**
+         * The cached result, null if it has been evicted
+         */
+        private RenderMultiLines result;
+
+        /**
+         * The estimated size of this entry in characters
+         */
+        private final int chars;
+
+        /**
+         * Constructor
+         *
+         * @param context
+         *            The interned FormatContext
+         * @param parentResult
+         *            The parent result of which the position and the indent are part of the key, may be null
+         * @param result
+         *            The render result to cache
+         */
+        private RenderCacheEntry(FormatContext context, RenderMultiLines parentResult, RenderMultiLines result) {
+            this.context = context;
+            if (parentResult == null) {
+                this.parentPosition = 0;
+                this.indentBase = 0;
+                this.indent = 0;
+            } else {
+                this.parentPosition = parentResult.getPosition();
+                this.indentBase = parentResult.getIndentBase();
+                this.indent = parentResult.getLocalIndent();
+            }
+            this.result = result;
+            this.chars = result.getTextLength() + RENDER_CACHE_ENTRY_OVERHEAD;
+        }
+
+        /**
+         * Checks if this entry was cached for exactly the same circumstances
+         *
+         * @param context
+         *            The interned FormatContext
+         * @param parentPosition
+         *            The position in the parent result
+         * @param indentBase
+         *            The indent base of the parent result
+         * @param indent
+         *            The local indent of the parent result
+         * @return boolean true if all are equal
+         */
+        private boolean hasKey(FormatContext context, int parentPosition, int indentBase, int indent) {
+            return this.parentPosition == parentPosition && this.indentBase == indentBase && this.indent == indent
+                    && this.context.equals(context);
+        }
+
+        /**
+         * @return boolean true if the result has been cached with no more than one line. Such a result is never
+         *         evicted.
+         */
+        private boolean isSingleLine() {
+            return result != null && result.getHeight() <= 1;
+        }
+
+        /**
+         * @return int the size of the result if it can be evicted by a {@link RenderCacheBudget}, zero if it is a
+         *         single line result or if it has already been evicted
+         */
+        private int getEvictableChars() {
+            if (result == null || result.getHeight() <= 1) {
+                return 0;
+            }
+            return chars;
+        }
+    }
 }
@@ -22,6 +22,7 @@ import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
@@ -74,4 +75,27 @@ public class TypeCastNode extends SrcNode {
         return result;
     }
 
+    /**
+     * Sums the widths of the interpretable parts, unless there is a comment in between
+     *
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int width = 0;
+        int nodeWidth;
+        for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
+            if (node.is(ScanResultType.COMMENT) || node.is(ScanResultType.COMMENT_LINE)) {
+                return measureByRendering(config);
+            }
+            if (node.getType().isInterpretable()) {
+                nodeWidth = node.getSingleLineWidth(config, Util.remainingWidth(maxWidth, width));
+                if (nodeWidth < 0) {
+                    return -1;
+                }
+                width += nodeWidth;
+            }
+        }
+        return width;
+    }
 }
@@ -69,11 +69,15 @@ public class UnionClauseNode extends SrcNode implements WantsNewlineBefore {
                 previousNode.setNext(next);
 
             } else {
+                /*
+                 * The select ends before the next union, intersect or except, which becomes the next clause of the
+                 * enclosing select statement. So a long chain of unions is not interpreted and rendered recursively.
+                 */
                 SelectStatement next = new SelectStatement(currentNode, node -> {
                     if (node.is(ScanResultType.SEMI_COLON)) {
                         return true;
                     }
-                    return false;
+                    return isSetOperator(node);
                 });
 
                 previousNode.setNext(next);
@@ -84,6 +88,22 @@ public class UnionClauseNode extends SrcNode implements WantsNewlineBefore {
         currentNode.setNext(null);
     }
 
+    /**
+     * Checks if the node is one of the words union, intersect and except
+     *
+     * @param node
+     *            The node to check
+     * @return boolean true if the node is an identifier that starts a UnionClauseNode
+     * @since 0.3.2
+     */
+    static boolean isSetOperator(ScanResult node) {
+        if (!node.is(ScanResultType.IDENTIFIER)) {
+            return false;
+        }
+        String text = node.toString();
+        return "union".equalsIgnoreCase(text) || "intersect".equalsIgnoreCase(text) || "except".equalsIgnoreCase(text);
+    }
+
     /**
      * @see ScanResult#beautify(FormatContext, RenderMultiLines, FormatConfiguration)
      */
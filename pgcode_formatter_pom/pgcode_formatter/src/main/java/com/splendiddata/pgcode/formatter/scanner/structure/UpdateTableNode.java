@@ -32,8 +32,6 @@ import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
  */
 public class UpdateTableNode extends SrcNode {
 
-    private int singleLineWidth;
-
     /**
      * Constructor
      *
@@ -132,9 +130,9 @@ public class UpdateTableNode extends SrcNode {
         }
         int singleLineLength = getSingleLineWidth(config);
         if (singleLineLength > 0) {
-            if (parentPosition + singleLineLength > config.getLineWidth().getValue()) {
+            if (parentPosition + singleLineLength > config.getCompiled().getLineWidth()) {
                 if (renderResult.getIndentBase() + renderResult.getLocalIndent() + singleLineLength
-                        <= config.getLineWidth().getValue()) {
+                        <= config.getCompiled().getLineWidth()) {
                     renderResult.addLine();
                 } else {
                     singleLineLength = -1;
@@ -156,7 +154,7 @@ public class UpdateTableNode extends SrcNode {
             renderResult.addLine();
         }
         renderResult.setIndentBase(renderResult.getPosition());
-        if (config.getQueryConfig().isIndent()) {
+        if (config.getCompiled().isQueryIndent()) {
             renderResult.setIndent(config.getStandardIndent());
         }
         for (ScanResult element = getStartScanResult(); element != null; element = element.getNext()) {
@@ -170,28 +168,23 @@ public class UpdateTableNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth != 0) {
-            return singleLineWidth;
-        }
-        if (config.getQueryConfig().isMajorKeywordsOnSeparateLine().booleanValue()) {
-            singleLineWidth = -1;
-            return singleLineWidth;
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        if (config.getCompiled().isMajorKeywordsOnSeparateLine()) {
+            return -1;
         }
+        int singleLineWidth = 0;
         int elementWidth;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
             elementWidth = node.getSingleLineWidth(config);
             if (elementWidth < 0) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+                return -1;
             }
             singleLineWidth += singleLineWidth;
-            if (singleLineWidth > config.getQueryConfig().getMaxSingleLineQuery().getValue()) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+            if (singleLineWidth > config.getCompiled().getMaxSingleLineQuery()) {
+                return -1;
             }
         }
         return singleLineWidth;
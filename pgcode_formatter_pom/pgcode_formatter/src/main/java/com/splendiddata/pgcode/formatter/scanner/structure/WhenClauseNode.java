@@ -20,6 +20,7 @@ import java.util.regex.Pattern;
 import com.splendiddata.pgcode.formatter.FormatConfiguration;
 import com.splendiddata.pgcode.formatter.internal.CaseFormatContext;
 import com.splendiddata.pgcode.formatter.internal.CaseFormatContext.RenderPhase;
+import com.splendiddata.pgcode.formatter.internal.Doc;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
@@ -40,7 +41,6 @@ public class WhenClauseNode extends SrcNode {
     private SrcNode whenExpression;
     private ScanResult thenExpression;
     private RenderMultiLines partialResult;
-    int singleLineLength;
 
     /**
      * Constructor
@@ -212,31 +212,41 @@ public class WhenClauseNode extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineLength != 0) {
-            return singleLineLength;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineLength = 0;
         int elementSize;
         for (ScanResult node = whenExpression; node != null; node = node.getNext()) {
             elementSize = node.getSingleLineWidth(config);
             if (elementSize < 0) {
-                singleLineLength = 0;
-                return singleLineLength;
+                return 0;
             }
             singleLineLength += elementSize;
         }
         for (ScanResult node = thenExpression; node != null; node = node.getNext()) {
             elementSize = node.getSingleLineWidth(config);
             if (elementSize < 0) {
-                singleLineLength = 0;
-                return singleLineLength;
+                return 0;
             }
             singleLineLength += elementSize;
         }
         return singleLineLength;
     }
 
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        Doc whenDoc = Doc.concat(childrenToDoc(getStartScanResult(), null, config), Doc.line(),
+                childrenToDoc(whenExpression, null, config));
+        if (thenExpression == null) {
+            return Doc.group(whenDoc);
+        }
+        return Doc.group(Doc.concat(whenDoc,
+                Doc.nest(config.getStandardIndent(),
+                        Doc.concat(Doc.line(), childrenToDoc(thenExpression, null, config)))));
+    }
 }
@@ -84,4 +84,20 @@ public class WhitespaceNode extends SrcNode {
             FormatConfiguration config) {
         return new RenderItem(toString(), getStartScanResult(), RenderItemType.WHITESPACE);
     }
+
+    /**
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
+     */
+    @Override
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        return whitespace.length();
+    }
+
+    /**
+     * @see SrcNode#toDoc(FormatConfiguration)
+     */
+    @Override
+    public Doc toDoc(FormatConfiguration config) {
+        return Doc.line();
+    }
 }
@@ -19,6 +19,7 @@ import com.splendiddata.pgcode.formatter.internal.FormatContext;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.RenderMultiLines;
 import com.splendiddata.pgcode.formatter.internal.RenderResult;
+import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResult;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
 
@@ -36,8 +37,6 @@ public class WithStatement extends SrcNode {
      */
     private ScanResult actualStatement;
 
-    int singleLineWidth;
-
     /**
      * Constructor
      *
@@ -112,17 +111,17 @@ public class WithStatement extends SrcNode {
         if (parentResult != null) {
             renderResult.setIndentBase(parentResult.getPosition());
         }
-        if (config.getQueryConfig().isIndent().booleanValue()) {
+        if (config.getCompiled().isQueryIndent()) {
             renderResult.setIndent(config.getStandardIndent());
         }
         for (ScanResult node = this.getStartScanResult(); node != null; node = node.getNext()) {
             if (node == actualStatement) {
-                if (config.getQueryConfig().isIndent().booleanValue()) {
+                if (config.getCompiled().isQueryIndent()) {
                     renderResult.setIndent(config.getStandardIndent());
                 }
                 if (renderResult.getHeight() > 1
-                        || renderResult.getPosition() + node.getSingleLineWidth(config) > config.getQueryConfig()
-                                .getMaxSingleLineQuery().getValue()) {
+                        || renderResult.getPosition() + node.getSingleLineWidth(config) > config.getCompiled()
+                                .getMaxSingleLineQuery()) {
                     renderResult.addLine();
                 }
             }
@@ -133,19 +132,16 @@ public class WithStatement extends SrcNode {
     }
 
     /**
-     * @see ScanResult#getSingleLineWidth(FormatConfiguration)
+     * @see SrcNode#measureSingleLineWidth(FormatConfiguration, int)
      */
     @Override
-    public int getSingleLineWidth(FormatConfiguration config) {
-        if (singleLineWidth != 0) {
-            return singleLineWidth;
-        }
+    protected int measureSingleLineWidth(FormatConfiguration config, int maxWidth) {
+        int singleLineWidth = 0;
         int currentNodeWidth;
         for (ScanResult node = getStartScanResult(); node != null; node = node.getNext()) {
-            currentNodeWidth = node.getSingleLineWidth(config);
+            currentNodeWidth = node.getSingleLineWidth(config, Util.remainingWidth(maxWidth, singleLineWidth));
             if (currentNodeWidth < 0) {
-                singleLineWidth = -1;
-                return singleLineWidth;
+                return -1;
             }
             singleLineWidth += currentNodeWidth;
         }
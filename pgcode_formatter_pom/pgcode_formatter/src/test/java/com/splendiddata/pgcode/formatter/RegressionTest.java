@@ -31,12 +31,13 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.splendiddata.pgcode.formatter.internal.Util;
+import com.splendiddata.pgcode.formatter.internal.FormattedInputReader;
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResultStringLiteral;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.AfterAll;
@@ -424,18 +425,28 @@ public class RegressionTest {
         input = input.trim();
 
         if (input.contains("\\")) {
-            LinkedList<SplitData> split = Util.parseInput(input);
             StringBuilder result = new StringBuilder();
-            for (int i = 0; i < split.size(); i++) {
-                SplitData part = split.get(i);
-                String text = part.getText();
-                text = text.replace("\n", " ");
-                if (SplitDataType.TEXT.equals(part.getType()) && part.getText().contains("\\")) {
-                    part.setText(text.replaceAll("\\\\\\\\", " "));
+            StringBuilder text = new StringBuilder();
+            try (FormattedInputReader reader = new FormattedInputReader(new StringReader(input))) {
+                for (ScanResult node = reader.getFirstResult(); node != null && !node.isEof(); node = node.getNext()) {
+                    switch (node.getType()) {
+                    case LITERAL:
+                    case DOUBLE_QUOTED_IDENTIFIER:
+                    case ESCAPE_STRING:
+                    case COMMENT_LINE:
+                    case COMMENT:
+                        appendText(result, text);
+                        result.append(node instanceof ScanResultStringLiteral ? node.getText() : node.toString());
+                        break;
+                    default:
+                        text.append(node);
+                        break;
+                    }
                 }
-
-                result.append(part.getText());
+            } catch (IOException e) {
+                Assertions.fail("scanning " + input + " failed", e);
             }
+            appendText(result, text);
             input = result.toString().replaceAll("(\\W)\\s+", "$1").replaceAll("\\s+(\\W)", "$1").replaceAll("\\s+",
                     " ");
         } else {
@@ -446,6 +457,24 @@ public class RegressionTest {
         return input;
     }
 
+    /**
+     * Appends the text outside literals, quoted identifiers and comments to the result, in which line feeds and double
+     * backslashes are replaced by a space, and clears it
+     *
+     * @param result
+     *            Receives the text
+     * @param text
+     *            The text between two literals, quoted identifiers or comments
+     */
+    private static void appendText(StringBuilder result, StringBuilder text) {
+        if (text.indexOf("\\") >= 0) {
+            result.append(text.toString().replace("\n", " ").replaceAll("\\\\\\\\", " "));
+        } else {
+            result.append(text);
+        }
+        text.setLength(0);
+    }
+
     /**
      * The body of a function may be significantly beautified, so may need to be excluded from equality checking
      * <p>
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that batch mode produces the same output as formatting the files one by one
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestBatchFormatter {
+    private static final Logger log = LogManager.getLogger(TestBatchFormatter.class);
+
+    private static Path sourceDirectory;
+    private static FormatConfiguration config;
+
+    @BeforeAll
+    static void beforeAll() {
+        Path projectDirectory;
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            /*
+             * Find the directory that contains the src directory
+             */
+            for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                    && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                            .getParent()) {
+                // just searching
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        sourceDirectory = Paths.get(projectDirectory.toString(), "src/test/resources/regression/source");
+        config = new FormatConfiguration(Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml"));
+        log.debug(() -> "sourceDirectory = " + sourceDirectory);
+    }
+
+    /**
+     * Formats the regression sources into an output directory using several threads and compares every file with
+     * the single threaded result
+     *
+     * @param outputDirectory
+     *            Provided by JUnit
+     * @throws IOException
+     *             from the file system
+     */
+    @Test
+    void testDirectoryToOutputDirectory(@TempDir Path outputDirectory) throws IOException {
+        BatchFormatter batchFormatter = new BatchFormatter(config, outputDirectory, 4)
+                .addSource(sourceDirectory.toString());
+        Assertions.assertFalse(batchFormatter.getSources().isEmpty(), "No sources found in " + sourceDirectory);
+        Assertions.assertEquals(0, batchFormatter.formatAll(), "Number of failures");
+        for (Map.Entry<Path, Path> source : batchFormatter.getSources().entrySet()) {
+            Assertions.assertEquals(formatSingle(source.getKey()),
+                    Files.readString(outputDirectory.resolve(source.getValue()), StandardCharsets.UTF_8),
+                    "Batch result of " + source.getValue());
+        }
+    }
+
+    /**
+     * Formats files in place that are found via a file list that contains a glob pattern
+     *
+     * @param workDirectory
+     *            Provided by JUnit
+     * @throws IOException
+     *             from the file system
+     */
+    @Test
+    void testFileListInPlace(@TempDir Path workDirectory) throws IOException {
+        List<Path> copies;
+        try (Stream<Path> files = Files.list(sourceDirectory.resolve("regtest"))) {
+            copies = files.filter(file -> file.getFileName().toString().startsWith("create")).map(file -> {
+                try {
+                    return Files.copy(file, workDirectory.resolve(file.getFileName()));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).collect(Collectors.toList());
+        }
+        Assertions.assertFalse(copies.isEmpty(), "No create*.sql files copied");
+        Path fileList = Files.writeString(workDirectory.resolve("files.lst"),
+                "# a comment\n\n" + workDirectory.resolve("create*.sql") + "\n", StandardCharsets.UTF_8);
+
+        BatchFormatter batchFormatter = new BatchFormatter(config, null, 0).addSource("@" + fileList);
+        Assertions.assertEquals(copies.size(), batchFormatter.getSources().size(), "Number of sources");
+        Assertions.assertEquals(0, batchFormatter.formatAll(), "Number of failures");
+        for (Path copy : copies) {
+            Assertions.assertEquals(formatSingle(sourceDirectory.resolve("regtest").resolve(copy.getFileName())),
+                    Files.readString(copy, StandardCharsets.UTF_8), "In place result of " + copy.getFileName());
+        }
+    }
+
+    /**
+     * Formatting in place keeps the permissions of the file
+     *
+     * @param workDirectory
+     *            Provided by JUnit
+     * @throws IOException
+     *             from the file system
+     */
+    @Test
+    void testInPlaceKeepsPermissions(@TempDir Path workDirectory) throws IOException {
+        Assumptions.assumeTrue(Files.getFileAttributeView(workDirectory, PosixFileAttributeView.class) != null,
+                "POSIX file permissions are not supported");
+        Path copy = Files.copy(sourceDirectory.resolve("regtest").resolve("create_table.sql"),
+                workDirectory.resolve("create_table.sql"));
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(copy, permissions);
+
+        Assertions.assertEquals(0, new BatchFormatter(config, null, 1).addSource(copy.toString()).formatAll(),
+                "Number of failures");
+        Assertions.assertEquals(formatSingle(sourceDirectory.resolve("regtest").resolve("create_table.sql")),
+                Files.readString(copy, StandardCharsets.UTF_8), "In place result");
+        Assertions.assertEquals(permissions, Files.getPosixFilePermissions(copy), "Permissions after formatting");
+    }
+
+    /**
+     * Two files with the same name in different source directories cannot both be written to the output directory
+     *
+     * @param workDirectory
+     *            Provided by JUnit
+     * @throws IOException
+     *             from the file system
+     */
+    @Test
+    void testSameTargetRejected(@TempDir Path workDirectory) throws IOException {
+        for (String directory : new String[] { "a", "b" }) {
+            Files.createDirectories(workDirectory.resolve(directory));
+            Files.copy(sourceDirectory.resolve("regtest").resolve("create_table.sql"),
+                    workDirectory.resolve(directory).resolve("x.sql"));
+        }
+        Path outputDirectory = workDirectory.resolve("out");
+        BatchFormatter batchFormatter = new BatchFormatter(config, outputDirectory, 2)
+                .addSource(workDirectory.resolve("a").toString());
+        FileSystemException e = Assertions.assertThrows(FileSystemException.class,
+                () -> batchFormatter.addSource(workDirectory.resolve("b").toString()));
+        Assertions.assertEquals(workDirectory.resolve("b").resolve("x.sql").toString(), e.getFile(), "File");
+        Assertions.assertEquals(workDirectory.resolve("a").resolve("x.sql").toString(), e.getOtherFile(),
+                "Other file");
+
+        /*
+         * Formatted in place, every file is its own target
+         */
+        Assertions.assertEquals(2, new BatchFormatter(config, null, 2).addSource(workDirectory.resolve("a").toString())
+                .addSource(workDirectory.resolve("b").toString()).getSources().size(), "Number of sources in place");
+    }
+
+    /**
+     * Formats a single file the classic way
+     *
+     * @param file
+     *            The file to format
+     * @return String the formatted text
+     * @throws IOException
+     *             from the file system
+     */
+    private static String formatSingle(Path file) throws IOException {
+        return CodeFormatter
+                .toStringResults(new StringReader(Files.readString(file, StandardCharsets.UTF_8)), config)
+                .collect(Collectors.joining());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Formats the regression sources from many threads at the same time and checks that every result is byte for byte
+ * equal to the result of a single threaded run
+ * <p>
+ * Every thread formats all sources NR_ROUNDS times, in an order of its own. The threads start every round at the same
+ * time, so that they keep interleaving. Use for example -Dpgcode_formatter.concurrency.rounds=50 for a longer run.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestConcurrentFormatting {
+    private static final Logger log = LogManager.getLogger(TestConcurrentFormatting.class);
+
+    private static final int NR_THREADS = 8;
+    private static final int NR_ROUNDS = Integer.getInteger("pgcode_formatter.concurrency.rounds", 3).intValue();
+
+    /**
+     * A source with a configuration and its single threaded result
+     */
+    private static final class Case {
+        final Path source;
+        final String text;
+        final FormatConfiguration config;
+        final byte[] expected;
+
+        Case(Path source, String text, FormatConfiguration config) throws IOException {
+            this.source = source;
+            this.text = text;
+            this.config = config;
+            this.expected = format(text, config);
+        }
+    }
+
+    private static final List<Case> cases = new ArrayList<>();
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        Path projectDirectory;
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            /*
+             * Find the directory that contains the src directory
+             */
+            for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                    && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                            .getParent()) {
+                // just searching
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        List<FormatConfiguration> configs = List.of(
+                new FormatConfiguration(Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml")),
+                new FormatConfiguration(
+                        Paths.get(projectDirectory.toString(), "src/test/resources/regression/config/commaAfterTabs.xml")));
+        List<Path> sources;
+        try (Stream<Path> files = Files
+                .walk(Paths.get(projectDirectory.toString(), "src/test/resources/regression/source"))) {
+            sources = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path source : sources) {
+            String text = Files.readString(source, StandardCharsets.UTF_8);
+            for (FormatConfiguration config : configs) {
+                cases.add(new Case(source, text, config));
+            }
+        }
+        log.debug(() -> cases.size() + " single threaded results");
+    }
+
+    /**
+     * Has NR_THREADS threads format all cases NR_ROUNDS times and compares every result with the single threaded
+     * result
+     *
+     * @throws Exception
+     *             if a thread fails
+     */
+    @Test
+    void testConcurrentFormatting() throws Exception {
+        Assertions.assertFalse(cases.isEmpty(), "No regression sources found");
+        CyclicBarrier roundStart = new CyclicBarrier(NR_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(NR_THREADS);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>(NR_THREADS);
+            for (int i = 0; i < NR_THREADS; i++) {
+                Random random = new Random(20221231L + i);
+                results.add(executor.submit(() -> formatAllCases(roundStart, random)));
+            }
+            List<String> differences = new ArrayList<>();
+            for (Future<List<String>> result : results) {
+                differences.addAll(result.get());
+            }
+            Assertions.assertEquals(Collections.emptyList(), differences,
+                    "Concurrent results that differ from the single threaded results");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Formats all cases NR_ROUNDS times, every round in another order
+     *
+     * @param roundStart
+     *            Barrier that has all threads start a round at the same time
+     * @param random
+     *            Determines the order of the cases
+     * @return List&lt;String&gt; a description of every result that differs from the single threaded result
+     * @throws Exception
+     *             if waiting for the other threads fails
+     */
+    private static List<String> formatAllCases(CyclicBarrier roundStart, Random random) throws Exception {
+        List<Case> order = new ArrayList<>(cases);
+        List<String> differences = new ArrayList<>();
+        for (int round = 0; round < NR_ROUNDS; round++) {
+            Collections.shuffle(order, random);
+            roundStart.await();
+            for (Case task : order) {
+                try {
+                    if (!Arrays.equals(task.expected, format(task.text, task.config))) {
+                        differences.add(Thread.currentThread().getName() + ", round " + round + ": " + task.source);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // keep going, so that the other threads don't wait at the barrier forever
+                    differences.add(Thread.currentThread().getName() + ", round " + round + ": " + task.source
+                            + ": " + e);
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Formats every case with the statements rendered in parallel by NR_THREADS threads
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testParallelStatements() throws IOException {
+        for (Case task : cases) {
+            try (Stream<String> results = CodeFormatter.toStringResults(new StringReader(task.text), task.config,
+                    NR_THREADS)) {
+                Assertions.assertArrayEquals(task.expected,
+                        results.collect(Collectors.joining()).getBytes(StandardCharsets.UTF_8),
+                        "Parallel statements result differs for " + task.source);
+            }
+        }
+    }
+
+    /**
+     * A stream of which only the first results are consumed must not block on close
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testParallelStatementsPartiallyConsumed() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("select a, b from c where d = ").append(i).append(";\n");
+        }
+        try (Stream<String> results = CodeFormatter.toStringResults(new StringReader(text.toString()),
+                cases.get(0).config, NR_THREADS)) {
+            Assertions.assertEquals(3, results.limit(3).count(), "number of results");
+        }
+    }
+
+    /**
+     * Formats the text
+     *
+     * @param text
+     *            The source text
+     * @param config
+     *            The configuration to use
+     * @return byte[] The UTF-8 encoded formatted text
+     * @throws IOException
+     *             Not expected
+     */
+    private static byte[] format(String text, FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(text), config).collect(Collectors.joining())
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
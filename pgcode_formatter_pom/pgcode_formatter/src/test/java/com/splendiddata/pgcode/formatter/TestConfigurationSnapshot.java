@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Tests the ConfigurationSnapshot
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestConfigurationSnapshot {
+    private static final String SOURCE = "create function f(a int, b text) returns int language plpgsql as $$\n"
+            + "declare x int := 1;\nbegin\nif a > 1 then\nreturn case when b = 'x' then 1 else 2 end;\nend if;\n"
+            + "return (select count(*) from t join u on u.id = t.id where t.a = a and t.b in (1, 2, 3));\nend;\n$$;\n";
+
+    /**
+     * A configuration that is restored from its snapshot must format exactly like the original
+     *
+     * @param configPath
+     *            The config file to test
+     * @throws IOException
+     *             Not expected
+     */
+    @ParameterizedTest
+    @MethodSource("getConfigFiles")
+    void testRoundTrip(Path configPath) throws IOException {
+        FormatConfiguration original = new FormatConfiguration(configPath);
+        byte[] snapshot = ConfigurationSnapshot.toBytes(original);
+        FormatConfiguration restored = ConfigurationSnapshot.fromBytes(snapshot);
+        Assertions.assertArrayEquals(snapshot, ConfigurationSnapshot.toBytes(restored), "snapshot of the snapshot");
+        Assertions.assertEquals(original.getStandardIndent(), restored.getStandardIndent(), "standardIndent");
+        Assertions.assertEquals(format(original), format(restored), "formatted with " + configPath);
+    }
+
+    /**
+     * The snapshots that are created during the build must match the xml they are created from
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testBuiltInSnapshots() throws IOException {
+        for (String profileName : new String[] { "compact", "elegant" }) {
+            FormatConfiguration snapshot = ConfigurationSnapshot.fromProfile(profileName);
+            Assertions.assertNotNull(snapshot, "snapshot of profile " + profileName);
+            Path profile = Paths.get(getProjectDirectory().toString(),
+                    "src/main/resources/profiles/" + profileName + ".xml");
+            Assertions.assertArrayEquals(ConfigurationSnapshot.toBytes(new FormatConfiguration(profile)),
+                    ConfigurationSnapshot.toBytes(snapshot), "snapshot of profile " + profileName);
+        }
+        FormatConfiguration defaultSnapshot = ConfigurationSnapshot
+                .fromResource(ConfigurationSnapshot.DEFAULT_SNAPSHOT_PATH);
+        Assertions.assertNotNull(defaultSnapshot, "default snapshot");
+        Assertions.assertEquals(format(new FormatConfiguration((Configuration) null)), format(defaultSnapshot),
+                "formatted with the default configuration");
+        Assertions.assertNull(ConfigurationSnapshot.fromProfile("nonexisting"), "snapshot of an unknown profile");
+    }
+
+    /**
+     * Damaged snapshots and snapshots with another schema stamp must be refused
+     */
+    @Test
+    void testInvalidSnapshots() {
+        byte[] snapshot = ConfigurationSnapshot.toBytes(new FormatConfiguration((Configuration) null));
+
+        byte[] otherStamp = snapshot.clone();
+        otherStamp[5] ^= 1;
+        Assertions.assertThrows(IOException.class, () -> ConfigurationSnapshot.fromBytes(otherStamp), "schema stamp");
+
+        byte[] otherMagic = snapshot.clone();
+        otherMagic[0] = 0;
+        Assertions.assertThrows(IOException.class, () -> ConfigurationSnapshot.fromBytes(otherMagic), "magic");
+
+        Assertions.assertThrows(IOException.class,
+                () -> ConfigurationSnapshot.fromBytes(Arrays.copyOf(snapshot, snapshot.length - 1)), "truncated");
+        Assertions.assertThrows(IOException.class,
+                () -> ConfigurationSnapshot.fromBytes(Arrays.copyOf(snapshot, snapshot.length + 1)), "too long");
+    }
+
+    /**
+     * @param config
+     *            The configuration to use
+     * @return String the formatted SOURCE
+     * @throws IOException
+     *             Not expected
+     */
+    private static String format(FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(SOURCE), config).collect(Collectors.joining());
+    }
+
+    /**
+     * Returns all xml files in the src/test/resources/regression/config directory
+     *
+     * @return Stream&lt;Path&gt; All config files to test
+     * @throws IOException
+     *             when applicable
+     */
+    private static Stream<Path> getConfigFiles() throws IOException {
+        return Files.find(Paths.get(getProjectDirectory().toString(), "src/test/resources/regression/config"), 10,
+                (file, attrs) -> attrs.isRegularFile() && file.getFileName().toString().endsWith(".xml"));
+    }
+
+    /**
+     * @return Path the directory that contains the src directory
+     */
+    private static Path getProjectDirectory() {
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir != null) {
+            return Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        Path projectDirectory;
+        for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                        .getParent()) {
+            // just searching
+        }
+        return projectDirectory;
+    }
+}
@@ -18,12 +18,17 @@
 package com.splendiddata.pgcode.formatter;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
@@ -32,6 +37,7 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
@@ -49,8 +55,6 @@ public class TestFormatConfiguration {
 
     private static String failedAt = null;
     private static Path projectDirectory;
-    
-    private static Set<String> nonFieldGetters = Set.of("getTabSplitPattern", "getTabReplacementPattern", "getLeadingSpacesPattern");
 
     @BeforeAll
     public static void beforeAll() {
@@ -100,6 +104,139 @@ public class TestFormatConfiguration {
         FormatConfiguration config = new FormatConfiguration(configPath);
         log.info("check " + configPath);
         checkObject(config, "configPath: ");
+        assertNoDefaultParts(config, configPath.toString());
+    }
+
+    /**
+     * A configuration that only specifies some fields must be completed with copies of the parts of the default
+     * configuration, so that it cannot modify the shared default configuration
+     */
+    @Test
+    public void testPartialConfiguration() {
+        FormatConfiguration config = new FormatConfiguration("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<ns2:configuration xmlns:ns2=\"http://www.splendiddata.com/plpgsql-code-formatter/1.0/\">"
+                + "<tabs tabWidth=\"4\" tabsOrSpaces=\"tabs\" /></ns2:configuration>", "partial");
+        checkObject(config, "partial: ");
+        assertNoDefaultParts(config, "partial");
+        assertNoDefaultParts(new FormatConfiguration((Configuration) null), "default");
+    }
+
+    /**
+     * The cached configurations must be complete, equal to a freshly loaded one and independent of each other
+     *
+     * @param tempDir
+     *            Receives a copy of a config file
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testCachedConfiguration(@TempDir Path tempDir) throws IOException {
+        Path configPath = Paths.get(projectDirectory.toString(), "src/test/resources/regression/config/commaAfterTabs.xml");
+        FormatConfiguration loaded = new FormatConfiguration(configPath);
+        FormatConfiguration cached = FormatConfiguration.getCached(configPath);
+        checkObject(cached, "cached: ");
+        Assertions.assertEquals(loaded.getStandardIndent(), cached.getStandardIndent(), "standardIndent");
+        Assertions.assertEquals(loaded.getTabs().getTabsOrSpaces(), cached.getTabs().getTabsOrSpaces(), "tabs");
+        Assertions.assertEquals(loaded.getCommaSeparatedListGrouping().getCommaBeforeOrAfter(),
+                cached.getCommaSeparatedListGrouping().getCommaBeforeOrAfter(), "commaBeforeOrAfter");
+
+        FormatConfiguration again = FormatConfiguration.getCached(configPath);
+        Assertions.assertSame(cached, again, "getCached() must return the shared configuration");
+        new FormatConfiguration(cached).getLineWidth().setValue(Integer.valueOf(1));
+        Assertions.assertEquals(loaded.getLineWidth().getValue(), again.getLineWidth().getValue(), "lineWidth");
+        Assertions.assertEquals(loaded.getLineWidth().getValue(),
+                FormatConfiguration.getCached(Files.readString(configPath), "commaAfterTabs").getLineWidth().getValue(),
+                "lineWidth from content");
+
+        Path modified = tempDir.resolve("modified.xml");
+        Files.writeString(modified, Files.readString(configPath).replaceFirst("<lineWidth value=\"[0-9]+\"",
+                "<lineWidth value=\"33\""));
+        Assertions.assertEquals(Integer.valueOf(33), FormatConfiguration.getCached(modified).getLineWidth().getValue(),
+                "lineWidth of the modified content");
+
+        checkObject(FormatConfiguration.getCached(null, null), "cached default: ");
+        Assertions.assertSame(FormatConfiguration.getCached(null, null), FormatConfiguration.getCached(null, null),
+                "cached default");
+        checkObject(new FormatConfiguration(new FormatConfiguration((Path) null)), "copied default: ");
+    }
+
+    /**
+     * Formatting all regression sources with a cached configuration, which is shared by all renders, must give the same
+     * result as formatting every source with a configuration of its own, so a render that leaves state behind in the
+     * shared configuration would show.
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testCachedConfigurationFormatting() throws IOException {
+        List<Path> sources;
+        try (Stream<Path> files = Files
+                .walk(Paths.get(projectDirectory.toString(), "src/test/resources/regression/source"))) {
+            sources = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        Assertions.assertFalse(sources.isEmpty(), "no regression sources");
+        for (String configFile : new String[] { "src/test/resources/regression/config/commaAfterTabs.xml",
+                "src/main/resources/profiles/compact.xml", "src/main/resources/profiles/elegant.xml" }) {
+            Path configPath = Paths.get(projectDirectory.toString(), configFile);
+            FormatConfiguration cached = FormatConfiguration.getCached(configPath);
+            for (Path source : sources) {
+                String input = Files.readString(source);
+                Assertions.assertEquals(format(input, new FormatConfiguration(configPath)), format(input, cached),
+                        source.getFileName() + " with " + configPath.getFileName());
+            }
+            Assertions.assertSame(cached, FormatConfiguration.getCached(configPath), "still cached");
+        }
+    }
+
+    /**
+     * Formats the input
+     *
+     * @param input
+     *            The text to format
+     * @param config
+     *            The configuration to use
+     * @return String the formatted text
+     * @throws IOException
+     *             Not expected
+     */
+    private static String format(String input, FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(input), config).collect(Collectors.joining());
+    }
+
+    /**
+     * The compiled configuration must reflect the effective configuration and must be refreshed when the comma
+     * separated list grouping is replaced
+     */
+    @Test
+    public void testCompiledConfiguration() {
+        FormatConfiguration config = new FormatConfiguration(
+                Paths.get(projectDirectory.toString(), "src/test/resources/regression/config/commaAfterTabs.xml"));
+        CompiledConfiguration compiled = config.getCompiled();
+        Assertions.assertSame(compiled, config.getCompiled(), "getCompiled() must return the same object");
+        Assertions.assertEquals(config.getLineWidth().getValue(), compiled.getLineWidth(), "lineWidth");
+        Assertions.assertEquals(config.getLineWidth().getWeight().floatValue(), compiled.getLineWidthWeight(),
+                "lineWidth weight");
+        Assertions.assertEquals(config.getStandardIndent(), compiled.getStandardIndent(), "standardIndent");
+        Assertions.assertEquals(config.getQueryConfig().getMaxSingleLineQuery().getValue(),
+                compiled.getMaxSingleLineQuery(), "maxSingleLineQuery");
+        Assertions.assertEquals(new CompiledListGrouping(config.getCommaSeparatedListGrouping()),
+                compiled.getCommaSeparatedListGrouping(), "commaSeparatedListGrouping");
+        Assertions.assertEquals(config.getFromItemGrouping().getMaxSingleLineLength().getValue(),
+                compiled.getFromItemGrouping().getMaxSingleLineLength(), "fromItemGrouping maxSingleLineLength");
+
+        FormatConfiguration targetListConfig = config.withCommaSeparatedListGrouping(config.getTargetListGrouping());
+        Assertions.assertSame(targetListConfig, config.withCommaSeparatedListGrouping(config.getTargetListGrouping()),
+                "withCommaSeparatedListGrouping() must be remembered");
+        Assertions.assertEquals(compiled.getTargetListGrouping(),
+                targetListConfig.getCompiled().getCommaSeparatedListGrouping(), "targetListGrouping");
+        Assertions.assertEquals(compiled.getCommaSeparatedListGrouping(),
+                new CompiledListGrouping(config.getCommaSeparatedListGrouping()), "original grouping unchanged");
+
+        config.setCommaSeparatedListGrouping(config.getFunctionCallArgumentGrouping());
+        Assertions.assertNotSame(compiled, config.getCompiled(), "setCommaSeparatedListGrouping() must recompile");
+        Assertions.assertEquals(compiled.getFunctionCallArgumentGrouping(),
+                config.getCompiled().getCommaSeparatedListGrouping(), "functionCallArgumentGrouping");
     }
 
     /**
@@ -128,7 +265,7 @@ public class TestFormatConfiguration {
                 continue;
             }
             String fldName = method.getName();
-            if (fldName.startsWith("get") && !nonFieldGetters.contains(fldName) ) {
+            if (fldName.startsWith("get")) {
                 fldName = fldName.substring(3);
             } else if (fldName.startsWith("is")) {
                 fldName = fldName.substring(2);
@@ -164,6 +301,51 @@ public class TestFormatConfiguration {
         }
     }
 
+    /**
+     * Checks that the effective configuration of the config does not contain any part of the shared default
+     * configuration
+     *
+     * @param config
+     *            The configuration to check
+     * @param name
+     *            The name of the configuration for the message
+     */
+    private static void assertNoDefaultParts(FormatConfiguration config, String name) {
+        Set<Object> defaultParts = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectParts(FormatConfiguration.sharedDefaultConfiguration(), defaultParts);
+        Set<Object> parts = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectParts(config.getEffectiveConfiguration(), parts);
+        for (Object part : parts) {
+            Assertions.assertFalse(defaultParts.contains(part),
+                    () -> name + " shares a " + part.getClass().getSimpleName() + " with the default configuration");
+        }
+    }
+
+    /**
+     * Collects the configuration objects that are reachable from obj, including obj itself
+     *
+     * @param obj
+     *            The configuration object
+     * @param parts
+     *            Receives the objects
+     */
+    private static void collectParts(Object obj, Set<Object> parts) {
+        if (obj == null || obj.getClass().isEnum()
+                || !obj.getClass().getPackage().equals(Configuration.class.getPackage()) || !parts.add(obj)) {
+            return;
+        }
+        for (Method method : obj.getClass().getMethods()) {
+            if (method.getParameterCount() == 0 && method.getName().startsWith("get")
+                    && method.getDeclaringClass() != Object.class) {
+                try {
+                    collectParts(method.invoke(obj), parts);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    Assertions.fail(method + " failed", e);
+                }
+            }
+        }
+    }
+
     /**
      * Returns all xml files in the src/test/resources/regression/config directory
      *
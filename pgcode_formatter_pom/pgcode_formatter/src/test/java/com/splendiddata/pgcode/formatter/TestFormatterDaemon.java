@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the daemon produces the same output as in process formatting
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestFormatterDaemon {
+    private static final String SOURCE = "select a, b, c from d join e on d.x = e.x where d.y = 1 and e.z = '\u00e4\u20ac';\n"
+            + "create function f() returns int language plpgsql as $$ begin return 1; end; $$;\n";
+
+    private static Path projectDirectory;
+    private static FormatterDaemon daemon;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            /*
+             * Find the directory that contains the src directory
+             */
+            for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                    && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                            .getParent()) {
+                // just searching
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        daemon = new FormatterDaemon(new FormatConfiguration((Path) null), 0, 2).start();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        daemon.stop();
+    }
+
+    /**
+     * Formats with the configuration of the daemon itself
+     *
+     * @throws IOException
+     *             from the socket
+     */
+    @Test
+    void testDefaultConfig() throws IOException {
+        Assertions.assertTrue(FormatterClient.ping(daemon.getPort()), "ping");
+        Assertions.assertEquals(formatInProcess(new FormatConfiguration((Path) null)),
+                FormatterClient.format(daemon.getPort(), "", SOURCE));
+    }
+
+    /**
+     * Formats with a profile and with a configuration file
+     *
+     * @throws IOException
+     *             from the socket
+     */
+    @Test
+    void testProfileAndConfigFile() throws IOException {
+        String compactXml;
+        try (InputStream profile = getClass().getClassLoader().getResourceAsStream("profiles/compact.xml")) {
+            compactXml = new String(profile.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String expected = formatInProcess(new FormatConfiguration(compactXml, "compact"));
+        Assertions.assertEquals(expected, FormatterClient.format(daemon.getPort(), "compact", SOURCE), "profile");
+        // Second time from the cache
+        Assertions.assertEquals(expected, FormatterClient.format(daemon.getPort(), "compact", SOURCE), "cached profile");
+
+        Path elegant = Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml");
+        Assertions.assertEquals(formatInProcess(new FormatConfiguration(elegant)),
+                FormatterClient.format(daemon.getPort(), elegant.toString(), SOURCE), "config file");
+    }
+
+    /**
+     * An unknown profile results in an error, but the daemon keeps running
+     */
+    @Test
+    void testError() {
+        IOException e = Assertions.assertThrows(IOException.class,
+                () -> FormatterClient.format(daemon.getPort(), "nonexistent", SOURCE));
+        Assertions.assertTrue(e.getMessage().contains("ERROR"), e.getMessage());
+        Assertions.assertTrue(FormatterClient.ping(daemon.getPort()), "ping after error");
+    }
+
+    /**
+     * Requests without the right secret, with a length that is not a number or with a length over the maximum are
+     * answered with an error, and the daemon keeps running
+     *
+     * @throws IOException
+     *             from the socket
+     */
+    @Test
+    void testInvalidRequests() throws IOException {
+        String secret = Files.readString(FormatterDaemon.getSecretFile(daemon.getPort()), StandardCharsets.US_ASCII)
+                .trim();
+        Assertions.assertTrue(rawRequest("STOP").startsWith("ERROR "), "STOP without secret");
+        Assertions.assertTrue(rawRequest("STOP wrong").startsWith("ERROR "), "STOP with a wrong secret");
+        Assertions.assertTrue(rawRequest("FORMAT wrong 1 \nx").startsWith("ERROR "), "FORMAT with a wrong secret");
+        Assertions.assertTrue(rawRequest("FORMAT " + secret + " x \n").startsWith("ERROR "), "length not a number");
+        Assertions.assertTrue(rawRequest("FORMAT " + secret + " -1 \n").startsWith("ERROR "), "negative length");
+        Assertions.assertTrue(
+                rawRequest("FORMAT " + secret + " " + (FormatterDaemon.MAX_REQUEST_LENGTH + 1) + " \n")
+                        .startsWith("ERROR "),
+                "length over the maximum");
+        Assertions.assertTrue(rawRequest("FORMAT " + secret + " 9 \nselect 1;").startsWith("OK "), "valid request");
+        Assertions.assertTrue(rawRequest("HELLO xyz").startsWith("ERROR "), "HELLO with an invalid challenge");
+        String challenge = FormatterDaemon.randomHex(FormatterDaemon.CHALLENGE_LENGTH);
+        Assertions.assertEquals(
+                "PROOF " + FormatterDaemon.proof(secret.getBytes(StandardCharsets.US_ASCII), challenge),
+                rawRequest("HELLO " + challenge), "HELLO");
+        Assertions.assertTrue(FormatterClient.ping(daemon.getPort()), "ping after invalid requests");
+    }
+
+    /**
+     * The secret file can only be read by the owner
+     *
+     * @throws IOException
+     *             from the file system
+     */
+    @Test
+    void testSecretFile() throws IOException {
+        Path secretFile = FormatterDaemon.getSecretFile(daemon.getPort());
+        Assumptions.assumeTrue(Files.getFileAttributeView(secretFile, PosixFileAttributeView.class) != null,
+                "POSIX file permissions are not supported");
+        Assertions.assertEquals(PosixFilePermissions.fromString("rw-------"),
+                Files.getPosixFilePermissions(secretFile), "permissions of the secret file");
+    }
+
+    /**
+     * Without a daemon the client gets a ConnectException, which is the signal to fall back to in process formatting
+     *
+     * @throws IOException
+     *             from the socket
+     */
+    @Test
+    void testNoDaemon() throws IOException {
+        int freePort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            freePort = socket.getLocalPort();
+        }
+        Assertions.assertFalse(FormatterClient.ping(freePort), "ping");
+        Assertions.assertThrows(ConnectException.class, () -> FormatterClient.format(freePort, "", SOURCE));
+    }
+
+    /**
+     * A process that listens on the port but cannot prove that it knows the secret receives neither the secret nor the
+     * text
+     *
+     * @throws Exception
+     *             Not expected
+     */
+    @Test
+    void testImpostor() throws Exception {
+        String received = viaFakeDaemon(false, "OK 0\n", IOException.class);
+        Assertions.assertTrue(received.matches("HELLO [0-9a-f]{32}\n"), received);
+    }
+
+    /**
+     * A response that ends before the announced number of bytes is an error, not a truncated result
+     *
+     * @throws Exception
+     *             Not expected
+     */
+    @Test
+    void testTruncatedResponse() throws Exception {
+        String received = viaFakeDaemon(true, "OK 1000\nselect 1;", EOFException.class);
+        Assertions.assertTrue(received.endsWith(SOURCE), received);
+    }
+
+    /**
+     * Has the client format SOURCE via a fake daemon on a free port that has a secret file
+     *
+     * @param knowsSecret
+     *            Whether the fake daemon answers the HELLO challenge with the right proof. If so, it reads the request
+     *            and sends the response.
+     * @param response
+     *            The response to send
+     * @param expectedException
+     *            The exception that the client is expected to throw
+     * @return String everything that the fake daemon received
+     * @throws Exception
+     *             Not expected
+     */
+    private static String viaFakeDaemon(boolean knowsSecret, String response,
+            Class<? extends IOException> expectedException) throws Exception {
+        try (ServerSocket fakeDaemon = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            int port = fakeDaemon.getLocalPort();
+            String secret = FormatterDaemon.randomHex(32);
+            Path secretFile = FormatterDaemon.getSecretFile(port);
+            Files.createDirectories(secretFile.getParent());
+            Files.writeString(secretFile, secret + "\n", StandardCharsets.US_ASCII);
+            try {
+                CompletableFuture<String> received = CompletableFuture.supplyAsync(() -> {
+                    try (Socket socket = fakeDaemon.accept()) {
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        OutputStream out = socket.getOutputStream();
+                        String hello = FormatterDaemon.readHeaderLine(in);
+                        String challenge = hello.substring(hello.indexOf(' ') + 1);
+                        String proof = knowsSecret
+                                ? FormatterDaemon.proof(secret.getBytes(StandardCharsets.US_ASCII), challenge)
+                                : "0".repeat(64);
+                        out.write(("PROOF " + proof + "\n").getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        if (!knowsSecret) {
+                            return hello + "\n" + new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                        }
+                        String header = FormatterDaemon.readHeaderLine(in);
+                        byte[] text = in.readNBytes(Integer.parseInt(header.split(" ")[2]));
+                        out.write(response.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        return hello + "\n" + header + "\n" + new String(text, StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                Assertions.assertThrows(expectedException, () -> FormatterClient.format(port, "", SOURCE));
+                return received.get(10, TimeUnit.SECONDS);
+            } finally {
+                Files.deleteIfExists(secretFile);
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the daemon without the client
+     *
+     * @param request
+     *            The request, which is terminated by a newline if it doesn't contain one
+     * @return String the first line of the response
+     * @throws IOException
+     *             from the socket
+     */
+    private static String rawRequest(String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write((request.contains("\n") ? request : request + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return FormatterDaemon.readHeaderLine(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    /**
+     * Formats SOURCE in process
+     *
+     * @param config
+     *            The configuration to use
+     * @return String the formatted text
+     * @throws IOException
+     *             Not expected
+     */
+    private static String formatInProcess(FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(SOURCE), config).collect(Collectors.joining());
+    }
+}
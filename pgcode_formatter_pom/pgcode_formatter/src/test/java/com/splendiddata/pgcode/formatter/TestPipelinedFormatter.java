@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.splendiddata.pgcode.formatter.internal.MappedInput;
+
+/**
+ * Tests the PipelinedFormatter
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestPipelinedFormatter {
+    private static FormatConfiguration config;
+    private static String source;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        Path projectDirectory;
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir == null) {
+            /*
+             * Find the directory that contains the src directory
+             */
+            for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                    && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                            .getParent()) {
+                // just searching
+            }
+        } else {
+            projectDirectory = Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        config = new FormatConfiguration(
+                Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml"));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("select a, b, c from t where d = ").append(i).append(" and e = 'x\u00e9';\n");
+            text.append("create function f").append(i)
+                    .append("() returns int language plpgsql as $$ begin return 1; end; $$;\n");
+        }
+        source = text.toString();
+    }
+
+    /**
+     * The pipeline must give the same result as formatting in the calling thread
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testPipeline() throws IOException {
+        StringWriter result = new StringWriter();
+        new PipelinedFormatter(config, 2).format(new StringReader(source), result);
+        Assertions.assertEquals(expected(), result.toString());
+    }
+
+    /**
+     * A memory-mapped input is formatted without the reader thread, with the same result
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testMappedInput() throws IOException {
+        StringWriter result = new StringWriter();
+        new PipelinedFormatter(config, 2).format(MappedInput.wrap(source.getBytes(StandardCharsets.UTF_8)), result);
+        Assertions.assertEquals(expected(), result.toString());
+    }
+
+    /**
+     * Reads and writes gzip compressed files
+     *
+     * @param tempDir
+     *            Receives the files
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testGzip(@TempDir Path tempDir) throws IOException {
+        Path input = tempDir.resolve("input.sql.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(input)),
+                StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+        Assertions.assertTrue(PipelinedFormatter.isGzip(input), "isGzip(input)");
+        Path plain = tempDir.resolve("plain.sql");
+        Files.writeString(plain, source);
+        Assertions.assertFalse(PipelinedFormatter.isGzip(plain), "isGzip(plain)");
+        BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(input));
+        Assertions.assertTrue(PipelinedFormatter.isGzip(stream), "isGzip(stream)");
+        Assertions.assertEquals(0x1f, stream.read(), "first byte after isGzip(stream)");
+        stream.close();
+
+        Path output = tempDir.resolve("output.sql.gz");
+        new PipelinedFormatter(config, 1).format(
+                new InputStreamReader(new GZIPInputStream(Files.newInputStream(input)), StandardCharsets.UTF_8),
+                new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(output)), StandardCharsets.UTF_8));
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+            Assertions.assertEquals(expected(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * A failing source or target must result in an IOException
+     */
+    @Test
+    void testFailures() {
+        Reader failingReader = new Reader() {
+            private boolean first = true;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                if (first) {
+                    first = false;
+                    return new StringReader(source).read(buffer, offset, length);
+                }
+                throw new IOException("read failure");
+            }
+
+            @Override
+            public void close() {
+                // nothing to do
+            }
+        };
+        Assertions.assertThrows(IOException.class,
+                () -> new PipelinedFormatter(config, 1).format(failingReader, new StringWriter()), "read failure");
+
+        Writer failingWriter = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("write failure");
+            }
+
+            @Override
+            public void flush() {
+                // nothing to do
+            }
+
+            @Override
+            public void close() {
+                // nothing to do
+            }
+        };
+        Assertions.assertThrows(IOException.class,
+                () -> new PipelinedFormatter(config, 1).format(new StringReader(source), failingWriter),
+                "write failure");
+    }
+
+    /**
+     * Checks that non-gzip input in a BufferedInputStream is left untouched
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testNotGzip() throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new ByteArrayInputStream(new byte[] { 0x1f }));
+        Assertions.assertFalse(PipelinedFormatter.isGzip(stream), "isGzip");
+        Assertions.assertEquals(0x1f, stream.read(), "first byte");
+        Assertions.assertEquals(-1, stream.read(), "end of stream");
+    }
+
+    /**
+     * @return String the source, formatted in the calling thread
+     * @throws IOException
+     *             Not expected
+     */
+    private static String expected() throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(source), config).collect(Collectors.joining());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Logs how the rendering time grows with the size and the depth of a statement. The results depend on the machine, so
+ * nothing is asserted here; the behaviour that keeps the growth linear is tested by {@link TestLineBuffer} and the
+ * budget of the layout optimizer by {@link TestLayoutOptimizer}.
+ * <p>
+ * Not part of the normal test run, use mvn test -Dtest=RenderingBenchmark. The smallest statement produces about 1000
+ * lines. Use for example -Dpgcode_formatter.benchmark.lines=10000 for bigger statements.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class RenderingBenchmark {
+    private static final Logger log = LogManager.getLogger(RenderingBenchmark.class);
+
+    private static final int BENCHMARK_LINES = Integer.getInteger("pgcode_formatter.benchmark.lines", 1000)
+            .intValue();
+
+    /**
+     * Formats generated statements of BENCHMARK_LINES and 8 * BENCHMARK_LINES lines
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void benchmarkLinearity() throws IOException {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        logLinearity("select list", config, n -> {
+            StringBuilder sql = new StringBuilder("select ");
+            for (int i = 0; i < n; i++) {
+                sql.append(i == 0 ? "" : ", ").append("some_table.column_number_").append(i).append(" as alias_")
+                        .append(i);
+            }
+            return sql.append(" from some_table;\n").toString();
+        });
+        logLinearity("plpgsql function", config, n -> {
+            StringBuilder sql = new StringBuilder(
+                    "create function f() returns int language plpgsql as $$\ndeclare x int := 0;\nbegin\n");
+            for (int i = 0; i < n / 4; i++) {
+                sql.append("  x := x + ").append(i).append(";\n  if x > ").append(i)
+                        .append(" then\n    x := x - 1;\n  end if;\n");
+            }
+            return sql.append("  return x;\nend;\n$$;\n").toString();
+        });
+    }
+
+    /**
+     * Builds chains of nested single line results of BENCHMARK_LINES and 8 * BENCHMARK_LINES levels deep
+     */
+    @Test
+    void benchmarkDeepNesting() {
+        int smallDepth = BENCHMARK_LINES;
+        TestLineBuffer.buildNested(smallDepth); // warm up
+        long smallNanos = Long.MAX_VALUE;
+        long bigNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                TestLineBuffer.buildNested(smallDepth);
+            }
+            smallNanos = Math.min(smallNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                TestLineBuffer.buildNested(8 * smallDepth);
+            }
+            bigNanos = Math.min(bigNanos, System.nanoTime() - start);
+        }
+        log.info(String.format("nesting: 10 times %d levels in %.1f ms, %d levels in %.1f ms, ratio %.1f",
+                Integer.valueOf(smallDepth), Double.valueOf(smallNanos / 1e6), Integer.valueOf(8 * smallDepth),
+                Double.valueOf(bigNanos / 1e6), Double.valueOf((double) bigNanos / smallNanos)));
+    }
+
+    /**
+     * Logs how long a {@link LayoutOptimizer} with a budget of 1 ms takes to give up on a list that is far too big for
+     * that budget
+     */
+    @Test
+    void benchmarkLayoutOptimizerBudget() {
+        CompiledListGrouping grouping = TestLayoutOptimizer.grouping(100, 1F, 100, 1F);
+        int[] widths = new int[100 * BENCHMARK_LINES];
+        Arrays.fill(widths, 1);
+        long maxNanos = 0;
+        for (int run = 0; run < 5; run++) {
+            LayoutOptimizer optimizer = new LayoutOptimizer(1L);
+            long start = System.nanoTime();
+            optimizer.breakList(widths, 0, 0, grouping, 1000, 10F);
+            maxNanos = Math.max(maxNanos, System.nanoTime() - start);
+        }
+        log.info(String.format("layout optimizer: a budget of 1 ms took at most %.1f ms for a list of %d elements",
+                Double.valueOf(maxNanos / 1e6), Integer.valueOf(widths.length)));
+    }
+
+    /**
+     * Formats a statement of BENCHMARK_LINES and one of 8 * BENCHMARK_LINES lines and logs the durations
+     *
+     * @param description
+     *            Describes the statement for the log
+     * @param config
+     *            The FormatConfiguration to use
+     * @param statementGenerator
+     *            Generates a statement of about the given number of lines
+     * @throws IOException
+     *             Not expected
+     */
+    private static void logLinearity(String description, FormatConfiguration config,
+            IntFunction<String> statementGenerator) throws IOException {
+        String small = statementGenerator.apply(BENCHMARK_LINES);
+        String big = statementGenerator.apply(8 * BENCHMARK_LINES);
+        format(small, config); // warm up
+        long smallNanos = Long.MAX_VALUE;
+        long bigNanos = Long.MAX_VALUE;
+        int bigLines = 0;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            format(small, config);
+            smallNanos = Math.min(smallNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            bigLines = format(big, config).split("\n").length;
+            bigNanos = Math.min(bigNanos, System.nanoTime() - start);
+        }
+        log.info(String.format("%s: %d lines in %.1f ms, 8 times as big: %d lines in %.1f ms, ratio %.1f",
+                description, Integer.valueOf(format(small, config).split("\n").length),
+                Double.valueOf(smallNanos / 1e6), Integer.valueOf(bigLines), Double.valueOf(bigNanos / 1e6),
+                Double.valueOf((double) bigNanos / smallNanos)));
+    }
+
+    /**
+     * Formats sql
+     *
+     * @param sql
+     *            The statement to format
+     * @param config
+     *            The FormatConfiguration to use
+     * @return String the formatted statement
+     * @throws IOException
+     *             Not expected
+     */
+    private static String format(String sql, FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(sql), config).collect(Collectors.joining());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
+import com.splendiddata.pgcode.formatter.scanner.TestTokenTexts;
+
+/**
+ * Logs the throughput of reading and scanning input. The results depend on the machine, so nothing is asserted here;
+ * the correctness of the readers is tested by {@link TestMappedInputReader} and the correctness of the scanners by
+ * {@link TestTokenTexts}.
+ * <p>
+ * Not part of the normal test run, use mvn test -Dtest=ScanningBenchmark. The size of the generated input is 16MB. Use
+ * for example -Dpgcode_formatter.benchmark.mb=1024 for a 1GB input.
+ * </p>
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class ScanningBenchmark {
+    private static final Logger log = LogManager.getLogger(ScanningBenchmark.class);
+
+    private static final int BENCHMARK_MB = Integer.getInteger("pgcode_formatter.benchmark.mb", 16).intValue();
+
+    /**
+     * Reads and scans a generated file of BENCHMARK_MB megabytes, through a BufferedReader on an InputStreamReader and
+     * through a MappedInputReader, and logs the throughput of both.
+     *
+     * @param tempDir
+     *            Receives the generated file
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void benchmarkMappedInput(@TempDir Path tempDir) throws IOException {
+        Path file = TestMappedInputReader.writeStatements(tempDir.resolve("benchmark.sql"),
+                BENCHMARK_MB * 1024L * 1024L);
+        double mb = Files.size(file) / (1024.0 * 1024.0);
+
+        long start = System.nanoTime();
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            countChars(reader);
+        }
+        double streamReadSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        MappedInput input = MappedInput.map(file);
+        try (Reader reader = input.openReader(0, input.size())) {
+            countChars(reader);
+        }
+        double mappedReadSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            TestMappedInputReader.countTokens(reader);
+        }
+        double streamScanSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        input = MappedInput.map(file);
+        try (Reader reader = input.openReader(0, input.size())) {
+            TestMappedInputReader.countTokens(reader);
+        }
+        double mappedScanSeconds = (System.nanoTime() - start) / 1e9;
+
+        log.info(String.format("read %.0fMB: InputStreamReader %.1fMB/s, MappedInput %.1fMB/s", Double.valueOf(mb),
+                Double.valueOf(mb / streamReadSeconds), Double.valueOf(mb / mappedReadSeconds)));
+        log.info(String.format("scanned %.0fMB: InputStreamReader %.1fMB/s, MappedInput %.1fMB/s", Double.valueOf(mb),
+                Double.valueOf(mb / streamScanSeconds), Double.valueOf(mb / mappedScanSeconds)));
+    }
+
+    /**
+     * Scans BENCHMARK_MB megabytes of statements with both scanners, without reading, parsing or rendering, and logs
+     * the throughput
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void benchmarkScanners() throws IOException {
+        String text = TestTokenTexts.STATEMENTS
+                .repeat((int) (BENCHMARK_MB * 1024L * 1024L / TestTokenTexts.STATEMENTS.length()) + 1);
+        double mb = text.length() / (1024.0 * 1024.0);
+        SourceScanner[] warmUpScanners = TestTokenTexts.newScanners(TestTokenTexts.STATEMENTS.repeat(10000));
+        SourceScanner[] scanners = TestTokenTexts.newScanners(text);
+        for (int i = 0; i < scanners.length; i++) {
+            countTokens(warmUpScanners[i]);
+
+            long start = System.nanoTime();
+            long tokens = countTokens(scanners[i]);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            log.info(String.format("%s scanned %.0fMB, %d tokens: %.1fMB/s", scanners[i].getClass().getSimpleName(),
+                    Double.valueOf(mb), Long.valueOf(tokens), Double.valueOf(mb / seconds)));
+        }
+    }
+
+    /**
+     * Walks the tokens of the scanner
+     *
+     * @param scanner
+     *            The scanner
+     * @return long The number of tokens
+     * @throws IOException
+     *             Not expected
+     */
+    private static long countTokens(SourceScanner scanner) throws IOException {
+        long count = 0;
+        for (ScanResult result = scanner.scan(); !result.isEof(); result = result.getNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the input into a buffer of the size of the buffer of the SourceScanner
+     *
+     * @param reader
+     *            The input
+     * @return long The number of characters
+     * @throws IOException
+     *             Not expected
+     */
+    private static long countChars(Reader reader) throws IOException {
+        char[] buffer = new char[16384];
+        long count = 0;
+        for (int length = reader.read(buffer); length >= 0; length = reader.read(buffer)) {
+            count += length;
+        }
+        return count;
+    }
+}
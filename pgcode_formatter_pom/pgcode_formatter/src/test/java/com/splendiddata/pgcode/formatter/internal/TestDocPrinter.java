@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.LayoutEngine;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Tests the layout decisions of the DocPrinter and the output of the {@link LayoutEngine#DOCUMENT} layout engine
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestDocPrinter {
+
+    /**
+     * Returns a list of the texts as documents
+     *
+     * @param texts
+     *            The texts
+     * @return List&lt;Doc&gt; the text documents
+     */
+    private static List<Doc> texts(String... texts) {
+        return Arrays.stream(texts).map(Doc::text).collect(Collectors.toList());
+    }
+
+    /**
+     * A group is laid out flat if it fits in the remainder of the line, and broken otherwise
+     */
+    @Test
+    void testGroup() {
+        Doc doc = Doc.group(Doc.concat(Doc.text("select"),
+                Doc.nest(4, Doc.concat(Doc.line(), Doc.join(texts("a,", "b,", "c"), Doc.line())))));
+        Assertions.assertEquals("select a, b, c", new DocPrinter(20).print(doc), "fits");
+        Assertions.assertEquals("select\n    a,\n    b,\n    c", new DocPrinter(10).print(doc), "does not fit");
+
+        Doc withHardLine = Doc.group(Doc.concat(Doc.text("a"), Doc.line(), Doc.text("-- b"), Doc.hardLine(),
+                Doc.text("c")));
+        Assertions.assertEquals("a\n-- b\nc", new DocPrinter(80).print(withHardLine), "hard line breaks the group");
+    }
+
+    /**
+     * The text after a group counts for the decision whether the group fits, up to the next line break
+     */
+    @Test
+    void testGroupWithRest() {
+        Doc doc = Doc.concat(Doc.group(Doc.concat(Doc.text("f("), Doc.nest(2, Doc.concat(Doc.softLine(),
+                Doc.text("x"))), Doc.softLine(), Doc.text(")"))), Doc.text(" + 123456"));
+        Assertions.assertEquals("f(x) + 123456", new DocPrinter(13).print(doc), "fits");
+        Assertions.assertEquals("f(\n  x\n) + 123456", new DocPrinter(12).print(doc), "too wide with the rest");
+    }
+
+    /**
+     * A group with a maximum flat width is broken when its flat layout is wider, even if it fits in the line. If it
+     * may exceed the line width, only that maximum counts.
+     */
+    @Test
+    void testMaxFlatWidth() {
+        Doc content = Doc.concat(Doc.text("aaaa"), Doc.line(), Doc.text("bbbb"));
+        Assertions.assertEquals("aaaa bbbb", new DocPrinter(20).print(Doc.group(content, 9, false)), "within max");
+        Assertions.assertEquals("aaaa\nbbbb", new DocPrinter(20).print(Doc.group(content, 8, false)), "beyond max");
+        Assertions.assertEquals("aaaa\nbbbb", new DocPrinter(20).print(Doc.group(content, -1, false)), "always broken");
+        Assertions.assertEquals("aaaa bbbb", new DocPrinter(5).print(Doc.group(content, 9, true)),
+                "beyond line width");
+    }
+
+    /**
+     * A fill only breaks the lines that are needed, and respects the maximum number of items and the maximum width
+     * per line
+     */
+    @Test
+    void testFill() {
+        List<Doc> items = texts("aa,", "bb,", "cc,", "dd,", "ee");
+        Assertions.assertEquals("aa, bb, cc,\ndd, ee", new DocPrinter(12).print(Doc.fill(items, Integer.MAX_VALUE)),
+                "line width");
+        Assertions.assertEquals("aa, bb,\ncc, dd,\nee", new DocPrinter(80).print(Doc.fill(items, 2)),
+                "items per line");
+        Assertions.assertEquals("x aa, bb,\n  cc, dd,\n  ee",
+                new DocPrinter(80).print(Doc.concat(Doc.text("x "),
+                        Doc.align(Doc.fill(items, Integer.MAX_VALUE, 7, Doc.line())))),
+                "width per line, aligned");
+        Assertions.assertEquals("aa, bb, cc, dd, ee", new DocPrinter(80).print(Doc.group(Doc.fill(items, 2))),
+                "a flat group ignores the maximum number of items");
+    }
+
+    /**
+     * Nested lines are indented relative to the enclosing indent, aligned lines start under the start of the content
+     */
+    @Test
+    void testNestAndAlign() {
+        Doc doc = Doc.concat(Doc.text("begin"),
+                Doc.nest(4, Doc.concat(Doc.hardLine(), Doc.text("x :="), Doc.text(" "),
+                        Doc.align(Doc.join(texts("1", "+ 2"), Doc.hardLine())))),
+                Doc.hardLine(), Doc.text("end;"));
+        Assertions.assertEquals("begin\n    x := 1\n         + 2\nend;", new DocPrinter(80).print(doc));
+    }
+
+    /**
+     * The document layout engine must produce the same tokens as the classic layout engine, within the line width
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testDocumentLayoutEngine() throws IOException {
+        String input = "select aaaaaaaaaa, bbbbbbbbbb, case when cccccccccc > 1 then dddddddddd else eeeeeeeeee end"
+                + ", ffffffffff from gggggggggg where hhhhhhhhhh in (1, 2, 3) order by iiiiiiiiii; -- done\n";
+        FormatConfiguration classicConfig = new FormatConfiguration((Configuration) null);
+        FormatConfiguration documentConfig = new FormatConfiguration((Configuration) null)
+                .setLayoutEngine(LayoutEngine.DOCUMENT);
+        Assertions.assertEquals(LayoutEngine.CLASSIC, classicConfig.getLayoutEngine(), "default layout engine");
+        Assertions.assertEquals(LayoutEngine.DOCUMENT,
+                new FormatConfiguration(documentConfig).getLayoutEngine(), "copied layout engine");
+
+        String classic = CodeFormatter.toStringResults(new StringReader(input), classicConfig)
+                .collect(Collectors.joining());
+        String document = CodeFormatter.toStringResults(new StringReader(input), documentConfig)
+                .collect(Collectors.joining());
+        Assertions.assertEquals(classic.replaceAll("\\s+", ""), document.replaceAll("\\s+", ""),
+                "the same tokens as the classic layout engine");
+        int lineWidth = documentConfig.getCompiled().getLineWidth();
+        for (String line : document.split("\n")) {
+            Assertions.assertTrue(line.length() <= lineWidth, () -> "line too wide: " + line);
+        }
+        Assertions.assertTrue(document.endsWith("-- done\n"), () -> "comment at the end: " + document);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+import com.splendiddata.pgcode.formatter.scanner.structure.ArgumentDefinitionOffsets;
+import com.splendiddata.pgcode.formatter.scanner.structure.SrcNode;
+
+/**
+ * Tests the interning of FormatContexts, the render cache statistics and the render cache budget
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestFormatContext {
+    private static final Logger log = LogManager.getLogger(TestFormatContext.class);
+
+    /**
+     * Equal FormatContexts must yield the same snapshot in a session, a modified FormatContext another one
+     */
+    @Test
+    void testIntern() {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        FormattingSession session = new FormattingSession();
+        FormatContext parent = new FormatContext(config, null);
+        FormatContext context = new FormatContext(config, parent).setAvailableWidth(40);
+        FormatContext other = new FormatContext(config, new FormatContext(config, null)).setAvailableWidth(40);
+        Assertions.assertEquals(context, other, "equals");
+        Assertions.assertEquals(context.hashCode(), other.hashCode(), "hashCode");
+
+        FormatContext interned = context.intern(session);
+        Assertions.assertSame(interned, other.intern(session), "equal contexts, same snapshot");
+        Assertions.assertSame(interned, context.intern(session), "unmodified context, same snapshot");
+        Assertions.assertEquals(context, interned, "the snapshot equals the context");
+        Assertions.assertThrows(IllegalStateException.class, () -> interned.setAvailableWidth(10),
+                "a snapshot cannot be modified");
+
+        other.setAvailableWidth(41);
+        Assertions.assertNotEquals(interned, other.intern(session), "modified context");
+        parent.setLanguage("plpgsql");
+        Assertions.assertNotSame(interned, context.intern(session), "modified parent context");
+
+        ArgumentDefinitionOffsets offsets = new ArgumentDefinitionOffsets();
+        context.setArgumentDefinitionOffsets(offsets);
+        FormatContext withOffsets = context.intern(session);
+        offsets.setDataTypeOffset(Integer.valueOf(20));
+        Assertions.assertNotSame(withOffsets, context.intern(session), "modified argumentDefinitionOffsets");
+        Assertions.assertNull(withOffsets.getArgumentDefinitionOffsets().getDataTypeOffset(),
+                "the snapshot has its own argumentDefinitionOffsets");
+    }
+
+    /**
+     * Formatting a statement that is rendered in more than one attempt must hit the render cache
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testRenderCacheStatistics() throws IOException {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        String sql = "create or replace function argument_mode(in expr1 varchar default null::varchar"
+                + ", in expr2 integer) returns integer as $$ begin return expr2; end; $$ language plpgsql;\n";
+
+        SrcNode.resetRenderCacheStatistics();
+        CodeFormatter.toStringResults(new StringReader(sql), config).collect(Collectors.joining());
+        long hits = SrcNode.getRenderCacheHits();
+        long misses = SrcNode.getRenderCacheMisses();
+        log.info("render cache hits: " + hits + ", misses: " + misses);
+        Assertions.assertTrue(hits > 0, "render cache hits: " + hits);
+        Assertions.assertTrue(misses > 0, "render cache misses: " + misses);
+        SrcNode.resetRenderCacheStatistics();
+        Assertions.assertEquals(0, SrcNode.getRenderCacheHits(), "hits after reset");
+    }
+
+    /**
+     * A small render cache budget must evict caches without affecting the result, and all caches must be released
+     * when the statement is rendered
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testRenderCacheBudget() throws IOException {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        StringBuilder sql = new StringBuilder("insert into some_table (a, b, c) values ");
+        for (int i = 0; i < 300; i++) {
+            sql.append(i == 0 ? "" : ", ").append('(').append(i).append(", 'text ").append(i).append("', upper('x'))");
+        }
+        sql.append(";\n");
+
+        RenderCacheBudget defaultBudget = new RenderCacheBudget();
+        String expected = new StatementCutter(new FormattingSession(), new StringReader(sql.toString()), config).next()
+                .render(config, defaultBudget).beautify();
+        RenderCacheBudget smallBudget = new RenderCacheBudget(1000);
+        String result = new StatementCutter(new FormattingSession(), new StringReader(sql.toString()), config).next()
+                .render(config, smallBudget).beautify();
+        log.info("render cache evictions with a budget of " + smallBudget.getMaxChars() + " chars: "
+                + smallBudget.getEvictions());
+
+        Assertions.assertEquals(expected, result, "result with a small budget");
+        Assertions.assertEquals(0, defaultBudget.getEvictions(), "evictions with the default budget");
+        Assertions.assertTrue(smallBudget.getEvictions() > 0, "evictions with a small budget");
+        Assertions.assertEquals(0, defaultBudget.getUsedChars(), "used chars after rendering");
+        Assertions.assertEquals(0, smallBudget.getUsedChars(), "used chars after rendering with a small budget");
+    }
+
+    /**
+     * Evicting render results must not change the output, not even when every multi line result is evicted as soon as
+     * it is cached. So all regression sources must come out the same with a budget of 0 as with the default budget.
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testRenderCacheBudgetCorpus() throws IOException {
+        Path projectDirectory = TestStatementBoundaryScanner.getProjectDirectory();
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(projectDirectory.resolve("src/test/resources/regression/source"))) {
+            sources = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        Assertions.assertFalse(sources.isEmpty(), "no regression sources");
+        long evictions = 0;
+        for (String configFile : new String[] { "src/test/resources/regression/config/commaAfterTabs.xml",
+                "src/main/resources/profiles/compact.xml", "src/main/resources/profiles/elegant.xml" }) {
+            FormatConfiguration config = new FormatConfiguration(projectDirectory.resolve(configFile));
+            for (Path source : sources) {
+                String input = Files.readString(source);
+                StatementCutter expectedCutter = new StatementCutter(new FormattingSession(), new StringReader(input),
+                        config);
+                StatementCutter cutter = new StatementCutter(new FormattingSession(), new StringReader(input), config);
+                for (StatementCutter.Piece expectedPiece = expectedCutter.next(); expectedPiece != null;
+                        expectedPiece = expectedCutter.next()) {
+                    RenderCacheBudget noBudget = new RenderCacheBudget(0);
+                    String result = cutter.next().render(config, noBudget).beautify();
+                    Assertions.assertEquals(expectedPiece.render(config, new RenderCacheBudget()).beautify(), result,
+                            source.getFileName() + " with " + configFile);
+                    evictions += noBudget.getEvictions();
+                }
+                Assertions.assertNull(cutter.next(), "the same pieces for " + source.getFileName());
+            }
+        }
+        log.info("render cache evictions with a budget of 0 chars: " + evictions);
+        Assertions.assertTrue(evictions > 0, "evictions with a budget of 0 chars");
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.helper.ExtractPlPgsqlKeywords;
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
+
+/**
+ * Tests the {@link KeywordTable}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestKeywordTable {
+    /**
+     * Every word of the Dicts sets has its own id with the right classification
+     */
+    @Test
+    public void testAllWords() {
+        Set<String> words = new HashSet<>();
+        words.addAll(Dicts.pgPlPgsqlKeywords);
+        words.addAll(Dicts.pgFunctions);
+        words.addAll(Dicts.pgMajorKeywords);
+        words.addAll(Dicts.pgKeywordNotFunctionCall);
+        Set<Integer> ids = new HashSet<>();
+        for (String word : words) {
+            int id = KeywordTable.idOf(word);
+            Assertions.assertNotEquals(KeywordTable.NONE, id, () -> "id of " + word);
+            Assertions.assertTrue(ids.add(Integer.valueOf(id)), () -> "unique id of " + word);
+            Assertions.assertEquals(word, KeywordTable.wordOf(id), "word of the id");
+            Assertions.assertEquals(id, KeywordTable.idOf(word.toLowerCase()), () -> "id of lower case " + word);
+            Assertions.assertEquals(Dicts.pgPlPgsqlKeywords.contains(word), KeywordTable.isKeyword(id),
+                    () -> "keyword " + word);
+            Assertions.assertEquals(Dicts.pgFunctions.contains(word), KeywordTable.isFunction(id),
+                    () -> "function " + word);
+            Assertions.assertEquals(Dicts.pgMajorKeywords.contains(word), KeywordTable.isMajorKeyword(id),
+                    () -> "major keyword " + word);
+            Assertions.assertEquals(Dicts.pgKeywordNotFunctionCall.contains(word),
+                    KeywordTable.isKeywordNotFunctionCall(id), () -> "keyword not function call " + word);
+        }
+    }
+
+    /**
+     * Words that are not in the table
+     */
+    @Test
+    public void testOtherWords() {
+        for (String word : new String[] { "", "x", "my_table", "selec", "selects", "select_", "sélect", "SELECT ",
+                "\"SELECT\"" }) {
+            Assertions.assertEquals(KeywordTable.NONE, KeywordTable.idOf(word), () -> "id of " + word);
+        }
+        Assertions.assertFalse(KeywordTable.isKeyword(KeywordTable.NONE), "NONE is no keyword");
+        Assertions.assertFalse(KeywordTable.isFunction(KeywordTable.NONE), "NONE is no function");
+        Assertions.assertEquals(KeywordTable.idOf("SelEct"), KeywordTable.idOf("sElecT"), "case insensitive");
+        Assertions.assertTrue(KeywordTable.isIn(KeywordTable.idsOf("JOIN", "LEFT"), KeywordTable.idOf("left")),
+                "left is in the set");
+        Assertions.assertFalse(KeywordTable.isIn(KeywordTable.idsOf("JOIN", "LEFT"), KeywordTable.NONE),
+                "NONE is in no set");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> KeywordTable.idsOf("no_keyword_at_all"),
+                "only words from the table");
+    }
+
+    /**
+     * The scanner classifies identifiers, other tokens have no keyword id
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testScannedKeywordIds() throws IOException {
+        ScanResult node = new FormattingSession()
+                .newSourceScanner(new StringReader("Select coalesce(x, 'select') from \"from\";")).scan();
+        for (; !node.isEof(); node = node.getNext()) {
+            String text = node.toString();
+            if (node.is(ScanResultType.IDENTIFIER)) {
+                Assertions.assertEquals(KeywordTable.idOf(text), node.getKeywordId(), () -> "id of identifier " + text);
+            } else {
+                Assertions.assertEquals(KeywordTable.NONE, node.getKeywordId(), () -> "id of " + text);
+            }
+        }
+    }
+
+    /**
+     * The plpgsql keywords that the build extracted from the PostgreSQL header files are in
+     * {@link Dicts#pgPlPgsqlKeywords}
+     *
+     * @throws IOException
+     *             If a header file cannot be read
+     */
+    @Test
+    public void testPlpgsqlKeywords() throws IOException {
+        Set<String> keywords = ExtractPlPgsqlKeywords
+                .extractKeywords(TestStatementBoundaryScanner.getProjectDirectory()).stream()
+                .map(String::toUpperCase).collect(Collectors.toSet());
+        Assertions.assertTrue(keywords.contains("ELSIF"), "ELSIF is a plpgsql keyword");
+        keywords.removeAll(Dicts.pgPlPgsqlKeywords);
+        Assertions.assertEquals(Set.of(), keywords, "plpgsql keywords that are missing in Dicts.pgPlPgsqlKeywords");
+    }
+
+    /**
+     * The build creates the displacements of the words, so they are not searched for at runtime
+     *
+     * @throws IOException
+     *             If the displacements cannot be read
+     */
+    @Test
+    public void testBuildTimeDisplacements() throws IOException {
+        try (InputStream in = KeywordTable.class.getResourceAsStream("/" + KeywordTable.DISPLACEMENTS_PATH)) {
+            Assertions.assertNotNull(in, "the build must create " + KeywordTable.DISPLACEMENTS_PATH);
+            DataInputStream data = new DataInputStream(in);
+            int[] displacements = new int[data.readInt()];
+            for (int i = 0; i < displacements.length; i++) {
+                displacements[i] = data.readInt();
+            }
+            Assertions.assertArrayEquals(KeywordTable.createDisplacements(), displacements,
+                    "the displacements of the build");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.CompiledListGrouping;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.BeforeOrAfterType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListGroupingType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListIndentOption;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.CommaSeparatedListIndentType;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.IntegerValueOption;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.ObjectFactory;
+
+/**
+ * Tests the line breaks that the LayoutOptimizer chooses and its budget
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestLayoutOptimizer {
+    private static final ObjectFactory settingsFactory = new ObjectFactory();
+
+    /**
+     * Returns a grouping with the limits and weights
+     *
+     * @param maxArgumentsPerGroup
+     *            The maximum number of elements on a line
+     * @param maxArgumentsPerGroupWeight
+     *            Its weight
+     * @param maxLengthOfGroup
+     *            The maximum width of the elements on a line
+     * @param maxLengthOfGroupWeight
+     *            Its weight
+     * @return CompiledListGrouping the grouping
+     */
+    static CompiledListGrouping grouping(int maxArgumentsPerGroup, float maxArgumentsPerGroupWeight,
+            int maxLengthOfGroup, float maxLengthOfGroupWeight) {
+        CommaSeparatedListGroupingType grouping = settingsFactory.createCommaSeparatedListGroupingType();
+        grouping.setCommaBeforeOrAfter(BeforeOrAfterType.AFTER);
+        CommaSeparatedListIndentType indentType = settingsFactory.createCommaSeparatedListIndentType();
+        indentType.setValue(CommaSeparatedListIndentOption.UNDER_FIRST_ARGUMENT);
+        indentType.setWeight(Float.valueOf(1));
+        grouping.setIndent(indentType);
+        IntegerValueOption option = settingsFactory.createIntegerValueOption();
+        option.setValue(maxArgumentsPerGroup);
+        option.setWeight(Float.valueOf(maxArgumentsPerGroupWeight));
+        grouping.setMaxArgumentsPerGroup(option);
+        option = settingsFactory.createIntegerValueOption();
+        option.setValue(maxLengthOfGroup);
+        option.setWeight(Float.valueOf(maxLengthOfGroupWeight));
+        grouping.setMaxLengthOfGroup(option);
+        option = settingsFactory.createIntegerValueOption();
+        option.setValue(maxLengthOfGroup);
+        option.setWeight(Float.valueOf(1));
+        grouping.setMaxSingleLineLength(option);
+        grouping.setMultilineClosingParenOnNewLine(Boolean.FALSE);
+        grouping.setMultilineOpeningParenBeforeArgument(Boolean.TRUE);
+        return new CompiledListGrouping(grouping);
+    }
+
+    /**
+     * Returns the indexes of the elements before which a line is broken
+     *
+     * @param breakBefore
+     *            The result of LayoutOptimizer.breakList()
+     * @return String the indexes
+     */
+    private static String breaks(boolean[] breakBefore) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < breakBefore.length; i++) {
+            if (breakBefore[i]) {
+                result.append(result.length() == 0 ? "" : ",").append(i);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Of the layouts with the least lines, the one with the most evenly filled lines is chosen, where the greedy layout
+     * would fill the first line as much as possible
+     */
+    @Test
+    void testEvenLines() {
+        LayoutOptimizer optimizer = new LayoutOptimizer(1000L);
+        CompiledListGrouping grouping = grouping(100, 1F, 100, 1F);
+        Assertions.assertEquals("3,6",
+                breaks(optimizer.breakList(new int[] { 5, 5, 5, 5, 5, 5, 20 }, 0, 0, grouping, 30, 10F)));
+        Assertions.assertEquals("", breaks(optimizer.breakList(new int[] { 5, 5, 5 }, 0, 0, grouping, 30, 10F)),
+                "fits on a single line");
+        Assertions.assertEquals("1",
+                breaks(optimizer.breakList(new int[] { 5, 5, 5 }, 20, 0, grouping, 30, 10F)), "first line starts at 20");
+        Assertions.assertEquals(3, optimizer.getOptimizedLists(), "optimizedLists");
+    }
+
+    /**
+     * A limit with a lower weight is still obeyed when that costs no more than additional lines
+     */
+    @Test
+    void testWeights() {
+        LayoutOptimizer optimizer = new LayoutOptimizer(1000L);
+        int[] widths = new int[10];
+        Arrays.fill(widths, 11);
+        Assertions.assertEquals("2,4,6,8",
+                breaks(optimizer.breakList(widths, 0, 0, grouping(4, 10F, 30, 5F), 120, 1F)), "maxLengthOfGroup 30");
+        Assertions.assertEquals("4,8",
+                breaks(optimizer.breakList(widths, 0, 0, grouping(4, 10F, 100, 5F), 120, 1F)),
+                "maxArgumentsPerGroup 4");
+        Assertions.assertEquals("5",
+                breaks(optimizer.breakList(widths, 0, 0, grouping(4, 1F, 100, 5F), 70, 10F)),
+                "maxArgumentsPerGroup 4 with a low weight");
+    }
+
+    /**
+     * When the time budget is used up, or a list needs too many cells, the greedy layout is to be used. The time is
+     * taken from a clock of the test, so the outcome doesn't depend on the speed of the machine.
+     */
+    @Test
+    void testBudget() {
+        CompiledListGrouping grouping = grouping(100, 1F, 100, 1F);
+        int[] widths = new int[] { 5, 5, 5, 5, 5, 5, 20 };
+        LayoutOptimizer optimizer = new LayoutOptimizer(0L);
+        Assertions.assertTrue(optimizer.isExpired(), "expired without time");
+        Assertions.assertNull(optimizer.breakList(widths, 0, 0, grouping, 30, 10F), "no time");
+
+        optimizer = new LayoutOptimizer(1000L, 10L, () -> 0L);
+        Assertions.assertNull(optimizer.breakList(widths, 0, 0, grouping, 30, 10F), "too many cells");
+        Assertions.assertFalse(optimizer.isExpired(), "cells are counted per list");
+        Assertions.assertNotNull(optimizer.breakList(new int[] { 5, 5, 5 }, 0, 0, grouping, 30, 10F), "small list");
+        Assertions.assertEquals(1, optimizer.getGreedyLists(), "greedyLists");
+        Assertions.assertEquals(1, optimizer.getOptimizedLists(), "optimizedLists");
+
+        int[] manyWidths = new int[100000];
+        Arrays.fill(manyWidths, 1);
+        long[] now = new long[1];
+        optimizer = new LayoutOptimizer(1L, LayoutOptimizer.DEFAULT_MAX_CELLS, () -> now[0] += 100000L);
+        Assertions.assertNull(optimizer.breakList(manyWidths, 0, 0, grouping, 1000, 10F), "time is up");
+        Assertions.assertTrue(optimizer.isExpired(), "expired");
+        Assertions.assertEquals(10 * 1024, optimizer.getEvaluatedCells(),
+                "the clock is read every 1024 cells, 0.1 ms passes per reading and the budget is 1 ms");
+        Assertions.assertNull(optimizer.breakList(new int[] { 5, 5, 5 }, 0, 0, grouping, 30, 10F), "after expiry");
+        Assertions.assertEquals(10 * 1024, optimizer.getEvaluatedCells(), "nothing is evaluated after expiry");
+        Assertions.assertEquals(2, optimizer.getGreedyLists(), "greedyLists after expiry");
+    }
+
+    /**
+     * An optimised statement contains the same tokens as the greedy one
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testFormat() throws IOException {
+        String input = "select aaaa, bbbb, cccc, dddd, eeee, ffff, gggg, hhhh, iiii, jjjj, kkkk, llll, mmmm, nnnn, "
+                + "oooo, pppp, qqqq, rrrr, ssss, tttt, uuuu, vvvv, wwww, xxxx, yyyy, zzzz from t;\n";
+        FormatConfiguration greedyConfig = new FormatConfiguration((Configuration) null);
+        FormatConfiguration optimizedConfig = new FormatConfiguration((Configuration) null)
+                .setLayoutOptimizerBudget(1000L);
+        Assertions.assertEquals(0L, greedyConfig.getLayoutOptimizerBudget(), "default budget");
+        Assertions.assertEquals(1000L, new FormatConfiguration(optimizedConfig).getLayoutOptimizerBudget(),
+                "copied budget");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> greedyConfig.setLayoutOptimizerBudget(-1L),
+                "negative budget");
+        String greedy = CodeFormatter.toStringResults(new StringReader(input), greedyConfig)
+                .collect(Collectors.joining());
+        String optimized = CodeFormatter.toStringResults(new StringReader(input), optimizedConfig)
+                .collect(Collectors.joining());
+        Assertions.assertEquals(greedy.replaceAll("\\s+", ""), optimized.replaceAll("\\s+", ""), "same tokens");
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Tests the line administration of RenderMultiLines and LineBuffer. The rendering times are measured by
+ * {@link RenderingBenchmark}.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestLineBuffer {
+    /**
+     * The LineBuffer must know the width of every line and the position of the last linefeed, also after truncation
+     */
+    @Test
+    void testLineBuffer() {
+        LineBuffer buffer = new LineBuffer();
+        Assertions.assertEquals(1, buffer.getLineCount(), "lineCount of an empty buffer");
+        Assertions.assertEquals(-1, buffer.getLastLineBreak(), "lastLineBreak of an empty buffer");
+        buffer.append("select a").append('\n').append("     , bb\n\n  from t", 0, 19);
+        Assertions.assertEquals("select a\n     , bb\n\n  from t", buffer.toString());
+        Assertions.assertEquals(4, buffer.getLineCount(), "lineCount");
+        Assertions.assertEquals(8, buffer.getLineWidth(0), "width of line 0");
+        Assertions.assertEquals(9, buffer.getLineWidth(1), "width of line 1");
+        Assertions.assertEquals(0, buffer.getLineWidth(2), "width of line 2");
+        Assertions.assertEquals(8, buffer.getLineWidth(3), "width of line 3");
+        Assertions.assertEquals(19, buffer.getLastLineBreak(), "lastLineBreak");
+        Assertions.assertTrue(buffer.isBlank(19, 20), "isBlank of the empty line");
+        Assertions.assertFalse(buffer.isBlank(17, 20), "isBlank around the empty line");
+
+        LineBuffer copy = buffer.share();
+        buffer.setLength(18);
+        Assertions.assertEquals(2, buffer.getLineCount(), "lineCount after setLength");
+        Assertions.assertEquals(8, buffer.getLastLineBreak(), "lastLineBreak after setLength");
+        Assertions.assertEquals(4, copy.getLineCount(), "lineCount of the copy");
+        Assertions.assertEquals("select a\n     , bb\n\n  from t", copy.toString(), "copy");
+        copy.append(";");
+        Assertions.assertEquals("select a\n     , bb", buffer.toString(), "buffer after appending to the copy");
+        Assertions.assertEquals("select a\n     , bb\n\n  from t;", copy.toString(), "copy after append");
+
+        for (int i = 0; i < 100; i++) {
+            buffer.append("\nline ").append(Integer.toString(i));
+        }
+        Assertions.assertEquals(102, buffer.getLineCount(), "lineCount after growing");
+        Assertions.assertEquals(7, buffer.getLineWidth(101), "width of the last line after growing");
+    }
+
+    /**
+     * Trailing spaces are removed from completed lines and from a beautified single line result, but not from the last
+     * line of a multi line result
+     */
+    @Test
+    void testTrailingSpaces() {
+        RenderMultiLines result = new RenderMultiLines(null, null, null);
+        result.addRenderResult(new RenderItem("select   ", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(9, result.getPosition(), "position before addLine()");
+        Assertions.assertEquals(9, result.getWidth(), "width of the added RenderItem");
+        result.addLine();
+        result.addRenderResult(new RenderItem("a  ", RenderItemType.IDENTIFIER), null);
+        result.removeTrailingSpaces();
+        Assertions.assertEquals(1, result.getPosition(), "position after removeTrailingSpaces()");
+        result.addWhiteSpace();
+        Assertions.assertEquals(6, result.getWidthFirstLine(), "widthFirstLine");
+        Assertions.assertEquals(2, result.getHeight(), "height");
+        Assertions.assertEquals("select\na ", result.toString(), "toString()");
+        Assertions.assertEquals("select\na ", result.beautify(), "beautify() keeps the last line as is");
+
+        RenderMultiLines single = new RenderMultiLines(null, null, null);
+        single.addRenderResult(new RenderItem("x \t ", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals("x", single.beautify(), "beautify() of a single line");
+    }
+
+    /**
+     * A clone shares its text with the original, but modifications of the one must not be visible in the other
+     */
+    @Test
+    void testClone() {
+        RenderMultiLines original = new RenderMultiLines(null, null, null);
+        original.addRenderResult(new RenderItem("select a", RenderItemType.IDENTIFIER), null);
+        original.addLine();
+        original.addRenderResult(new RenderItem(", b  ", RenderItemType.IDENTIFIER), null);
+        RenderMultiLines clone = original.clone();
+        RenderMultiLines secondClone = original.clone();
+
+        clone.removeTrailingSpaces();
+        clone.addRenderResult(new RenderItem(" from t", RenderItemType.IDENTIFIER), null);
+        original.addLine();
+        original.addRenderResult(new RenderItem(", c", RenderItemType.IDENTIFIER), null);
+        secondClone.positionAfterLastNonWhitespace();
+        secondClone.addRenderResult(new RenderItem(";", RenderItemType.SEMI_COLON), null);
+
+        Assertions.assertEquals("select a\n, b from t", clone.beautify(), "clone");
+        Assertions.assertEquals("select a\n, b\n, c", original.beautify(), "original");
+        Assertions.assertEquals("select a\n, b;", secondClone.beautify(), "second clone");
+        Assertions.assertEquals(2, clone.getHeight(), "height of the clone");
+        Assertions.assertEquals(3, original.getHeight(), "height of the original");
+    }
+
+    /**
+     * A multi line RenderResult is merged line by line: its first line completes the current line, its last line
+     * becomes the current line
+     */
+    @Test
+    void testAddMultiLineResult() {
+        RenderMultiLines child = new RenderMultiLines(null, null, null);
+        child.addRenderResult(new RenderItem("(a", RenderItemType.IDENTIFIER), null);
+        child.addLine();
+        child.addRenderResult(new RenderItem(", b", RenderItemType.IDENTIFIER), null);
+        child.addLine();
+        child.addRenderResult(new RenderItem(")", RenderItemType.IDENTIFIER), null);
+
+        RenderMultiLines parent = new RenderMultiLines(null, null, null);
+        parent.addRenderResult(new RenderItem("values ", RenderItemType.IDENTIFIER), null);
+        parent.addRenderResult(child, null);
+        parent.addRenderResult(new RenderItem(";", RenderItemType.SEMI_COLON), null);
+        Assertions.assertEquals(3, parent.getHeight(), "height");
+        Assertions.assertEquals(9, parent.getWidth(), "width");
+        Assertions.assertEquals(9, parent.getWidthFirstLine(), "widthFirstLine");
+        Assertions.assertEquals(2, parent.getPosition(), "position");
+        Assertions.assertEquals("values (a\n, b\n);", parent.beautify());
+        Assertions.assertEquals(2, parent.getPosition(), "position after beautify()");
+    }
+
+    /**
+     * appendTo() must write the same text as beautify(), to any kind of Appendable
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testAppendTo() throws IOException {
+        RenderMultiLines child = new RenderMultiLines(null, null, null);
+        child.addRenderResult(new RenderItem("(a", RenderItemType.IDENTIFIER), null);
+        child.addLine();
+        child.addRenderResult(new RenderItem(", b)", RenderItemType.IDENTIFIER), null);
+
+        RenderMultiLines result = new RenderMultiLines(null, null, null);
+        result.addRenderResult(new RenderItem("values ", RenderItemType.IDENTIFIER), null);
+        result.addRenderResult(child, null);
+        result.addLine();
+        result.addRenderResult(new RenderItem(";", RenderItemType.SEMI_COLON), null);
+        String expected = "values (a\n, b)\n;";
+
+        StringWriter writer = new StringWriter();
+        result.appendTo(writer);
+        Assertions.assertEquals(expected, writer.toString(), "Writer");
+        StringBuilder builder = new StringBuilder("> ");
+        result.appendTo(builder);
+        Assertions.assertEquals("> " + expected, builder.toString(), "StringBuilder");
+        StringBuffer buffer = new StringBuffer();
+        result.appendTo(buffer);
+        Assertions.assertEquals(expected, buffer.toString(), "other Appendable");
+        Assertions.assertEquals(expected, result.beautify(), "beautify()");
+
+        LineBuffer lineBuffer = new LineBuffer();
+        lineBuffer.append("ab\ncd\ne");
+        Assertions.assertEquals(2, lineBuffer.getFirstLineBreak(), "first line break");
+        builder.setLength(0);
+        lineBuffer.appendTo(builder, 1, 6);
+        Assertions.assertEquals("b\ncd\n", builder.toString(), "part of a LineBuffer");
+    }
+
+    /**
+     * CodeFormatter.format() must produce the same text as the joined CodeFormatter.toStringResults(), with and without
+     * tab replacement
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testStreamingFormat() throws IOException {
+        String input = "create function f(a int, b text) returns int as $$\nbegin\n  if a > 1 then\n"
+                + "    return length(b) + a;\n  end if;\n  return 0;\nend;\n$$ language plpgsql;\n"
+                + "select aaaaaaaaaa, bbbbbbbbbb, cccccccccc, dddddddddd, eeeeeeeeee, ffffffffff, gggggggggg\n"
+                + "  from t where x in (1, 2, 3); -- done\n";
+        for (FormatConfiguration config : new FormatConfiguration[] { new FormatConfiguration((Configuration) null),
+                new FormatConfiguration(Paths.get("src/test/resources/regression/config/commaAfterTabs.xml")) }) {
+            StringWriter writer = new StringWriter();
+            CodeFormatter.format(new StringReader(input), config, writer);
+            Assertions.assertEquals(format(input, config), writer.toString());
+        }
+    }
+
+    /**
+     * positionAfterLastNonWhitespace() must remove empty lines at the end, but not the line feed that is to be
+     * preserved
+     */
+    @Test
+    void testPositionAfterLastNonWhitespace() {
+        RenderMultiLines result = new RenderMultiLines(null, null, null);
+        result.addRenderResult(new RenderItem("begin", RenderItemType.IDENTIFIER), null);
+        result.addLine();
+        result.addLine();
+        result.addLine();
+        Assertions.assertEquals(4, result.getHeight(), "height before");
+        result.positionAfterLastNonWhitespace();
+        Assertions.assertEquals(1, result.getHeight(), "height after");
+        Assertions.assertEquals(5, result.getPosition(), "position after");
+        result.addRenderResult(new RenderItem(" end", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals("begin end", result.beautify());
+
+        result = new RenderMultiLines(null, null, null);
+        result.addRenderResult(new RenderItem("-- comment", RenderItemType.COMMENT_LINE), null);
+        result.addLine();
+        result.preserveLineFeed();
+        result.addLine();
+        result.addLine();
+        result.positionAfterLastNonWhitespace();
+        Assertions.assertEquals(3, result.getHeight(), "height with preserved line feed");
+        result.addRenderResult(new RenderItem("x", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals("-- comment\n\nx", result.beautify());
+    }
+
+    /**
+     * The cached position of the parent must be asked again after the parent or one of its parents was modified, but
+     * not after a modification of a child or of a sibling
+     */
+    @Test
+    void testCachedParentPosition() {
+        RenderMultiLines root = new RenderMultiLines(null, null, null);
+        root.addRenderResult(new RenderItem("select ", RenderItemType.IDENTIFIER), null);
+        RenderMultiLines parent = new RenderMultiLines(null, null, root);
+        parent.addRenderResult(new RenderItem("f(", RenderItemType.IDENTIFIER), null);
+        RenderMultiLines child = new RenderMultiLines(null, null, parent);
+        child.addRenderResult(new RenderItem("g(", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(11, child.getPosition(), "child");
+
+        RenderMultiLines sibling = new RenderMultiLines(null, null, parent);
+        sibling.addRenderResult(new RenderItem("xxx", RenderItemType.IDENTIFIER), null);
+        RenderMultiLines grandChild = new RenderMultiLines(null, null, child);
+        grandChild.addRenderResult(new RenderItem("a", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(12, grandChild.getPosition(), "grand child");
+        Assertions.assertEquals(11, child.getPosition(), "child after modification of a sibling and a grand child");
+
+        root.addRenderResult(new RenderItem("distinct ", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(20, child.getPosition(), "child after modification of the root");
+        Assertions.assertEquals(21, grandChild.getPosition(), "grand child after modification of the root");
+        parent.addLine();
+        Assertions.assertEquals(2, child.getPosition(), "child after a line break in the parent");
+        child.positionAt(8);
+        Assertions.assertEquals(8, child.getPosition(), "child after positionAt()");
+        Assertions.assertEquals(9, grandChild.getPosition(), "grand child after positionAt() of the child");
+
+        RenderMultiLines clone = child.clone();
+        clone.addRenderResult(new RenderItem("b", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(9, grandChild.getPosition(), "grand child after modification of a clone of the child");
+        child.addRenderResult(new RenderItem("cc", RenderItemType.IDENTIFIER), null);
+        Assertions.assertEquals(11, grandChild.getPosition(), "grand child after modification of the child");
+    }
+
+    /**
+     * In a chain of nested single line results that ask for their position after every addition, like the nodes do,
+     * every result must ask its parent for its position only once. Without the cached parent position, the whole chain
+     * above would be walked every time, which makes rendering deeply nested code quadratic.
+     */
+    @Test
+    void testDeepNesting() {
+        int depth = 10000;
+        RenderMultiLines deepest = buildNested(depth);
+        Assertions.assertEquals(3 * depth, deepest.getPosition(), "position");
+        Assertions.assertEquals(depth, deepest.getPositionClock().getParentLookups(),
+                "parent lookups in a chain of " + depth + " results");
+    }
+
+    /**
+     * Nests single line RenderMultiLines, asking for the position after every addition
+     *
+     * @param depth
+     *            The number of nested RenderMultiLines
+     * @return RenderMultiLines the deepest one
+     */
+    static RenderMultiLines buildNested(int depth) {
+        RenderMultiLines result = new RenderMultiLines(null, null, null);
+        for (int level = 0; level < depth; level++) {
+            result = new RenderMultiLines(null, null, result);
+            result.addRenderResult(new RenderItem("f(", RenderItemType.IDENTIFIER), null);
+            result.getPosition();
+            result.addRenderResult(new RenderItem("a", RenderItemType.IDENTIFIER), null);
+            result.getPosition();
+        }
+        return result;
+    }
+
+    /**
+     * A shared storage is copied once by the first LineBuffer that appends to it after another one did, and not again
+     * by the next appends. A growing storage doubles its capacity. So the nr of copied characters stays in proportion
+     * to the length of the text, however many clones are made.
+     */
+    @Test
+    void testCopyOnWrite() {
+        LineBuffer original = new LineBuffer();
+        original.append("select a\n     , b");
+        LineBuffer shared = original.share();
+        original.append("\n     , c");
+        Assertions.assertEquals(0, original.getCopiedChars(), "the buffer that covers the storage appends in place");
+        shared.append(" as x");
+        Assertions.assertEquals(17, shared.getCopiedChars(), "the other buffer copies its own text only");
+        shared.append("\n  from t");
+        Assertions.assertEquals(17, shared.getCopiedChars(), "no copy after the first append");
+        Assertions.assertEquals("select a\n     , b\n     , c", original.toString(), "original");
+        Assertions.assertEquals("select a\n     , b as x\n  from t", shared.toString(), "shared");
+
+        LineBuffer truncated = original.share();
+        truncated.setLength(8);
+        original.append(';');
+        Assertions.assertEquals(0, original.getCopiedChars(), "truncating a sharer doesn't affect the storage");
+        truncated.append(';');
+        Assertions.assertEquals(8, truncated.getCopiedChars(), "the truncated sharer copies what is left");
+        Assertions.assertEquals("select a;", truncated.toString(), "truncated");
+
+        LineBuffer growing = new LineBuffer();
+        for (int i = 0; i < 100000; i++) {
+            growing.append(i % 80 == 0 ? '\n' : 'x');
+        }
+        Assertions.assertEquals(100000, growing.length(), "length");
+        Assertions.assertEquals(1251, growing.getLineCount(), "lineCount");
+        Assertions.assertTrue(growing.getCopiedChars() < 2 * growing.length(), "copied " + growing.getCopiedChars()
+                + " characters while appending " + growing.length());
+    }
+
+    /**
+     * Formats sql
+     *
+     * @param sql
+     *            The statement to format
+     * @param config
+     *            The FormatConfiguration to use
+     * @return String the formatted statement
+     * @throws IOException
+     *             Not expected
+     */
+    private static String format(String sql, FormatConfiguration config) throws IOException {
+        return CodeFormatter.toStringResults(new StringReader(sql), config).collect(Collectors.joining());
+    }
+}
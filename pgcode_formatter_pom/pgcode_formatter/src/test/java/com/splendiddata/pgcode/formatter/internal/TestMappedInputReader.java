@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.SourceScanner;
+
+/**
+ * Tests the MappedInputReader against a BufferedReader on an InputStreamReader. The throughput of both is logged by
+ * {@link ScanningBenchmark}.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestMappedInputReader {
+    /**
+     * Reads ASCII, multi byte characters, a supplementary character and malformed input with all kinds of buffer
+     * sizes. The result must be the same as that of an InputStreamReader.
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testDecoding() throws IOException {
+        byte[] bytes = "select 'caf\u00e9', '\u20ac', '\ud83d\ude00', 'x'; -- \u00ff\u0100\n"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] malformed = { 'a', (byte) 0xc3, 'b', (byte) 0xe2, (byte) 0x82, 'c', (byte) 0xed, (byte) 0xa0,
+                (byte) 0x80, (byte) 0xf0, (byte) 0x9f, (byte) 0x98, ' ', (byte) 0xff, (byte) 0xc0, (byte) 0xaf, 'd',
+                (byte) 0xe2 };
+        for (byte[] input : new byte[][] { bytes, malformed }) {
+            String expected = readAll(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8),
+                    8192);
+            for (int bufferSize = 1; bufferSize < 10; bufferSize++) {
+                Assertions.assertEquals(expected,
+                        readAll(MappedInput.wrap(input).openReader(0, input.length), bufferSize),
+                        "buffer size " + bufferSize);
+            }
+        }
+    }
+
+    /**
+     * Reads and scans a generated file through a BufferedReader on an InputStreamReader and through a
+     * MappedInputReader. Both must give the same text and the same number of tokens.
+     *
+     * @param tempDir
+     *            Receives the generated file
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testSameAsInputStreamReader(@TempDir Path tempDir) throws IOException {
+        Path file = writeStatements(tempDir.resolve("statements.sql"), 256 * 1024L);
+        String expected;
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            expected = readAll(reader, 16384);
+        }
+        MappedInput input = MappedInput.map(file);
+        try (Reader reader = input.openReader(0, input.size())) {
+            Assertions.assertEquals(expected, readAll(reader, 16384), "text");
+        }
+
+        long expectedTokens;
+        try (Reader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            expectedTokens = countTokens(reader);
+        }
+        try (Reader reader = input.openReader(0, input.size())) {
+            Assertions.assertEquals(expectedTokens, countTokens(reader), "number of tokens");
+        }
+    }
+
+    /**
+     * Writes a file that repeats a statement until it has the size
+     *
+     * @param file
+     *            The file to write
+     * @param size
+     *            The minimum size of the file in bytes
+     * @return Path the file
+     * @throws IOException
+     *             from the file system
+     */
+    static Path writeStatements(Path file, long size) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            String statement = "select a.column_1, b.column_2 from table_a a join table_b b on b.id = a.id"
+                    + " where a.description = 'some ''quoted'' text' and b.number > 12345; -- a comment\n";
+            for (long written = 0; written < size; written += statement.length()) {
+                writer.write(statement);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Scans the input
+     *
+     * @param reader
+     *            The input
+     * @return long The number of tokens
+     * @throws IOException
+     *             Not expected
+     */
+    static long countTokens(Reader reader) throws IOException {
+        SourceScanner scanner = new FormattingSession().newSourceScanner(reader);
+        long count = 0;
+        for (ScanResult result = scanner.scan(); !result.isEof(); result = scanner.scan()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads all characters from the reader
+     *
+     * @param reader
+     *            The reader to read
+     * @param bufferSize
+     *            The size of the buffer to read into
+     * @return String the content
+     * @throws IOException
+     *             Not expected
+     */
+    private static String readAll(Reader reader, int bufferSize) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[bufferSize];
+        for (int length = reader.read(buffer); length >= 0; length = reader.read(buffer)) {
+            result.append(buffer, 0, length);
+        }
+        return result.toString();
+    }
+}
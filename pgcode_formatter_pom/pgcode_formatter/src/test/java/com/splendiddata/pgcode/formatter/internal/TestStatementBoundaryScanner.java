@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+
+/**
+ * Tests the StatementBoundaryScanner
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestStatementBoundaryScanner {
+
+    /**
+     * Cuts the regression sources and checks that formatting the ranges one by one gives exactly the same result as
+     * formatting the whole source
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testRegressionSources() throws IOException {
+        Path projectDirectory = getProjectDirectory();
+        List<FormatConfiguration> configs = List.of(
+                new FormatConfiguration(Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml")),
+                new FormatConfiguration(
+                        Paths.get(projectDirectory.toString(), "src/test/resources/regression/config/commaAfterTabs.xml")));
+        List<Path> sources;
+        try (Stream<Path> files = Files
+                .walk(Paths.get(projectDirectory.toString(), "src/test/resources/regression/source"))) {
+            sources = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        Assertions.assertFalse(sources.isEmpty(), "No regression sources found");
+
+        int nrOfRanges = 0;
+        for (Path source : sources) {
+            MappedInput input = MappedInput.map(source);
+            List<StatementBoundaryScanner.Range> ranges = StatementBoundaryScanner.scan(input);
+            long expectedStart = 0;
+            for (StatementBoundaryScanner.Range range : ranges) {
+                Assertions.assertEquals(expectedStart, range.getStart(), "range start in " + source);
+                Assertions.assertTrue(range.getEnd() > range.getStart(), "empty range in " + source);
+                expectedStart = range.getEnd();
+            }
+            Assertions.assertEquals(input.size(), expectedStart, "end of the last range in " + source);
+            nrOfRanges += ranges.size();
+
+            for (FormatConfiguration config : configs) {
+                String expected = format(input.openReader(0, input.size()), config);
+                StringBuilder actual = new StringBuilder();
+                for (StatementBoundaryScanner.Range range : ranges) {
+                    actual.append(format(input.openReader(range.getStart(), range.getEnd()), config));
+                }
+                Assertions.assertEquals(expected, actual.toString(), "formatted ranges of " + source + " " + ranges);
+            }
+        }
+        Assertions.assertTrue(nrOfRanges > 2 * sources.size(), "Hardly any cuts: " + nrOfRanges);
+    }
+
+    /**
+     * Formats the concatenated regression sources in parallel parts (see {@link ParallelRenderPipeline}) and checks the
+     * result against formatting the whole input in one go, both with parts that are cut at statement boundaries and
+     * with a part that cannot be cut and is cut into pieces by the cutter thread
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testParallelParts() throws IOException {
+        Path projectDirectory = getProjectDirectory();
+        FormatConfiguration config = new FormatConfiguration(
+                Paths.get(projectDirectory.toString(), "src/main/resources/profiles/elegant.xml"));
+        StringBuilder sources = new StringBuilder();
+        try (Stream<Path> files = Files
+                .walk(Paths.get(projectDirectory.toString(), "src/test/resources/regression/source"))) {
+            for (Path source : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                sources.append(Files.readString(source)).append("\n;\n");
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3 * ParallelRenderPipeline.PART_SIZE) {
+            text.append(sources);
+        }
+        assertParallelFormatting(text.toString(), config);
+
+        text.setLength(0);
+        text.append(sources).append("select (1;\n");
+        while (text.length() <= ParallelRenderPipeline.MAX_PART_SIZE) {
+            text.append("select a, b from t where c = 'd';\n");
+        }
+        text.append(sources);
+        assertParallelFormatting(text.toString(), config);
+    }
+
+    /**
+     * Checks that nextCut() steps through the input like scan() cuts it
+     */
+    @Test
+    void testNextCut() {
+        MappedInput input = MappedInput
+                .wrap("select 1;\nselect 2; -- two\nselect (3;select 4;".getBytes(StandardCharsets.UTF_8));
+        long start = 0;
+        for (StatementBoundaryScanner.Range range : StatementBoundaryScanner.scan(input)) {
+            Assertions.assertEquals(range.getStart(), start, "start of " + range);
+            start = StatementBoundaryScanner.nextCut(input, start);
+            Assertions.assertEquals(range.getEnd(), start, "end of " + range);
+        }
+        Assertions.assertEquals(input.size(), start, "end of input");
+    }
+
+    /**
+     * Checks the cuts around quotes and comments
+     */
+    @Test
+    void testQuotesAndComments() {
+        assertCuts("select 1;\nselect 2;\n", "select 1;\n", "select 2;\n");
+        assertCuts("select 1; -- one\n\nselect 2", "select 1; -- one\n\n", "select 2");
+        assertCuts("select 1; /* one */ select 2;", "select 1; /* one */ ", "select 2;");
+        assertCuts("select 'a;''b';select 2;", "select 'a;''b';", "select 2;");
+        assertCuts("select e'a\\';b';select 2;", "select e'a\\';b';", "select 2;");
+        assertCuts("select \"a;b\";select 2;", "select \"a;b\";", "select 2;");
+        assertCuts("select $$a;b$$;select 2;", "select $$a;b$$;", "select 2;");
+        assertCuts("select $x$a;$y$;$$;$x$;select 2;", "select $x$a;$y$;$$;$x$;", "select 2;");
+        assertCuts("select a$b$;select 2;", "select a$b$;", "select 2;");
+        assertCuts("select /* a /* b */ ; */ 1;select 2;", "select /* a /* b */ ; */ 1;", "select 2;");
+        assertCuts("select 1 -- a;\n;select 2;", "select 1 -- a;\n;", "select 2;");
+        assertCuts("select '\u00e9;';select 2;", "select '\u00e9;';", "select 2;");
+        assertCuts("select 1;\n\n;select 2;", "select 1;\n\n;", "select 2;");
+    }
+
+    /**
+     * Checks that constructs that are not understood by the StatementBoundaryScanner stop the cutting
+     */
+    @Test
+    void testNoMoreCuts() {
+        assertCuts("select 1;select (2;select 3;", "select 1;", "select (2;select 3;");
+        assertCuts("select 1;select 'a;select 3;", "select 1;", "select 'a;select 3;");
+        assertCuts("select 1;select \"a\n;select 3;", "select 1;", "select \"a\n;select 3;");
+        assertCuts("select 1;begin\nselect 2;\nend;", "select 1;", "begin\nselect 2;\nend;");
+        assertCuts("begin;\nselect 2;\n", "begin;\n", "select 2;\n");
+    }
+
+    /**
+     * Checks that the input is cut into the expected parts
+     *
+     * @param text
+     *            The input
+     * @param expected
+     *            The parts in which the input is expected to be cut
+     */
+    private static void assertCuts(String text, String... expected) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<String> actual = StatementBoundaryScanner.scan(MappedInput.wrap(bytes)).stream()
+                .map(range -> new String(bytes, (int) range.getStart(), (int) (range.getEnd() - range.getStart()),
+                        StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        Assertions.assertEquals(List.of(expected), actual, "cuts of: " + text);
+    }
+
+    /**
+     * Checks that formatting the text in parallel parts gives the same result as formatting it in one go
+     *
+     * @param text
+     *            The input
+     * @param config
+     *            The configuration to use
+     * @throws IOException
+     *             Not expected
+     */
+    private static void assertParallelFormatting(String text, FormatConfiguration config) throws IOException {
+        String expected = format(new StringReader(text), config);
+        try (Stream<String> results = CodeFormatter
+                .toStringResults(MappedInput.wrap(text.getBytes(StandardCharsets.UTF_8)), config, 3)) {
+            Assertions.assertEquals(expected, results.collect(Collectors.joining()), "formatted in parallel parts");
+        }
+    }
+
+    /**
+     * Formats the input
+     *
+     * @param reader
+     *            Provides the input
+     * @param config
+     *            The configuration to use
+     * @return String the formatted text
+     * @throws IOException
+     *             Not expected
+     */
+    private static String format(Reader reader, FormatConfiguration config) throws IOException {
+        try (Reader in = reader) {
+            return CodeFormatter.toStringResults(in, config).collect(Collectors.joining());
+        }
+    }
+
+    /**
+     * @return Path the directory that contains the src directory
+     */
+    static Path getProjectDirectory() {
+        Object mavenBaseDir = System.getProperties().get("basedir");
+        if (mavenBaseDir != null) {
+            return Paths.get(mavenBaseDir.toString()).toAbsolutePath();
+        }
+        Path projectDirectory;
+        for (projectDirectory = Paths.get(".").toAbsolutePath().getParent(); projectDirectory != null
+                && !Files.isDirectory(Paths.get(projectDirectory.toString(), "src")); projectDirectory = projectDirectory
+                        .getParent()) {
+            // just searching
+        }
+        return projectDirectory;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.scanner.ScanResult;
+import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
+
+/**
+ * Tests the {@link SymbolTable}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestSymbolTable {
+    /**
+     * Equal texts are interned as the same String, also after the table has grown
+     */
+    @Test
+    public void testIntern() {
+        SymbolTable table = new SymbolTable();
+        Map<String, String> interned = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            String text = new String("identifier_" + i);
+            String symbol = table.intern(text);
+            Assertions.assertEquals(text, symbol, "the interned text");
+            interned.put(text, symbol);
+        }
+        Assertions.assertEquals(10000, table.size(), "the nr of symbols");
+        for (Map.Entry<String, String> entry : interned.entrySet()) {
+            Assertions.assertSame(entry.getValue(), table.intern(new String(entry.getKey())),
+                    () -> "interned again: " + entry.getKey());
+        }
+        Assertions.assertEquals(10000, table.size(), "no new symbols");
+    }
+
+    /**
+     * The scanner interns identifiers in the symbol table of the session, which is shared by nested sessions
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testScannedIdentifiers() throws IOException {
+        FormattingSession session = new FormattingSession();
+        Map<String, String> identifiers = new HashMap<>();
+        ScanResult node = session.newSourceScanner(
+                new StringReader("select a, \"B\", public.t.a from public.t where a = \"B\" and 'a' <> 'public';"))
+                .scan();
+        for (; !node.isEof(); node = node.getNext()) {
+            if (node.is(ScanResultType.IDENTIFIER) || node.is(ScanResultType.DOUBLE_QUOTED_IDENTIFIER)) {
+                String text = node.getText();
+                identifiers.putIfAbsent(text, text);
+                Assertions.assertSame(identifiers.get(text), text, () -> "the same String for " + text);
+            }
+        }
+        Assertions.assertEquals(identifiers.size(), session.getSymbolTable().size(), "the nr of symbols");
+
+        FormattingSession nestedSession = session.newNestedSession("$$");
+        Assertions.assertSame(session.getSymbolTable(), nestedSession.getSymbolTable(),
+                "a nested session shares the symbol table");
+        node = nestedSession.newSourceScanner(new StringReader("public")).scan();
+        Assertions.assertSame(identifiers.get("public"), node.getText(), "interned in the nested session");
+        Assertions.assertNotSame(session.getSymbolTable(), new FormattingSession().getSymbolTable(),
+                "another session has a symbol table of its own");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.internal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+
+/**
+ * Tests the {@link TabReplacer} via {@link Util#performTabReplacement(FormatConfiguration, String)}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestTabReplacer {
+    /**
+     * @param tabs
+     *            tabsOrSpaces of the tabs setting
+     * @param indent
+     *            tabsOrSpaces of the indent setting
+     * @return FormatConfiguration with a tab width of 4
+     */
+    private static FormatConfiguration config(String tabs, String indent) {
+        return new FormatConfiguration("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<ns2:configuration xmlns:ns2=\"http://www.splendiddata.com/plpgsql-code-formatter/1.0/\">"
+                + "<tabs tabWidth=\"4\" tabsOrSpaces=\"" + tabs + "\" />"
+                + "<indent indentWidth=\"4\" tabsOrSpaces=\"" + indent + "\" /></ns2:configuration>", "test");
+    }
+
+    /**
+     * With tabs, spaces that end at a tab position are replaced, except in literals and quoted identifiers. Tab
+     * positions are counted again after every literal and quoted identifier, and from the start of every comment.
+     */
+    @Test
+    public void testTabs() {
+        FormatConfiguration config = config("tabs", "tabs");
+        Assertions.assertEquals("select\ta,\n\t\tb\tfrom\tt;",
+                Util.performTabReplacement(config, "select  a,\n        b   from    t;"), "plain text");
+        Assertions.assertEquals("x\t'a       b'  \"c       d\"  E'\\'      '  $q$     $q$;",
+                Util.performTabReplacement(config,
+                        "x   'a       b'  \"c       d\"  E'\\'      '  $q$     $q$;"),
+                "literals and quoted identifiers are left alone, the text after them starts at a tab position");
+        Assertions.assertEquals("x\t/* a\t*/  -- b\tc\n\tz", Util.performTabReplacement(config,
+                "x   /* a    */  -- b    c\n    z"), "comments are replaced from their start");
+        Assertions.assertEquals("a$$b\tc$$ $$    $$", Util.performTabReplacement(config, "a$$b    c$$ $$    $$"),
+                "a $ that continues a word doesn't start a dollar quoted string");
+    }
+
+    /**
+     * With tabs for the indent only, only the spaces at the start of lines are replaced
+     */
+    @Test
+    public void testLeadingSpaces() {
+        FormatConfiguration config = config("spaces", "tabs");
+        Assertions.assertEquals("select  a,\n\t\t  b    from    t;",
+                Util.performTabReplacement(config, "select  a,\n          b    from    t;"), "plain text");
+        Assertions.assertEquals("x = '\n         y';\n\tz", Util.performTabReplacement(config,
+                "x = '\n         y';\n    z"), "a literal is left alone");
+    }
+
+    /**
+     * Only the characters up to U+00FF can be part of an identifier, like in the FormattedSourceScanner. So $$ after a
+     * Cyrillic or Chinese character starts a dollar quoted string, and after a Latin-1 letter it doesn't. The expected texts
+     * are those of the tab replacement that split the text with a FormattedSourceScanner.
+     */
+    @Test
+    public void testNonLatin1() {
+        FormatConfiguration tabs = config("tabs", "tabs");
+        FormatConfiguration indent = config("spaces", "tabs");
+        String name = "\u0438\u043c\u044f";
+        String data = "\u6570\u636e";
+        String table = "\u0442\u0430\u0431\u043b\u0438\u0446\u0430";
+        String text = "select  " + name + ",\n        " + data + "    from    " + table + ";";
+        Assertions.assertEquals("select\t" + name + ",\n\t\t" + data + "\t  from\t  " + table + ";",
+                Util.performTabReplacement(tabs, text), "identifiers with tabs");
+        Assertions.assertEquals("select  " + name + ",\n\t\t" + data + "    from    " + table + ";",
+                Util.performTabReplacement(indent, text), "identifiers with leading tabs");
+        Assertions.assertEquals("x\t\u53d8$$a    b$$  y", Util.performTabReplacement(tabs, "x   \u53d8$$a    b$$  y"),
+                "a dollar quoted string after a Chinese character");
+        Assertions.assertEquals("x\t\u00e9$$a\tb$$  y", Util.performTabReplacement(tabs, "x   \u00e9$$a    b$$  y"),
+                "$$ that continues a word with a Latin-1 character");
+    }
+
+    /**
+     * A string or double quoted identifier that isn't closed runs to the end of the text and is left alone, like the
+     * FormattedSourceScanner makes it a literal. The tab replacement that used the scanner added the missing closing
+     * delimiter; that is the only difference. A double quoted identifier is not ended by a line feed either, but the
+     * line feed is kept, where the scanner turned it into an error. An escape string starts with a capital E.
+     */
+    @Test
+    public void testUnterminated() {
+        FormatConfiguration tabs = config("tabs", "tabs");
+        Assertions.assertEquals("x\t'a       b", Util.performTabReplacement(tabs, "x   'a       b"), "literal");
+        Assertions.assertEquals("x\t\"a       b", Util.performTabReplacement(tabs, "x   \"a       b"),
+                "double quoted identifier");
+        Assertions.assertEquals("x\t$q$a       b", Util.performTabReplacement(tabs, "x   $q$a       b"),
+                "dollar quoted string");
+        Assertions.assertEquals("x\tE'a       b", Util.performTabReplacement(tabs, "x   e'a       b"), "escape string");
+        Assertions.assertEquals("x\tE'a       b'  y", Util.performTabReplacement(tabs, "x   e'a       b'  y"),
+                "closed escape string");
+        Assertions.assertEquals("x\t\"a\n    b\"  y", Util.performTabReplacement(tabs, "x   \"a\n    b\"  y"),
+                "double quoted identifier with a line feed");
+        Assertions.assertEquals("x   E'a       b",
+                Util.performTabReplacement(config("spaces", "tabs"), "x   e'a       b"), "escape string, leading tabs");
+    }
+
+    /**
+     * Without tabs, the text is returned as is
+     */
+    @Test
+    public void testSpaces() {
+        String text = "select  a,\n        b   from    t;";
+        Assertions.assertSame(text, Util.performTabReplacement(config("spaces", "spaces"), text), "unchanged");
+    }
+}
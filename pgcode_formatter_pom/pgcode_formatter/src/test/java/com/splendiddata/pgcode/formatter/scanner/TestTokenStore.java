@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.scanner;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+
+/**
+ * Tests the ScanResultImpls as views on the {@link TokenStore}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestTokenStore {
+    /**
+     * Scans enough tokens to fill a number of blocks, with short and long texts, and checks that they are returned
+     * unchanged and that no String is created more than once for a text
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testManyTokens() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append(i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            input.append("select f").append(i).append("(x, ");
+            if (i % 100 == 0) {
+                input.append('\'').append(longText).append('\'');
+            } else {
+                input.append('\'').append(i).append('\'');
+            }
+            input.append(") from t;\n");
+        }
+        StringBuilder output = new StringBuilder();
+        int tokens = 0;
+        ScanResult node = new SourceScannerImpl(new StringReader(input.toString())).scan();
+        for (; !node.isEof(); node = node.getNext()) {
+            output.append(node);
+            tokens++;
+            Assertions.assertSame(node.getText(), node.getText(), "the text is created once");
+            if (node.is(ScanResultType.OPENING_PARENTHESIS)) {
+                Assertions.assertEquals(1, node.getParenthesisLevel(), "parenthesis level after (");
+            } else if (node.is(ScanResultType.SEMI_COLON)) {
+                Assertions.assertEquals(0, node.getParenthesisLevel(), "parenthesis level after ;");
+            }
+        }
+        Assertions.assertEquals(input.toString(), output.toString(), "the texts of all tokens");
+        Assertions.assertEquals(5000 * 15, tokens, "the nr of tokens");
+        Assertions.assertNull(node.getNext(), "nothing after eof");
+    }
+
+    /**
+     * Checks that the begin/end level can be changed and that a list that is cut does not continue scanning
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testModifications() throws IOException {
+        ScanResult first = new SourceScannerImpl(new StringReader("begin a; end;")).scan();
+        Assertions.assertEquals(1, first.getBeginEndLevel(), "begin/end level after begin");
+        first.setBeginEndLevel(5);
+        Assertions.assertEquals(5, first.getBeginEndLevel(), "modified begin/end level");
+
+        ScanResult second = first.getNext();
+        Assertions.assertEquals(ScanResultType.WHITESPACE, second.getType(), "second token");
+        Assertions.assertEquals(1, second.getBeginEndLevel(), "begin/end level of the next token is not modified");
+        first.setNext(null);
+        Assertions.assertNull(first.getNext(), "a token that is cut off does not scan again");
+        Assertions.assertEquals("a", second.getNext().getText(), "the token after the whitespace");
+        Assertions.assertSame(second.getNext(), second.getNext(), "the next token is only scanned once");
+    }
+
+    /**
+     * The tokens must not keep the scanner alive once the input is scanned completely, but they must still know the
+     * session
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testScannerReleasedAtEof() throws IOException {
+        FormattingSession session = new FormattingSession();
+        SourceScanner scanner = session.newSourceScanner(new StringReader("select 1;"));
+        TokenStore store = scanner.getTokenStore();
+        ScanResult first = scanner.scan();
+        Assertions.assertSame(scanner, store.getScanner(), "the scanner while scanning");
+        ScanResult node = first;
+        while (!node.isEof()) {
+            node = node.getNext();
+        }
+        Assertions.assertNull(store.getScanner(), "the scanner after eof");
+        Assertions.assertSame(session, first.getSession(), "the session after eof");
+        Assertions.assertNull(node.getNext(), "nothing after eof");
+    }
+}
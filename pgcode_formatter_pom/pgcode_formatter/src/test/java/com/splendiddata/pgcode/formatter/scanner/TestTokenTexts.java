@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.scanner;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.internal.FormattingSession;
+
+/**
+ * Checks the texts of the tokens of the scanners. The throughput of the scanners is logged by
+ * {@link com.splendiddata.pgcode.formatter.internal.ScanningBenchmark}.
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestTokenTexts {
+    /**
+     * A bit of everything: identifiers, keywords, words, quoted identifiers, literals, escape strings, dollar quoted
+     * strings, comments and punctuation
+     */
+    public static final String STATEMENTS = "select a.column_1, b.\"Column 2\" from table_a a"
+            + " join table_b b on b.id = a.id where a.description = 'some ''quoted'' text' and b.number > 12345;"
+            + " -- a comment\n"
+            + "/* a /* nested */ comment */ select E'it\\'s \\\\ an ''escape'' string\\n', $q$dollar $ quoted$q$;\n"
+            + "do $$begin if not exists (select 1 from pg_class) then raise notice 'none'; end if; end$$;\n";
+
+    /**
+     * The texts of the tokens are the parts of the input
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    void testTokenTexts() throws IOException {
+        StringBuilder escapeString = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            escapeString.append("line ").append(i).append("\\n\\'");
+        }
+        String input = STATEMENTS + "select E'" + escapeString + "', '" + escapeString + "';\n" + STATEMENTS;
+        for (SourceScanner scanner : newScanners(input)) {
+            StringBuilder output = new StringBuilder();
+            ScanResult token = scanner.scan();
+            for (; !token.isEof(); token = token.getNext()) {
+                if (token.is(ScanResultType.ESCAPE_STRING)) {
+                    output.append("E'").append(token.getText()).append('\'');
+                } else {
+                    output.append(token);
+                }
+            }
+            Assertions.assertEquals(input, output.toString(), "the texts of the tokens");
+        }
+    }
+
+    /**
+     * @param input
+     *            The text to scan
+     * @return SourceScanner[] a SourceScanner and a FormattedSourceScanner on the input
+     */
+    public static SourceScanner[] newScanners(String input) {
+        return new SourceScanner[] { new FormattingSession().newSourceScanner(new StringReader(input)),
+                new FormattingSession().newFormattedSourceScanner(new StringReader(input)) };
+    }
+}
@@ -33,6 +33,7 @@ import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.IntegerValueOption;
 import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.ObjectFactory;
 import com.splendiddata.pgcode.formatter.internal.FormatContext;
+import com.splendiddata.pgcode.formatter.internal.LayoutOptimizer;
 import com.splendiddata.pgcode.formatter.internal.PostgresInputReader;
 import com.splendiddata.pgcode.formatter.internal.Util;
 import com.splendiddata.pgcode.formatter.scanner.ScanResultType;
@@ -145,6 +146,51 @@ public class TestCommaSeparatedList {
                 testList.beautify(formatContext, null, config).beautify(), Util.xmlBeanToString(csListConfig));
     }
 
+    /**
+     * With a LayoutOptimizer, a limit with a lower weight is not just ignored when it conflicts with a limit with a
+     * higher weight
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void optimizedWeights() throws IOException {
+        FormatContext formatContext = new FormatContext(config, null);
+        CommaSeparatedListGroupingType csListConfig = settingsFactory.createCommaSeparatedListGroupingType();
+        csListConfig.setCommaBeforeOrAfter(BeforeOrAfterType.BEFORE);
+        CommaSeparatedListIndentType indentType = settingsFactory.createCommaSeparatedListIndentType();
+        indentType.setValue(CommaSeparatedListIndentOption.UNDER_FIRST_ARGUMENT);
+        indentType.setWeight(Float.valueOf(5));
+        csListConfig.setIndent(indentType);
+        IntegerValueOption maxArgumentsPerGroup = settingsFactory.createIntegerValueOption();
+        maxArgumentsPerGroup.setValue(4);
+        maxArgumentsPerGroup.setWeight(Float.valueOf(10));
+        csListConfig.setMaxArgumentsPerGroup(maxArgumentsPerGroup);
+        IntegerValueOption maxGroupLength = settingsFactory.createIntegerValueOption();
+        maxGroupLength.setValue(30);
+        maxGroupLength.setWeight(Float.valueOf(5));
+        csListConfig.setMaxLengthOfGroup(maxGroupLength);
+        IntegerValueOption maxSingleLineLength = settingsFactory.createIntegerValueOption();
+        maxSingleLineLength.setValue(100);
+        maxSingleLineLength.setWeight(Float.valueOf(5));
+        csListConfig.setMaxSingleLineLength(maxSingleLineLength);
+        csListConfig.setMultilineClosingParenOnNewLine(Boolean.FALSE);
+        csListConfig.setMultilineOpeningParenBeforeArgument(Boolean.TRUE);
+        formatContext.setCommaSeparatedListGrouping(csListConfig);
+        LayoutOptimizer optimizer = new LayoutOptimizer(1000L);
+        formatContext.setLayoutOptimizer(optimizer);
+
+        String src = "'element 1', 'element 2', 'element 3', 'element 4', 'element 5', 'element 6', 'element 7', 'element 8', 'element 9', 'element 10'";
+        try (PostgresInputReader reader = new PostgresInputReader(new StringReader(src))) {
+            CommaSeparatedList list = CommaSeparatedList.withArbitraryEnd(reader.getFirstResult(),
+                    node -> PostgresInputReader.interpretStatementBody(node), node -> false);
+            Assertions.assertEquals(
+                    "'element 1', 'element 2'\n, 'element 3', 'element 4'\n, 'element 5', 'element 6'\n, 'element 7', 'element 8'\n, 'element 9', 'element 10'",
+                    list.beautify(formatContext, null, config).beautify(), Util.xmlBeanToString(csListConfig));
+        }
+        Assertions.assertEquals(1, optimizer.getOptimizedLists(), "optimizedLists");
+    }
+
     @Test
     public void testSomeNesting() throws IOException {
         FormatContext formatContext = new FormatContext(config, null);
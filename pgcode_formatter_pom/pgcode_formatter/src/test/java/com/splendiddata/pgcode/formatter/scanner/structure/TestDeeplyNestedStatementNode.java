@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Splendid Data Product Development B.V. 2020 - 2022
+ *
+ * This program is free software: You may redistribute and/or modify under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the License, or (at Client's option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, Client should
+ * obtain one via www.gnu.org/licenses/.
+ */
+
+package com.splendiddata.pgcode.formatter.scanner.structure;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.splendiddata.pgcode.formatter.CodeFormatter;
+import com.splendiddata.pgcode.formatter.FormatConfiguration;
+import com.splendiddata.pgcode.formatter.LayoutEngine;
+import com.splendiddata.pgcode.formatter.configuration.xml.v1_0.Configuration;
+
+/**
+ * Tests that very deeply nested statements and very long chains of unions and of logical operators are formatted
+ * without exhausting a small stack, see {@link DeeplyNestedStatementNode}
+ *
+ * @author Splendid Data Product Development B.V.
+ * @since 0.3.2
+ */
+public class TestDeeplyNestedStatementNode {
+    private static final int DEPTH = 10000;
+
+    /**
+     * The stack size of the thread that formats, which is far too small for 10000 levels of recursion
+     */
+    private static final long STACK_SIZE = 512L * 1024L;
+
+    /**
+     * Returns the text with n times the prefix before and n times the suffix after the content
+     *
+     * @param n
+     *            The nr of repetitions
+     * @param prefix
+     *            Text that is repeated before the content
+     * @param content
+     *            The text in the middle
+     * @param suffix
+     *            Text that is repeated after the content
+     * @return String the nested text
+     */
+    private static String nested(int n, String prefix, String content, String suffix) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            result.append(prefix);
+        }
+        result.append(content);
+        for (int i = 0; i < n; i++) {
+            result.append(suffix);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Formats the input in a thread with a stack of STACK_SIZE
+     *
+     * @param input
+     *            The sql to format
+     * @param config
+     *            The configuration to format with
+     * @return String the formatted sql
+     * @throws InterruptedException
+     *             Not expected
+     */
+    private static String format(String input, FormatConfiguration config) throws InterruptedException {
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(CodeFormatter.toStringResults(new StringReader(input), config)
+                        .collect(Collectors.joining()));
+            } catch (IOException | RuntimeException | Error e) {
+                result.set(e);
+            }
+        }, "TestDeeplyNestedStatementNode", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (result.get() instanceof Throwable) {
+            Assertions.fail("formatting failed: " + result.get(), (Throwable) result.get());
+        }
+        return (String) result.get();
+    }
+
+    /**
+     * Checks that the output contains the same words as the input and that no line is wider than the line width,
+     * apart from end of line comments
+     *
+     * @param description
+     *            Describes the statement
+     * @param config
+     *            The configuration to format with
+     * @param input
+     *            The statement
+     * @return String the formatted statement
+     * @throws InterruptedException
+     *             Not expected
+     */
+    private static String check(String description, FormatConfiguration config, String input)
+            throws InterruptedException {
+        String output = format(input, config);
+        Assertions.assertEquals(input.replaceAll("\\s+", "").toLowerCase(), output.replaceAll("\\s+", "").toLowerCase(),
+                () -> description + ": the same words");
+        int lineWidth = config.getCompiled().getLineWidth();
+        for (String line : output.split("\n")) {
+            // An end of line comment is not moved to the next line
+            Assertions.assertTrue(line.replaceFirst(" ?--.*", "").length() <= lineWidth,
+                    () -> description + ": line too wide: " + line);
+        }
+        return output;
+    }
+
+    /**
+     * Statements that are nested 10000 levels deep
+     *
+     * @throws InterruptedException
+     *             Not expected
+     */
+    @Test
+    void testDeepNesting() throws InterruptedException {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        FormatConfiguration documentConfig = new FormatConfiguration((Configuration) null)
+                .setLayoutEngine(LayoutEngine.DOCUMENT);
+        String[][] shapes = { { "parentheses", "select ", "(", "a", ")", ";\n" },
+                { "expressions", "select ", "(a + ", "b", ")", ";\n" },
+                { "function calls", "select ", "coalesce(a, ", "b", ")", ";\n" },
+                { "sub queries", "select * from ", "(select * from ", "t", ") s", ";\n" } };
+        for (String[] shape : shapes) {
+            String input = shape[1] + nested(DEPTH, shape[2], shape[3], shape[4]) + shape[5];
+            String output = check(shape[0], config, input);
+            Assertions.assertTrue(output.startsWith(shape[1]), () -> shape[0] + ": starts with " + shape[1]);
+            check(shape[0] + " document", documentConfig, input);
+        }
+
+        String input = "select (((a))) from t -- comment\n;\nselect 1;\n";
+        Assertions.assertEquals("select (((a)))\nfrom t -- comment\n;\nselect 1;\n", format(input, config),
+                "shallow statements are not affected");
+
+        input = "select " + nested(DeeplyNestedStatementNode.MAX_NESTING_DEPTH + 1, "(", "a", ")")
+                + " -- end of line comment\nfrom t;\nselect 1;\n";
+        String output = check("comment", config, input);
+        Assertions.assertTrue(output.contains(" -- end of line comment\n    from t;\nselect 1;\n"),
+                () -> "a line break after the comment: " + output);
+    }
+
+    /**
+     * Long chains of unions and of logical operators
+     *
+     * @throws InterruptedException
+     *             Not expected
+     */
+    @Test
+    void testLongChains() throws InterruptedException {
+        FormatConfiguration config = new FormatConfiguration((Configuration) null);
+        IntFunction<String> union = i -> (i == 0 ? "" : " union all ") + "select a" + i + " from t" + i;
+        String output = check("union", config,
+                IntStream.range(0, DEPTH).mapToObj(union).collect(Collectors.joining()) + ";\n");
+        Assertions.assertEquals(DEPTH - 1, output.split("\nunion all\n", -1).length - 1,
+                "every union all on a line of its own, without indentation");
+
+        IntFunction<String> parenthesizedUnion = i -> (i == 0 ? "" : " union ") + "(select a" + i + " from t" + i
+                + ")";
+        check("parenthesized union", config,
+                IntStream.range(0, DEPTH).mapToObj(parenthesizedUnion).collect(Collectors.joining())
+                        + ";\n");
+
+        IntFunction<String> condition = i -> (i == 0 ? "" : i % 2 == 0 ? " and " : " or ") + "c" + i + " = " + i;
+        check("logical operators", config, "select a from t where "
+                + IntStream.range(0, DEPTH).mapToObj(condition).collect(Collectors.joining())
+                + ";\n");
+    }
+}
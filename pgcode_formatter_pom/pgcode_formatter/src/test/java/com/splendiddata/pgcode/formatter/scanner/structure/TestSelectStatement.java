@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.StringReader;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedTest;
 
@@ -139,4 +140,26 @@ public class TestSelectStatement {
                     stmt.beautify(new FormatContext(config, null), null, config).beautify(), "beautify on " + src);
         }
     }
+
+    /**
+     * The single-line width is measured once per configuration, and a measurement with a maximum width may give up
+     *
+     * @throws IOException
+     *             Not expected
+     */
+    @Test
+    public void testSingleLineWidth() throws IOException {
+        String src = "select a, b, upper(c) from some_table";
+        try (PostgresInputReader reader = new PostgresInputReader(new StringReader(src))) {
+            SelectStatement stmt = new SelectStatement(reader.getFirstResult());
+            FormatConfiguration config = new FormatConfiguration((Configuration) null);
+            Assertions.assertEquals(-1, stmt.getSingleLineWidth(config, 10), "getSingleLineWidth(config, 10)");
+            int width = stmt.getSingleLineWidth(config);
+            Assertions.assertTrue(width >= src.length(), "getSingleLineWidth(config) = " + width);
+            Assertions.assertEquals(width, stmt.getSingleLineWidth(config), "getSingleLineWidth(config) again");
+            Assertions.assertEquals(width, stmt.getSingleLineWidth(config, width), "getSingleLineWidth(config, width)");
+            Assertions.assertEquals(-1, stmt.getSingleLineWidth(config, width - 1),
+                    "getSingleLineWidth(config, width - 1)");
+        }
+    }
 }